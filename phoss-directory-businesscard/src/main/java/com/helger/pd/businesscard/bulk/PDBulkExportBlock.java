@@ -0,0 +1,86 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.businesscard.bulk;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * An entry of the block index of a binary bulk export.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@Immutable
+public final class PDBulkExportBlock
+{
+  private final long m_nOffset;
+  private final int m_nRecordCount;
+
+  public PDBulkExportBlock (@Nonnegative final long nOffset, @Nonnegative final int nRecordCount)
+  {
+    ValueEnforcer.isGE0 (nOffset, "Offset");
+    ValueEnforcer.isGT0 (nRecordCount, "RecordCount");
+    m_nOffset = nOffset;
+    m_nRecordCount = nRecordCount;
+  }
+
+  /**
+   * @return The absolute offset of the block header in the file. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getOffset ()
+  {
+    return m_nOffset;
+  }
+
+  /**
+   * @return The number of participants contained in the block. Always &gt; 0.
+   */
+  @Nonnegative
+  public int getRecordCount ()
+  {
+    return m_nRecordCount;
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final PDBulkExportBlock rhs = (PDBulkExportBlock) o;
+    return m_nOffset == rhs.m_nOffset && m_nRecordCount == rhs.m_nRecordCount;
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (m_nOffset).append (m_nRecordCount).getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Offset", m_nOffset).append ("RecordCount", m_nRecordCount).getToString ();
+  }
+}
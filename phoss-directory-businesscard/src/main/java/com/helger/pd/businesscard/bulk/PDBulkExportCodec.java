@@ -0,0 +1,316 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.businesscard.bulk;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.DateTimeException;
+import java.time.LocalDate;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.pd.businesscard.generic.PDBusinessCard;
+import com.helger.pd.businesscard.generic.PDBusinessEntity;
+import com.helger.pd.businesscard.generic.PDContact;
+import com.helger.pd.businesscard.generic.PDIdentifier;
+import com.helger.pd.businesscard.generic.PDName;
+
+/**
+ * Constants and shared encoding logic of the binary bulk export format.<br>
+ * Layout of a file:
+ * <ul>
+ * <li>Header: the 4 magic bytes and the format version (int)</li>
+ * <li>Blocks: each block consists of the compressed size (int), the
+ * uncompressed size (int) and the record count (int), followed by the Deflate
+ * compressed payload. The payload contains all strings that were added to the
+ * string table in this block, followed by the records.</li>
+ * <li>End of blocks: a compressed size of 0</li>
+ * <li>Trailer: the complete string table, the block index and the total record
+ * count</li>
+ * <li>Footer: the offset of the trailer (long) and the 4 magic bytes</li>
+ * </ul>
+ * Sequential readers build the string table from the blocks, so no seeking is
+ * required. Random access readers use the string table and block index from
+ * the trailer, so that blocks can be decoded independently and in
+ * parallel.<br>
+ * Inside the payload all numbers are unsigned variable length integers.
+ * Strings are stored with their UTF-8 length plus one, so that 0 represents
+ * <code>null</code>. String table references are stored as index plus one.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@Immutable
+final class PDBulkExportCodec
+{
+  static final byte [] MAGIC = { 'P', 'D', 'B', 'X' };
+  static final int VERSION = 1;
+  static final int HEADER_SIZE = MAGIC.length + 4;
+  static final int BLOCK_HEADER_SIZE = 3 * 4;
+  static final int FOOTER_SIZE = 8 + MAGIC.length;
+  /** Upper limit for the size of a single block to detect corrupt data */
+  static final int MAX_BLOCK_BYTES = 256 * 1024 * 1024;
+
+  private PDBulkExportCodec ()
+  {}
+
+  static void writeVarInt (@Nonnull final OutputStream aOS, @Nonnegative final int n) throws IOException
+  {
+    int nRest = n;
+    while ((nRest & ~0x7f) != 0)
+    {
+      aOS.write ((nRest & 0x7f) | 0x80);
+      nRest >>>= 7;
+    }
+    aOS.write (nRest);
+  }
+
+  static void writeString (@Nonnull final OutputStream aOS, @Nullable final String s) throws IOException
+  {
+    if (s == null)
+      writeVarInt (aOS, 0);
+    else
+    {
+      final byte [] aBytes = s.getBytes (StandardCharsets.UTF_8);
+      writeVarInt (aOS, aBytes.length + 1);
+      aOS.write (aBytes);
+    }
+  }
+
+  @Nonnegative
+  static int readVarInt (@Nonnull final ByteBuffer aBB) throws IOException
+  {
+    int ret = 0;
+    int nShift = 0;
+    while (true)
+    {
+      if (!aBB.hasRemaining ())
+        throw new EOFException ("Unexpected end of block");
+      final byte b = aBB.get ();
+      ret |= (b & 0x7f) << nShift;
+      if ((b & 0x80) == 0)
+        break;
+      nShift += 7;
+      if (nShift > 28)
+        throw new IOException ("Malformed variable length integer");
+    }
+    if (ret < 0)
+      throw new IOException ("Variable length integer out of range");
+    return ret;
+  }
+
+  @Nullable
+  static String readString (@Nonnull final ByteBuffer aBB) throws IOException
+  {
+    final int nLen = readVarInt (aBB);
+    if (nLen == 0)
+      return null;
+    final int nBytes = nLen - 1;
+    if (nBytes > aBB.remaining ())
+      throw new EOFException ("String exceeds the block");
+    final String ret = new String (aBB.array (), aBB.arrayOffset () + aBB.position (), nBytes, StandardCharsets.UTF_8);
+    aBB.position (aBB.position () + nBytes);
+    return ret;
+  }
+
+  @Nullable
+  private static String _readStringRef (@Nonnull final ByteBuffer aBB, @Nonnull final ICommonsList <String> aStringTable) throws IOException
+  {
+    final int nRef = readVarInt (aBB);
+    if (nRef == 0)
+      return null;
+    if (nRef > aStringTable.size ())
+      throw new IOException ("Invalid string table reference " + (nRef - 1));
+    return aStringTable.get (nRef - 1);
+  }
+
+  @Nullable
+  private static LocalDate _readDate (@Nonnull final ByteBuffer aBB) throws IOException
+  {
+    if (readVarInt (aBB) == 0)
+      return null;
+    // Zig-zag encoded epoch day
+    final int n = readVarInt (aBB);
+    return LocalDate.ofEpochDay ((n >>> 1) ^ -(n & 1));
+  }
+
+  static int getZigZagEncoded (final int n)
+  {
+    return (n << 1) ^ (n >> 31);
+  }
+
+  @Nonnull
+  private static PDBulkExportParticipant _readParticipant (@Nonnull final ByteBuffer aBB,
+                                                           @Nonnull final ICommonsList <String> aStringTable) throws IOException
+  {
+    final String sParticipantScheme = _readStringRef (aBB, aStringTable);
+    final String sParticipantValue = readString (aBB);
+    final PDBusinessCard aBC = new PDBusinessCard ().setParticipantIdentifier (new PDIdentifier (sParticipantScheme,
+                                                                                                   sParticipantValue));
+    final int nEntityCount = readVarInt (aBB);
+    for (int i = 0; i < nEntityCount; ++i)
+    {
+      final PDBusinessEntity aEntity = new PDBusinessEntity ();
+      final int nNameCount = readVarInt (aBB);
+      for (int j = 0; j < nNameCount; ++j)
+      {
+        final String sName = readString (aBB);
+        final String sLanguageCode = _readStringRef (aBB, aStringTable);
+        aEntity.names ().add (new PDName (sName, sLanguageCode));
+      }
+      aEntity.setCountryCode (_readStringRef (aBB, aStringTable));
+      aEntity.setGeoInfo (readString (aBB));
+      final int nIDCount = readVarInt (aBB);
+      for (int j = 0; j < nIDCount; ++j)
+      {
+        final String sScheme = _readStringRef (aBB, aStringTable);
+        aEntity.identifiers ().add (new PDIdentifier (sScheme, readString (aBB)));
+      }
+      final int nWebsiteCount = readVarInt (aBB);
+      for (int j = 0; j < nWebsiteCount; ++j)
+        aEntity.websiteURIs ().add (readString (aBB));
+      final int nContactCount = readVarInt (aBB);
+      for (int j = 0; j < nContactCount; ++j)
+      {
+        final String sType = _readStringRef (aBB, aStringTable);
+        final String sName = readString (aBB);
+        final String sPhone = readString (aBB);
+        aEntity.contacts ().add (new PDContact (sType, sName, sPhone, readString (aBB)));
+      }
+      aEntity.setAdditionalInfo (readString (aBB));
+      aEntity.setRegistrationDate (_readDate (aBB));
+      aBC.businessEntities ().add (aEntity);
+    }
+
+    final PDBulkExportParticipant ret = new PDBulkExportParticipant (aBC);
+    final int nDocTypeCount = readVarInt (aBB);
+    for (int i = 0; i < nDocTypeCount; ++i)
+    {
+      final String sScheme = _readStringRef (aBB, aStringTable);
+      ret.documentTypeIDs ().add (new PDIdentifier (sScheme, _readStringRef (aBB, aStringTable)));
+    }
+    return ret;
+  }
+
+  /**
+   * Decompress the payload of a single block.
+   *
+   * @param aCompressed
+   *        The compressed payload. May not be <code>null</code>.
+   * @param nUncompressedSize
+   *        The expected uncompressed size as stored in the block header.
+   * @return The uncompressed payload. Never <code>null</code>.
+   * @throws IOException
+   *         If the payload is corrupt
+   */
+  @Nonnull
+  static byte [] inflate (@Nonnull final byte [] aCompressed, @Nonnegative final int nUncompressedSize) throws IOException
+  {
+    final byte [] ret = new byte [nUncompressedSize];
+    final Inflater aInflater = new Inflater ();
+    try
+    {
+      aInflater.setInput (aCompressed);
+      int nOfs = 0;
+      while (nOfs < nUncompressedSize)
+      {
+        final int nRead = aInflater.inflate (ret, nOfs, nUncompressedSize - nOfs);
+        if (nRead == 0 && (aInflater.finished () || aInflater.needsInput () || aInflater.needsDictionary ()))
+          break;
+        nOfs += nRead;
+      }
+      // The end of the stream may only be detected after the output is full
+      if (nOfs == nUncompressedSize && !aInflater.finished () && aInflater.inflate (new byte [1]) != 0)
+        nOfs++;
+      if (nOfs != nUncompressedSize || !aInflater.finished ())
+        throw new IOException ("Block payload does not match the uncompressed size " + nUncompressedSize);
+    }
+    catch (final DataFormatException ex)
+    {
+      throw new IOException ("Corrupt block payload", ex);
+    }
+    finally
+    {
+      aInflater.end ();
+    }
+    return ret;
+  }
+
+  /**
+   * Decode all records of a single uncompressed block.
+   *
+   * @param aPayload
+   *        The uncompressed payload. May not be <code>null</code>.
+   * @param nRecordCount
+   *        The number of records as stored in the block header.
+   * @param aStringTable
+   *        The string table. May not be <code>null</code>.
+   * @param bAppendNewStrings
+   *        <code>true</code> if the strings introduced by this block should be
+   *        appended to the string table (sequential reading),
+   *        <code>false</code> if the string table is already complete (random
+   *        access reading).
+   * @param aConsumer
+   *        The consumer for each record. May not be <code>null</code>.
+   * @throws IOException
+   *         If the payload is corrupt
+   */
+  static void decodeBlock (@Nonnull final byte [] aPayload,
+                           @Nonnegative final int nRecordCount,
+                           @Nonnull final ICommonsList <String> aStringTable,
+                           final boolean bAppendNewStrings,
+                           @Nonnull final Consumer <? super PDBulkExportParticipant> aConsumer) throws IOException
+  {
+    final ByteBuffer aBB = ByteBuffer.wrap (aPayload);
+    final int nNewStrings = readVarInt (aBB);
+    for (int i = 0; i < nNewStrings; ++i)
+    {
+      final String s = readString (aBB);
+      if (s == null)
+        throw new IOException ("The string table may not contain null");
+      if (bAppendNewStrings)
+        aStringTable.add (s);
+    }
+
+    for (int i = 0; i < nRecordCount; ++i)
+    {
+      final PDBulkExportParticipant aParticipant;
+      try
+      {
+        aParticipant = _readParticipant (aBB, aStringTable);
+      }
+      catch (final IllegalArgumentException | NullPointerException | DateTimeException ex)
+      {
+        // Thrown by the domain objects on invalid values
+        throw new IOException ("Invalid record " + i + " in block", ex);
+      }
+      aConsumer.accept (aParticipant);
+    }
+    if (aBB.hasRemaining ())
+      throw new IOException ("Block contains " + aBB.remaining () + " unexpected trailing bytes");
+  }
+}
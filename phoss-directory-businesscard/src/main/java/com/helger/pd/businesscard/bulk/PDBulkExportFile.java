@@ -0,0 +1,252 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.businesscard.bulk;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+
+/**
+ * Random access reader for a binary bulk export file created by
+ * {@link PDBulkExportWriter}. The string table and the block index are read
+ * from the trailer when the file is opened. Afterwards each block can be
+ * decoded independently, so different threads may call
+ * {@link #readBlock(int, Consumer)} concurrently for different blocks.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@ThreadSafe
+public final class PDBulkExportFile implements Closeable
+{
+  private final FileChannel m_aChannel;
+  private final ICommonsList <String> m_aStringTable;
+  private final ICommonsList <PDBulkExportBlock> m_aBlocks;
+  private final long m_nRecordCount;
+
+  private PDBulkExportFile (@Nonnull final FileChannel aChannel) throws IOException
+  {
+    m_aChannel = aChannel;
+
+    final long nFileSize = aChannel.size ();
+    if (nFileSize < PDBulkExportCodec.HEADER_SIZE + 4 + PDBulkExportCodec.FOOTER_SIZE)
+      throw new IOException ("The file is too small to be a binary bulk export");
+
+    final ByteBuffer aHeader = _read (0, PDBulkExportCodec.HEADER_SIZE);
+    _checkMagic (aHeader);
+    final int nVersion = aHeader.getInt ();
+    if (nVersion != PDBulkExportCodec.VERSION)
+      throw new IOException ("Unsupported binary bulk export version " + nVersion);
+
+    final long nFooterOffset = nFileSize - PDBulkExportCodec.FOOTER_SIZE;
+    final ByteBuffer aFooter = _read (nFooterOffset, PDBulkExportCodec.FOOTER_SIZE);
+    final long nTrailerOffset = aFooter.getLong ();
+    _checkMagic (aFooter);
+    if (nTrailerOffset < PDBulkExportCodec.HEADER_SIZE || nTrailerOffset >= nFooterOffset)
+      throw new IOException ("Invalid trailer offset " + nTrailerOffset);
+    final long nTrailerSize = nFooterOffset - nTrailerOffset;
+    if (nTrailerSize > Integer.MAX_VALUE)
+      throw new IOException ("The trailer is too large");
+
+    final ByteBuffer aTrailer = _read (nTrailerOffset, (int) nTrailerSize);
+    try
+    {
+      final int nStringCount = aTrailer.getInt ();
+      if (nStringCount < 0 || nStringCount > aTrailer.remaining () / 4)
+        throw new IOException ("Invalid string table size " + nStringCount);
+      m_aStringTable = new CommonsArrayList <> (nStringCount);
+      for (int i = 0; i < nStringCount; ++i)
+      {
+        final int nLen = aTrailer.getInt ();
+        if (nLen < 0 || nLen > aTrailer.remaining ())
+          throw new IOException ("Invalid string length " + nLen);
+        m_aStringTable.add (new String (aTrailer.array (), aTrailer.position (), nLen, StandardCharsets.UTF_8));
+        aTrailer.position (aTrailer.position () + nLen);
+      }
+
+      final int nBlockCount = aTrailer.getInt ();
+      if (nBlockCount < 0 || nBlockCount > aTrailer.remaining () / 12)
+        throw new IOException ("Invalid block count " + nBlockCount);
+      m_aBlocks = new CommonsArrayList <> (nBlockCount);
+      for (int i = 0; i < nBlockCount; ++i)
+      {
+        final long nOffset = aTrailer.getLong ();
+        final int nBlockRecords = aTrailer.getInt ();
+        if (nOffset < PDBulkExportCodec.HEADER_SIZE || nOffset >= nTrailerOffset || nBlockRecords <= 0)
+          throw new IOException ("Invalid index entry for block " + i);
+        m_aBlocks.add (new PDBulkExportBlock (nOffset, nBlockRecords));
+      }
+      m_nRecordCount = aTrailer.getLong ();
+    }
+    catch (final BufferUnderflowException ex)
+    {
+      throw new IOException ("The trailer is truncated", ex);
+    }
+  }
+
+  private static void _checkMagic (@Nonnull final ByteBuffer aBB) throws IOException
+  {
+    final byte [] aMagic = new byte [PDBulkExportCodec.MAGIC.length];
+    aBB.get (aMagic);
+    for (int i = 0; i < aMagic.length; ++i)
+      if (aMagic[i] != PDBulkExportCodec.MAGIC[i])
+        throw new IOException ("The file is not a binary bulk export");
+  }
+
+  @Nonnull
+  private ByteBuffer _read (final long nPosition, @Nonnegative final int nLength) throws IOException
+  {
+    final ByteBuffer ret = ByteBuffer.allocate (nLength);
+    long nPos = nPosition;
+    while (ret.hasRemaining ())
+    {
+      // Positional reads don't modify the channel position and are thread-safe
+      final int nRead = m_aChannel.read (ret, nPos);
+      if (nRead < 0)
+        throw new EOFException ("Unexpected end of file at position " + nPos);
+      nPos += nRead;
+    }
+    ret.flip ();
+    return ret;
+  }
+
+  /**
+   * Open an existing binary bulk export file and read its block index.
+   *
+   * @param aPath
+   *        The path of the file to open. May not be <code>null</code>.
+   * @return The opened file. Never <code>null</code>. Must be closed by the
+   *         caller.
+   * @throws IOException
+   *         On read error or if the file is not a valid binary bulk export
+   */
+  @Nonnull
+  public static PDBulkExportFile open (@Nonnull final Path aPath) throws IOException
+  {
+    ValueEnforcer.notNull (aPath, "Path");
+    final FileChannel aChannel = FileChannel.open (aPath, StandardOpenOption.READ);
+    try
+    {
+      return new PDBulkExportFile (aChannel);
+    }
+    catch (final IOException | RuntimeException ex)
+    {
+      aChannel.close ();
+      throw ex;
+    }
+  }
+
+  /**
+   * @return The number of blocks in the file. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getBlockCount ()
+  {
+    return m_aBlocks.size ();
+  }
+
+  /**
+   * @return A copy of the block index. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <PDBulkExportBlock> getAllBlocks ()
+  {
+    return m_aBlocks.getClone ();
+  }
+
+  /**
+   * @return The total number of participants in the file. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getParticipantCount ()
+  {
+    return m_nRecordCount;
+  }
+
+  /**
+   * Decode all participants of a single block. May be called concurrently for
+   * different blocks.
+   *
+   * @param nBlockIndex
+   *        The 0-based index of the block to read. Must be &ge; 0 and &lt;
+   *        {@link #getBlockCount()}.
+   * @param aConsumer
+   *        The consumer to be invoked for each participant. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         On read error or if the block is corrupt
+   */
+  public void readBlock (@Nonnegative final int nBlockIndex,
+                         @Nonnull final Consumer <? super PDBulkExportParticipant> aConsumer) throws IOException
+  {
+    ValueEnforcer.isBetweenInclusive (nBlockIndex, "BlockIndex", 0, m_aBlocks.size () - 1);
+    ValueEnforcer.notNull (aConsumer, "Consumer");
+
+    final PDBulkExportBlock aBlock = m_aBlocks.get (nBlockIndex);
+    final ByteBuffer aHeader = _read (aBlock.getOffset (), PDBulkExportCodec.BLOCK_HEADER_SIZE);
+    final int nCompressedSize = aHeader.getInt ();
+    final int nUncompressedSize = aHeader.getInt ();
+    final int nRecordCount = aHeader.getInt ();
+    if (nCompressedSize <= 0 || nCompressedSize > PDBulkExportCodec.MAX_BLOCK_BYTES)
+      throw new IOException ("Invalid compressed size of block " + nBlockIndex);
+    if (nUncompressedSize <= 0 || nUncompressedSize > PDBulkExportCodec.MAX_BLOCK_BYTES)
+      throw new IOException ("Invalid uncompressed size of block " + nBlockIndex);
+    if (nRecordCount != aBlock.getRecordCount ())
+      throw new IOException ("The record count of block " + nBlockIndex + " does not match the index");
+
+    final ByteBuffer aCompressed = _read (aBlock.getOffset () + PDBulkExportCodec.BLOCK_HEADER_SIZE, nCompressedSize);
+    final byte [] aPayload = PDBulkExportCodec.inflate (aCompressed.array (), nUncompressedSize);
+    PDBulkExportCodec.decodeBlock (aPayload, nRecordCount, m_aStringTable, false, aConsumer);
+  }
+
+  /**
+   * Decode all participants of all blocks in file order.
+   *
+   * @param aConsumer
+   *        The consumer to be invoked for each participant. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         On read error or if the data is corrupt
+   */
+  public void readAll (@Nonnull final Consumer <? super PDBulkExportParticipant> aConsumer) throws IOException
+  {
+    for (int i = 0; i < m_aBlocks.size (); ++i)
+      readBlock (i, aConsumer);
+  }
+
+  public void close () throws IOException
+  {
+    m_aChannel.close ();
+  }
+}
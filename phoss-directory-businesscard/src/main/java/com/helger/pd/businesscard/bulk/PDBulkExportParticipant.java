@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.businesscard.bulk;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableObject;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.pd.businesscard.generic.PDBusinessCard;
+import com.helger.pd.businesscard.generic.PDIdentifier;
+
+/**
+ * A single participant of the binary bulk export: the business card with all
+ * entities plus the supported document types.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@NotThreadSafe
+public class PDBulkExportParticipant
+{
+  private final PDBusinessCard m_aBusinessCard;
+  private final ICommonsList <PDIdentifier> m_aDocumentTypeIDs = new CommonsArrayList <> ();
+
+  public PDBulkExportParticipant (@Nonnull final PDBusinessCard aBusinessCard)
+  {
+    ValueEnforcer.notNull (aBusinessCard, "BusinessCard");
+    ValueEnforcer.notNull (aBusinessCard.getParticipantIdentifier (), "BusinessCard.ParticipantIdentifier");
+    m_aBusinessCard = aBusinessCard;
+  }
+
+  /**
+   * @return The business card with the participant identifier and all business
+   *         entities. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableObject
+  public final PDBusinessCard getBusinessCard ()
+  {
+    return m_aBusinessCard;
+  }
+
+  /**
+   * @return Mutable list of all document types supported by the participant.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableObject
+  public final ICommonsList <PDIdentifier> documentTypeIDs ()
+  {
+    return m_aDocumentTypeIDs;
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final PDBulkExportParticipant rhs = (PDBulkExportParticipant) o;
+    return m_aBusinessCard.equals (rhs.m_aBusinessCard) && m_aDocumentTypeIDs.equals (rhs.m_aDocumentTypeIDs);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (m_aBusinessCard).append (m_aDocumentTypeIDs).getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("BusinessCard", m_aBusinessCard)
+                                       .append ("DocumentTypeIDs", m_aDocumentTypeIDs)
+                                       .getToString ();
+  }
+}
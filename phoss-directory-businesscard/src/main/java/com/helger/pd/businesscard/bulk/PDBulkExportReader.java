@@ -0,0 +1,161 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.businesscard.bulk;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillCloseWhenClosed;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * Sequential reader for the binary bulk export format created by
+ * {@link PDBulkExportWriter}. The data is read block by block, so only a
+ * single decompressed block is held in memory and no seeking is required.
+ * This makes it suitable for reading directly from an HTTP response. Use
+ * {@link PDBulkExportFile} to decode the blocks of a local file in parallel.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@NotThreadSafe
+public final class PDBulkExportReader implements Closeable
+{
+  private final DataInputStream m_aIS;
+  private final ICommonsList <String> m_aStringTable = new CommonsArrayList <> ();
+  private final ICommonsList <PDBulkExportParticipant> m_aPending = new CommonsArrayList <> ();
+  private int m_nPendingIndex = 0;
+  private long m_nRecordCount = 0;
+  private boolean m_bEndOfBlocks = false;
+
+  /**
+   * Constructor. Reads and validates the file header.
+   *
+   * @param aIS
+   *        The input stream to read from. May not be <code>null</code>. Is
+   *        closed when this reader is closed.
+   * @throws IOException
+   *         On read error or if the header is invalid
+   */
+  public PDBulkExportReader (@Nonnull @WillCloseWhenClosed final InputStream aIS) throws IOException
+  {
+    ValueEnforcer.notNull (aIS, "IS");
+    m_aIS = new DataInputStream (StreamHelper.getBuffered (aIS));
+
+    final byte [] aMagic = new byte [PDBulkExportCodec.MAGIC.length];
+    m_aIS.readFully (aMagic);
+    if (!Arrays.equals (aMagic, PDBulkExportCodec.MAGIC))
+      throw new IOException ("The input is not a binary bulk export");
+    final int nVersion = m_aIS.readInt ();
+    if (nVersion != PDBulkExportCodec.VERSION)
+      throw new IOException ("Unsupported binary bulk export version " + nVersion);
+  }
+
+  private boolean _readNextBlock () throws IOException
+  {
+    final int nCompressedSize = m_aIS.readInt ();
+    if (nCompressedSize == 0)
+    {
+      // The trailer is only needed for random access
+      m_bEndOfBlocks = true;
+      return false;
+    }
+    final int nUncompressedSize = m_aIS.readInt ();
+    final int nRecordCount = m_aIS.readInt ();
+    if (nCompressedSize < 0 || nCompressedSize > PDBulkExportCodec.MAX_BLOCK_BYTES)
+      throw new IOException ("Invalid compressed block size " + nCompressedSize);
+    if (nUncompressedSize <= 0 || nUncompressedSize > PDBulkExportCodec.MAX_BLOCK_BYTES)
+      throw new IOException ("Invalid uncompressed block size " + nUncompressedSize);
+    if (nRecordCount <= 0)
+      throw new IOException ("Invalid block record count " + nRecordCount);
+
+    final byte [] aCompressed = new byte [nCompressedSize];
+    m_aIS.readFully (aCompressed);
+    final byte [] aPayload = PDBulkExportCodec.inflate (aCompressed, nUncompressedSize);
+
+    m_aPending.clear ();
+    m_nPendingIndex = 0;
+    PDBulkExportCodec.decodeBlock (aPayload, nRecordCount, m_aStringTable, true, m_aPending::add);
+    return true;
+  }
+
+  /**
+   * Read the next participant.
+   *
+   * @return <code>null</code> if all participants were read.
+   * @throws IOException
+   *         On read error or if the data is corrupt
+   */
+  @Nullable
+  public PDBulkExportParticipant readNext () throws IOException
+  {
+    while (m_nPendingIndex >= m_aPending.size ())
+    {
+      if (m_bEndOfBlocks || !_readNextBlock ())
+        return null;
+    }
+    final PDBulkExportParticipant ret = m_aPending.get (m_nPendingIndex);
+    // Release the reference early
+    m_aPending.set (m_nPendingIndex, null);
+    m_nPendingIndex++;
+    m_nRecordCount++;
+    return ret;
+  }
+
+  /**
+   * Read all remaining participants.
+   *
+   * @param aConsumer
+   *        The consumer to be invoked for each participant. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         On read error or if the data is corrupt
+   */
+  public void readAll (@Nonnull final Consumer <? super PDBulkExportParticipant> aConsumer) throws IOException
+  {
+    ValueEnforcer.notNull (aConsumer, "Consumer");
+    PDBulkExportParticipant aParticipant;
+    while ((aParticipant = readNext ()) != null)
+      aConsumer.accept (aParticipant);
+  }
+
+  /**
+   * @return The number of participants read so far. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getParticipantCount ()
+  {
+    return m_nRecordCount;
+  }
+
+  public void close () throws IOException
+  {
+    m_aIS.close ();
+  }
+}
@@ -0,0 +1,301 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.businesscard.bulk;
+
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.time.LocalDate;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.pd.businesscard.generic.PDBusinessCard;
+import com.helger.pd.businesscard.generic.PDBusinessEntity;
+import com.helger.pd.businesscard.generic.PDContact;
+import com.helger.pd.businesscard.generic.PDIdentifier;
+import com.helger.pd.businesscard.generic.PDName;
+
+/**
+ * Writer for the compact binary bulk export format. Identifier schemes,
+ * document type identifiers, country codes, language codes and contact types
+ * are stored only once in a string table. The records are grouped into Deflate
+ * compressed blocks, and a block index is written at the end, so that readers
+ * can decode the blocks in parallel. See {@link PDBulkExportReader} and
+ * {@link PDBulkExportFile} for reading.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@NotThreadSafe
+public final class PDBulkExportWriter implements Closeable
+{
+  /** The default uncompressed size of a block in bytes */
+  public static final int DEFAULT_BLOCK_SIZE = CGlobal.BYTES_PER_MEGABYTE;
+
+  private final DataOutputStream m_aOS;
+  private final int m_nBlockSize;
+  private final int m_nCompressionLevel;
+  private final ICommonsMap <String, Integer> m_aStringIndex = new CommonsHashMap <> ();
+  private final ICommonsList <String> m_aStringTable = new CommonsArrayList <> ();
+  private final ICommonsList <PDBulkExportBlock> m_aBlocks = new CommonsArrayList <> ();
+  private final NonBlockingByteArrayOutputStream m_aBlock;
+  private int m_nBlockFirstString = 0;
+  private int m_nBlockRecordCount = 0;
+  private long m_nRecordCount = 0;
+  private long m_nOffset = 0;
+  private boolean m_bClosed = false;
+
+  /**
+   * Constructor with the default block size and compression level. Writes the
+   * file header.
+   *
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>. Is
+   *        flushed but not closed by {@link #close()}.
+   * @throws IOException
+   *         On write error
+   */
+  public PDBulkExportWriter (@Nonnull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    this (aOS, DEFAULT_BLOCK_SIZE, Deflater.DEFAULT_COMPRESSION);
+  }
+
+  /**
+   * Constructor. Writes the file header.
+   *
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>. Is
+   *        flushed but not closed by {@link #close()}.
+   * @param nBlockSize
+   *        The uncompressed size in bytes after which a block is finished.
+   *        Must be &gt; 0.
+   * @param nCompressionLevel
+   *        The Deflate compression level from 0 to 9 or
+   *        {@link Deflater#DEFAULT_COMPRESSION}.
+   * @throws IOException
+   *         On write error
+   */
+  public PDBulkExportWriter (@Nonnull @WillNotClose final OutputStream aOS,
+                             @Nonnegative final int nBlockSize,
+                             final int nCompressionLevel) throws IOException
+  {
+    ValueEnforcer.notNull (aOS, "OS");
+    ValueEnforcer.isBetweenInclusive (nBlockSize, "BlockSize", 1, PDBulkExportCodec.MAX_BLOCK_BYTES / 2);
+    ValueEnforcer.isTrue (nCompressionLevel == Deflater.DEFAULT_COMPRESSION ||
+                          (nCompressionLevel >= Deflater.NO_COMPRESSION && nCompressionLevel <= Deflater.BEST_COMPRESSION),
+                          "Invalid compression level");
+    m_aOS = new DataOutputStream (aOS);
+    m_nBlockSize = nBlockSize;
+    m_nCompressionLevel = nCompressionLevel;
+    m_aBlock = new NonBlockingByteArrayOutputStream (Math.min (nBlockSize, DEFAULT_BLOCK_SIZE) + 16 * CGlobal.BYTES_PER_KILOBYTE);
+
+    m_aOS.write (PDBulkExportCodec.MAGIC);
+    m_aOS.writeInt (PDBulkExportCodec.VERSION);
+    m_nOffset = PDBulkExportCodec.HEADER_SIZE;
+  }
+
+  private void _writeStringRef (@Nullable final String s) throws IOException
+  {
+    if (s == null)
+      PDBulkExportCodec.writeVarInt (m_aBlock, 0);
+    else
+    {
+      Integer aIndex = m_aStringIndex.get (s);
+      if (aIndex == null)
+      {
+        aIndex = Integer.valueOf (m_aStringTable.size ());
+        m_aStringTable.add (s);
+        m_aStringIndex.put (s, aIndex);
+      }
+      PDBulkExportCodec.writeVarInt (m_aBlock, aIndex.intValue () + 1);
+    }
+  }
+
+  private void _writeString (@Nullable final String s) throws IOException
+  {
+    PDBulkExportCodec.writeString (m_aBlock, s);
+  }
+
+  private void _writeDate (@Nullable final LocalDate aDate) throws IOException
+  {
+    if (aDate == null)
+      PDBulkExportCodec.writeVarInt (m_aBlock, 0);
+    else
+    {
+      PDBulkExportCodec.writeVarInt (m_aBlock, 1);
+      PDBulkExportCodec.writeVarInt (m_aBlock, PDBulkExportCodec.getZigZagEncoded (Math.toIntExact (aDate.toEpochDay ())));
+    }
+  }
+
+  /**
+   * Add a single participant.
+   *
+   * @param aParticipant
+   *        The participant to add. May not be <code>null</code>.
+   * @throws IOException
+   *         On write error
+   */
+  public void addParticipant (@Nonnull final PDBulkExportParticipant aParticipant) throws IOException
+  {
+    ValueEnforcer.notNull (aParticipant, "Participant");
+    if (m_bClosed)
+      throw new IllegalStateException ("The writer is already closed");
+
+    final PDBusinessCard aBC = aParticipant.getBusinessCard ();
+    _writeStringRef (aBC.getParticipantIdentifier ().getScheme ());
+    _writeString (aBC.getParticipantIdentifier ().getValue ());
+    PDBulkExportCodec.writeVarInt (m_aBlock, aBC.businessEntities ().size ());
+    for (final PDBusinessEntity aEntity : aBC.businessEntities ())
+    {
+      PDBulkExportCodec.writeVarInt (m_aBlock, aEntity.names ().size ());
+      for (final PDName aName : aEntity.names ())
+      {
+        _writeString (aName.getName ());
+        _writeStringRef (aName.getLanguageCode ());
+      }
+      _writeStringRef (aEntity.getCountryCode ());
+      _writeString (aEntity.getGeoInfo ());
+      PDBulkExportCodec.writeVarInt (m_aBlock, aEntity.identifiers ().size ());
+      for (final PDIdentifier aID : aEntity.identifiers ())
+      {
+        _writeStringRef (aID.getScheme ());
+        _writeString (aID.getValue ());
+      }
+      PDBulkExportCodec.writeVarInt (m_aBlock, aEntity.websiteURIs ().size ());
+      for (final String sWebsiteURI : aEntity.websiteURIs ())
+        _writeString (sWebsiteURI);
+      PDBulkExportCodec.writeVarInt (m_aBlock, aEntity.contacts ().size ());
+      for (final PDContact aContact : aEntity.contacts ())
+      {
+        _writeStringRef (aContact.getType ());
+        _writeString (aContact.getName ());
+        _writeString (aContact.getPhoneNumber ());
+        _writeString (aContact.getEmail ());
+      }
+      _writeString (aEntity.getAdditionalInfo ());
+      _writeDate (aEntity.getRegistrationDate ());
+    }
+    PDBulkExportCodec.writeVarInt (m_aBlock, aParticipant.documentTypeIDs ().size ());
+    for (final PDIdentifier aDocTypeID : aParticipant.documentTypeIDs ())
+    {
+      _writeStringRef (aDocTypeID.getScheme ());
+      _writeStringRef (aDocTypeID.getValue ());
+    }
+
+    m_nBlockRecordCount++;
+    m_nRecordCount++;
+    if (m_aBlock.size () >= m_nBlockSize)
+      _flushBlock ();
+  }
+
+  private void _flushBlock () throws IOException
+  {
+    if (m_nBlockRecordCount == 0)
+      return;
+
+    // The strings introduced in this block precede the records
+    final NonBlockingByteArrayOutputStream aPayload = new NonBlockingByteArrayOutputStream (m_aBlock.size () +
+                                                                                            CGlobal.BYTES_PER_KILOBYTE);
+    final int nStringCount = m_aStringTable.size ();
+    PDBulkExportCodec.writeVarInt (aPayload, nStringCount - m_nBlockFirstString);
+    for (int i = m_nBlockFirstString; i < nStringCount; ++i)
+      PDBulkExportCodec.writeString (aPayload, m_aStringTable.get (i));
+    m_aBlock.writeTo (aPayload);
+
+    final NonBlockingByteArrayOutputStream aCompressed = new NonBlockingByteArrayOutputStream (aPayload.size () / 4 + 64);
+    final Deflater aDeflater = new Deflater (m_nCompressionLevel);
+    try (final DeflaterOutputStream aDOS = new DeflaterOutputStream (aCompressed, aDeflater, 16 * CGlobal.BYTES_PER_KILOBYTE))
+    {
+      aPayload.writeTo (aDOS);
+    }
+    finally
+    {
+      aDeflater.end ();
+    }
+
+    m_aBlocks.add (new PDBulkExportBlock (m_nOffset, m_nBlockRecordCount));
+    m_aOS.writeInt (aCompressed.size ());
+    m_aOS.writeInt (aPayload.size ());
+    m_aOS.writeInt (m_nBlockRecordCount);
+    aCompressed.writeTo (m_aOS);
+    m_nOffset += PDBulkExportCodec.BLOCK_HEADER_SIZE + aCompressed.size ();
+
+    m_aBlock.reset ();
+    m_nBlockFirstString = nStringCount;
+    m_nBlockRecordCount = 0;
+  }
+
+  /**
+   * @return The number of participants added so far. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getParticipantCount ()
+  {
+    return m_nRecordCount;
+  }
+
+  /**
+   * Write all pending records, the string table and the block index.
+   */
+  public void close () throws IOException
+  {
+    if (m_bClosed)
+      return;
+    m_bClosed = true;
+
+    _flushBlock ();
+    // End of blocks
+    m_aOS.writeInt (0);
+    m_nOffset += 4;
+
+    final long nTrailerOffset = m_nOffset;
+    m_aOS.writeInt (m_aStringTable.size ());
+    for (final String s : m_aStringTable)
+    {
+      final byte [] aBytes = s.getBytes (StandardCharsets.UTF_8);
+      m_aOS.writeInt (aBytes.length);
+      m_aOS.write (aBytes);
+    }
+    m_aOS.writeInt (m_aBlocks.size ());
+    for (final PDBulkExportBlock aBlock : m_aBlocks)
+    {
+      m_aOS.writeLong (aBlock.getOffset ());
+      m_aOS.writeInt (aBlock.getRecordCount ());
+    }
+    m_aOS.writeLong (m_nRecordCount);
+
+    // Footer
+    m_aOS.writeLong (nTrailerOffset);
+    m_aOS.write (PDBulkExportCodec.MAGIC);
+    m_aOS.flush ();
+  }
+}
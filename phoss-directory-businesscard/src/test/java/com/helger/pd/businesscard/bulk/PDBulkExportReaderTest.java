@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.businesscard.bulk;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.LocalDate;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.pd.businesscard.generic.PDBusinessCard;
+import com.helger.pd.businesscard.generic.PDBusinessEntity;
+import com.helger.pd.businesscard.generic.PDContact;
+import com.helger.pd.businesscard.generic.PDIdentifier;
+import com.helger.pd.businesscard.generic.PDName;
+
+/**
+ * Test class for class {@link PDBulkExportReader} and
+ * {@link PDBulkExportFile}.
+ *
+ * @author Philip Helger
+ */
+public final class PDBulkExportReaderTest
+{
+  @Rule
+  public final TemporaryFolder m_aTempFolder = new TemporaryFolder ();
+
+  @Nonnull
+  private static PDBulkExportParticipant _createParticipant (final int nIndex)
+  {
+    final PDBusinessCard aBC = new PDBusinessCard ().setParticipantIdentifier (new PDIdentifier ("iso6523-actorid-upis",
+                                                                                                   "9915:test" + nIndex));
+    for (int i = 0; i <= nIndex % 3; ++i)
+    {
+      final PDBusinessEntity aEntity = new PDBusinessEntity ();
+      aEntity.names ().add (new PDName ("Entity " + nIndex + "/" + i, i == 0 ? "en" : null));
+      if (i == 1)
+        aEntity.names ().add (new PDName ("Unternehmen Müller " + nIndex, "de"));
+      aEntity.setCountryCode (nIndex % 2 == 0 ? "AT" : "DE");
+      if (i == 0)
+        aEntity.setGeoInfo ("Vienna\nAustria");
+      aEntity.identifiers ().add (new PDIdentifier ("0088", "123" + nIndex));
+      if (nIndex % 5 == 0)
+        aEntity.websiteURIs ().add ("https://www.example.org/" + nIndex);
+      aEntity.contacts ().add (new PDContact ("support", "Contact " + nIndex, null, "c" + nIndex + "@example.org"));
+      if (nIndex % 4 != 0)
+        aEntity.setAdditionalInfo ("Info " + nIndex);
+      if (i != 2)
+        aEntity.setRegistrationDate (LocalDate.of (1960 + nIndex % 100, 1 + nIndex % 12, 1));
+      aBC.businessEntities ().add (aEntity);
+    }
+    final PDBulkExportParticipant ret = new PDBulkExportParticipant (aBC);
+    ret.documentTypeIDs ()
+       .add (new PDIdentifier ("busdox-docid-qns",
+                               "urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##urn:cen.eu:en16931:2017::2.1"));
+    if (nIndex % 2 == 1)
+      ret.documentTypeIDs ()
+         .add (new PDIdentifier ("busdox-docid-qns",
+                                 "urn:oasis:names:specification:ubl:schema:xsd:CreditNote-2::CreditNote##urn:cen.eu:en16931:2017::2.1"));
+    return ret;
+  }
+
+  @Nonnull
+  private static byte [] _write (@Nonnull final ICommonsList <PDBulkExportParticipant> aParticipants,
+                                 final int nBlockSize) throws IOException
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      try (final PDBulkExportWriter aWriter = new PDBulkExportWriter (aBAOS, nBlockSize, Deflater.BEST_SPEED))
+      {
+        for (final PDBulkExportParticipant aParticipant : aParticipants)
+          aWriter.addParticipant (aParticipant);
+        assertEquals (aParticipants.size (), aWriter.getParticipantCount ());
+      }
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  private void _testRoundTrip (@Nonnull final ICommonsList <PDBulkExportParticipant> aParticipants,
+                               final int nBlockSize,
+                               final int nMinBlockCount) throws IOException
+  {
+    final byte [] aBytes = _write (aParticipants, nBlockSize);
+
+    // Sequential
+    final ICommonsList <PDBulkExportParticipant> aRead = new CommonsArrayList <> ();
+    try (final PDBulkExportReader aReader = new PDBulkExportReader (new NonBlockingByteArrayInputStream (aBytes)))
+    {
+      aReader.readAll (aRead::add);
+      assertNull (aReader.readNext ());
+      assertEquals (aParticipants.size (), aReader.getParticipantCount ());
+    }
+    assertEquals (aParticipants, aRead);
+
+    // Random access, blocks in reverse order
+    final File aFile = m_aTempFolder.newFile ();
+    SimpleFileIO.writeFile (aFile, aBytes);
+    try (final PDBulkExportFile aBulkFile = PDBulkExportFile.open (aFile.toPath ()))
+    {
+      assertEquals (aParticipants.size (), aBulkFile.getParticipantCount ());
+      assertTrue (aBulkFile.getBlockCount () >= nMinBlockCount);
+
+      final ICommonsList <ICommonsList <PDBulkExportParticipant>> aBlocks = new CommonsArrayList <> ();
+      for (int i = aBulkFile.getBlockCount () - 1; i >= 0; --i)
+      {
+        final ICommonsList <PDBulkExportParticipant> aBlock = new CommonsArrayList <> ();
+        aBulkFile.readBlock (i, aBlock::add);
+        assertEquals (aBulkFile.getAllBlocks ().get (i).getRecordCount (), aBlock.size ());
+        aBlocks.add (0, aBlock);
+      }
+      aRead.clear ();
+      aBlocks.forEach (aRead::addAll);
+      assertEquals (aParticipants, aRead);
+    }
+  }
+
+  @Test
+  public void testEmpty () throws IOException
+  {
+    _testRoundTrip (new CommonsArrayList <> (), PDBulkExportWriter.DEFAULT_BLOCK_SIZE, 0);
+  }
+
+  @Test
+  public void testSingleBlock () throws IOException
+  {
+    final ICommonsList <PDBulkExportParticipant> aParticipants = new CommonsArrayList <> ();
+    for (int i = 0; i < 100; ++i)
+      aParticipants.add (_createParticipant (i));
+    _testRoundTrip (aParticipants, PDBulkExportWriter.DEFAULT_BLOCK_SIZE, 1);
+  }
+
+  @Test
+  public void testMultipleBlocks () throws IOException
+  {
+    final ICommonsList <PDBulkExportParticipant> aParticipants = new CommonsArrayList <> ();
+    for (int i = 0; i < 1000; ++i)
+      aParticipants.add (_createParticipant (i));
+    _testRoundTrip (aParticipants, 2048, 10);
+  }
+
+  @Test
+  public void testInvalid () throws IOException
+  {
+    // Wrong magic
+    final byte [] aInvalid = { 'P', 'K', 3, 4, 0, 0, 0, 1 };
+    try (final PDBulkExportReader aReader = new PDBulkExportReader (new NonBlockingByteArrayInputStream (aInvalid)))
+    {
+      fail ();
+    }
+    catch (final IOException ex)
+    {
+      // expected
+    }
+
+    // Truncated data
+    final ICommonsList <PDBulkExportParticipant> aParticipants = new CommonsArrayList <> ();
+    for (int i = 0; i < 50; ++i)
+      aParticipants.add (_createParticipant (i));
+    final byte [] aBytes = _write (aParticipants, 1024);
+    final File aFile = m_aTempFolder.newFile ();
+    SimpleFileIO.writeFile (aFile, Arrays.copyOf (aBytes, aBytes.length - 1));
+    try (final PDBulkExportFile aBulkFile = PDBulkExportFile.open (aFile.toPath ()))
+    {
+      fail ();
+    }
+    catch (final IOException ex)
+    {
+      // expected
+    }
+  }
+}
@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.client;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+
+/**
+ * The result of a single item of a batch request of the {@link PDClient}.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+public enum EPDClientBatchResult implements IHasID <String>
+{
+  /** The item was queued for indexing */
+  QUEUED ("queued"),
+  /** The item is covered by an item of the same participant already queued */
+  DUPLICATE ("duplicate"),
+  /** The item could not be interpreted by the server */
+  INVALID ("invalid");
+
+  private final String m_sID;
+
+  private EPDClientBatchResult (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  /**
+   * @return <code>true</code> if the server accepted the item,
+   *         <code>false</code> if not.
+   */
+  public boolean isSuccess ()
+  {
+    return this != INVALID;
+  }
+
+  @Nullable
+  public static EPDClientBatchResult getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EPDClientBatchResult.class, sID);
+  }
+}
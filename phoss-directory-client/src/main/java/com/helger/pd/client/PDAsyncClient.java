@@ -0,0 +1,514 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.client;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.methods.HttpGet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.OverrideOnDemand;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppolid.IParticipantIdentifier;
+
+/**
+ * An asynchronous wrapper around {@link PDClient}. Create and delete
+ * operations are collected into micro batches that are sent via the batch API
+ * of the indexer, with a bounded number of concurrent requests over the shared
+ * connection pool of the underlying client. Failed requests are retried with
+ * exponential backoff and jitter.<br>
+ * Operations for the same participant are executed in the order they were
+ * added. If a participant is added to a batch that was not yet sent, the
+ * latest operation wins and the future of the superseded operation is
+ * completed with {@link EPDClientBatchResult#DUPLICATE}. The exception handler
+ * of the underlying client is not invoked - all errors are reported via the
+ * returned futures.<br>
+ * The add and delete methods apply backpressure: if (max in flight + 1) * batch
+ * size operations are outstanding, the calling thread is blocked until enough
+ * of them are finished. Therefore these methods must not be called from
+ * callbacks of the returned futures, because these callbacks may be executed
+ * by the sender threads which would then wait for themselves.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@ThreadSafe
+public class PDAsyncClient implements Closeable
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (PDAsyncClient.class);
+
+  private static final class PendingItem
+  {
+    private final PDClientBatchItem m_aItem;
+    private final CompletableFuture <EPDClientBatchResult> m_aFuture;
+
+    PendingItem (@Nonnull final PDClientBatchItem aItem, @Nonnull final CompletableFuture <EPDClientBatchResult> aFuture)
+    {
+      m_aItem = aItem;
+      m_aFuture = aFuture;
+    }
+  }
+
+  private final PDClient m_aClient;
+  private final int m_nRetryCount;
+  private final long m_nRetryBaseDelayMS;
+  private final long m_nRetryMaxDelayMS;
+  private final int m_nBatchMaxSize;
+  private final long m_nBatchMaxDelayMS;
+  private final int m_nMaxOutstanding;
+  private final Semaphore m_aOutstanding;
+  private final ExecutorService m_aSender;
+  private final ScheduledExecutorService m_aScheduler;
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsOrderedMap <String, PendingItem> m_aPending = new CommonsLinkedHashMap <> ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsOrderedMap <String, PendingItem> m_aHeldBack = new CommonsLinkedHashMap <> ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsSet <String> m_aInFlight = new CommonsHashSet <> ();
+  @GuardedBy ("m_aLock")
+  private ScheduledFuture <?> m_aFlushTask;
+  @GuardedBy ("m_aLock")
+  private boolean m_bClosed = false;
+
+  /**
+   * Constructor using the settings from {@link PDClientConfiguration}.
+   *
+   * @param aClient
+   *        The synchronous client to use. May not be <code>null</code>. It is
+   *        not closed by this class.
+   */
+  public PDAsyncClient (@Nonnull final PDClient aClient)
+  {
+    this (aClient,
+          PDClientConfiguration.getAsyncMaxInFlight (),
+          PDClientConfiguration.getAsyncRetryCount (),
+          PDClientConfiguration.getAsyncRetryBaseDelayMS (),
+          PDClientConfiguration.getAsyncRetryMaxDelayMS (),
+          PDClientConfiguration.getAsyncBatchMaxSize (),
+          PDClientConfiguration.getAsyncBatchMaxDelayMS ());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param aClient
+   *        The synchronous client to use. May not be <code>null</code>. It is
+   *        not closed by this class.
+   * @param nMaxInFlight
+   *        The maximum number of concurrent requests. Must be &gt; 0.
+   * @param nRetryCount
+   *        The maximum number of retries per request. Must be &ge; 0.
+   * @param nRetryBaseDelayMS
+   *        The delay before the first retry. Must be &gt; 0.
+   * @param nRetryMaxDelayMS
+   *        The maximum delay between two retries. Must be &ge; the base delay.
+   * @param nBatchMaxSize
+   *        The maximum number of operations per batch request. Must be &gt; 0.
+   * @param nBatchMaxDelayMS
+   *        The maximum time to wait for further operations before a batch is
+   *        sent. Must be &ge; 0.
+   */
+  public PDAsyncClient (@Nonnull final PDClient aClient,
+                        @Nonnegative final int nMaxInFlight,
+                        @Nonnegative final int nRetryCount,
+                        @Nonnegative final long nRetryBaseDelayMS,
+                        @Nonnegative final long nRetryMaxDelayMS,
+                        @Nonnegative final int nBatchMaxSize,
+                        @Nonnegative final long nBatchMaxDelayMS)
+  {
+    ValueEnforcer.notNull (aClient, "Client");
+    ValueEnforcer.isGT0 (nMaxInFlight, "MaxInFlight");
+    ValueEnforcer.isGE0 (nRetryCount, "RetryCount");
+    ValueEnforcer.isGT0 (nRetryBaseDelayMS, "RetryBaseDelayMS");
+    ValueEnforcer.isTrue (nRetryMaxDelayMS >= nRetryBaseDelayMS, "RetryMaxDelayMS must be >= RetryBaseDelayMS");
+    ValueEnforcer.isGT0 (nBatchMaxSize, "BatchMaxSize");
+    ValueEnforcer.isGE0 (nBatchMaxDelayMS, "BatchMaxDelayMS");
+
+    m_aClient = aClient;
+    m_nRetryCount = nRetryCount;
+    m_nRetryBaseDelayMS = nRetryBaseDelayMS;
+    m_nRetryMaxDelayMS = nRetryMaxDelayMS;
+    m_nBatchMaxSize = nBatchMaxSize;
+    m_nBatchMaxDelayMS = nBatchMaxDelayMS;
+    // Enough to keep all senders busy with full batches and one more batch
+    // being filled - beyond that the callers are blocked
+    m_nMaxOutstanding = (nMaxInFlight + 1) * nBatchMaxSize;
+    m_aOutstanding = new Semaphore (m_nMaxOutstanding);
+    m_aSender = Executors.newFixedThreadPool (nMaxInFlight,
+                                              new BasicThreadFactory.Builder ().namingPattern ("pd-client-async-%d")
+                                                                               .daemon (true)
+                                                                               .build ());
+    m_aScheduler = Executors.newSingleThreadScheduledExecutor (new BasicThreadFactory.Builder ().namingPattern ("pd-client-scheduler-%d")
+                                                                                              .daemon (true)
+                                                                                              .build ());
+  }
+
+  /**
+   * @return The underlying synchronous client. Never <code>null</code>.
+   */
+  @Nonnull
+  public final PDClient getClient ()
+  {
+    return m_aClient;
+  }
+
+  /**
+   * Check if the provided exception is temporary so that the request should be
+   * retried. By default network errors, HTTP 429 and all HTTP 5xx responses
+   * are retried.
+   *
+   * @param t
+   *        The exception that occurred. Never <code>null</code>.
+   * @return <code>true</code> if the request should be retried.
+   */
+  @OverrideOnDemand
+  protected boolean isRetryable (@Nonnull final Throwable t)
+  {
+    return isTemporaryError (t);
+  }
+
+  static boolean isTemporaryError (@Nonnull final Throwable t)
+  {
+    if (t instanceof HttpResponseException)
+    {
+      final int nStatusCode = ((HttpResponseException) t).getStatusCode ();
+      return nStatusCode == 429 || nStatusCode >= 500;
+    }
+    // Don't retry on invalid responses
+    if (t instanceof ClientProtocolException)
+      return false;
+    return t instanceof IOException;
+  }
+
+  /**
+   * Get the delay before the next retry. This uses an exponential backoff
+   * where half of the delay is randomized, so that many clients don't retry at
+   * the same time.
+   *
+   * @param nAttempt
+   *        The 0-based index of the retry.
+   * @return The delay in milliseconds.
+   */
+  @Nonnegative
+  protected long getRetryDelayMS (@Nonnegative final int nAttempt)
+  {
+    return getBackoffDelayMS (m_nRetryBaseDelayMS, m_nRetryMaxDelayMS, nAttempt);
+  }
+
+  @Nonnegative
+  static long getBackoffDelayMS (@Nonnegative final long nBaseDelayMS, @Nonnegative final long nMaxDelayMS, @Nonnegative final int nAttempt)
+  {
+    final long nDelay = Math.min (nMaxDelayMS, nBaseDelayMS << Math.min (nAttempt, 20));
+    final long nHalf = nDelay / 2;
+    return nHalf + ThreadLocalRandom.current ().nextLong (nDelay - nHalf + 1);
+  }
+
+  private <T> void _execute (@Nonnull final Callable <T> aCallable,
+                             @Nonnull final CompletableFuture <T> aFuture,
+                             @Nonnull final String sContext,
+                             @Nonnegative final int nAttempt)
+  {
+    try
+    {
+      m_aSender.execute ( () -> {
+        try
+        {
+          aFuture.complete (aCallable.call ());
+        }
+        catch (final Exception ex)
+        {
+          if (nAttempt < m_nRetryCount && isRetryable (ex))
+          {
+            final long nDelayMS = getRetryDelayMS (nAttempt);
+            LOGGER.warn ("Failed to " + sContext + " (attempt " + (nAttempt + 1) + "); retrying in " + nDelayMS + " ms: " + ex.getMessage ());
+            try
+            {
+              m_aScheduler.schedule ( () -> _execute (aCallable, aFuture, sContext, nAttempt + 1), nDelayMS, TimeUnit.MILLISECONDS);
+            }
+            catch (final RejectedExecutionException ex2)
+            {
+              aFuture.completeExceptionally (ex);
+            }
+          }
+          else
+            aFuture.completeExceptionally (ex);
+        }
+      });
+    }
+    catch (final RejectedExecutionException ex)
+    {
+      aFuture.completeExceptionally (ex);
+    }
+  }
+
+  @GuardedBy ("m_aLock")
+  private void _scheduleFlush ()
+  {
+    if (m_bClosed)
+      _flush ();
+    else
+    {
+      // Send all full batches - there may be more than one if held back
+      // items were added
+      while (m_aPending.size () >= m_nBatchMaxSize)
+        _sendBatch ();
+      if (m_aFlushTask == null && m_aPending.isNotEmpty ())
+        m_aFlushTask = m_aScheduler.schedule (this::flush, m_nBatchMaxDelayMS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  @GuardedBy ("m_aLock")
+  private void _flush ()
+  {
+    if (m_aFlushTask != null)
+    {
+      m_aFlushTask.cancel (false);
+      m_aFlushTask = null;
+    }
+    while (m_aPending.isNotEmpty ())
+      _sendBatch ();
+  }
+
+  /**
+   * Send the first pending items as one batch, limited to the maximum batch
+   * size.
+   */
+  @GuardedBy ("m_aLock")
+  private void _sendBatch ()
+  {
+    final ICommonsList <String> aKeys = new CommonsArrayList <> ();
+    final ICommonsList <PendingItem> aBatch = new CommonsArrayList <> ();
+    final Iterator <Map.Entry <String, PendingItem>> it = m_aPending.entrySet ().iterator ();
+    while (it.hasNext () && aKeys.size () < m_nBatchMaxSize)
+    {
+      final Map.Entry <String, PendingItem> aEntry = it.next ();
+      aKeys.add (aEntry.getKey ());
+      aBatch.add (aEntry.getValue ());
+      it.remove ();
+    }
+    final ICommonsList <PDClientBatchItem> aItems = aBatch.getAllMapped (x -> x.m_aItem);
+    m_aInFlight.addAll (aKeys);
+
+    final CompletableFuture <ICommonsList <EPDClientBatchResult>> aBatchFuture = new CompletableFuture <> ();
+    aBatchFuture.whenComplete ( (aResults, ex) -> {
+      for (int i = 0; i < aBatch.size (); ++i)
+      {
+        final CompletableFuture <EPDClientBatchResult> aFuture = aBatch.get (i).m_aFuture;
+        if (ex != null)
+          aFuture.completeExceptionally (ex);
+        else
+          aFuture.complete (aResults.get (i));
+      }
+      _onBatchDone (aKeys);
+    });
+    _execute ( () -> m_aClient.executeBatchRequest (aItems), aBatchFuture, "execute batch of " + aItems.size () + " items", 0);
+  }
+
+  private void _onBatchDone (@Nonnull final ICommonsList <String> aKeys)
+  {
+    m_aLock.locked ( () -> {
+      for (final String sKey : aKeys)
+      {
+        m_aInFlight.remove (sKey);
+        // Operations for the same participant that arrived in the meantime
+        final PendingItem aHeldBack = m_aHeldBack.remove (sKey);
+        if (aHeldBack != null)
+          m_aPending.put (sKey, aHeldBack);
+      }
+      _scheduleFlush ();
+    });
+  }
+
+  @Nonnull
+  private CompletableFuture <EPDClientBatchResult> _enqueue (@Nonnull final PDClientBatchItem aItem)
+  {
+    final CompletableFuture <EPDClientBatchResult> ret = new CompletableFuture <> ();
+    try
+    {
+      // Backpressure - blocks if too many operations are outstanding
+      m_aOutstanding.acquire ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+      ret.completeExceptionally (ex);
+      return ret;
+    }
+    ret.whenComplete ( (x, ex) -> m_aOutstanding.release ());
+
+    final String sKey = aItem.getParticipantID ().getURIEncoded ();
+    final boolean bClosed;
+    PendingItem aOld = null;
+    m_aLock.lock ();
+    try
+    {
+      bClosed = m_bClosed;
+      if (!bClosed)
+      {
+        // Keep the order of operations of the same participant
+        final ICommonsOrderedMap <String, PendingItem> aTarget = m_aInFlight.contains (sKey) ? m_aHeldBack : m_aPending;
+        aOld = aTarget.put (sKey, new PendingItem (aItem, ret));
+        _scheduleFlush ();
+      }
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+
+    // Complete the futures outside of the lock, because dependent actions of
+    // the callers are executed synchronously
+    if (bClosed)
+      ret.completeExceptionally (new IllegalStateException ("The client is already closed"));
+    else
+      if (aOld != null)
+      {
+        // The latest operation wins
+        aOld.m_aFuture.complete (EPDClientBatchResult.DUPLICATE);
+      }
+    return ret;
+  }
+
+  /**
+   * Asynchronously add or update the provided participant in the index. If
+   * too many operations are outstanding, this method blocks until enough of
+   * them are finished. Must not be called from a callback of a returned
+   * future.
+   *
+   * @param aParticipantID
+   *        The participant to add. May not be <code>null</code>.
+   * @return The future with the result of the operation. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public CompletableFuture <EPDClientBatchResult> addServiceGroupToIndex (@Nonnull final IParticipantIdentifier aParticipantID)
+  {
+    return _enqueue (new PDClientBatchItem (EPDClientBatchOperation.CREATE_UPDATE, aParticipantID));
+  }
+
+  /**
+   * Asynchronously delete the provided participant from the index. If too
+   * many operations are outstanding, this method blocks until enough of them
+   * are finished. Must not be called from a callback of a returned future.
+   *
+   * @param aParticipantID
+   *        The participant to delete. May not be <code>null</code>.
+   * @return The future with the result of the operation. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public CompletableFuture <EPDClientBatchResult> deleteServiceGroupFromIndex (@Nonnull final IParticipantIdentifier aParticipantID)
+  {
+    return _enqueue (new PDClientBatchItem (EPDClientBatchOperation.DELETE, aParticipantID));
+  }
+
+  /**
+   * Asynchronously check if the provided participant is in the index. This is
+   * not batched but uses the same sender threads and retry logic.
+   *
+   * @param aParticipantID
+   *        The participant to check. May not be <code>null</code>.
+   * @return The future with <code>true</code> if the participant is in the
+   *         index, <code>false</code> otherwise. Never <code>null</code>.
+   */
+  @Nonnull
+  public CompletableFuture <Boolean> isServiceGroupRegistered (@Nonnull final IParticipantIdentifier aParticipantID)
+  {
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+
+    final String sURI = m_aClient.getPDIndexerURI () + aParticipantID.getURIPercentEncoded ();
+    final CompletableFuture <Boolean> ret = new CompletableFuture <> ();
+    _execute ( () -> Boolean.valueOf (m_aClient.executeRequest (new HttpGet (sURI), new PDClientResponseHandler ()).isSuccess ()),
+               ret,
+               "check participant " + aParticipantID.getURIEncoded (),
+               0);
+    return ret;
+  }
+
+  /**
+   * Send all pending operations without waiting for the batch delay.
+   */
+  public void flush ()
+  {
+    m_aLock.locked (this::_flush);
+  }
+
+  /**
+   * Send all pending operations, wait until all outstanding operations are
+   * finished and shut down the internal threads. The underlying
+   * {@link PDClient} is not closed.
+   */
+  public void close ()
+  {
+    m_aLock.locked ( () -> {
+      m_bClosed = true;
+      _flush ();
+    });
+
+    // Wait until everything is done - including retries
+    m_aOutstanding.acquireUninterruptibly (m_nMaxOutstanding);
+    m_aOutstanding.release (m_nMaxOutstanding);
+
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aScheduler);
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aSender);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Client", m_aClient)
+                                       .append ("RetryCount", m_nRetryCount)
+                                       .append ("RetryBaseDelayMS", m_nRetryBaseDelayMS)
+                                       .append ("RetryMaxDelayMS", m_nRetryMaxDelayMS)
+                                       .append ("BatchMaxSize", m_nBatchMaxSize)
+                                       .append ("BatchMaxDelayMS", m_nBatchMaxDelayMS)
+                                       .getToString ();
+  }
+}
@@ -16,25 +16,37 @@
  */
 package com.helger.pd.client;
 
+import java.io.BufferedWriter;
 import java.io.Closeable;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
 import java.net.URI;
 import java.nio.charset.StandardCharsets;
+import java.util.Collection;
 
 import javax.annotation.Nonnull;
-import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
 
+import org.apache.http.client.ClientProtocolException;
 import org.apache.http.client.ResponseHandler;
 import org.apache.http.client.methods.HttpDelete;
 import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.client.methods.HttpRequestBase;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.entity.StringEntity;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.OverrideOnDemand;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.state.ESuccess;
 import com.helger.commons.url.URLHelper;
@@ -44,15 +56,23 @@ import com.helger.peppolid.IParticipantIdentifier;
 /**
  * This class is used for calling the PD indexer REST interface. The only part
  * that concerns the configuration file is in the {@link PDHttpClientSettings}
- * used to customoze the HTTP connectivity.
+ * used to customoze the HTTP connectivity.<br>
+ * An instance may be shared between multiple threads (e.g. by the
+ * {@link PDAsyncClient}), because the requests don't modify the state of this
+ * class and the underlying {@link HttpClientManager} uses a pooled connection
+ * manager. Subclasses overriding
+ * {@link #executeRequest(HttpRequestBase, ResponseHandler)} must keep this
+ * property.
  *
  * @author Philip Helger
  */
-@NotThreadSafe
+@ThreadSafe
 public class PDClient implements Closeable
 {
   /** The fixed part of the URL to the PD server */
   public static final String PATH_INDEXER_10 = "indexer/1.0/";
+  /** The path of the batch API relative to {@link #PATH_INDEXER_10} */
+  public static final String PATH_BATCH = "batch";
 
   private static final Logger LOGGER = LoggerFactory.getLogger (PDClient.class);
 
@@ -68,10 +88,10 @@ public class PDClient implements Closeable
    */
   private final String m_sPDHostURI;
   private final String m_sPDIndexerURI;
-  private IPDClientExceptionCallback m_aExceptionHdl = _createDefaultExCb ();
+  private volatile IPDClientExceptionCallback m_aExceptionHdl = _createDefaultExCb ();
 
   // Important to use the PDHttpClientSettings internally
-  private HttpClientManager m_aHttpClientMgr;
+  private volatile HttpClientManager m_aHttpClientMgr;
 
   /**
    * Constructor with a direct Peppol Directory URL.
@@ -281,4 +301,105 @@ public class PDClient implements Closeable
     }
     return ESuccess.FAILURE;
   }
+
+  /**
+   * Create, update or delete multiple participants with a single request. The
+   * request body is streamed with one line per item, and the client
+   * certificate is only verified once by the server. In contrast to
+   * {@link #executeBatch(Collection)} this method throws all exceptions and
+   * does not invoke the exception handler.
+   *
+   * @param aItems
+   *        The batch items to send. May neither be <code>null</code> nor empty.
+   * @return A list with one result per item in the same order. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         On HTTP error or if the response does not match the request
+   * @since 0.9.6
+   */
+  @Nonnull
+  public ICommonsList <EPDClientBatchResult> executeBatchRequest (@Nonnull @Nonempty final Collection <? extends PDClientBatchItem> aItems) throws IOException
+  {
+    ValueEnforcer.notEmptyNoNullValue (aItems, "Items");
+
+    final HttpPost aPost = new HttpPost (m_sPDIndexerURI + PATH_BATCH);
+    // Write the lines while sending
+    final EntityTemplate aEntity = new EntityTemplate (aOS -> {
+      final Writer aWriter = new BufferedWriter (new OutputStreamWriter (aOS, StandardCharsets.UTF_8));
+      for (final PDClientBatchItem aItem : aItems)
+        aWriter.append (aItem.getOperation ().getID ())
+               .append (' ')
+               .append (aItem.getParticipantID ().getURIPercentEncoded ())
+               .append ('\n');
+      aWriter.flush ();
+    });
+    aEntity.setContentType (ContentType.create ("text/plain", StandardCharsets.UTF_8).toString ());
+    aPost.setEntity (aEntity);
+
+    final ICommonsList <EPDClientBatchResult> ret = executeRequest (aPost, new PDClientBatchResponseHandler ());
+    if (ret.size () != aItems.size ())
+      throw new ClientProtocolException ("Expected " + aItems.size () + " batch results but got " + ret.size ());
+    return ret;
+  }
+
+  /**
+   * Create, update or delete multiple participants with a single request. The
+   * request body is streamed with one line per item, and the client
+   * certificate is only verified once by the server. This is the preferred way
+   * to handle large numbers of participants, e.g. when migrating an SMP.
+   *
+   * @param aItems
+   *        The batch items to send. May not be <code>null</code>.
+   * @return <code>null</code> if the request failed. In that case the exception
+   *         handler is invoked once with the first participant ID. Otherwise a
+   *         list with one result per item in the same order.
+   * @since 0.9.6
+   */
+  @Nullable
+  public ICommonsList <EPDClientBatchResult> executeBatch (@Nonnull final Collection <? extends PDClientBatchItem> aItems)
+  {
+    ValueEnforcer.notNull (aItems, "Items");
+
+    if (aItems.isEmpty ())
+      return new CommonsArrayList <> ();
+
+    try
+    {
+      final ICommonsList <EPDClientBatchResult> ret = executeBatchRequest (aItems);
+      LOGGER.info ("Executed batch of " + aItems.size () + " service groups at Peppol Directory");
+      return ret;
+    }
+    catch (final Throwable t)
+    {
+      m_aExceptionHdl.onException (aItems.iterator ().next ().getParticipantID (), "executeBatch", t);
+    }
+    return null;
+  }
+
+  /**
+   * Perform the same operation for multiple participants with a single
+   * request.
+   *
+   * @param eOperation
+   *        The operation to perform for all participants. May not be
+   *        <code>null</code>.
+   * @param aParticipantIDs
+   *        The participant IDs to handle. May not be <code>null</code>.
+   * @return <code>null</code> if the request failed. Otherwise a list with one
+   *         result per participant ID in the same order.
+   * @see #executeBatch(Collection)
+   * @since 0.9.6
+   */
+  @Nullable
+  public ICommonsList <EPDClientBatchResult> executeBatch (@Nonnull final EPDClientBatchOperation eOperation,
+                                                           @Nonnull final Collection <? extends IParticipantIdentifier> aParticipantIDs)
+  {
+    ValueEnforcer.notNull (eOperation, "Operation");
+    ValueEnforcer.notNull (aParticipantIDs, "ParticipantIDs");
+
+    final ICommonsList <PDClientBatchItem> aItems = new CommonsArrayList <> (aParticipantIDs.size ());
+    for (final IParticipantIdentifier aParticipantID : aParticipantIDs)
+      aItems.add (new PDClientBatchItem (eOperation, aParticipantID));
+    return executeBatch (aItems);
+  }
 }
@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.client;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.peppolid.IParticipantIdentifier;
+
+/**
+ * A single item of a batch request of the {@link PDClient}.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@Immutable
+public final class PDClientBatchItem
+{
+  private final EPDClientBatchOperation m_eOperation;
+  private final IParticipantIdentifier m_aParticipantID;
+
+  public PDClientBatchItem (@Nonnull final EPDClientBatchOperation eOperation, @Nonnull final IParticipantIdentifier aParticipantID)
+  {
+    ValueEnforcer.notNull (eOperation, "Operation");
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+    m_eOperation = eOperation;
+    m_aParticipantID = aParticipantID;
+  }
+
+  /**
+   * @return The operation to perform. Never <code>null</code>.
+   */
+  @Nonnull
+  public EPDClientBatchOperation getOperation ()
+  {
+    return m_eOperation;
+  }
+
+  /**
+   * @return The participant ID to perform the operation on. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public IParticipantIdentifier getParticipantID ()
+  {
+    return m_aParticipantID;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Operation", m_eOperation).append ("ParticipantID", m_aParticipantID).getToString ();
+  }
+}
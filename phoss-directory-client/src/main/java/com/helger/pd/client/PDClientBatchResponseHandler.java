@@ -0,0 +1,91 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.client;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.ClientProtocolException;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.entity.ContentType;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+
+/**
+ * Special response handler for batch requests of the PD client. Returns the
+ * results of all items in the order of the request.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+public class PDClientBatchResponseHandler implements ResponseHandler <ICommonsList <EPDClientBatchResult>>
+{
+  public PDClientBatchResponseHandler ()
+  {}
+
+  @Nullable
+  public ICommonsList <EPDClientBatchResult> handleResponse (@Nonnull final HttpResponse aHttpResponse) throws ClientProtocolException,
+                                                                                                           IOException
+  {
+    final StatusLine aStatusLine = aHttpResponse.getStatusLine ();
+    if (aStatusLine.getStatusCode () < 200 || aStatusLine.getStatusCode () >= 300)
+    {
+      // Throws an exception for all unexpected status codes
+      new PDClientResponseHandler ().handleResponse (aHttpResponse);
+      throw new HttpResponseException (aStatusLine.getStatusCode (),
+                                       aStatusLine.getReasonPhrase () + " [" + aStatusLine.getStatusCode () + "]");
+    }
+
+    final ICommonsList <EPDClientBatchResult> ret = new CommonsArrayList <> ();
+    final HttpEntity aEntity = aHttpResponse.getEntity ();
+    if (aEntity != null)
+    {
+      final ContentType aContentType = ContentType.get (aEntity);
+
+      // Default to UTF-8 internally
+      Charset aCharset = aContentType == null ? null : aContentType.getCharset ();
+      if (aCharset == null)
+        aCharset = StandardCharsets.UTF_8;
+
+      try (final BufferedReader aReader = new BufferedReader (new InputStreamReader (aEntity.getContent (), aCharset)))
+      {
+        String sLine;
+        while ((sLine = aReader.readLine ()) != null)
+        {
+          if (sLine.isEmpty ())
+            continue;
+          final EPDClientBatchResult eResult = EPDClientBatchResult.getFromIDOrNull (sLine.trim ());
+          if (eResult == null)
+            throw new ClientProtocolException ("Unsupported batch result '" + sLine + "' returned");
+          ret.add (eResult);
+        }
+      }
+    }
+    return ret;
+  }
+}
@@ -105,6 +105,13 @@ public final class PDClientConfiguration
   public static final EKeyStoreType DEFAULT_TRUSTSTORE_TYPE = EKeyStoreType.JKS;
   public static final int DEFAULT_CONNECTION_TIMEOUT_MS = 5_000;
   public static final int DEFAULT_REQUEST_TIMEOUT_MS = 10_000;
+  public static final int DEFAULT_ASYNC_MAX_IN_FLIGHT = 8;
+  public static final int DEFAULT_ASYNC_RETRY_COUNT = 3;
+  public static final long DEFAULT_ASYNC_RETRY_BASE_DELAY_MS = 500;
+  public static final long DEFAULT_ASYNC_RETRY_MAX_DELAY_MS = 30_000;
+  public static final int DEFAULT_ASYNC_BATCH_MAX_SIZE = 500;
+  public static final long DEFAULT_ASYNC_BATCH_MAX_DELAY_MS = 50;
+  public static final int DEFAULT_OUTBOX_MAX_SIZE = 100_000;
 
   private static final IConfig CONFIG = Config.create (createSMPClientValueProvider ());
 
@@ -344,4 +351,76 @@ public final class PDClientConfiguration
   {
     return getConfig ().getAsInt ("request.timeout.ms", DEFAULT_REQUEST_TIMEOUT_MS);
   }
+
+  /**
+   * @return The maximum number of concurrent requests of the
+   *         {@link PDAsyncClient}. Defaults to 8.
+   * @since 0.9.6
+   */
+  public static int getAsyncMaxInFlight ()
+  {
+    return getConfig ().getAsInt ("async.maxinflight", DEFAULT_ASYNC_MAX_IN_FLIGHT);
+  }
+
+  /**
+   * @return The maximum number of retries of a failed request of the
+   *         {@link PDAsyncClient}. Defaults to 3.
+   * @since 0.9.6
+   */
+  public static int getAsyncRetryCount ()
+  {
+    return getConfig ().getAsInt ("async.retry.count", DEFAULT_ASYNC_RETRY_COUNT);
+  }
+
+  /**
+   * @return The delay in milliseconds before the first retry of the
+   *         {@link PDAsyncClient}. It is doubled for every further retry.
+   *         Defaults to 500.
+   * @since 0.9.6
+   */
+  public static long getAsyncRetryBaseDelayMS ()
+  {
+    return getConfig ().getAsLong ("async.retry.basedelay.ms", DEFAULT_ASYNC_RETRY_BASE_DELAY_MS);
+  }
+
+  /**
+   * @return The maximum delay in milliseconds between two retries of the
+   *         {@link PDAsyncClient}. Defaults to 30000 (=30 seconds).
+   * @since 0.9.6
+   */
+  public static long getAsyncRetryMaxDelayMS ()
+  {
+    return getConfig ().getAsLong ("async.retry.maxdelay.ms", DEFAULT_ASYNC_RETRY_MAX_DELAY_MS);
+  }
+
+  /**
+   * @return The maximum number of operations the {@link PDAsyncClient} sends
+   *         in a single batch request. Defaults to 500.
+   * @since 0.9.6
+   */
+  public static int getAsyncBatchMaxSize ()
+  {
+    return getConfig ().getAsInt ("async.batch.maxsize", DEFAULT_ASYNC_BATCH_MAX_SIZE);
+  }
+
+  /**
+   * @return The maximum time in milliseconds the {@link PDAsyncClient} waits
+   *         for further operations before a batch request is sent. Defaults to
+   *         50.
+   * @since 0.9.6
+   */
+  public static long getAsyncBatchMaxDelayMS ()
+  {
+    return getConfig ().getAsLong ("async.batch.maxdelay.ms", DEFAULT_ASYNC_BATCH_MAX_DELAY_MS);
+  }
+
+  /**
+   * @return The maximum number of different participants that can be pending
+   *         in a {@link PDClientOutbox}. Defaults to 100000.
+   * @since 0.9.6
+   */
+  public static int getOutboxMaxSize ()
+  {
+    return getConfig ().getAsInt ("outbox.maxsize", DEFAULT_OUTBOX_MAX_SIZE);
+  }
 }
@@ -0,0 +1,574 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.client;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.OverrideOnDemand;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.url.URLHelper;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.factory.SimpleIdentifierFactory;
+
+/**
+ * A durable outbox for {@link PDClient} operations. Operations are appended to
+ * a log file in the provided directory and delivered by a background thread
+ * via the batch API of the indexer. Operations are coalesced per participant
+ * so that only the latest operation is delivered. Pending operations that
+ * were not delivered are read again from the log file when the outbox is
+ * created, so they survive restarts of the application.<br>
+ * Adding operations never performs any network operation, so the calling
+ * threads are never blocked by the latency or availability of the Peppol
+ * Directory. Operations are only removed from the outbox if the indexer
+ * accepted them or explicitly rejected them as invalid. If the whole request
+ * fails, all operations are kept and the delivery is retried with exponential
+ * backoff. Errors that are not temporary (see {@link #isRetryable(Throwable)},
+ * e.g. HTTP 401 or 404 because of a wrong configuration) are logged as errors
+ * and retried with the maximum delay.<br>
+ * The log file is synced to disk before {@link #add(PDClientBatchItem)}
+ * returns. Concurrently added operations share a single sync.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@ThreadSafe
+public class PDClientOutbox implements Closeable
+{
+  /** The name of the log file within the outbox directory */
+  public static final String FILENAME_LOG = "pd-outbox.log";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (PDClientOutbox.class);
+  // Minimum number of superseded log lines before the log is compacted
+  private static final int COMPACT_MIN_OBSOLETE_LINES = 1_000;
+
+  private final PDClient m_aClient;
+  private final File m_aLogFile;
+  private final int m_nMaxSize;
+  private final int m_nBatchMaxSize;
+  private final long m_nBatchMaxDelayMS;
+  private final long m_nRetryBaseDelayMS;
+  private final long m_nRetryMaxDelayMS;
+  private final ScheduledExecutorService m_aSender;
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  @GuardedBy ("m_aLock")
+  private final ICommonsOrderedMap <String, PDClientBatchItem> m_aPending = new CommonsLinkedHashMap <> ();
+  @GuardedBy ("m_aLock")
+  private FileChannel m_aChannel;
+  @GuardedBy ("m_aLock")
+  private int m_nLogLines;
+  // Sequence number of the last written log line
+  @GuardedBy ("m_aLock")
+  private long m_nWrittenSeq = 0;
+  private final SimpleLock m_aSyncLock = new SimpleLock ();
+  // Sequence number of the last log line synced to disk
+  @GuardedBy ("m_aSyncLock")
+  private long m_nSyncedSeq = 0;
+  @GuardedBy ("m_aLock")
+  private boolean m_bSendScheduled = false;
+  @GuardedBy ("m_aLock")
+  private int m_nFailedAttempts = 0;
+  @GuardedBy ("m_aLock")
+  private boolean m_bClosed = false;
+
+  /**
+   * Constructor using the settings from {@link PDClientConfiguration}.
+   *
+   * @param aClient
+   *        The client to deliver the operations with. May not be
+   *        <code>null</code>. It is not closed by this class.
+   * @param aDirectory
+   *        The directory to store the log file in. Is created if it does not
+   *        exist. May not be <code>null</code>.
+   * @throws IOException
+   *         If the log file cannot be read or written
+   */
+  public PDClientOutbox (@Nonnull final PDClient aClient, @Nonnull final File aDirectory) throws IOException
+  {
+    this (aClient,
+          aDirectory,
+          PDClientConfiguration.getOutboxMaxSize (),
+          PDClientConfiguration.getAsyncBatchMaxSize (),
+          PDClientConfiguration.getAsyncBatchMaxDelayMS (),
+          PDClientConfiguration.getAsyncRetryBaseDelayMS (),
+          PDClientConfiguration.getAsyncRetryMaxDelayMS ());
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param aClient
+   *        The client to deliver the operations with. May not be
+   *        <code>null</code>. It is not closed by this class.
+   * @param aDirectory
+   *        The directory to store the log file in. Is created if it does not
+   *        exist. May not be <code>null</code>.
+   * @param nMaxSize
+   *        The maximum number of different participants that can be pending.
+   *        Must be &gt; 0.
+   * @param nBatchMaxSize
+   *        The maximum number of operations per batch request. Must be &gt; 0.
+   * @param nBatchMaxDelayMS
+   *        The time to wait for further operations before a batch is sent.
+   *        Must be &ge; 0.
+   * @param nRetryBaseDelayMS
+   *        The delay before the first retry. Must be &gt; 0.
+   * @param nRetryMaxDelayMS
+   *        The maximum delay between two retries. Must be &ge; the base delay.
+   * @throws IOException
+   *         If the log file cannot be read or written
+   */
+  public PDClientOutbox (@Nonnull final PDClient aClient,
+                         @Nonnull final File aDirectory,
+                         @Nonnegative final int nMaxSize,
+                         @Nonnegative final int nBatchMaxSize,
+                         @Nonnegative final long nBatchMaxDelayMS,
+                         @Nonnegative final long nRetryBaseDelayMS,
+                         @Nonnegative final long nRetryMaxDelayMS) throws IOException
+  {
+    ValueEnforcer.notNull (aClient, "Client");
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.isGT0 (nMaxSize, "MaxSize");
+    ValueEnforcer.isGT0 (nBatchMaxSize, "BatchMaxSize");
+    ValueEnforcer.isGE0 (nBatchMaxDelayMS, "BatchMaxDelayMS");
+    ValueEnforcer.isGT0 (nRetryBaseDelayMS, "RetryBaseDelayMS");
+    ValueEnforcer.isTrue (nRetryMaxDelayMS >= nRetryBaseDelayMS, "RetryMaxDelayMS must be >= RetryBaseDelayMS");
+
+    m_aClient = aClient;
+    m_aLogFile = new File (aDirectory, FILENAME_LOG);
+    m_nMaxSize = nMaxSize;
+    m_nBatchMaxSize = nBatchMaxSize;
+    m_nBatchMaxDelayMS = nBatchMaxDelayMS;
+    m_nRetryBaseDelayMS = nRetryBaseDelayMS;
+    m_nRetryMaxDelayMS = nRetryMaxDelayMS;
+
+    if (FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aDirectory).isFailure ())
+      throw new IOException ("Failed to create outbox directory " + aDirectory.getAbsolutePath ());
+
+    // Read the operations that were not yet delivered
+    if (m_aLogFile.exists ())
+    {
+      try (final BufferedReader aReader = Files.newBufferedReader (m_aLogFile.toPath (), StandardCharsets.UTF_8))
+      {
+        String sLine;
+        while ((sLine = aReader.readLine ()) != null)
+        {
+          m_nLogLines++;
+          final PDClientBatchItem aItem = _parseLine (sLine);
+          if (aItem == null)
+            LOGGER.warn ("Ignoring invalid outbox log line '" + sLine + "'");
+          else
+            m_aPending.put (_getKey (aItem), aItem);
+        }
+      }
+      if (m_aPending.isNotEmpty ())
+        LOGGER.info ("Read " + m_aPending.size () + " pending operation(s) from outbox log " + m_aLogFile.getAbsolutePath ());
+    }
+    m_aChannel = _openLog ();
+
+    final ScheduledThreadPoolExecutor aSender = new ScheduledThreadPoolExecutor (1,
+                                                                                 new BasicThreadFactory.Builder ().namingPattern ("pd-client-outbox-%d")
+                                                                                                                  .daemon (true)
+                                                                                                                  .build ());
+    // Don't wait for the next retry upon close
+    aSender.setExecuteExistingDelayedTasksAfterShutdownPolicy (false);
+    m_aSender = aSender;
+    m_aLock.locked ( () -> _scheduleSend (m_nBatchMaxDelayMS));
+  }
+
+  @Nonnull
+  private static String _getKey (@Nonnull final PDClientBatchItem aItem)
+  {
+    return aItem.getParticipantID ().getURIEncoded ();
+  }
+
+  @Nonnull
+  private static String _getLine (@Nonnull final PDClientBatchItem aItem)
+  {
+    return aItem.getOperation ().getID () + ' ' + aItem.getParticipantID ().getURIPercentEncoded () + '\n';
+  }
+
+  @Nullable
+  private static PDClientBatchItem _parseLine (@Nonnull final String sLine)
+  {
+    final int nIndex = sLine.indexOf (' ');
+    if (nIndex < 0)
+      return null;
+    final EPDClientBatchOperation eOperation = EPDClientBatchOperation.getFromIDOrNull (sLine.substring (0, nIndex));
+    if (eOperation == null)
+      return null;
+    final String sPID = sLine.substring (nIndex + 1).trim ();
+    if (StringHelper.hasNoText (sPID))
+      return null;
+    final IParticipantIdentifier aPID = SimpleIdentifierFactory.INSTANCE.parseParticipantIdentifier (URLHelper.urlDecodeOrDefault (sPID,
+                                                                                                                                     sPID));
+    return aPID == null ? null : new PDClientBatchItem (eOperation, aPID);
+  }
+
+  @Nonnull
+  private FileChannel _openLog () throws IOException
+  {
+    return FileChannel.open (m_aLogFile.toPath (), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  @GuardedBy ("m_aLock")
+  private void _scheduleSend (final long nDelayMS)
+  {
+    if (!m_bSendScheduled && !m_bClosed && m_aPending.isNotEmpty ())
+    {
+      m_bSendScheduled = true;
+      m_aSender.schedule (this::_send, nDelayMS, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /**
+   * Rewrite the log file so that it only contains the pending operations, if
+   * enough lines are obsolete.
+   */
+  @GuardedBy ("m_aLock")
+  private void _compactLog () throws IOException
+  {
+    final int nObsolete = m_nLogLines - m_aPending.size ();
+    if (m_aPending.isNotEmpty () && nObsolete < Math.max (COMPACT_MIN_OBSOLETE_LINES, m_aPending.size ()))
+      return;
+
+    final File aTmpFile = new File (m_aLogFile.getParentFile (), FILENAME_LOG + ".tmp");
+    try (final FileChannel aTmp = FileChannel.open (aTmpFile.toPath (),
+                                                    StandardOpenOption.CREATE,
+                                                    StandardOpenOption.WRITE,
+                                                    StandardOpenOption.TRUNCATE_EXISTING))
+    {
+      for (final PDClientBatchItem aItem : m_aPending.values ())
+        _write (aTmp, _getLine (aItem));
+      aTmp.force (true);
+    }
+    m_aChannel.close ();
+    Files.move (aTmpFile.toPath (), m_aLogFile.toPath (), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    m_aChannel = _openLog ();
+    m_nLogLines = m_aPending.size ();
+  }
+
+  private static void _write (@Nonnull final FileChannel aChannel, @Nonnull final String sLine) throws IOException
+  {
+    final ByteBuffer aBB = ByteBuffer.wrap (sLine.getBytes (StandardCharsets.UTF_8));
+    while (aBB.hasRemaining ())
+      aChannel.write (aBB);
+  }
+
+  /**
+   * Make sure the log file is synced to disk at least up to the provided
+   * sequence number. If another thread is currently syncing, the sync of that
+   * thread is waited for and the next sync covers all lines written in the
+   * meantime.
+   *
+   * @param nSeq
+   *        The sequence number of the log line that must be on disk.
+   * @return {@link ESuccess}
+   */
+  @Nonnull
+  private ESuccess _sync (final long nSeq)
+  {
+    m_aSyncLock.lock ();
+    try
+    {
+      if (m_nSyncedSeq >= nSeq)
+      {
+        // Synced by another thread in the meantime
+        return ESuccess.SUCCESS;
+      }
+
+      final FileChannel aChannel;
+      final long nWrittenSeq;
+      m_aLock.lock ();
+      try
+      {
+        aChannel = m_aChannel;
+        nWrittenSeq = m_nWrittenSeq;
+      }
+      finally
+      {
+        m_aLock.unlock ();
+      }
+
+      try
+      {
+        aChannel.force (false);
+      }
+      catch (final ClosedChannelException ex)
+      {
+        // The log was compacted or closed, which includes a sync
+      }
+      m_nSyncedSeq = nWrittenSeq;
+      return ESuccess.SUCCESS;
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Failed to sync outbox log " + m_aLogFile.getAbsolutePath (), ex);
+      return ESuccess.FAILURE;
+    }
+    finally
+    {
+      m_aSyncLock.unlock ();
+    }
+  }
+
+  /**
+   * Check if the provided exception is temporary so that the delivery should
+   * be retried with exponential backoff. By default network errors, HTTP 429
+   * and all HTTP 5xx responses are temporary. For all other errors, the
+   * delivery is retried with the maximum delay. The operations are kept in
+   * both cases.
+   *
+   * @param t
+   *        The exception that occurred. Never <code>null</code>.
+   * @return <code>true</code> if the error is temporary.
+   */
+  @OverrideOnDemand
+  protected boolean isRetryable (@Nonnull final Throwable t)
+  {
+    return PDAsyncClient.isTemporaryError (t);
+  }
+
+  private void _send ()
+  {
+    final ICommonsList <PDClientBatchItem> aBatch = new CommonsArrayList <> ();
+    m_aLock.locked ( () -> {
+      m_bSendScheduled = false;
+      if (m_bClosed)
+        return;
+      for (final PDClientBatchItem aItem : m_aPending.values ())
+      {
+        if (aBatch.size () >= m_nBatchMaxSize)
+          break;
+        aBatch.add (aItem);
+      }
+    });
+    if (aBatch.isEmpty ())
+      return;
+
+    ICommonsList <EPDClientBatchResult> aResults = null;
+    boolean bTemporary = false;
+    try
+    {
+      aResults = m_aClient.executeBatchRequest (aBatch);
+    }
+    catch (final Exception ex)
+    {
+      // Keep all operations - only the per-item result decides about dropping
+      bTemporary = isRetryable (ex);
+      if (bTemporary)
+        LOGGER.warn ("Failed to deliver " + aBatch.size () + " outbox operation(s): " + ex.getMessage ());
+      else
+        LOGGER.error ("Failed to deliver " + aBatch.size () + " outbox operation(s) - retrying with the maximum delay", ex);
+    }
+
+    final ICommonsList <EPDClientBatchResult> aFinalResults = aResults;
+    final boolean bFinalTemporary = bTemporary;
+    m_aLock.locked ( () -> {
+      if (aFinalResults == null)
+      {
+        final long nDelayMS = bFinalTemporary ? PDAsyncClient.getBackoffDelayMS (m_nRetryBaseDelayMS,
+                                                                                 m_nRetryMaxDelayMS,
+                                                                                 m_nFailedAttempts)
+                                              : m_nRetryMaxDelayMS;
+        m_nFailedAttempts++;
+        _scheduleSend (nDelayMS);
+        return;
+      }
+
+      m_nFailedAttempts = 0;
+      for (int i = 0; i < aBatch.size (); ++i)
+      {
+        final PDClientBatchItem aItem = aBatch.get (i);
+        if (aFinalResults.get (i) == EPDClientBatchResult.INVALID)
+          LOGGER.warn ("Dropping outbox operation " + aItem + " that was rejected as invalid by the Peppol Directory");
+        // Only remove it, if it was not superseded in the meantime
+        final String sKey = _getKey (aItem);
+        if (m_aPending.get (sKey) == aItem)
+          m_aPending.remove (sKey);
+      }
+
+      try
+      {
+        _compactLog ();
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to compact outbox log " + m_aLogFile.getAbsolutePath (), ex);
+      }
+      _scheduleSend (0);
+    });
+  }
+
+  /**
+   * Add an operation to the outbox. If an operation for the same participant
+   * is already pending, it is replaced. The operation is synced to disk before
+   * this method returns successfully.
+   *
+   * @param aItem
+   *        The operation to add. May not be <code>null</code>.
+   * @return {@link ESuccess#FAILURE} if the outbox is full, closed or if the
+   *         log file could not be written or synced. If only the sync failed,
+   *         the operation may still be delivered.
+   */
+  @Nonnull
+  public ESuccess add (@Nonnull final PDClientBatchItem aItem)
+  {
+    ValueEnforcer.notNull (aItem, "Item");
+
+    final String sKey = _getKey (aItem);
+    final long nSeq;
+    m_aLock.lock ();
+    try
+    {
+      if (m_bClosed)
+      {
+        LOGGER.warn ("Cannot add " + aItem + " because the outbox is closed");
+        return ESuccess.FAILURE;
+      }
+      if (m_aPending.size () >= m_nMaxSize && !m_aPending.containsKey (sKey))
+      {
+        LOGGER.warn ("Cannot add " + aItem + " because the outbox is full");
+        return ESuccess.FAILURE;
+      }
+
+      try
+      {
+        _write (m_aChannel, _getLine (aItem));
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to write outbox log " + m_aLogFile.getAbsolutePath (), ex);
+        return ESuccess.FAILURE;
+      }
+      m_nLogLines++;
+      nSeq = ++m_nWrittenSeq;
+
+      // Keep the insertion order of the latest operation
+      m_aPending.remove (sKey);
+      m_aPending.put (sKey, aItem);
+      _scheduleSend (m_nBatchMaxDelayMS);
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+
+    // Sync outside of the lock, so that concurrent adds share the sync
+    return _sync (nSeq);
+  }
+
+  /**
+   * Add or update the provided participant in the index.
+   *
+   * @param aParticipantID
+   *        The participant to add. May not be <code>null</code>.
+   * @return {@link ESuccess#FAILURE} if the outbox is full, closed or if the
+   *         log file could not be written.
+   */
+  @Nonnull
+  public ESuccess addServiceGroupToIndex (@Nonnull final IParticipantIdentifier aParticipantID)
+  {
+    return add (new PDClientBatchItem (EPDClientBatchOperation.CREATE_UPDATE, aParticipantID));
+  }
+
+  /**
+   * Delete the provided participant from the index.
+   *
+   * @param aParticipantID
+   *        The participant to delete. May not be <code>null</code>.
+   * @return {@link ESuccess#FAILURE} if the outbox is full, closed or if the
+   *         log file could not be written.
+   */
+  @Nonnull
+  public ESuccess deleteServiceGroupFromIndex (@Nonnull final IParticipantIdentifier aParticipantID)
+  {
+    return add (new PDClientBatchItem (EPDClientBatchOperation.DELETE, aParticipantID));
+  }
+
+  /**
+   * @return The number of participants with pending operations. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getPendingCount ()
+  {
+    return m_aLock.lockedGet (m_aPending::size);
+  }
+
+  /**
+   * Stop the background delivery and close the log file. A delivery that is
+   * currently running is finished, but pending retries are not waited for.
+   * Pending operations remain in the log file and are delivered after the
+   * next start. The underlying {@link PDClient} is not closed.
+   *
+   * @throws IOException
+   *         If the log file cannot be closed
+   */
+  public void close () throws IOException
+  {
+    m_aLock.locked ( () -> m_bClosed = true);
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aSender);
+    m_aLock.lockedThrowing ( () -> {
+      m_aChannel.force (true);
+      m_aChannel.close ();
+    });
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Client", m_aClient)
+                                       .append ("LogFile", m_aLogFile)
+                                       .append ("MaxSize", m_nMaxSize)
+                                       .append ("BatchMaxSize", m_nBatchMaxSize)
+                                       .append ("BatchMaxDelayMS", m_nBatchMaxDelayMS)
+                                       .getToString ();
+  }
+}
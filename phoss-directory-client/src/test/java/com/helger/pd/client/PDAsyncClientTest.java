@@ -0,0 +1,257 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.factory.PeppolIdentifierFactory;
+
+/**
+ * Test class for class {@link PDAsyncClient}.
+ *
+ * @author Philip Helger
+ */
+public final class PDAsyncClientTest
+{
+  /**
+   * Records all batches instead of sending them. The first requests may be
+   * configured to fail.
+   */
+  private static final class MockClient extends PDClient
+  {
+    private final List <ICommonsList <PDClientBatchItem>> m_aBatches = new CopyOnWriteArrayList <> ();
+    private final AtomicInteger m_aCalls = new AtomicInteger (0);
+    private final int m_nFailures;
+    private final IOException m_aFailure;
+    private volatile CountDownLatch m_aGate;
+
+    MockClient (final int nFailures, @Nonnull final IOException aFailure)
+    {
+      // Nothing is listening on that port
+      super ("http://localhost:1");
+      m_nFailures = nFailures;
+      m_aFailure = aFailure;
+    }
+
+    MockClient ()
+    {
+      this (0, new IOException ("unused"));
+    }
+
+    @Override
+    public ICommonsList <EPDClientBatchResult> executeBatchRequest (@Nonnull final Collection <? extends PDClientBatchItem> aItems) throws IOException
+    {
+      final CountDownLatch aGate = m_aGate;
+      if (aGate != null)
+        try
+        {
+          aGate.await ();
+        }
+        catch (final InterruptedException ex)
+        {
+          Thread.currentThread ().interrupt ();
+          throw new IOException (ex);
+        }
+      if (m_aCalls.incrementAndGet () <= m_nFailures)
+        throw m_aFailure;
+      m_aBatches.add (new CommonsArrayList <> (aItems));
+      final ICommonsList <EPDClientBatchResult> ret = new CommonsArrayList <> ();
+      for (int i = 0; i < aItems.size (); ++i)
+        ret.add (EPDClientBatchResult.QUEUED);
+      return ret;
+    }
+  }
+
+  @Nonnull
+  private static IParticipantIdentifier _createPI (final int nIndex)
+  {
+    return PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:async" + nIndex);
+  }
+
+  private static void _assertFailed (@Nonnull final CompletableFuture <?> aFuture, @Nonnull final Class <?> aExpectedCause)
+  {
+    assertTrue (aFuture.isCompletedExceptionally ());
+    try
+    {
+      aFuture.get ();
+      fail ();
+    }
+    catch (final ExecutionException ex)
+    {
+      assertSame (aExpectedCause, ex.getCause ().getClass ());
+    }
+    catch (final InterruptedException ex)
+    {
+      throw new IllegalStateException (ex);
+    }
+  }
+
+  @Test
+  public void testBatching () throws Exception
+  {
+    try (final MockClient aClient = new MockClient ())
+    {
+      final ICommonsList <CompletableFuture <EPDClientBatchResult>> aFutures = new CommonsArrayList <> ();
+      final PDAsyncClient aAsync = new PDAsyncClient (aClient, 1, 0, 1, 1, 2, 60_000);
+      for (int i = 0; i < 5; ++i)
+        aFutures.add (aAsync.addServiceGroupToIndex (_createPI (i)));
+      // Sends the last incomplete batch
+      aAsync.close ();
+
+      for (final CompletableFuture <EPDClientBatchResult> aFuture : aFutures)
+        assertSame (EPDClientBatchResult.QUEUED, aFuture.get ());
+
+      assertEquals (3, aClient.m_aBatches.size ());
+      assertEquals (2, aClient.m_aBatches.get (0).size ());
+      assertEquals (2, aClient.m_aBatches.get (1).size ());
+      assertEquals (1, aClient.m_aBatches.get (2).size ());
+      assertEquals (_createPI (4), aClient.m_aBatches.get (2).getFirst ().getParticipantID ());
+    }
+  }
+
+  @Test
+  public void testHeldBackBatchSize () throws Exception
+  {
+    try (final MockClient aClient = new MockClient ())
+    {
+      aClient.m_aGate = new CountDownLatch (1);
+      final PDAsyncClient aAsync = new PDAsyncClient (aClient, 4, 0, 1, 1, 2, 60_000);
+      final ICommonsList <CompletableFuture <EPDClientBatchResult>> aFutures = new CommonsArrayList <> ();
+      // Sent but blocked
+      aFutures.add (aAsync.addServiceGroupToIndex (_createPI (0)));
+      aFutures.add (aAsync.addServiceGroupToIndex (_createPI (1)));
+      // Held back
+      aFutures.add (aAsync.deleteServiceGroupFromIndex (_createPI (0)));
+      aFutures.add (aAsync.deleteServiceGroupFromIndex (_createPI (1)));
+      // Pending
+      aFutures.add (aAsync.addServiceGroupToIndex (_createPI (2)));
+
+      aClient.m_aGate.countDown ();
+      aAsync.close ();
+
+      for (final CompletableFuture <EPDClientBatchResult> aFuture : aFutures)
+        assertSame (EPDClientBatchResult.QUEUED, aFuture.get ());
+      assertEquals (5, aClient.m_aBatches.stream ().mapToInt (ICommonsList::size).sum ());
+      for (final ICommonsList <PDClientBatchItem> aBatch : aClient.m_aBatches)
+        assertTrue (aBatch.size () <= 2);
+    }
+  }
+
+  @Test
+  public void testDuplicate () throws Exception
+  {
+    try (final MockClient aClient = new MockClient ())
+    {
+      final PDAsyncClient aAsync = new PDAsyncClient (aClient, 1, 0, 1, 1, 10, 60_000);
+      final CompletableFuture <EPDClientBatchResult> aAdd = aAsync.addServiceGroupToIndex (_createPI (1));
+      final CompletableFuture <EPDClientBatchResult> aDelete = aAsync.deleteServiceGroupFromIndex (_createPI (1));
+
+      // Superseded before it was sent
+      assertTrue (aAdd.isDone ());
+      assertSame (EPDClientBatchResult.DUPLICATE, aAdd.get ());
+      assertFalse (aDelete.isDone ());
+
+      aAsync.close ();
+      assertSame (EPDClientBatchResult.QUEUED, aDelete.get ());
+
+      // Only the latest operation was sent
+      assertEquals (1, aClient.m_aBatches.size ());
+      assertEquals (1, aClient.m_aBatches.get (0).size ());
+      assertSame (EPDClientBatchOperation.DELETE, aClient.m_aBatches.get (0).getFirst ().getOperation ());
+    }
+  }
+
+  @Test
+  public void testRetry () throws Exception
+  {
+    // Temporary error
+    try (final MockClient aClient = new MockClient (2, new IOException ("Connection reset")))
+    {
+      final PDAsyncClient aAsync = new PDAsyncClient (aClient, 1, 3, 1, 1, 10, 0);
+      final CompletableFuture <EPDClientBatchResult> aFuture = aAsync.addServiceGroupToIndex (_createPI (1));
+      aAsync.close ();
+
+      assertSame (EPDClientBatchResult.QUEUED, aFuture.get ());
+      assertEquals (3, aClient.m_aCalls.get ());
+      assertEquals (1, aClient.m_aBatches.size ());
+    }
+
+    // Too many temporary errors
+    try (final MockClient aClient = new MockClient (10, new IOException ("Connection reset")))
+    {
+      final PDAsyncClient aAsync = new PDAsyncClient (aClient, 1, 2, 1, 1, 10, 0);
+      final CompletableFuture <EPDClientBatchResult> aFuture = aAsync.addServiceGroupToIndex (_createPI (1));
+      aAsync.close ();
+
+      _assertFailed (aFuture, IOException.class);
+      assertEquals (3, aClient.m_aCalls.get ());
+    }
+
+    // Permanent error
+    try (final MockClient aClient = new MockClient (10, new HttpResponseException (400, "Bad Request")))
+    {
+      final PDAsyncClient aAsync = new PDAsyncClient (aClient, 1, 3, 1, 1, 10, 0);
+      final CompletableFuture <EPDClientBatchResult> aFuture = aAsync.addServiceGroupToIndex (_createPI (1));
+      aAsync.close ();
+
+      _assertFailed (aFuture, HttpResponseException.class);
+      assertEquals (1, aClient.m_aCalls.get ());
+    }
+  }
+
+  @Test
+  public void testClose () throws Exception
+  {
+    try (final MockClient aClient = new MockClient ())
+    {
+      final PDAsyncClient aAsync = new PDAsyncClient (aClient, 2, 0, 1, 1, 10, 60_000);
+      final ICommonsList <CompletableFuture <EPDClientBatchResult>> aFutures = new CommonsArrayList <> ();
+      for (int i = 0; i < 15; ++i)
+        aFutures.add (aAsync.addServiceGroupToIndex (_createPI (i)));
+      aAsync.close ();
+
+      // Everything was sent before close returned
+      for (final CompletableFuture <EPDClientBatchResult> aFuture : aFutures)
+        assertSame (EPDClientBatchResult.QUEUED, aFuture.getNow (null));
+      assertEquals (15, aClient.m_aBatches.stream ().mapToInt (ICommonsList::size).sum ());
+
+      // Closed
+      _assertFailed (aAsync.addServiceGroupToIndex (_createPI (99)), IllegalStateException.class);
+    }
+  }
+}
@@ -0,0 +1,193 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.client;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.apache.http.client.HttpResponseException;
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.factory.PeppolIdentifierFactory;
+
+/**
+ * Test class for class {@link PDClientOutbox}.
+ *
+ * @author Philip Helger
+ */
+public final class PDClientOutboxTest
+{
+  @Test
+  public void testPersistence () throws Exception
+  {
+    final File aDir = new File ("target/outbox-test");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+
+    final IParticipantIdentifier aPI1 = PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:test1");
+    final IParticipantIdentifier aPI2 = PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:test2");
+
+    // Nothing is listening on that port, so nothing is delivered
+    try (final PDClient aClient = new PDClient ("http://localhost:1"))
+    {
+      try (final PDClientOutbox aOutbox = new PDClientOutbox (aClient, aDir, 2, 10, 0, 60_000, 60_000))
+      {
+        assertTrue (aOutbox.addServiceGroupToIndex (aPI1).isSuccess ());
+        assertTrue (aOutbox.deleteServiceGroupFromIndex (aPI1).isSuccess ());
+        assertTrue (aOutbox.addServiceGroupToIndex (aPI2).isSuccess ());
+        assertEquals (2, aOutbox.getPendingCount ());
+
+        // Full
+        assertTrue (aOutbox.addServiceGroupToIndex (PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:test3"))
+                           .isFailure ());
+        assertEquals (2, aOutbox.getPendingCount ());
+      }
+
+      // Read again from disk
+      try (final PDClientOutbox aOutbox = new PDClientOutbox (aClient, aDir, 2, 10, 0, 60_000, 60_000))
+      {
+        assertEquals (2, aOutbox.getPendingCount ());
+      }
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+    }
+  }
+
+  @Test
+  public void testCloseDoesNotWaitForRetry () throws Exception
+  {
+    final File aDir = new File ("target/outbox-test-close");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+
+    // Nothing is listening on that port, so the delivery is retried
+    try (final PDClient aClient = new PDClient ("http://localhost:1"))
+    {
+      final PDClientOutbox aOutbox = new PDClientOutbox (aClient, aDir, 10, 10, 0, 600_000, 600_000);
+      assertTrue (aOutbox.addServiceGroupToIndex (PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:test1"))
+                         .isSuccess ());
+      // Wait for the first attempt
+      Thread.sleep (500);
+
+      final long nStart = System.currentTimeMillis ();
+      aOutbox.close ();
+      assertTrue (System.currentTimeMillis () - nStart < 60_000);
+      assertEquals (1, aOutbox.getPendingCount ());
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+    }
+  }
+
+  @Test
+  public void testKeepOnRequestFailure () throws Exception
+  {
+    final File aDir = new File ("target/outbox-test-keep");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+
+    final AtomicInteger aCalls = new AtomicInteger (0);
+    try (final PDClient aClient = new PDClient ("http://localhost:1")
+    {
+      @Override
+      public ICommonsList <EPDClientBatchResult> executeBatchRequest (@Nonnull final Collection <? extends PDClientBatchItem> aItems) throws IOException
+      {
+        aCalls.incrementAndGet ();
+        throw new HttpResponseException (401, "Unauthorized");
+      }
+    })
+    {
+      try (final PDClientOutbox aOutbox = new PDClientOutbox (aClient, aDir, 10, 10, 0, 600_000, 600_000))
+      {
+        assertTrue (aOutbox.addServiceGroupToIndex (PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:test1"))
+                           .isSuccess ());
+        for (int i = 0; i < 100 && aCalls.get () == 0; ++i)
+          Thread.sleep (50);
+        Thread.sleep (200);
+
+        // The operation is kept and not sent again immediately
+        assertEquals (1, aCalls.get ());
+        assertEquals (1, aOutbox.getPendingCount ());
+      }
+
+      // Still on disk
+      try (final PDClientOutbox aOutbox = new PDClientOutbox (aClient, aDir, 10, 10, 60_000, 600_000, 600_000))
+      {
+        assertEquals (1, aOutbox.getPendingCount ());
+      }
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+    }
+  }
+
+  @Test
+  public void testDropInvalid () throws Exception
+  {
+    final File aDir = new File ("target/outbox-test-drop");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+
+    try (final PDClient aClient = new PDClient ("http://localhost:1")
+    {
+      @Override
+      public ICommonsList <EPDClientBatchResult> executeBatchRequest (@Nonnull final Collection <? extends PDClientBatchItem> aItems) throws IOException
+      {
+        final ICommonsList <EPDClientBatchResult> ret = new CommonsArrayList <> ();
+        for (final PDClientBatchItem aItem : aItems)
+          ret.add (aItem.getParticipantID ().getValue ().endsWith ("invalid") ? EPDClientBatchResult.INVALID
+                                                                              : EPDClientBatchResult.QUEUED);
+        return ret;
+      }
+    })
+    {
+      try (final PDClientOutbox aOutbox = new PDClientOutbox (aClient, aDir, 10, 10, 0, 600_000, 600_000))
+      {
+        assertTrue (aOutbox.addServiceGroupToIndex (PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:invalid"))
+                           .isSuccess ());
+        assertTrue (aOutbox.addServiceGroupToIndex (PeppolIdentifierFactory.INSTANCE.createParticipantIdentifierWithDefaultScheme ("9915:test1"))
+                           .isSuccess ());
+
+        // Invalid operations are dropped instead of being retried
+        for (int i = 0; i < 100 && aOutbox.getPendingCount () > 0; ++i)
+          Thread.sleep (50);
+        assertEquals (0, aOutbox.getPendingCount ());
+      }
+
+      // Also removed from disk
+      try (final PDClientOutbox aOutbox = new PDClientOutbox (aClient, aDir, 10, 10, 60_000, 600_000, 600_000))
+      {
+        assertEquals (0, aOutbox.getPendingCount ());
+      }
+    }
+    finally
+    {
+      FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+    }
+  }
+}
@@ -42,4 +42,51 @@ public interface IPDBusinessCardProvider
    */
   @Nullable
   PDExtendedBusinessCard getBusinessCard (@Nonnull IParticipantIdentifier aParticipantID);
+
+  /**
+   * Get the {@link PDExtendedBusinessCard} for the given participant ID, using
+   * the provided cache to revalidate a previously retrieved business card.
+   * Implementations that don't support caching simply ignore the cache. This
+   * is the default.
+   *
+   * @param aParticipantID
+   *        Peppol participant ID. May not be <code>null</code>.
+   * @param aCache
+   *        The business card cache to use. May be <code>null</code>.
+   * @return <code>null</code> if no business card exists for the provided
+   *         participant ID.
+   * @since 0.9.6
+   */
+  @Nullable
+  default PDExtendedBusinessCard getBusinessCard (@Nonnull final IParticipantIdentifier aParticipantID,
+                                                  @Nullable final PDBusinessCardCache aCache)
+  {
+    return getBusinessCard (aParticipantID);
+  }
+
+  /**
+   * Get the {@link PDExtendedBusinessCard} for the given participant ID, using
+   * the provided cache to revalidate a previously retrieved business card and
+   * reporting failures of the SMP host to the provided handler.
+   * Implementations that don't contact an SMP host simply ignore the handler.
+   * This is the default.
+   *
+   * @param aParticipantID
+   *        Peppol participant ID. May not be <code>null</code>.
+   * @param aCache
+   *        The business card cache to use. May be <code>null</code>.
+   * @param aHostFailureHandler
+   *        The handler to be invoked if the SMP host could not be queried
+   *        because of a transport or server error. May be <code>null</code>.
+   * @return <code>null</code> if no business card exists for the provided
+   *         participant ID.
+   * @since 0.9.6
+   */
+  @Nullable
+  default PDExtendedBusinessCard getBusinessCard (@Nonnull final IParticipantIdentifier aParticipantID,
+                                                  @Nullable final PDBusinessCardCache aCache,
+                                                  @Nullable final IPDSMPHostFailureHandler aHostFailureHandler)
+  {
+    return getBusinessCard (aParticipantID, aCache);
+  }
 }
@@ -0,0 +1,46 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.businesscard;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.peppolid.IParticipantIdentifier;
+
+/**
+ * Callback interface for {@link IPDBusinessCardProvider} implementations to
+ * report that the SMP host of a participant could not be queried because of a
+ * transport error or a server error (HTTP status code &ge; 500). Missing
+ * business cards and client errors are not reported.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@FunctionalInterface
+public interface IPDSMPHostFailureHandler
+{
+  /**
+   * Called after a failed request to an SMP host.
+   *
+   * @param aParticipantID
+   *        The participant ID that was queried. Never <code>null</code>.
+   * @param sHostAddress
+   *        The resolved IP address of the SMP host. Neither <code>null</code>
+   *        nor empty.
+   */
+  void onSMPHostFailure (@Nonnull IParticipantIdentifier aParticipantID, @Nonnull @Nonempty String sHostAddress);
+}
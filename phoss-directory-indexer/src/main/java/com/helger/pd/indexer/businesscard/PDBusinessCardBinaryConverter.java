@@ -0,0 +1,282 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.businesscard;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.LocalDate;
+import java.util.Comparator;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.stream.NullOutputStream;
+import com.helger.commons.string.StringHelper;
+import com.helger.pd.businesscard.generic.PDBusinessCard;
+import com.helger.pd.businesscard.generic.PDBusinessEntity;
+import com.helger.pd.businesscard.generic.PDContact;
+import com.helger.pd.businesscard.generic.PDIdentifier;
+import com.helger.pd.businesscard.generic.PDName;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+
+/**
+ * Compact binary representation of {@link PDBusinessCard} objects, used by the
+ * {@link PDBusinessCardCache}. Additionally it is used to calculate a content
+ * hash of {@link PDExtendedBusinessCard} objects.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@Immutable
+public final class PDBusinessCardBinaryConverter
+{
+  private static final String HASH_ALGORITHM = "SHA-256";
+
+  private PDBusinessCardBinaryConverter ()
+  {}
+
+  /**
+   * Write a string that may be <code>null</code> and may be longer than the
+   * 64KB supported by {@link DataOutput#writeUTF(String)}.
+   *
+   * @param s
+   *        The string to write. May be <code>null</code>.
+   * @param aDO
+   *        The data output to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of a write error
+   */
+  public static void writeString (@Nullable final String s, @Nonnull final DataOutput aDO) throws IOException
+  {
+    if (s == null)
+      aDO.writeInt (-1);
+    else
+    {
+      final byte [] aBytes = s.getBytes (StandardCharsets.UTF_8);
+      aDO.writeInt (aBytes.length);
+      aDO.write (aBytes);
+    }
+  }
+
+  /**
+   * Read a string written by {@link #writeString(String, DataOutput)}.
+   *
+   * @param aDI
+   *        The data input to read from. May not be <code>null</code>.
+   * @return The read string. May be <code>null</code>.
+   * @throws IOException
+   *         In case of a read error
+   */
+  @Nullable
+  public static String readString (@Nonnull final DataInput aDI) throws IOException
+  {
+    final int nLength = aDI.readInt ();
+    if (nLength < 0)
+      return null;
+    final byte [] aBytes = new byte [nLength];
+    aDI.readFully (aBytes);
+    return new String (aBytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write the provided business card.
+   *
+   * @param aBC
+   *        The business card to write. May not be <code>null</code>.
+   * @param aDO
+   *        The data output to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of a write error
+   */
+  public static void writeBusinessCard (@Nonnull final PDBusinessCard aBC, @Nonnull final DataOutput aDO) throws IOException
+  {
+    final PDIdentifier aPI = aBC.getParticipantIdentifier ();
+    aDO.writeBoolean (aPI != null);
+    if (aPI != null)
+    {
+      writeString (aPI.getScheme (), aDO);
+      writeString (aPI.getValue (), aDO);
+    }
+
+    aDO.writeInt (aBC.businessEntities ().size ());
+    for (final PDBusinessEntity aEntity : aBC.businessEntities ())
+    {
+      aDO.writeInt (aEntity.names ().size ());
+      for (final PDName aName : aEntity.names ())
+      {
+        writeString (aName.getName (), aDO);
+        writeString (aName.getLanguageCode (), aDO);
+      }
+      writeString (aEntity.getCountryCode (), aDO);
+      writeString (aEntity.getGeoInfo (), aDO);
+
+      aDO.writeInt (aEntity.identifiers ().size ());
+      for (final PDIdentifier aIdentifier : aEntity.identifiers ())
+      {
+        writeString (aIdentifier.getScheme (), aDO);
+        writeString (aIdentifier.getValue (), aDO);
+      }
+
+      aDO.writeInt (aEntity.websiteURIs ().size ());
+      for (final String sWebsiteURI : aEntity.websiteURIs ())
+        writeString (sWebsiteURI, aDO);
+
+      aDO.writeInt (aEntity.contacts ().size ());
+      for (final PDContact aContact : aEntity.contacts ())
+      {
+        writeString (aContact.getType (), aDO);
+        writeString (aContact.getName (), aDO);
+        writeString (aContact.getPhoneNumber (), aDO);
+        writeString (aContact.getEmail (), aDO);
+      }
+
+      writeString (aEntity.getAdditionalInfo (), aDO);
+
+      final LocalDate aRegDate = aEntity.getRegistrationDate ();
+      aDO.writeBoolean (aRegDate != null);
+      if (aRegDate != null)
+        aDO.writeLong (aRegDate.toEpochDay ());
+    }
+  }
+
+  /**
+   * Read a business card written by
+   * {@link #writeBusinessCard(PDBusinessCard, DataOutput)}.
+   *
+   * @param aDI
+   *        The data input to read from. May not be <code>null</code>.
+   * @return The read business card. Never <code>null</code>.
+   * @throws IOException
+   *         In case of a read error
+   */
+  @Nonnull
+  public static PDBusinessCard readBusinessCard (@Nonnull final DataInput aDI) throws IOException
+  {
+    final PDBusinessCard ret = new PDBusinessCard ();
+    if (aDI.readBoolean ())
+    {
+      final String sScheme = readString (aDI);
+      final String sValue = readString (aDI);
+      ret.setParticipantIdentifier (new PDIdentifier (sScheme, sValue));
+    }
+
+    final int nEntities = aDI.readInt ();
+    for (int i = 0; i < nEntities; ++i)
+    {
+      final PDBusinessEntity aEntity = new PDBusinessEntity ();
+      final int nNames = aDI.readInt ();
+      for (int j = 0; j < nNames; ++j)
+      {
+        final String sName = readString (aDI);
+        final String sLanguageCode = readString (aDI);
+        aEntity.names ().add (new PDName (sName, sLanguageCode));
+      }
+      aEntity.setCountryCode (readString (aDI));
+      aEntity.setGeoInfo (readString (aDI));
+
+      final int nIdentifiers = aDI.readInt ();
+      for (int j = 0; j < nIdentifiers; ++j)
+      {
+        final String sScheme = readString (aDI);
+        final String sValue = readString (aDI);
+        aEntity.identifiers ().add (new PDIdentifier (sScheme, sValue));
+      }
+
+      final int nWebsiteURIs = aDI.readInt ();
+      for (int j = 0; j < nWebsiteURIs; ++j)
+        aEntity.websiteURIs ().add (readString (aDI));
+
+      final int nContacts = aDI.readInt ();
+      for (int j = 0; j < nContacts; ++j)
+      {
+        final String sType = readString (aDI);
+        final String sName = readString (aDI);
+        final String sPhoneNumber = readString (aDI);
+        final String sEmail = readString (aDI);
+        aEntity.contacts ().add (new PDContact (sType, sName, sPhoneNumber, sEmail));
+      }
+
+      aEntity.setAdditionalInfo (readString (aDI));
+
+      if (aDI.readBoolean ())
+        aEntity.setRegistrationDate (LocalDate.ofEpochDay (aDI.readLong ()));
+      ret.businessEntities ().add (aEntity);
+    }
+    return ret;
+  }
+
+  /**
+   * @return A new message digest for the hash algorithm used by this class.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  static MessageDigest createMessageDigest ()
+  {
+    try
+    {
+      return MessageDigest.getInstance (HASH_ALGORITHM);
+    }
+    catch (final NoSuchAlgorithmException ex)
+    {
+      throw new IllegalStateException ("Message digest " + HASH_ALGORITHM + " is not supported", ex);
+    }
+  }
+
+  /**
+   * Calculate a hash over the business card and all document types of the
+   * provided extended business card. Two extended business cards with the same
+   * content have the same hash, independent of the order of the document
+   * types.
+   *
+   * @param aExtBI
+   *        The extended business card to hash. May not be <code>null</code>.
+   * @return The hex encoded hash value. Never <code>null</code>.
+   */
+  @Nonnull
+  public static String getContentHash (@Nonnull final PDExtendedBusinessCard aExtBI)
+  {
+    final MessageDigest aMD = createMessageDigest ();
+    try (final OutputStream aOS = new DigestOutputStream (new NullOutputStream (), aMD);
+         final DataOutputStream aDOS = new DataOutputStream (aOS))
+    {
+      writeBusinessCard (aExtBI.getBusinessCard (), aDOS);
+      // The order of the document types in the service group is not relevant
+      final ICommonsList <IDocumentTypeIdentifier> aDocTypeIDs = aExtBI.getAllDocumentTypeIDs ()
+                                                                       .getSortedInline (Comparator.comparing (IDocumentTypeIdentifier::getURIEncoded));
+      aDOS.writeInt (aDocTypeIDs.size ());
+      for (final IDocumentTypeIdentifier aDocTypeID : aDocTypeIDs)
+      {
+        writeString (aDocTypeID.getScheme (), aDOS);
+        writeString (aDocTypeID.getValue (), aDOS);
+      }
+    }
+    catch (final IOException ex)
+    {
+      throw new IllegalStateException ("Failed to hash business card", ex);
+    }
+    return StringHelper.getHexEncoded (aMD.digest ());
+  }
+}
@@ -0,0 +1,243 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.businesscard;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.wrapper.Wrapper;
+import com.helger.pd.businesscard.generic.PDBusinessCard;
+import com.helger.pd.indexer.index.BinaryRecordHelper;
+import com.helger.peppolid.IParticipantIdentifier;
+
+/**
+ * A persistent cache of the business cards retrieved from the SMPs. For each
+ * participant the last business card is stored together with the HTTP
+ * validators (<code>ETag</code> and <code>Last-Modified</code>), so that the
+ * business card can be revalidated with a conditional request. Whether a
+ * business card changed compared to the index is decided by the content hash
+ * stored in the Lucene index itself.<br>
+ * Each participant is stored in a separate file in the compact binary format of
+ * {@link PDBusinessCardBinaryConverter}, protected by a checksum. The files are
+ * spread over sub directories and are replaced atomically.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@ThreadSafe
+public final class PDBusinessCardCache
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (PDBusinessCardCache.class);
+
+  // Version 1 additionally contained the content hash of the last indexing
+  private static final byte FORMAT_VERSION_1 = 1;
+  private static final byte FORMAT_VERSION = 2;
+  private static final String FILE_SUFFIX = ".bin";
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  private final File m_aDirectory;
+
+  /**
+   * Constructor
+   *
+   * @param aDirectory
+   *        The directory to store the cache files in. May not be
+   *        <code>null</code>. It is created if it does not exist.
+   */
+  public PDBusinessCardCache (@Nonnull final File aDirectory)
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    m_aDirectory = aDirectory;
+    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aDirectory);
+  }
+
+  /**
+   * @return The directory containing the cache files. Never <code>null</code>.
+   */
+  @Nonnull
+  public File getDirectory ()
+  {
+    return m_aDirectory;
+  }
+
+  @Nonnull
+  private File _getFile (@Nonnull final String sParticipantID)
+  {
+    final String sHash = StringHelper.getHexEncoded (PDBusinessCardBinaryConverter.createMessageDigest ()
+                                                                                  .digest (sParticipantID.getBytes (StandardCharsets.UTF_8)));
+    // Use the first byte of the hash as the sub directory
+    return new File (new File (m_aDirectory, sHash.substring (0, 2)), sHash + FILE_SUFFIX);
+  }
+
+  @Nullable
+  private PDBusinessCardCacheEntry _readEntry (@Nonnull final String sParticipantID)
+  {
+    final File aFile = _getFile (sParticipantID);
+    final Wrapper <PDBusinessCardCacheEntry> ret = new Wrapper <> ();
+    try
+    {
+      BinaryRecordHelper.readAllRecords (aFile, aPayload -> {
+        try (final DataInputStream aDIS = new DataInputStream (new NonBlockingByteArrayInputStream (aPayload)))
+        {
+          final byte nVersion = aDIS.readByte ();
+          if (nVersion != FORMAT_VERSION && nVersion != FORMAT_VERSION_1)
+            throw new IOException ("Unsupported cache format version " + nVersion);
+
+          // Protect against hash collisions
+          if (!sParticipantID.equals (aDIS.readUTF ()))
+            return;
+
+          final String sETag = PDBusinessCardBinaryConverter.readString (aDIS);
+          final String sLastModified = PDBusinessCardBinaryConverter.readString (aDIS);
+          if (nVersion == FORMAT_VERSION_1)
+          {
+            // Skip the indexed hash
+            PDBusinessCardBinaryConverter.readString (aDIS);
+          }
+          final PDBusinessCard aBC = PDBusinessCardBinaryConverter.readBusinessCard (aDIS);
+          ret.set (new PDBusinessCardCacheEntry (sETag, sLastModified, aBC));
+        }
+      });
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.warn ("Failed to read business card cache file " + aFile + " - ignoring it", ex);
+      return null;
+    }
+    return ret.get ();
+  }
+
+  private void _writeEntry (@Nonnull final String sParticipantID, @Nonnull final PDBusinessCardCacheEntry aEntry)
+  {
+    final File aFile = _getFile (sParticipantID);
+    try
+    {
+      final byte [] aPayload;
+      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+           final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+      {
+        aDOS.writeByte (FORMAT_VERSION);
+        aDOS.writeUTF (sParticipantID);
+        PDBusinessCardBinaryConverter.writeString (aEntry.getETag (), aDOS);
+        PDBusinessCardBinaryConverter.writeString (aEntry.getLastModified (), aDOS);
+        PDBusinessCardBinaryConverter.writeBusinessCard (aEntry.getBusinessCard (), aDOS);
+        aDOS.flush ();
+        aPayload = aBAOS.toByteArray ();
+      }
+
+      FileOperationManager.INSTANCE.createDirIfNotExisting (aFile.getParentFile ());
+      final File aTmpFile = new File (aFile.getParentFile (), aFile.getName () + ".tmp");
+      try (final FileChannel aTmpChannel = FileChannel.open (aTmpFile.toPath (),
+                                                             StandardOpenOption.CREATE,
+                                                             StandardOpenOption.TRUNCATE_EXISTING,
+                                                             StandardOpenOption.WRITE))
+      {
+        BinaryRecordHelper.writeRecord (aTmpChannel, aPayload);
+      }
+      Files.move (aTmpFile.toPath (), aFile.toPath (), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+    catch (final IOException ex)
+    {
+      // The cache is only an optimization
+      LOGGER.warn ("Failed to write business card cache file " + aFile, ex);
+    }
+  }
+
+  /**
+   * Get the cache entry of the provided participant.
+   *
+   * @param aParticipantID
+   *        The participant ID to query. May not be <code>null</code>.
+   * @return <code>null</code> if no such entry is present.
+   */
+  @Nullable
+  public PDBusinessCardCacheEntry getEntry (@Nonnull final IParticipantIdentifier aParticipantID)
+  {
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+    final String sParticipantID = aParticipantID.getURIEncoded ();
+    return m_aRWLock.readLockedGet ( () -> _readEntry (sParticipantID));
+  }
+
+  /**
+   * Remember a business card that was freshly retrieved from the SMP.
+   *
+   * @param aParticipantID
+   *        The participant ID the business card belongs to. May not be
+   *        <code>null</code>.
+   * @param sETag
+   *        The <code>ETag</code> response header. May be <code>null</code>.
+   * @param sLastModified
+   *        The <code>Last-Modified</code> response header. May be
+   *        <code>null</code>.
+   * @param aBusinessCard
+   *        The retrieved business card. May not be <code>null</code>.
+   */
+  public void onFetched (@Nonnull final IParticipantIdentifier aParticipantID,
+                         @Nullable final String sETag,
+                         @Nullable final String sLastModified,
+                         @Nonnull final PDBusinessCard aBusinessCard)
+  {
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+    ValueEnforcer.notNull (aBusinessCard, "BusinessCard");
+    final String sParticipantID = aParticipantID.getURIEncoded ();
+    m_aRWLock.writeLocked ( () -> _writeEntry (sParticipantID, new PDBusinessCardCacheEntry (sETag, sLastModified, aBusinessCard)));
+  }
+
+  /**
+   * Remove the cache entry of the provided participant, e.g. because it was
+   * deleted from the index.
+   *
+   * @param aParticipantID
+   *        The participant ID to remove. May not be <code>null</code>.
+   */
+  public void remove (@Nonnull final IParticipantIdentifier aParticipantID)
+  {
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+    final File aFile = _getFile (aParticipantID.getURIEncoded ());
+    m_aRWLock.writeLocked ( () -> {
+      if (aFile.exists ())
+        FileOperationManager.INSTANCE.deleteFile (aFile);
+    });
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Directory", m_aDirectory).getToString ();
+  }
+}
@@ -0,0 +1,99 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.businesscard;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.pd.businesscard.generic.PDBusinessCard;
+
+/**
+ * A single entry of the {@link PDBusinessCardCache}. It contains the last
+ * business card retrieved from the SMP together with the HTTP validators of the
+ * response.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@Immutable
+public final class PDBusinessCardCacheEntry
+{
+  private final String m_sETag;
+  private final String m_sLastModified;
+  private final PDBusinessCard m_aBusinessCard;
+
+  public PDBusinessCardCacheEntry (@Nullable final String sETag,
+                                   @Nullable final String sLastModified,
+                                   @Nonnull final PDBusinessCard aBusinessCard)
+  {
+    ValueEnforcer.notNull (aBusinessCard, "BusinessCard");
+    m_sETag = sETag;
+    m_sLastModified = sLastModified;
+    m_aBusinessCard = aBusinessCard;
+  }
+
+  /**
+   * @return The value of the <code>ETag</code> HTTP response header. May be
+   *         <code>null</code>.
+   */
+  @Nullable
+  public String getETag ()
+  {
+    return m_sETag;
+  }
+
+  /**
+   * @return The value of the <code>Last-Modified</code> HTTP response header.
+   *         May be <code>null</code>.
+   */
+  @Nullable
+  public String getLastModified ()
+  {
+    return m_sLastModified;
+  }
+
+  /**
+   * @return <code>true</code> if at least one validator is present, so that a
+   *         conditional request can be sent.
+   */
+  public boolean hasValidator ()
+  {
+    return m_sETag != null || m_sLastModified != null;
+  }
+
+  /**
+   * @return The business card as retrieved from the SMP. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public PDBusinessCard getBusinessCard ()
+  {
+    return m_aBusinessCard;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("ETag", m_sETag)
+                                       .append ("LastModified", m_sLastModified)
+                                       .append ("BusinessCard", m_aBusinessCard)
+                                       .getToString ();
+  }
+}
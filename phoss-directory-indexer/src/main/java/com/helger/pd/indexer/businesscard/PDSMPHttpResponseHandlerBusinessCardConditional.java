@@ -0,0 +1,96 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.businesscard;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.StatusLine;
+import org.apache.http.client.HttpResponseException;
+import org.apache.http.client.ResponseHandler;
+import org.apache.http.util.EntityUtils;
+
+import com.helger.commons.http.CHttp;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.pd.businesscard.generic.PDBusinessCard;
+
+/**
+ * Handle the SMP response of a conditional business card request. If the SMP
+ * responds with "304 Not Modified" the cached entry is returned, otherwise the
+ * response is parsed with {@link PDSMPHttpResponseHandlerBusinessCard} and a
+ * new entry with the validators of the response is returned.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+final class PDSMPHttpResponseHandlerBusinessCardConditional implements ResponseHandler <PDBusinessCardCacheEntry>
+{
+  private final PDBusinessCardCacheEntry m_aCachedEntry;
+
+  /**
+   * @param aCachedEntry
+   *        The cached entry that was used to create the conditional request.
+   *        May be <code>null</code>.
+   */
+  PDSMPHttpResponseHandlerBusinessCardConditional (@Nullable final PDBusinessCardCacheEntry aCachedEntry)
+  {
+    m_aCachedEntry = aCachedEntry;
+  }
+
+  @Nullable
+  private static String _getHeaderValue (@Nonnull final HttpResponse aHttpResponse, @Nonnull final String sHeaderName)
+  {
+    final Header aHeader = aHttpResponse.getFirstHeader (sHeaderName);
+    return aHeader == null ? null : aHeader.getValue ();
+  }
+
+  @Nullable
+  public PDBusinessCardCacheEntry handleResponse (@Nonnull final HttpResponse aHttpResponse) throws IOException
+  {
+    final StatusLine aStatusLine = aHttpResponse.getStatusLine ();
+    final HttpEntity aEntity = aHttpResponse.getEntity ();
+
+    if (aStatusLine.getStatusCode () == CHttp.HTTP_NOT_MODIFIED && m_aCachedEntry != null)
+    {
+      // Unchanged since the last retrieval
+      EntityUtils.consume (aEntity);
+      return m_aCachedEntry;
+    }
+
+    if (aStatusLine.getStatusCode () >= CHttp.HTTP_MULTIPLE_CHOICES)
+    {
+      EntityUtils.consume (aEntity);
+      throw new HttpResponseException (aStatusLine.getStatusCode (), aStatusLine.getReasonPhrase ());
+    }
+
+    if (aEntity == null)
+      return null;
+
+    final PDBusinessCard aBC = new PDSMPHttpResponseHandlerBusinessCard ().handleEntity (aEntity);
+    if (aBC == null)
+      return null;
+
+    return new PDBusinessCardCacheEntry (_getHeaderValue (aHttpResponse, CHttpHeader.ETAG),
+                                         _getHeaderValue (aHttpResponse, CHttpHeader.LAST_MODIFIED),
+                                         aBC);
+  }
+}
@@ -17,6 +17,7 @@
 package com.helger.pd.indexer.businesscard;
 
 import java.io.IOException;
+import java.net.InetAddress;
 import java.net.URI;
 import java.net.UnknownHostException;
 import java.util.function.Consumer;
@@ -37,6 +38,9 @@ import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.VisibleForTesting;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.http.CHttp;
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.url.URLHelper;
 import com.helger.httpclient.HttpClientManager;
 import com.helger.httpclient.HttpClientSettings;
 import com.helger.pd.businesscard.generic.PDBusinessCard;
@@ -159,38 +163,28 @@ public class SMPBusinessCardProvider implements IPDBusinessCardProvider
   }
 
   @Nullable
-  @VisibleForTesting
-  PDExtendedBusinessCard getBusinessCardPeppolSMP (@Nonnull final IParticipantIdentifier aParticipantID,
-                                                   @Nonnull final SMPClientReadOnly aSMPClient,
-                                                   @Nonnull final HttpClientSettings aHCS)
+  private static PDBusinessCard _getBusinessCard (@Nonnull final IParticipantIdentifier aParticipantID,
+                                                  @Nonnull final String sSMPHostURI,
+                                                  @Nonnull final HttpClientSettings aHCS,
+                                                  @Nullable final PDBusinessCardCache aCache,
+                                                  @Nullable final IPDSMPHostFailureHandler aHostFailureHandler)
   {
-    LOGGER.info ("Querying BusinessCard for '" +
-                 aParticipantID.getURIEncoded () +
-                 "' from Peppol SMP '" +
-                 aSMPClient.getSMPHostURI () +
-                 "'");
+    final PDBusinessCardCacheEntry aCachedEntry = aCache == null ? null : aCache.getEntry (aParticipantID);
 
-    // First query the service group
-    com.helger.xsds.peppol.smp1.ServiceGroupType aServiceGroup;
-    try
-    {
-      aServiceGroup = aSMPClient.getServiceGroupOrNull (aParticipantID);
-    }
-    catch (final SMPClientException ex)
-    {
-      LOGGER.error ("Error querying SMP for ServiceGroup of '" + aParticipantID.getURIEncoded () + "'", ex);
-      return null;
-    }
-
-    // If the service group is present, try querying the business card
-    final PDBusinessCard aBusinessCard;
+    final PDBusinessCardCacheEntry aEntry;
     try (final HttpClientManager aHCM = HttpClientManager.create (aHCS))
     {
       // Use the optional business card API
-      final HttpGet aRequest = new HttpGet (aSMPClient.getSMPHostURI () +
-                                            "businesscard/" +
-                                            aParticipantID.getURIPercentEncoded ());
-      aBusinessCard = aHCM.execute (aRequest, new PDSMPHttpResponseHandlerBusinessCard ());
+      final HttpGet aRequest = new HttpGet (sSMPHostURI + "businesscard/" + aParticipantID.getURIPercentEncoded ());
+      if (aCachedEntry != null)
+      {
+        // Revalidate the cached business card
+        if (aCachedEntry.getETag () != null)
+          aRequest.addHeader (CHttpHeader.IF_NONE_MATCH, aCachedEntry.getETag ());
+        if (aCachedEntry.getLastModified () != null)
+          aRequest.addHeader (CHttpHeader.IF_MODIFIED_SINCE, aCachedEntry.getLastModified ());
+      }
+      aEntry = aHCM.execute (aRequest, new PDSMPHttpResponseHandlerBusinessCardConditional (aCachedEntry));
     }
     catch (final IOException ex)
     {
@@ -205,16 +199,69 @@ public class SMPBusinessCardProvider implements IPDBusinessCardProvider
       }
       else
         LOGGER.error ("Error querying SMP for BusinessCard of '" + aParticipantID.getURIEncoded () + "'", ex);
+      _onHostFailure (aParticipantID, sSMPHostURI, ex, aHostFailureHandler);
       return null;
     }
 
-    if (aBusinessCard == null)
+    if (aEntry == null)
     {
       // No extension present - no need to try again
       LOGGER.warn ("Failed to get SMP BusinessCard of " + aParticipantID.getURIEncoded ());
       return null;
     }
 
+    if (aEntry == aCachedEntry)
+      LOGGER.info ("BusinessCard of '" + aParticipantID.getURIEncoded () + "' was not modified");
+    else
+      if (aCache != null)
+        aCache.onFetched (aParticipantID, aEntry.getETag (), aEntry.getLastModified (), aEntry.getBusinessCard ());
+    return aEntry.getBusinessCard ();
+  }
+
+  @Nullable
+  @VisibleForTesting
+  PDExtendedBusinessCard getBusinessCardPeppolSMP (@Nonnull final IParticipantIdentifier aParticipantID,
+                                                   @Nonnull final SMPClientReadOnly aSMPClient,
+                                                   @Nonnull final HttpClientSettings aHCS)
+  {
+    return getBusinessCardPeppolSMP (aParticipantID, aSMPClient, aHCS, null, null);
+  }
+
+  @Nullable
+  PDExtendedBusinessCard getBusinessCardPeppolSMP (@Nonnull final IParticipantIdentifier aParticipantID,
+                                                   @Nonnull final SMPClientReadOnly aSMPClient,
+                                                   @Nonnull final HttpClientSettings aHCS,
+                                                   @Nullable final PDBusinessCardCache aCache,
+                                                   @Nullable final IPDSMPHostFailureHandler aHostFailureHandler)
+  {
+    LOGGER.info ("Querying BusinessCard for '" +
+                 aParticipantID.getURIEncoded () +
+                 "' from Peppol SMP '" +
+                 aSMPClient.getSMPHostURI () +
+                 "'");
+
+    // First query the service group
+    com.helger.xsds.peppol.smp1.ServiceGroupType aServiceGroup;
+    try
+    {
+      aServiceGroup = aSMPClient.getServiceGroupOrNull (aParticipantID);
+    }
+    catch (final SMPClientException ex)
+    {
+      LOGGER.error ("Error querying SMP for ServiceGroup of '" + aParticipantID.getURIEncoded () + "'", ex);
+      _onHostFailure (aParticipantID, aSMPClient.getSMPHostURI (), ex, aHostFailureHandler);
+      return null;
+    }
+
+    // If the service group is present, try querying the business card
+    final PDBusinessCard aBusinessCard = _getBusinessCard (aParticipantID,
+                                                              aSMPClient.getSMPHostURI (),
+                                                              aHCS,
+                                                              aCache,
+                                                              aHostFailureHandler);
+    if (aBusinessCard == null)
+      return null;
+
     // Query all document types
     final IIdentifierFactory aIdentifierFactory = PDMetaManager.getIdentifierFactory ();
     final ICommonsList <IDocumentTypeIdentifier> aDocumentTypeIDs = SMPClientReadOnly.getAllDocumentTypes (aServiceGroup,
@@ -230,6 +277,16 @@ public class SMPBusinessCardProvider implements IPDBusinessCardProvider
   PDExtendedBusinessCard getBusinessCardBDXR1 (@Nonnull final IParticipantIdentifier aParticipantID,
                                                @Nonnull final BDXRClientReadOnly aSMPClient,
                                                @Nonnull final HttpClientSettings aHCS)
+  {
+    return getBusinessCardBDXR1 (aParticipantID, aSMPClient, aHCS, null, null);
+  }
+
+  @Nullable
+  PDExtendedBusinessCard getBusinessCardBDXR1 (@Nonnull final IParticipantIdentifier aParticipantID,
+                                               @Nonnull final BDXRClientReadOnly aSMPClient,
+                                               @Nonnull final HttpClientSettings aHCS,
+                                               @Nullable final PDBusinessCardCache aCache,
+                                               @Nullable final IPDSMPHostFailureHandler aHostFailureHandler)
   {
     LOGGER.info ("Querying BusinessCard for '" +
                  aParticipantID.getURIEncoded () +
@@ -246,41 +303,18 @@ public class SMPBusinessCardProvider implements IPDBusinessCardProvider
     catch (final SMPClientException ex)
     {
       LOGGER.error ("Error querying SMP for ServiceGroup of '" + aParticipantID.getURIEncoded () + "'", ex);
+      _onHostFailure (aParticipantID, aSMPClient.getSMPHostURI (), ex, aHostFailureHandler);
       return null;
     }
 
     // If the service group is present, try querying the business card
-    final PDBusinessCard aBusinessCard;
-    try (final HttpClientManager aHCM = HttpClientManager.create (aHCS))
-    {
-      // Use the optional business card API
-      final HttpGet aRequest = new HttpGet (aSMPClient.getSMPHostURI () +
-                                            "businesscard/" +
-                                            aParticipantID.getURIPercentEncoded ());
-      aBusinessCard = aHCM.execute (aRequest, new PDSMPHttpResponseHandlerBusinessCard ());
-    }
-    catch (final IOException ex)
-    {
-      if ((ex instanceof HttpResponseException &&
-           ((HttpResponseException) ex).getStatusCode () == CHttp.HTTP_NOT_FOUND) ||
-          ex instanceof UnknownHostException)
-      {
-        LOGGER.warn ("No BusinessCard available for '" +
-                     aParticipantID.getURIEncoded () +
-                     "' - not in configured SMK/SML? - " +
-                     ex.getMessage ());
-      }
-      else
-        LOGGER.error ("Error querying SMP for BusinessCard of '" + aParticipantID.getURIEncoded () + "'", ex);
-      return null;
-    }
-
+    final PDBusinessCard aBusinessCard = _getBusinessCard (aParticipantID,
+                                                              aSMPClient.getSMPHostURI (),
+                                                              aHCS,
+                                                              aCache,
+                                                              aHostFailureHandler);
     if (aBusinessCard == null)
-    {
-      // No extension present - no need to try again
-      LOGGER.warn ("Failed to get SMP BusinessCard of " + aParticipantID.getURIEncoded ());
       return null;
-    }
 
     // Query all document types
     final IIdentifierFactory aIdentifierFactory = PDMetaManager.getIdentifierFactory ();
@@ -296,6 +330,16 @@ public class SMPBusinessCardProvider implements IPDBusinessCardProvider
   PDExtendedBusinessCard getBusinessCardBDXR2 (@Nonnull final IParticipantIdentifier aParticipantID,
                                                @Nonnull final BDXR2ClientReadOnly aSMPClient,
                                                @Nonnull final HttpClientSettings aHCS)
+  {
+    return getBusinessCardBDXR2 (aParticipantID, aSMPClient, aHCS, null, null);
+  }
+
+  @Nullable
+  PDExtendedBusinessCard getBusinessCardBDXR2 (@Nonnull final IParticipantIdentifier aParticipantID,
+                                               @Nonnull final BDXR2ClientReadOnly aSMPClient,
+                                               @Nonnull final HttpClientSettings aHCS,
+                                               @Nullable final PDBusinessCardCache aCache,
+                                               @Nullable final IPDSMPHostFailureHandler aHostFailureHandler)
   {
     LOGGER.info ("Querying BusinessCard for '" +
                  aParticipantID.getURIEncoded () +
@@ -312,43 +356,20 @@ public class SMPBusinessCardProvider implements IPDBusinessCardProvider
     catch (final SMPClientException ex)
     {
       LOGGER.error ("Error querying SMP for ServiceGroup of '" + aParticipantID.getURIEncoded () + "'", ex);
+      _onHostFailure (aParticipantID, aSMPClient.getSMPHostURI (), ex, aHostFailureHandler);
       return null;
     }
 
     // If the service group is present, try querying the business card
-    final PDBusinessCard aBusinessCard;
-    try (final HttpClientManager aHCM = HttpClientManager.create (aHCS))
-    {
-      // Use the optional business card API
-      // FIXME is the path "bdxr-smp-2" needed? Well, the PD is not yet
-      // specified for this SMP type....
-      final HttpGet aRequest = new HttpGet (aSMPClient.getSMPHostURI () +
-                                            "businesscard/" +
-                                            aParticipantID.getURIPercentEncoded ());
-      aBusinessCard = aHCM.execute (aRequest, new PDSMPHttpResponseHandlerBusinessCard ());
-    }
-    catch (final IOException ex)
-    {
-      if ((ex instanceof HttpResponseException &&
-           ((HttpResponseException) ex).getStatusCode () == CHttp.HTTP_NOT_FOUND) ||
-          ex instanceof UnknownHostException)
-      {
-        LOGGER.warn ("No BusinessCard available for '" +
-                     aParticipantID.getURIEncoded () +
-                     "' - not in configured SMK/SML? - " +
-                     ex.getMessage ());
-      }
-      else
-        LOGGER.error ("Error querying SMP for BusinessCard of '" + aParticipantID.getURIEncoded () + "'", ex);
-      return null;
-    }
-
+    // FIXME is the path "bdxr-smp-2" needed for OASIS BDXR SMP v2? Well, the
+    // PD is not yet specified for this SMP type....
+    final PDBusinessCard aBusinessCard = _getBusinessCard (aParticipantID,
+                                                              aSMPClient.getSMPHostURI (),
+                                                              aHCS,
+                                                              aCache,
+                                                              aHostFailureHandler);
     if (aBusinessCard == null)
-    {
-      // No extension present - no need to try again
-      LOGGER.warn ("Failed to get SMP BusinessCard of " + aParticipantID.getURIEncoded ());
       return null;
-    }
 
     // Query all document types
     final IIdentifierFactory aIdentifierFactory = PDMetaManager.getIdentifierFactory ();
@@ -367,6 +388,23 @@ public class SMPBusinessCardProvider implements IPDBusinessCardProvider
 
   @Nullable
   public PDExtendedBusinessCard getBusinessCard (@Nonnull final IParticipantIdentifier aParticipantID)
+  {
+    return getBusinessCard (aParticipantID, null, null);
+  }
+
+  @Override
+  @Nullable
+  public PDExtendedBusinessCard getBusinessCard (@Nonnull final IParticipantIdentifier aParticipantID,
+                                                 @Nullable final PDBusinessCardCache aCache)
+  {
+    return getBusinessCard (aParticipantID, aCache, null);
+  }
+
+  @Override
+  @Nullable
+  public PDExtendedBusinessCard getBusinessCard (@Nonnull final IParticipantIdentifier aParticipantID,
+                                                 @Nullable final PDBusinessCardCache aCache,
+                                                 @Nullable final IPDSMPHostFailureHandler aHostFailureHandler)
   {
     final HttpClientSettings aHCS = new HttpClientSettings ().setProxyHost (_getHttpProxy ())
                                                              .setProxyCredentials (_getHttpProxyCredentials ());
@@ -381,21 +419,21 @@ public class SMPBusinessCardProvider implements IPDBusinessCardProvider
         {
           final SMPClientReadOnly aSMPClient = new SMPClientReadOnly (m_aSMPURI);
           _configureSMPClient (aSMPClient);
-          aBC = getBusinessCardPeppolSMP (aParticipantID, aSMPClient, aHCS);
+          aBC = getBusinessCardPeppolSMP (aParticipantID, aSMPClient, aHCS, aCache, aHostFailureHandler);
           break;
         }
         case OASIS_BDXR_V1:
         {
           final BDXRClientReadOnly aSMPClient = new BDXRClientReadOnly (m_aSMPURI);
           _configureSMPClient (aSMPClient);
-          aBC = getBusinessCardBDXR1 (aParticipantID, aSMPClient, aHCS);
+          aBC = getBusinessCardBDXR1 (aParticipantID, aSMPClient, aHCS, aCache, aHostFailureHandler);
           break;
         }
         case OASIS_BDXR_V2:
         {
           final BDXR2ClientReadOnly aSMPClient = new BDXR2ClientReadOnly (m_aSMPURI);
           _configureSMPClient (aSMPClient);
-          aBC = getBusinessCardBDXR2 (aParticipantID, aSMPClient, aHCS);
+          aBC = getBusinessCardBDXR2 (aParticipantID, aSMPClient, aHCS, aCache, aHostFailureHandler);
           break;
         }
         default:
@@ -417,7 +455,7 @@ public class SMPBusinessCardProvider implements IPDBusinessCardProvider
             {
               final SMPClientReadOnly aSMPClient = new SMPClientReadOnly (m_aURLProvider, aParticipantID, aSML);
               _configureSMPClient (aSMPClient);
-              aBC = getBusinessCardPeppolSMP (aParticipantID, aSMPClient, aHCS);
+              aBC = getBusinessCardPeppolSMP (aParticipantID, aSMPClient, aHCS, aCache, aHostFailureHandler);
             }
             catch (final SMPDNSResolutionException ex)
             {
@@ -431,7 +469,7 @@ public class SMPBusinessCardProvider implements IPDBusinessCardProvider
             {
               final BDXRClientReadOnly aSMPClient = new BDXRClientReadOnly (m_aURLProvider, aParticipantID, aSML);
               _configureSMPClient (aSMPClient);
-              aBC = getBusinessCardBDXR1 (aParticipantID, aSMPClient, aHCS);
+              aBC = getBusinessCardBDXR1 (aParticipantID, aSMPClient, aHCS, aCache, aHostFailureHandler);
             }
             catch (final SMPDNSResolutionException ex)
             {
@@ -445,7 +483,7 @@ public class SMPBusinessCardProvider implements IPDBusinessCardProvider
             {
               final BDXR2ClientReadOnly aSMPClient = new BDXR2ClientReadOnly (m_aURLProvider, aParticipantID, aSML);
               _configureSMPClient (aSMPClient);
-              aBC = getBusinessCardBDXR2 (aParticipantID, aSMPClient, aHCS);
+              aBC = getBusinessCardBDXR2 (aParticipantID, aSMPClient, aHCS, aCache, aHostFailureHandler);
             }
             catch (final SMPDNSResolutionException ex)
             {
@@ -474,6 +512,54 @@ public class SMPBusinessCardProvider implements IPDBusinessCardProvider
     return aBC;
   }
 
+  /**
+   * Check if the provided exception indicates a problem of the SMP host. These
+   * are transport errors and HTTP server errors. HTTP client errors (like "not
+   * found") and unknown host names (participant not registered) are not
+   * considered to be a problem of the SMP host.
+   *
+   * @param t
+   *        The exception to check. May be <code>null</code>.
+   * @return <code>true</code> if it is a problem of the SMP host.
+   */
+  @VisibleForTesting
+  static boolean isSMPHostFailure (@Nullable final Throwable t)
+  {
+    if (t instanceof HttpResponseException)
+      return ((HttpResponseException) t).getStatusCode () >= CHttp.HTTP_INTERNAL_SERVER_ERROR;
+    if (t instanceof UnknownHostException)
+      return false;
+    if (t instanceof IOException)
+      return true;
+    // E.g. an SMPClientException wrapping the original exception
+    return t != null && t.getCause () != null && t.getCause () != t && isSMPHostFailure (t.getCause ());
+  }
+
+  private static void _onHostFailure (@Nonnull final IParticipantIdentifier aParticipantID,
+                                      @Nonnull final String sSMPHostURI,
+                                      @Nonnull final Exception ex,
+                                      @Nullable final IPDSMPHostFailureHandler aHostFailureHandler)
+  {
+    if (aHostFailureHandler == null || !isSMPHostFailure (ex))
+      return;
+
+    final URI aURI = URLHelper.getAsURI (sSMPHostURI);
+    if (aURI == null || StringHelper.hasNoText (aURI.getHost ()))
+      return;
+    try
+    {
+      // Resolve the IP address, because Peppol uses a separate host name per
+      // participant that is a CNAME to the real SMP host. The name was just
+      // resolved for the failed request, so this is answered from the DNS
+      // cache.
+      aHostFailureHandler.onSMPHostFailure (aParticipantID, InetAddress.getByName (aURI.getHost ()).getHostAddress ());
+    }
+    catch (final UnknownHostException ex2)
+    {
+      // Cannot be grouped by host
+    }
+  }
+
   @Nonnull
   public static SMPBusinessCardProvider createWithSMLAutoDetect (@Nonnull final ESMPAPIType eSMPMode,
                                                                  @Nonnull final ISMPURLProvider aURLProvider,
@@ -0,0 +1,431 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.clientcert;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.math.BigInteger;
+import java.nio.charset.StandardCharsets;
+import java.security.cert.CRL;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509CRL;
+import java.security.cert.X509CRLEntry;
+import java.security.cert.X509Certificate;
+import java.util.Date;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import javax.security.auth.x500.X500Principal;
+
+import org.apache.http.HttpHost;
+import org.apache.http.auth.UsernamePasswordCredentials;
+import org.apache.http.client.methods.HttpGet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsCopyOnWriteArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.io.file.SimpleFileIO;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.commons.url.EURLProtocol;
+import com.helger.httpclient.HttpClientManager;
+import com.helger.httpclient.HttpClientSettings;
+import com.helger.httpclient.response.ResponseHandlerByteArray;
+import com.helger.pd.indexer.settings.PDServerConfiguration;
+
+/**
+ * An in-memory cache of the certificate revocation lists (CRLs) of the
+ * accepted client certificate issuers. The CRLs are read from the configured
+ * sources - either http(s) URLs or local files - and are refreshed in the
+ * background, so that checking a certificate is a simple lookup of its serial
+ * number. If a source cannot be read, the previously read CRLs of that source
+ * stay active.<br>
+ * If source discovery is enabled, the http(s) CRL distribution points of
+ * successfully verified client certificates are added as sources as well, so
+ * that no CRL needs to be configured. Newly discovered sources are read in the
+ * background.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@ThreadSafe
+public final class ClientCertificateRevocationCache implements Closeable
+{
+  /** The maximum number of sources, including the discovered ones */
+  public static final int MAX_DISCOVERED_SOURCES = 32;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (ClientCertificateRevocationCache.class);
+  // OID of the CRL distribution points certificate extension
+  private static final String OID_CRL_DISTRIBUTION_POINTS = "2.5.29.31";
+  // DER tags
+  private static final int TAG_OCTET_STRING = 0x04;
+  private static final int TAG_CONSTRUCTED = 0x20;
+  // GeneralName uniformResourceIdentifier [6] IMPLICIT IA5String
+  private static final int TAG_URI = 0x86;
+
+  private final ICommonsList <X509Certificate> m_aIssuerCerts;
+  private final CommonsCopyOnWriteArrayList <String> m_aSources = new CommonsCopyOnWriteArrayList <> ();
+  private final boolean m_bDiscoverSources;
+  private final SimpleLock m_aRefreshLock = new SimpleLock ();
+  // The last successfully read CRLs per source
+  @GuardedBy ("m_aRefreshLock")
+  private final ICommonsMap <String, ICommonsList <X509CRL>> m_aCRLsPerSource = new CommonsHashMap <> ();
+  // The revoked serial numbers per issuer - replaced as a whole
+  private volatile ICommonsMap <X500Principal, ICommonsSet <BigInteger>> m_aRevokedSerials = new CommonsHashMap <> ();
+  private final ScheduledExecutorService m_aExecutor;
+
+  /**
+   * Constructor without source discovery. Reads all sources synchronously and
+   * starts the background refresh afterwards.
+   *
+   * @param aIssuerCerts
+   *        The certificates of the accepted issuers. Only CRLs that are signed
+   *        by one of them are used. May not be <code>null</code>.
+   * @param aSources
+   *        The URLs or file paths to read the CRLs from. May neither be
+   *        <code>null</code> nor empty.
+   * @param nRefreshMillis
+   *        The interval in which the CRLs are read again. Must be &gt; 0.
+   */
+  public ClientCertificateRevocationCache (@Nonnull final Iterable <? extends X509Certificate> aIssuerCerts,
+                                           @Nonnull @Nonempty final Iterable <String> aSources,
+                                           @Nonnegative final long nRefreshMillis)
+  {
+    this (aIssuerCerts, ValueEnforcer.notEmpty (aSources, "Sources"), false, nRefreshMillis);
+  }
+
+  /**
+   * Constructor. Reads all sources and starts the background refresh
+   * afterwards. If source discovery is enabled, the sources are read in the
+   * background, otherwise synchronously.
+   *
+   * @param aIssuerCerts
+   *        The certificates of the accepted issuers. Only CRLs that are signed
+   *        by one of them are used. May not be <code>null</code>.
+   * @param aSources
+   *        The URLs or file paths to read the CRLs from. May not be
+   *        <code>null</code> but may be empty if sources are discovered.
+   * @param bDiscoverSources
+   *        <code>true</code> to add the CRL distribution points of verified
+   *        client certificates as sources.
+   * @param nRefreshMillis
+   *        The interval in which the CRLs are read again. Must be &gt; 0.
+   */
+  public ClientCertificateRevocationCache (@Nonnull final Iterable <? extends X509Certificate> aIssuerCerts,
+                                           @Nonnull final Iterable <String> aSources,
+                                           final boolean bDiscoverSources,
+                                           @Nonnegative final long nRefreshMillis)
+  {
+    ValueEnforcer.notNull (aIssuerCerts, "IssuerCerts");
+    ValueEnforcer.notNull (aSources, "Sources");
+    ValueEnforcer.isGT0 (nRefreshMillis, "RefreshMillis");
+
+    m_aIssuerCerts = new CommonsArrayList <> (aIssuerCerts);
+    for (final String sSource : aSources)
+      m_aSources.addIfAbsent (sSource);
+    m_bDiscoverSources = bDiscoverSources;
+
+    m_aExecutor = Executors.newSingleThreadScheduledExecutor (new BasicThreadFactory.Builder ().namingPattern ("pd-crl-refresh-%d")
+                                                                                             .daemon (true)
+                                                                                             .build ());
+    if (bDiscoverSources)
+    {
+      // Don't block the startup with network requests
+      m_aExecutor.execute (this::refresh);
+    }
+    else
+      refresh ();
+    m_aExecutor.scheduleWithFixedDelay (this::refresh, nRefreshMillis, nRefreshMillis, TimeUnit.MILLISECONDS);
+  }
+
+  private static void _collectURIs (@Nonnull final byte [] aDER,
+                                   final int nStart,
+                                   final int nEnd,
+                                   @Nonnull final ICommonsList <String> aTarget)
+  {
+    int nPos = nStart;
+    while (nPos + 2 <= nEnd)
+    {
+      final int nTag = aDER[nPos++] & 0xff;
+      int nLength = aDER[nPos++] & 0xff;
+      if ((nLength & 0x80) != 0)
+      {
+        // Long form
+        final int nLengthBytes = nLength & 0x7f;
+        if (nLengthBytes == 0 || nLengthBytes > 3 || nPos + nLengthBytes > nEnd)
+          return;
+        nLength = 0;
+        for (int i = 0; i < nLengthBytes; ++i)
+          nLength = (nLength << 8) | (aDER[nPos++] & 0xff);
+      }
+      if (nLength > nEnd - nPos)
+        return;
+
+      if (nTag == TAG_URI)
+        aTarget.add (new String (aDER, nPos, nLength, StandardCharsets.US_ASCII));
+      else
+        if ((nTag & TAG_CONSTRUCTED) != 0)
+          _collectURIs (aDER, nPos, nPos + nLength, aTarget);
+      nPos += nLength;
+    }
+  }
+
+  /**
+   * Get the http(s) URLs of the CRL distribution points of the provided
+   * certificate. Other distribution points (e.g. LDAP) are ignored.
+   *
+   * @param aCert
+   *        The certificate to read the extension from. May not be
+   *        <code>null</code>.
+   * @return The URLs in the order of the certificate. Never <code>null</code>
+   *         but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public static ICommonsList <String> getAllCRLDistributionPoints (@Nonnull final X509Certificate aCert)
+  {
+    ValueEnforcer.notNull (aCert, "Cert");
+
+    final ICommonsList <String> aURIs = new CommonsArrayList <> ();
+    // The extension value is wrapped in an OCTET STRING
+    final byte [] aExtValue = aCert.getExtensionValue (OID_CRL_DISTRIBUTION_POINTS);
+    if (aExtValue != null && aExtValue.length > 2 && (aExtValue[0] & 0xff) == TAG_OCTET_STRING)
+    {
+      // Skip the OCTET STRING header
+      final int nHeaderLength = (aExtValue[1] & 0x80) == 0 ? 2 : 2 + (aExtValue[1] & 0x7f);
+      _collectURIs (aExtValue, nHeaderLength, aExtValue.length, aURIs);
+    }
+    return aURIs.getAll (x -> EURLProtocol.HTTP.isUsedInURL (x) || EURLProtocol.HTTPS.isUsedInURL (x));
+  }
+
+  @Nonnull
+  private static HttpClientSettings _createHttpClientSettings ()
+  {
+    final HttpClientSettings ret = new HttpClientSettings ();
+    final String sProxyHost = PDServerConfiguration.getProxyHost ();
+    final int nProxyPort = PDServerConfiguration.getProxyPort ();
+    if (sProxyHost != null && nProxyPort > 0)
+      ret.setProxyHost (new HttpHost (sProxyHost, nProxyPort));
+    final String sProxyUsername = PDServerConfiguration.getProxyUsername ();
+    final String sProxyPassword = PDServerConfiguration.getProxyPassword ();
+    if (sProxyUsername != null && sProxyPassword != null)
+      ret.setProxyCredentials (new UsernamePasswordCredentials (sProxyUsername, sProxyPassword));
+    return ret;
+  }
+
+  @Nonnull
+  private static byte [] _readSource (@Nonnull final String sSource) throws IOException
+  {
+    if (EURLProtocol.HTTP.isUsedInURL (sSource) || EURLProtocol.HTTPS.isUsedInURL (sSource))
+    {
+      try (final HttpClientManager aHCM = HttpClientManager.create (_createHttpClientSettings ()))
+      {
+        return aHCM.execute (new HttpGet (sSource), new ResponseHandlerByteArray ());
+      }
+    }
+
+    final byte [] ret = SimpleFileIO.getAllFileBytes (new File (sSource));
+    if (ret == null)
+      throw new IOException ("Failed to read CRL file '" + sSource + "'");
+    return ret;
+  }
+
+  @Nullable
+  private X509Certificate _findIssuerCert (@Nonnull final X509CRL aCRL)
+  {
+    for (final X509Certificate aCert : m_aIssuerCerts)
+      if (aCert.getSubjectX500Principal ().equals (aCRL.getIssuerX500Principal ()))
+        return aCert;
+    return null;
+  }
+
+  @Nonnull
+  private ICommonsList <X509CRL> _readCRLs (@Nonnull final String sSource) throws Exception
+  {
+    final byte [] aBytes = _readSource (sSource);
+    final ICommonsList <X509CRL> ret = new CommonsArrayList <> ();
+    try (final InputStream aIS = new NonBlockingByteArrayInputStream (aBytes))
+    {
+      for (final CRL aCRL : CertificateFactory.getInstance ("X.509").generateCRLs (aIS))
+      {
+        final X509CRL aX509CRL = (X509CRL) aCRL;
+        final X509Certificate aIssuerCert = _findIssuerCert (aX509CRL);
+        if (aIssuerCert == null)
+        {
+          LOGGER.warn ("Ignoring CRL from '" + sSource + "' because issuer '" + aX509CRL.getIssuerX500Principal () + "' is not accepted");
+          continue;
+        }
+        // Throws an exception if the signature is invalid
+        aX509CRL.verify (aIssuerCert.getPublicKey ());
+
+        final Date aNextUpdate = aX509CRL.getNextUpdate ();
+        if (aNextUpdate != null && aNextUpdate.before (new Date ()))
+          LOGGER.warn ("The CRL from '" + sSource + "' is outdated since " + aNextUpdate);
+        ret.add (aX509CRL);
+      }
+    }
+    return ret;
+  }
+
+  /**
+   * Read all sources again. Sources that cannot be read keep their previous
+   * state. This is called periodically in the background.
+   */
+  public void refresh ()
+  {
+    m_aRefreshLock.locked ( () -> {
+      for (final String sSource : m_aSources)
+      {
+        try
+        {
+          m_aCRLsPerSource.put (sSource, _readCRLs (sSource));
+        }
+        catch (final Exception ex)
+        {
+          LOGGER.error ("Failed to read CRL from '" + sSource + "' - keeping the previous state", ex);
+        }
+      }
+
+      // Build the new lookup
+      final ICommonsMap <X500Principal, ICommonsSet <BigInteger>> aRevokedSerials = new CommonsHashMap <> ();
+      for (final ICommonsList <X509CRL> aCRLs : m_aCRLsPerSource.values ())
+        for (final X509CRL aCRL : aCRLs)
+        {
+          final ICommonsSet <BigInteger> aSerials = aRevokedSerials.computeIfAbsent (aCRL.getIssuerX500Principal (),
+                                                                                    k -> new CommonsHashSet <> ());
+          if (aCRL.getRevokedCertificates () != null)
+            for (final X509CRLEntry aEntry : aCRL.getRevokedCertificates ())
+              aSerials.add (aEntry.getSerialNumber ());
+        }
+      m_aRevokedSerials = aRevokedSerials;
+
+      int nCount = 0;
+      for (final ICommonsSet <BigInteger> aSerials : aRevokedSerials.values ())
+        nCount += aSerials.size ();
+      LOGGER.info ("Loaded " + nCount + " revoked client certificate serial(s) from " + m_aSources.size () + " CRL source(s)");
+    });
+  }
+
+  /**
+   * Add the CRL distribution points of the provided certificate as sources if
+   * source discovery is enabled. New sources are read in the background, so
+   * this does not perform any IO. Must only be called for certificates that
+   * were verified against an accepted issuer.
+   *
+   * @param aCert
+   *        The verified client certificate. May not be <code>null</code>.
+   */
+  public void discoverSources (@Nonnull final X509Certificate aCert)
+  {
+    if (!m_bDiscoverSources)
+      return;
+
+    boolean bAdded = false;
+    for (final String sURL : getAllCRLDistributionPoints (aCert))
+      if (!m_aSources.contains (sURL))
+      {
+        if (m_aSources.size () >= MAX_DISCOVERED_SOURCES)
+        {
+          LOGGER.warn ("Ignoring CRL distribution point '" + sURL + "' because too many CRL sources are present");
+          break;
+        }
+        if (m_aSources.addIfAbsent (sURL))
+        {
+          LOGGER.info ("Discovered CRL source '" + sURL + "' from client certificate issued by '" + aCert.getIssuerX500Principal () + "'");
+          bAdded = true;
+        }
+      }
+
+    if (bAdded)
+      try
+      {
+        m_aExecutor.execute (this::refresh);
+      }
+      catch (final RejectedExecutionException ex)
+      {
+        // Closing
+      }
+  }
+
+  /**
+   * Check if the provided certificate is revoked. This does not perform any IO.
+   *
+   * @param aCert
+   *        The certificate to check. May not be <code>null</code>.
+   * @return <code>true</code> if the certificate is contained in a CRL of its
+   *         issuer, <code>false</code> if not or if no CRL of its issuer is
+   *         present.
+   */
+  public boolean isRevoked (@Nonnull final X509Certificate aCert)
+  {
+    final ICommonsSet <BigInteger> aSerials = m_aRevokedSerials.get (aCert.getIssuerX500Principal ());
+    return aSerials != null && aSerials.contains (aCert.getSerialNumber ());
+  }
+
+  /**
+   * @param aIssuer
+   *        The issuer to check. May not be <code>null</code>.
+   * @return <code>true</code> if at least one CRL of the provided issuer was
+   *         read successfully.
+   */
+  public boolean hasCRL (@Nonnull final X500Principal aIssuer)
+  {
+    return m_aRevokedSerials.containsKey (aIssuer);
+  }
+
+  /**
+   * @return A copy of the CRL sources. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getAllSources ()
+  {
+    return m_aSources.getClone ();
+  }
+
+  public void close ()
+  {
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aExecutor);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Sources", m_aSources).getToString ();
+  }
+}
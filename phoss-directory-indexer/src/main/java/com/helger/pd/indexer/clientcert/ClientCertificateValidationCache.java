@@ -0,0 +1,191 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.clientcert;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.X509Certificate;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A cache for the results of client certificate validations, keyed by the
+ * SHA-256 fingerprint of the certificate. Successful results are kept until
+ * the TTL is reached or the certificate expires, whatever comes first.
+ * Negative results are kept until the TTL is reached.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@ThreadSafe
+public final class ClientCertificateValidationCache
+{
+  /** The maximum number of entries in the cache */
+  public static final int MAX_ENTRIES = 10_000;
+
+  private static final class Entry
+  {
+    private final ClientCertificateValidationResult m_aResult;
+    private final long m_nExpirationMillis;
+
+    Entry (@Nonnull final ClientCertificateValidationResult aResult, final long nExpirationMillis)
+    {
+      m_aResult = aResult;
+      m_nExpirationMillis = nExpirationMillis;
+    }
+  }
+
+  private final long m_nTTLMillis;
+  private final Map <String, Entry> m_aMap = new ConcurrentHashMap <> ();
+
+  /**
+   * Constructor
+   *
+   * @param nTTLMillis
+   *        The maximum time to live of each entry in milliseconds. A value of
+   *        0 disables the cache.
+   */
+  public ClientCertificateValidationCache (@Nonnegative final long nTTLMillis)
+  {
+    ValueEnforcer.isGE0 (nTTLMillis, "TTLMillis");
+    m_nTTLMillis = nTTLMillis;
+  }
+
+  /**
+   * @return <code>true</code> if results are cached, <code>false</code> if the
+   *         cache is disabled.
+   */
+  public boolean isEnabled ()
+  {
+    return m_nTTLMillis > 0;
+  }
+
+  /**
+   * Get the fingerprint of the provided certificate that is used as the cache
+   * key.
+   *
+   * @param aCert
+   *        The certificate to use. May not be <code>null</code>.
+   * @return The hex encoded SHA-256 fingerprint or <code>null</code> if the
+   *         certificate cannot be encoded.
+   */
+  @Nullable
+  public static String getFingerprint (@Nonnull final X509Certificate aCert)
+  {
+    try
+    {
+      return StringHelper.getHexEncoded (MessageDigest.getInstance ("SHA-256").digest (aCert.getEncoded ()));
+    }
+    catch (final CertificateEncodingException | NoSuchAlgorithmException ex)
+    {
+      return null;
+    }
+  }
+
+  /**
+   * Get a cached validation result.
+   *
+   * @param sFingerprint
+   *        The fingerprint of the certificate. May not be <code>null</code>.
+   * @param nNowMillis
+   *        The current time in milliseconds.
+   * @return <code>null</code> if no valid entry is present.
+   */
+  @Nullable
+  public ClientCertificateValidationResult get (@Nonnull final String sFingerprint, final long nNowMillis)
+  {
+    final Entry aEntry = m_aMap.get (sFingerprint);
+    if (aEntry == null)
+      return null;
+    if (aEntry.m_nExpirationMillis <= nNowMillis)
+    {
+      m_aMap.remove (sFingerprint, aEntry);
+      return null;
+    }
+    return aEntry.m_aResult;
+  }
+
+  /**
+   * Remember a validation result.
+   *
+   * @param sFingerprint
+   *        The fingerprint of the certificate. May not be <code>null</code>.
+   * @param aCert
+   *        The validated certificate. May not be <code>null</code>.
+   * @param aResult
+   *        The validation result. May not be <code>null</code>.
+   * @param nNowMillis
+   *        The current time in milliseconds.
+   */
+  public void put (@Nonnull final String sFingerprint,
+                   @Nonnull final X509Certificate aCert,
+                   @Nonnull final ClientCertificateValidationResult aResult,
+                   final long nNowMillis)
+  {
+    if (!isEnabled ())
+      return;
+
+    long nExpirationMillis = nNowMillis + m_nTTLMillis;
+    if (aResult.isSuccess ())
+      nExpirationMillis = Math.min (nExpirationMillis, aCert.getNotAfter ().getTime ());
+    if (nExpirationMillis <= nNowMillis)
+      return;
+
+    if (m_aMap.size () >= MAX_ENTRIES)
+    {
+      // Remove all expired entries first, and start over if that's not enough
+      m_aMap.values ().removeIf (x -> x.m_nExpirationMillis <= nNowMillis);
+      if (m_aMap.size () >= MAX_ENTRIES)
+        m_aMap.clear ();
+    }
+    m_aMap.put (sFingerprint, new Entry (aResult, nExpirationMillis));
+  }
+
+  /**
+   * Remove all entries, e.g. because the revocation information changed.
+   */
+  public void clear ()
+  {
+    m_aMap.clear ();
+  }
+
+  /**
+   * @return The number of cached entries, including expired ones. Always &ge;
+   *         0.
+   */
+  @Nonnegative
+  public int size ()
+  {
+    return m_aMap.size ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("TTLMillis", m_nTTLMillis).append ("Size", m_aMap.size ()).getToString ();
+  }
+}
@@ -17,11 +17,11 @@
 package com.helger.pd.indexer.clientcert;
 
 import java.security.KeyStore;
-import java.security.cert.CRL;
 import java.security.cert.X509Certificate;
 import java.time.LocalDateTime;
 import java.util.Arrays;
 import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
@@ -34,6 +34,7 @@ import javax.servlet.http.HttpServletRequest;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.CGlobal;
 import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.annotation.PresentForCodeCoverage;
 import com.helger.commons.annotation.ReturnsMutableCopy;
@@ -78,6 +79,13 @@ public final class ClientCertificateValidator
   /** Sorted list with all issuers we're accepting. Never empty. */
   private static final ICommonsList <X500Principal> ALLOWED_CERTIFICATE_ISSUERS = new CommonsArrayList <> ();
 
+  /** The cache for the validation results of the client certificates. */
+  private static final ClientCertificateValidationCache VALIDATION_CACHE = new ClientCertificateValidationCache (PDServerConfiguration.getClientCertValidationCacheTTLSeconds () *
+                                                                                                                   CGlobal.MILLISECONDS_PER_SECOND);
+
+  /** The optional revocation cache to check the client certificates with. */
+  private static final AtomicReference <ClientCertificateRevocationCache> REVOCATION_CACHE = new AtomicReference <> ();
+
   /**
    * This method is only for testing purposes to disable the complete client
    * certificate check, so that the tests can be performed, even if no SMP
@@ -100,6 +108,41 @@ public final class ClientCertificateValidator
     return CHECK_DISABLED.get ();
   }
 
+  /**
+   * Remove all cached client certificate validation results. The next request
+   * of each client is fully validated again.
+   *
+   * @since 0.9.6
+   */
+  public static void clearValidationCache ()
+  {
+    VALIDATION_CACHE.clear ();
+  }
+
+  /**
+   * @return The revocation cache used to check the client certificates. May
+   *         be <code>null</code> if no CRLs are configured.
+   * @since 0.9.6
+   */
+  @Nullable
+  public static ClientCertificateRevocationCache getRevocationCache ()
+  {
+    return REVOCATION_CACHE.get ();
+  }
+
+  /**
+   * Set the revocation cache used to check the client certificates.
+   *
+   * @param aRevocationCache
+   *        The revocation cache to use. May be <code>null</code> to disable
+   *        revocation checking.
+   * @since 0.9.6
+   */
+  public static void setRevocationCache (@Nullable final ClientCertificateRevocationCache aRevocationCache)
+  {
+    REVOCATION_CACHE.set (aRevocationCache);
+  }
+
   private static void _initCertificateIssuers ()
   {
     LOGGER.info ("Initializing all client certificate issuer(s)");
@@ -223,8 +266,6 @@ public final class ClientCertificateValidator
    * @param aTrustedRootCert
    *        The trusted root certificate. E.g. the OpenPEPPOL SMP root
    *        certificate.
-   * @param aCRLs
-   *        A non-<code>null</code> list with revocation lists to handle
    * @param aDT
    *        The date and time which should be used for checking. May be
    *        <code>null</code> to indicate "now".
@@ -233,7 +274,6 @@ public final class ClientCertificateValidator
   @Nullable
   private static String _verifyCertificate (@Nonnull final X509Certificate aCert,
                                             @Nonnull final X509Certificate aTrustedRootCert,
-                                            @Nonnull final Iterable <? extends CRL> aCRLs,
                                             @Nullable final LocalDateTime aDT)
   {
     if (aCert.hasUnsupportedCriticalExtension ())
@@ -262,12 +302,6 @@ public final class ClientCertificateValidator
       return ex.getMessage ();
     }
 
-    // Check passed revocation lists
-    if (aCRLs != null)
-      for (final CRL aCRL : aCRLs)
-        if (aCRL.isRevoked (aCert))
-          return "Certificate is revoked according to " + aCRL.toString ();
-
     // null means OK :)
     return null;
   }
@@ -346,9 +380,6 @@ public final class ClientCertificateValidator
 
     // OK, we have a non-empty, type checked Certificate array
 
-    // TODO: determine CRLs
-    final ICommonsList <CRL> aCRLs = new CommonsArrayList <> ();
-
     // Verify for "now"
     final LocalDateTime aVerificationDate = PDTFactory.getCurrentLocalDateTime ();
 
@@ -369,24 +400,67 @@ public final class ClientCertificateValidator
       // Do we have a certificate to verify?
       if (aClientCertToVerify == null)
       {
-        throw new IllegalStateException ("Found no client certificate that was issued by one of the " +
-                                         ALLOWED_CERTIFICATE_ISSUERS.size () +
-                                         " required issuers. Provided certs are: " +
-                                         Arrays.toString (aRequestCerts));
+        if (LOGGER.isWarnEnabled ())
+          LOGGER.warn (sLogPrefix +
+                       "Found no client certificate that was issued by one of the " +
+                       ALLOWED_CERTIFICATE_ISSUERS.size () +
+                       " required issuers. Provided certs are: " +
+                       Arrays.toString (aRequestCerts));
+        return ClientCertificateValidationResult.createFailure ();
+      }
+    }
+
+    // Revocation is checked on every request, as the CRLs may change anytime
+    final ClientCertificateRevocationCache aRevocationCache = REVOCATION_CACHE.get ();
+    if (aRevocationCache != null && aRevocationCache.isRevoked (aClientCertToVerify))
+    {
+      if (LOGGER.isWarnEnabled ())
+        LOGGER.warn (sLogPrefix + "Client certificate is revoked: " + aClientCertToVerify.getSubjectX500Principal ().getName ());
+      return ClientCertificateValidationResult.createFailure ();
+    }
+
+    // Was the same certificate validated recently?
+    final long nNowMillis = System.currentTimeMillis ();
+    final String sFingerprint = VALIDATION_CACHE.isEnabled () ? ClientCertificateValidationCache.getFingerprint (aClientCertToVerify)
+                                                              : null;
+    if (sFingerprint != null)
+    {
+      final ClientCertificateValidationResult aCachedResult = VALIDATION_CACHE.get (sFingerprint, nNowMillis);
+      if (aCachedResult != null)
+      {
+        if (LOGGER.isDebugEnabled ())
+          LOGGER.debug (sLogPrefix + "  Using cached client certificate validation result " + aCachedResult.isSuccess ());
+        return aCachedResult;
       }
     }
 
+    final ClientCertificateValidationResult ret = _verifyClientCertificate (aClientCertToVerify, aVerificationDate, sLogPrefix);
+    if (sFingerprint != null)
+      VALIDATION_CACHE.put (sFingerprint, aClientCertToVerify, ret, nNowMillis);
+    return ret;
+  }
+
+  @Nonnull
+  private static ClientCertificateValidationResult _verifyClientCertificate (@Nonnull final X509Certificate aClientCertToVerify,
+                                                                             @Nonnull final LocalDateTime aVerificationDate,
+                                                                             @Nonnull final String sLogPrefix)
+  {
     final String sClientID = getClientUniqueID (aClientCertToVerify);
 
     // This is the main verification process against the Peppol SMP root
     // certificate
     for (final X509Certificate aRootCert : ALLOWED_ROOT_CERTS)
     {
-      final String sVerifyErrorMsg = _verifyCertificate (aClientCertToVerify, aRootCert, aCRLs, aVerificationDate);
-      if (sVerifyErrorMsg == null)
+      final String sVerifyErrorMsg = _verifyCertificate (aClientCertToVerify, aRootCert, aVerificationDate);
+      if (sVerifyErrorMsg == null && sClientID != null)
       {
         if (LOGGER.isInfoEnabled ())
           LOGGER.info (sLogPrefix + "  Passed client certificate is valid");
+
+        // Only verified certificates may add CRL sources
+        final ClientCertificateRevocationCache aRevocationCache = REVOCATION_CACHE.get ();
+        if (aRevocationCache != null)
+          aRevocationCache.discoverSources (aClientCertToVerify);
         return ClientCertificateValidationResult.createSuccess (sClientID);
       }
     }
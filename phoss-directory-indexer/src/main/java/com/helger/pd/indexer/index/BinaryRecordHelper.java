@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.index;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.functional.IThrowingConsumer;
+import com.helger.commons.io.file.FileHelper;
+import com.helger.commons.io.stream.NonBlockingBufferedInputStream;
+import com.helger.commons.mutable.MutableBoolean;
+
+/**
+ * Helper class to read and write binary record files. Each record is stored
+ * as: length of the payload (int), CRC32 of the payload (int), payload. A
+ * truncated or corrupt record (e.g. from a crash while writing) ends the
+ * reading. This includes records with an implausible length, so that a
+ * corrupt length never leads to a huge allocation.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@Immutable
+public final class BinaryRecordHelper
+{
+  /** The number of bytes for the record header */
+  public static final int RECORD_HEADER_BYTES = 8;
+  /** The maximum number of payload bytes of a single record */
+  public static final int MAX_RECORD_PAYLOAD_BYTES = 64 * 1024 * 1024;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (BinaryRecordHelper.class);
+
+  private BinaryRecordHelper ()
+  {}
+
+  /**
+   * Write a single record to the provided channel.
+   *
+   * @param aChannel
+   *        The channel to write to. May not be <code>null</code>.
+   * @param aPayload
+   *        The payload to write. May not be <code>null</code>.
+   * @return The number of bytes written, including the header.
+   * @throws IOException
+   *         In case of a write error
+   */
+  @Nonnegative
+  public static int writeRecord (@Nonnull final FileChannel aChannel, @Nonnull final byte [] aPayload) throws IOException
+  {
+    if (aPayload.length == 0 || aPayload.length > MAX_RECORD_PAYLOAD_BYTES)
+      throw new IOException ("Invalid record payload size " + aPayload.length);
+
+    final CRC32 aCRC = new CRC32 ();
+    aCRC.update (aPayload, 0, aPayload.length);
+
+    final ByteBuffer aBB = ByteBuffer.allocate (RECORD_HEADER_BYTES + aPayload.length);
+    aBB.putInt (aPayload.length);
+    aBB.putInt ((int) aCRC.getValue ());
+    aBB.put (aPayload);
+    aBB.flip ();
+    while (aBB.hasRemaining ())
+      aChannel.write (aBB);
+    return RECORD_HEADER_BYTES + aPayload.length;
+  }
+
+  /**
+   * Read all records of the provided file.
+   *
+   * @param aFile
+   *        The file to read. May not be <code>null</code>.
+   * @param aConsumer
+   *        The consumer for each payload. May not be <code>null</code>.
+   * @return The number of valid records read. Always &ge; 0.
+   * @throws IOException
+   *         In case of a read error or if the consumer throws it
+   */
+  @Nonnegative
+  public static int readAllRecords (@Nonnull final File aFile,
+                                    @Nonnull final IThrowingConsumer <byte [], IOException> aConsumer) throws IOException
+  {
+    return readAllRecords (aFile, aConsumer, null);
+  }
+
+  /**
+   * Read all records of the provided file. A truncated last record (e.g. from a
+   * crash while writing) is silently ignored. A corrupt record that is followed
+   * by further data ends the reading as well, but this is reported as damage,
+   * because valid records may follow.
+   *
+   * @param aFile
+   *        The file to read. May not be <code>null</code>.
+   * @param aConsumer
+   *        The consumer for each payload. May not be <code>null</code>.
+   * @param aDamaged
+   *        Optional holder that is set to <code>true</code> if the file is
+   *        damaged and records were skipped. May be <code>null</code>.
+   * @return The number of valid records read. Always &ge; 0.
+   * @throws IOException
+   *         In case of a read error or if the consumer throws it
+   */
+  @Nonnegative
+  public static int readAllRecords (@Nonnull final File aFile,
+                                    @Nonnull final IThrowingConsumer <byte [], IOException> aConsumer,
+                                    @Nullable final MutableBoolean aDamaged) throws IOException
+  {
+    int nRecords = 0;
+    if (aFile.isFile ())
+      try (final InputStream aIS = new NonBlockingBufferedInputStream (FileHelper.getInputStream (aFile));
+           final DataInputStream aDIS = new DataInputStream (aIS))
+      {
+        final long nFileLength = aFile.length ();
+        long nPos = 0;
+        final CRC32 aCRC = new CRC32 ();
+        while (true)
+        {
+          final int nLength;
+          final int nCRC;
+          final byte [] aPayload;
+          try
+          {
+            nLength = aDIS.readInt ();
+            nCRC = aDIS.readInt ();
+            nPos += RECORD_HEADER_BYTES;
+            if (nLength <= 0 || nLength > MAX_RECORD_PAYLOAD_BYTES)
+            {
+              LOGGER.error ("Ignoring record #" + nRecords + " with invalid length " + nLength + " and all following records in " + aFile);
+              if (aDamaged != null)
+                aDamaged.set (true);
+              break;
+            }
+            if (nLength > nFileLength - nPos)
+            {
+              // Truncated last record
+              break;
+            }
+            aPayload = new byte [nLength];
+            aDIS.readFully (aPayload);
+            nPos += nLength;
+          }
+          catch (final EOFException ex)
+          {
+            // End of file or truncated last record
+            break;
+          }
+
+          aCRC.reset ();
+          aCRC.update (aPayload, 0, nLength);
+          if ((int) aCRC.getValue () != nCRC)
+          {
+            if (nPos < nFileLength)
+            {
+              LOGGER.error ("Ignoring corrupt record #" + nRecords + " and all following records in " + aFile);
+              if (aDamaged != null)
+                aDamaged.set (true);
+            }
+            else
+              LOGGER.warn ("Ignoring corrupt last record #" + nRecords + " in " + aFile);
+            break;
+          }
+
+          aConsumer.accept (aPayload);
+          nRecords++;
+        }
+      }
+    return nRecords;
+  }
+}
@@ -0,0 +1,107 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.index;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+import com.helger.commons.name.IHasDisplayName;
+import com.helger.pd.indexer.mgr.PDIndexerManager;
+
+/**
+ * The scheduling lanes of the indexer work item queue. Each lane has a weight
+ * that determines the share of work items taken from it, if more than one lane
+ * contains work items.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+public enum EIndexerWorkItemLane implements IHasID <String>, IHasDisplayName
+{
+  /** Real-time requests from SMPs via the REST API */
+  INTERACTIVE ("interactive", "Interactive", 10),
+  /** Actions triggered by an administrator */
+  ADMIN ("admin", "Administration", 3),
+  /** Background synchronization */
+  BACKGROUND ("background", "Background", 1);
+
+  private final String m_sID;
+  private final String m_sDisplayName;
+  private final int m_nWeight;
+
+  private EIndexerWorkItemLane (@Nonnull @Nonempty final String sID,
+                                @Nonnull @Nonempty final String sDisplayName,
+                                @Nonnegative final int nWeight)
+  {
+    m_sID = sID;
+    m_sDisplayName = sDisplayName;
+    m_nWeight = nWeight;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getDisplayName ()
+  {
+    return m_sDisplayName;
+  }
+
+  /**
+   * @return The relative weight of this lane. Always &gt; 0.
+   */
+  @Nonnegative
+  public int getWeight ()
+  {
+    return m_nWeight;
+  }
+
+  @Nullable
+  public static EIndexerWorkItemLane getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EIndexerWorkItemLane.class, sID);
+  }
+
+  /**
+   * Determine the lane of the provided work item. {@link EIndexerWorkItemType#SYNC}
+   * items are always background items, items requested from the local host
+   * are administrative items and everything else comes via the REST API.
+   *
+   * @param aWorkItem
+   *        The work item to check. May not be <code>null</code>.
+   * @return The lane to use. Never <code>null</code>.
+   */
+  @Nonnull
+  public static EIndexerWorkItemLane getLaneOfWorkItem (@Nonnull final IIndexerWorkItem aWorkItem)
+  {
+    if (aWorkItem.getType () == EIndexerWorkItemType.SYNC)
+      return BACKGROUND;
+    final String sHost = aWorkItem.getRequestingHost ();
+    if (PDIndexerManager.HOST_LOCALHOST.equals (sHost) || IIndexerWorkItem.REQUESTING_HOST_SML.equals (sHost))
+      return ADMIN;
+    return INTERACTIVE;
+  }
+}
@@ -61,6 +61,36 @@ public enum EIndexerWorkItemType implements IHasID <String>, IHasDisplayName
     return m_sDisplayName;
   }
 
+  /**
+   * Check if a pending work item of this type for a participant is superseded
+   * by a new work item of the provided type for the same participant. If it is
+   * superseded, only the new work item needs to be executed. If it is not
+   * superseded, the new work item is contained in the pending one and needs no
+   * execution.
+   * <ul>
+   * <li>The same type is never superseded</li>
+   * <li>{@link #SYNC} never supersedes anything, because any other pending
+   * action already fetches the latest data</li>
+   * <li>Otherwise the latest action wins (e.g. {@link #DELETE} supersedes a
+   * pending {@link #CREATE_UPDATE})</li>
+   * </ul>
+   *
+   * @param eNewType
+   *        The type of the new work item. May not be <code>null</code>.
+   * @return <code>true</code> if the pending work item of this type is
+   *         superseded by the new one, <code>false</code> if the new work item
+   *         is not needed.
+   * @since 0.9.6
+   */
+  public boolean isSupersededBy (@Nonnull final EIndexerWorkItemType eNewType)
+  {
+    if (eNewType == this)
+      return false;
+    if (eNewType == SYNC)
+      return false;
+    return true;
+  }
+
   @Nullable
   public static EIndexerWorkItemType getFromIDOrNull (@Nullable final String sID)
   {
@@ -0,0 +1,139 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.index;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.peppolid.simple.participant.SimpleParticipantIdentifier;
+
+/**
+ * Compact binary representation of {@link IIndexerWorkItem} objects. It is
+ * used for the journal and the binary re-index store, where the XML
+ * representation of {@link IndexerWorkItemMicroTypeConverter} is too
+ * expensive.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@Immutable
+public final class IndexerWorkItemBinaryConverter
+{
+  private IndexerWorkItemBinaryConverter ()
+  {}
+
+  /**
+   * Write a date time in a lossless way.
+   *
+   * @param aDT
+   *        The date time to write. May be <code>null</code>.
+   * @param aDO
+   *        The data output to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of a write error
+   */
+  public static void writeDateTime (@Nullable final LocalDateTime aDT, @Nonnull final DataOutput aDO) throws IOException
+  {
+    aDO.writeBoolean (aDT != null);
+    if (aDT != null)
+    {
+      aDO.writeLong (aDT.toEpochSecond (ZoneOffset.UTC));
+      aDO.writeInt (aDT.getNano ());
+    }
+  }
+
+  /**
+   * Read a date time written by
+   * {@link #writeDateTime(LocalDateTime, DataOutput)}.
+   *
+   * @param aDI
+   *        The data input to read from. May not be <code>null</code>.
+   * @return The read date time. May be <code>null</code>.
+   * @throws IOException
+   *         In case of a read error
+   */
+  @Nullable
+  public static LocalDateTime readDateTime (@Nonnull final DataInput aDI) throws IOException
+  {
+    if (!aDI.readBoolean ())
+      return null;
+    final long nEpochSecond = aDI.readLong ();
+    final int nNano = aDI.readInt ();
+    return LocalDateTime.ofEpochSecond (nEpochSecond, nNano, ZoneOffset.UTC);
+  }
+
+  /**
+   * Write the provided work item.
+   *
+   * @param aItem
+   *        The work item to write. May not be <code>null</code>.
+   * @param aDO
+   *        The data output to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         In case of a write error
+   */
+  public static void writeWorkItem (@Nonnull final IIndexerWorkItem aItem, @Nonnull final DataOutput aDO) throws IOException
+  {
+    aDO.writeUTF (aItem.getID ());
+    writeDateTime (aItem.getCreationDateTime (), aDO);
+    aDO.writeUTF (aItem.getParticipantID ().getScheme ());
+    aDO.writeUTF (aItem.getParticipantID ().getValue ());
+    aDO.writeUTF (aItem.getType ().getID ());
+    aDO.writeUTF (aItem.getOwnerID ());
+    aDO.writeUTF (aItem.getRequestingHost ());
+  }
+
+  /**
+   * Read a work item written by
+   * {@link #writeWorkItem(IIndexerWorkItem, DataOutput)}.
+   *
+   * @param aDI
+   *        The data input to read from. May not be <code>null</code>.
+   * @return The read work item. Never <code>null</code>.
+   * @throws IOException
+   *         In case of a read error or if the data is inconsistent
+   */
+  @Nonnull
+  public static IndexerWorkItem readWorkItem (@Nonnull final DataInput aDI) throws IOException
+  {
+    final String sID = aDI.readUTF ();
+    final LocalDateTime aCreationDT = readDateTime (aDI);
+    if (aCreationDT == null)
+      throw new IOException ("Work item " + sID + " has no creation date time");
+    final String sScheme = aDI.readUTF ();
+    final String sValue = aDI.readUTF ();
+    final String sTypeID = aDI.readUTF ();
+    final EIndexerWorkItemType eType = EIndexerWorkItemType.getFromIDOrNull (sTypeID);
+    if (eType == null)
+      throw new IOException ("Work item " + sID + " has invalid type ID '" + sTypeID + "'");
+    final String sOwnerID = aDI.readUTF ();
+    final String sRequestingHost = aDI.readUTF ();
+    return new IndexerWorkItem (sID,
+                                aCreationDT,
+                                new SimpleParticipantIdentifier (sScheme, sValue),
+                                eType,
+                                sOwnerID,
+                                sRequestingHost);
+  }
+}
@@ -0,0 +1,489 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.index;
+
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A crash safe, append-only journal for the indexer work queue. Every queued
+ * work item is appended as an "enqueue" record, and every finished work item
+ * is appended as an "ack" record. The file system sync happens asynchronously
+ * in regular intervals, so that many records share a single sync (group
+ * commit). {@link #onEnqueue(IIndexerWorkItem)} waits until its record was
+ * synced, so that a queued item is never lost. {@link #onAck(IIndexerWorkItem)}
+ * does not wait - if an ack is lost upon a crash, the item is just replayed
+ * once more. The sync itself is performed without holding the lock, so that
+ * writers are not blocked by it.<br>
+ * The journal is split into segments. If a segment grows too large, a new
+ * segment is started with a checkpoint containing all pending items and the
+ * old segments are deleted. Upon startup, all existing segments are replayed
+ * so that the pending items can be queued again.
+ * <p>
+ * The records are written with {@link BinaryRecordHelper}. The payload starts
+ * with the record type (byte). A truncated or corrupt record at the end of the
+ * last segment (e.g. from a crash while writing) is ignored.
+ * </p>
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@ThreadSafe
+public final class IndexerWorkItemJournal implements Closeable
+{
+  /** The default maximum size of the records after a checkpoint. */
+  public static final long DEFAULT_MAX_SEGMENT_BYTES = 64L * 1024 * 1024;
+  /** The default interval in milliseconds between two file system syncs */
+  public static final long DEFAULT_SYNC_INTERVAL_MS = 50;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (IndexerWorkItemJournal.class);
+
+  private static final String SEGMENT_PREFIX = "segment-";
+  private static final String SEGMENT_SUFFIX = ".journal";
+  private static final byte RECORD_ENQUEUE = 1;
+  private static final byte RECORD_ACK = 2;
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  private final File m_aDirectory;
+  private final long m_nMaxSegmentBytes;
+  private final ScheduledExecutorService m_aSyncExecutor;
+  private final ICommonsList <IIndexerWorkItem> m_aReplayedItems;
+
+  /** All items that were enqueued but not yet acknowledged */
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsOrderedMap <String, IIndexerWorkItem> m_aPending = new CommonsLinkedHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private long m_nSegmentIndex;
+  @GuardedBy ("m_aRWLock")
+  private FileChannel m_aChannel;
+  @GuardedBy ("m_aRWLock")
+  private long m_nCheckpointBytes;
+  @GuardedBy ("m_aRWLock")
+  private long m_nSegmentBytes;
+  @GuardedBy ("m_aRWLock")
+  private boolean m_bDirty = false;
+  /** The sequence number of the last written record */
+  @GuardedBy ("m_aRWLock")
+  private long m_nWrittenSeq = 0;
+
+  private final SimpleLock m_aSyncLock = new SimpleLock ();
+  private final Condition m_aSyncCondition = m_aSyncLock.newCondition ();
+  /** The sequence number of the last record that is known to be synced */
+  @GuardedBy ("m_aSyncLock")
+  private long m_nSyncedSeq = 0;
+
+  /**
+   * Constructor with the default maximum segment size and sync interval.
+   *
+   * @param aDirectory
+   *        The directory to store the journal segments in. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         In case replaying or creating the journal failed
+   */
+  public IndexerWorkItemJournal (@Nonnull final File aDirectory) throws IOException
+  {
+    this (aDirectory, DEFAULT_MAX_SEGMENT_BYTES, DEFAULT_SYNC_INTERVAL_MS);
+  }
+
+  /**
+   * Constructor. Replays all existing segments and starts a new segment with a
+   * checkpoint of all pending items.
+   *
+   * @param aDirectory
+   *        The directory to store the journal segments in. May not be
+   *        <code>null</code>.
+   * @param nMaxSegmentBytes
+   *        The maximum number of bytes after the checkpoint of a segment, after
+   *        which a new segment is started. Must be &gt; 0.
+   * @param nSyncIntervalMS
+   *        The interval in milliseconds between two file system syncs. Must
+   *        be &gt; 0.
+   * @throws IOException
+   *         In case replaying or creating the journal failed
+   */
+  public IndexerWorkItemJournal (@Nonnull final File aDirectory,
+                                 @Nonnegative final long nMaxSegmentBytes,
+                                 @Nonnegative final long nSyncIntervalMS) throws IOException
+  {
+    ValueEnforcer.notNull (aDirectory, "Directory");
+    ValueEnforcer.isGT0 (nMaxSegmentBytes, "MaxSegmentBytes");
+    ValueEnforcer.isGT0 (nSyncIntervalMS, "SyncIntervalMS");
+    m_aDirectory = aDirectory;
+    m_nMaxSegmentBytes = nMaxSegmentBytes;
+
+    if (FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aDirectory).isFailure ())
+      throw new IOException ("Failed to create journal directory " + aDirectory.getAbsolutePath ());
+
+    // Replay all existing segments
+    final ICommonsList <File> aOldSegments = _getAllSegmentFiles ();
+    long nLastIndex = 0;
+    for (final File aSegment : aOldSegments)
+    {
+      _replaySegment (aSegment);
+      nLastIndex = _getSegmentIndex (aSegment);
+    }
+    m_aReplayedItems = m_aPending.copyOfValues ();
+    if (aOldSegments.isNotEmpty ())
+      LOGGER.info ("Replayed " + aOldSegments.size () + " journal segment(s) with " + m_aReplayedItems.size () + " pending work items");
+
+    // Start a new segment with a checkpoint and remove the old ones
+    m_nSegmentIndex = nLastIndex;
+    _startNewSegment ();
+    for (final File aSegment : aOldSegments)
+      FileOperationManager.INSTANCE.deleteFileIfExisting (aSegment);
+
+    m_aSyncExecutor = Executors.newSingleThreadScheduledExecutor (new BasicThreadFactory.Builder ().namingPattern ("pd-indexer-journal-%d")
+                                                                                                 .daemon (true)
+                                                                                                 .build ());
+    m_aSyncExecutor.scheduleWithFixedDelay (this::sync, nSyncIntervalMS, nSyncIntervalMS, TimeUnit.MILLISECONDS);
+  }
+
+  private static long _getSegmentIndex (@Nonnull final File aFile)
+  {
+    final String sName = aFile.getName ();
+    return StringParser.parseLong (sName.substring (SEGMENT_PREFIX.length (), sName.length () - SEGMENT_SUFFIX.length ()), -1);
+  }
+
+  @Nonnull
+  private File _getSegmentFile (final long nIndex)
+  {
+    return new File (m_aDirectory, SEGMENT_PREFIX + String.format ("%016d", Long.valueOf (nIndex)) + SEGMENT_SUFFIX);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  private ICommonsList <File> _getAllSegmentFiles ()
+  {
+    final ICommonsList <File> ret = new CommonsArrayList <> ();
+    final File [] aFiles = m_aDirectory.listFiles ();
+    if (aFiles != null)
+      for (final File aFile : aFiles)
+      {
+        final String sName = aFile.getName ();
+        if (aFile.isFile () && sName.startsWith (SEGMENT_PREFIX) && sName.endsWith (SEGMENT_SUFFIX) && _getSegmentIndex (aFile) >= 0)
+          ret.add (aFile);
+      }
+    ret.sort ( (x, y) -> Long.compare (_getSegmentIndex (x), _getSegmentIndex (y)));
+    return ret;
+  }
+
+  private void _replaySegment (@Nonnull final File aSegment) throws IOException
+  {
+    BinaryRecordHelper.readAllRecords (aSegment, aPayload -> {
+      try (final DataInputStream aRecord = new DataInputStream (new NonBlockingByteArrayInputStream (aPayload)))
+      {
+        final byte nType = aRecord.readByte ();
+        switch (nType)
+        {
+          case RECORD_ENQUEUE:
+          {
+            final IIndexerWorkItem aItem = IndexerWorkItemBinaryConverter.readWorkItem (aRecord);
+            m_aPending.put (aItem.getID (), aItem);
+            break;
+          }
+          case RECORD_ACK:
+            m_aPending.remove (aRecord.readUTF ());
+            break;
+          default:
+            throw new IOException ("Unsupported journal record type " + nType + " in " + aSegment);
+        }
+      }
+    });
+  }
+
+  @Nonnull
+  private static byte [] _createRecord (final byte nType, @Nonnull final IIndexerWorkItem aItem) throws IOException
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+         final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      aDOS.writeByte (nType);
+      if (nType == RECORD_ENQUEUE)
+        IndexerWorkItemBinaryConverter.writeWorkItem (aItem, aDOS);
+      else
+        aDOS.writeUTF (aItem.getID ());
+      aDOS.flush ();
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _writeRecord (@Nonnull final byte [] aPayload) throws IOException
+  {
+    m_nSegmentBytes += BinaryRecordHelper.writeRecord (m_aChannel, aPayload);
+    m_nWrittenSeq++;
+    m_bDirty = true;
+  }
+
+  private void _onSynced (final long nSeq)
+  {
+    m_aSyncLock.locked ( () -> {
+      if (nSeq > m_nSyncedSeq)
+      {
+        m_nSyncedSeq = nSeq;
+        m_aSyncCondition.signalAll ();
+      }
+    });
+  }
+
+  private void _waitForSync (final long nSeq)
+  {
+    m_aSyncLock.lock ();
+    try
+    {
+      while (m_nSyncedSeq < nSeq)
+        m_aSyncCondition.await ();
+    }
+    catch (final InterruptedException ex)
+    {
+      Thread.currentThread ().interrupt ();
+    }
+    finally
+    {
+      m_aSyncLock.unlock ();
+    }
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _startNewSegment () throws IOException
+  {
+    final FileChannel aOldChannel = m_aChannel;
+    final long nOldIndex = m_nSegmentIndex;
+
+    m_nSegmentIndex++;
+    final File aNewFile = _getSegmentFile (m_nSegmentIndex);
+    m_aChannel = FileChannel.open (aNewFile.toPath (),
+                                   StandardOpenOption.CREATE,
+                                   StandardOpenOption.TRUNCATE_EXISTING,
+                                   StandardOpenOption.WRITE);
+    m_nSegmentBytes = 0;
+
+    // Write the checkpoint
+    for (final IIndexerWorkItem aItem : m_aPending.values ())
+      _writeRecord (_createRecord (RECORD_ENQUEUE, aItem));
+    m_aChannel.force (true);
+    m_bDirty = false;
+    m_nCheckpointBytes = m_nSegmentBytes;
+    // The checkpoint contains the effect of all records written so far
+    _onSynced (m_nWrittenSeq);
+
+    // The checkpoint is persisted - old segment is no longer needed
+    if (aOldChannel != null)
+    {
+      StreamHelper.close (aOldChannel);
+      FileOperationManager.INSTANCE.deleteFileIfExisting (_getSegmentFile (nOldIndex));
+    }
+  }
+
+  /**
+   * Append a record.
+   *
+   * @return The sequence number of the written record or -1 if writing failed.
+   */
+  private long _append (final byte nType, @Nonnull final IIndexerWorkItem aItem)
+  {
+    try
+    {
+      // Serialize outside of the lock
+      final byte [] aPayload = _createRecord (nType, aItem);
+      m_aRWLock.writeLock ().lock ();
+      try
+      {
+        if (m_aChannel == null)
+          throw new IOException ("Journal is already closed");
+
+        if (nType == RECORD_ENQUEUE)
+          m_aPending.put (aItem.getID (), aItem);
+        else
+          m_aPending.remove (aItem.getID ());
+
+        _writeRecord (aPayload);
+        final long nSeq = m_nWrittenSeq;
+
+        if (m_nSegmentBytes - m_nCheckpointBytes > m_nMaxSegmentBytes)
+          _startNewSegment ();
+        return nSeq;
+      }
+      finally
+      {
+        m_aRWLock.writeLock ().unlock ();
+      }
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Failed to append to indexer work item journal for " + aItem.getLogText (), ex);
+      return -1;
+    }
+  }
+
+  /**
+   * @return All work items that were pending when the journal was opened. They
+   *         need to be queued again. Never <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IIndexerWorkItem> getAllReplayedItems ()
+  {
+    return m_aReplayedItems.getClone ();
+  }
+
+  /**
+   * @return The number of items that are currently pending. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getPendingItemCount ()
+  {
+    return m_aRWLock.readLockedInt (m_aPending::size);
+  }
+
+  /**
+   * Record that a work item was queued. This method returns after the record
+   * was synced to the file system together with all other records written in
+   * the meantime.
+   *
+   * @param aItem
+   *        The queued work item. May not be <code>null</code>.
+   */
+  public void onEnqueue (@Nonnull final IIndexerWorkItem aItem)
+  {
+    ValueEnforcer.notNull (aItem, "Item");
+    final long nSeq = _append (RECORD_ENQUEUE, aItem);
+    if (nSeq > 0)
+      _waitForSync (nSeq);
+  }
+
+  /**
+   * Record that a work item was finished and does not need to be replayed.
+   * This method does not wait for the next sync.
+   *
+   * @param aItem
+   *        The finished work item. May not be <code>null</code>.
+   */
+  public void onAck (@Nonnull final IIndexerWorkItem aItem)
+  {
+    ValueEnforcer.notNull (aItem, "Item");
+    _append (RECORD_ACK, aItem);
+  }
+
+  /**
+   * Sync all written records to the file system. This is called regularly in
+   * the background but may be called manually as well.
+   */
+  public void sync ()
+  {
+    final FileChannel aChannel;
+    final long nSeq;
+    m_aRWLock.writeLock ().lock ();
+    try
+    {
+      if (!m_bDirty || m_aChannel == null)
+        return;
+      aChannel = m_aChannel;
+      nSeq = m_nWrittenSeq;
+      m_bDirty = false;
+    }
+    finally
+    {
+      m_aRWLock.writeLock ().unlock ();
+    }
+
+    try
+    {
+      // FileChannel is thread-safe - don't block the writers
+      aChannel.force (false);
+    }
+    catch (final ClosedChannelException ex)
+    {
+      // A new segment was started or the journal was closed in the meantime -
+      // both sync everything written so far
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Failed to sync indexer work item journal", ex);
+      // Try again next time and don't let the waiting callers hang
+      m_aRWLock.writeLocked ( () -> m_bDirty = true);
+    }
+    _onSynced (nSeq);
+  }
+
+  public void close () throws IOException
+  {
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aSyncExecutor);
+    try
+    {
+      m_aRWLock.writeLockedThrowing ( () -> {
+        if (m_aChannel != null)
+        {
+          m_aChannel.force (true);
+          m_aChannel.close ();
+          m_aChannel = null;
+          LOGGER.info ("Closed indexer work item journal with " + m_aPending.size () + " pending work items");
+        }
+      });
+    }
+    finally
+    {
+      // No more syncs will happen
+      _onSynced (Long.MAX_VALUE);
+    }
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Directory", m_aDirectory)
+                                       .append ("MaxSegmentBytes", m_nMaxSegmentBytes)
+                                       .append ("SegmentIndex", m_nSegmentIndex)
+                                       .getToString ();
+  }
+}
@@ -17,35 +17,40 @@
 package com.helger.pd.indexer.index;
 
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.LinkedBlockingQueue;
 import java.util.concurrent.SynchronousQueue;
 import java.util.concurrent.ThreadFactory;
 import java.util.concurrent.ThreadPoolExecutor;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ReturnsMutableCopy;
-import com.helger.commons.annotation.ReturnsMutableObject;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.concurrent.BasicThreadFactory;
 import com.helger.commons.concurrent.ExecutorServiceHelper;
-import com.helger.commons.concurrent.collector.ConcurrentCollectorSingle;
 import com.helger.commons.concurrent.collector.IConcurrentPerformer;
 
 /**
  * The indexer queue that holds all items to be indexed initially. If indexing
  * fails, items are shifted to the re-index list (see
  * {@link com.helger.pd.indexer.reindex.ReIndexWorkItemList}) where graceful
- * retries will happen.
+ * retries will happen. The order in which the items are handled is determined
+ * by the {@link IndexerWorkItemScheduler}.
  *
  * @author Philip Helger
  */
 public final class IndexerWorkItemQueue
 {
-  private final LinkedBlockingQueue <Object> m_aQueue;
-  private final ConcurrentCollectorSingle <IIndexerWorkItem> m_aImmediateCollector;
+  private static final Logger LOGGER = LoggerFactory.getLogger (IndexerWorkItemQueue.class);
+
+  private final IndexerWorkItemScheduler m_aScheduler = new IndexerWorkItemScheduler ();
+  private final IConcurrentPerformer <IIndexerWorkItem> m_aPerformer;
+  private final Runnable m_aIdleHandler;
   private final ThreadFactory m_aThreadFactory = new BasicThreadFactory.Builder ().namingPattern ("pd-indexer-%d")
                                                                                   .daemon (false)
                                                                                   .priority (Thread.NORM_PRIORITY)
@@ -64,17 +69,56 @@ public final class IndexerWorkItemQueue
    * @param aPerformer
    *        The executor that will effective handle work items (e.g. retrieve
    *        from SMP).
+   * @param aIdleHandler
+   *        The handler that is invoked every time the queue ran empty after a
+   *        work item was handled, and upon stop. May not be <code>null</code>.
    */
-  public IndexerWorkItemQueue (@Nonnull final IConcurrentPerformer <IIndexerWorkItem> aPerformer)
+  public IndexerWorkItemQueue (@Nonnull final IConcurrentPerformer <IIndexerWorkItem> aPerformer, @Nonnull final Runnable aIdleHandler)
   {
     ValueEnforcer.notNull (aPerformer, "Performer");
-    // Use an indefinite queue for holding tasks
-    m_aQueue = new LinkedBlockingQueue <> ();
-    m_aImmediateCollector = new ConcurrentCollectorSingle <> (m_aQueue);
-    m_aImmediateCollector.setPerformer (aPerformer);
+    ValueEnforcer.notNull (aIdleHandler, "IdleHandler");
+    m_aPerformer = aPerformer;
+    m_aIdleHandler = aIdleHandler;
 
     // Start the collector
-    m_aSenderThreadPool.submit (m_aImmediateCollector::collect);
+    m_aSenderThreadPool.submit (this::_collect);
+  }
+
+  private void _collect ()
+  {
+    try
+    {
+      while (true)
+      {
+        final IIndexerWorkItem aWorkItem = m_aScheduler.take ();
+        if (aWorkItem == null)
+        {
+          // Stopped
+          break;
+        }
+
+        try
+        {
+          m_aPerformer.runAsync (aWorkItem);
+        }
+        catch (final Exception ex)
+        {
+          LOGGER.error ("Failed to perform work item " + aWorkItem.getLogText (), ex);
+        }
+
+        if (m_aScheduler.getSize () == 0)
+          m_aIdleHandler.run ();
+      }
+    }
+    catch (final InterruptedException ex)
+    {
+      LOGGER.error ("Error taking elements from queue - queue has been interrupted!!!");
+      Thread.currentThread ().interrupt ();
+    }
+    finally
+    {
+      m_aIdleHandler.run ();
+    }
   }
 
   /**
@@ -88,10 +132,10 @@ public final class IndexerWorkItemQueue
   public ICommonsList <IIndexerWorkItem> stop ()
   {
     // don't take any more actions
-    m_aImmediateCollector.stopQueuingNewObjects ();
+    m_aScheduler.stop ();
 
     // Get all remaining objects and save them for late reuse
-    final ICommonsList <IIndexerWorkItem> aRemainingItems = m_aImmediateCollector.drainQueue ();
+    final ICommonsList <IIndexerWorkItem> aRemainingItems = m_aScheduler.drainAll ();
 
     // Shutdown the thread pool afterwards
     ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aSenderThreadPool);
@@ -100,14 +144,36 @@ public final class IndexerWorkItemQueue
   }
 
   /**
-   * @return The internal queue. Handle with care - usually you don't need that
-   *         one. Never <code>null</code>,
+   * @return The internal scheduler. Handle with care - usually you don't need
+   *         that one. Never <code>null</code>,
+   * @since 0.9.6
+   */
+  @Nonnull
+  public IndexerWorkItemScheduler getScheduler ()
+  {
+    return m_aScheduler;
+  }
+
+  /**
+   * @return A copy of all work items currently in the queue. Never
+   *         <code>null</code>.
+   * @since 0.9.6
    */
   @Nonnull
-  @ReturnsMutableObject
-  public LinkedBlockingQueue <Object> getQueue ()
+  @ReturnsMutableCopy
+  public ICommonsList <IIndexerWorkItem> getAllQueuedWorkItems ()
+  {
+    return m_aScheduler.getAllWorkItems ();
+  }
+
+  /**
+   * @return The number of work items currently in the queue. Always &ge; 0.
+   * @since 0.9.6
+   */
+  @Nonnegative
+  public int getQueueLength ()
   {
-    return m_aQueue;
+    return m_aScheduler.getSize ();
   }
 
   /**
@@ -119,6 +185,6 @@ public final class IndexerWorkItemQueue
   public void queueObject (@Nonnull final IIndexerWorkItem aItem)
   {
     ValueEnforcer.notNull (aItem, "Item");
-    m_aImmediateCollector.queueObject (aItem);
+    m_aScheduler.put (aItem);
   }
 }
@@ -0,0 +1,300 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.index;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.locks.Condition;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.concurrent.SimpleLock;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * The scheduler of the indexer work item queue. Work items are assigned to a
+ * lane (see {@link EIndexerWorkItemLane}) and within each lane to the queue of
+ * their owner. Lanes are selected by smooth weighted round robin, and within a
+ * lane the owners are served round robin. That ensures that neither a large
+ * background synchronization nor a single owner with many work items can
+ * starve the others.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@ThreadSafe
+public final class IndexerWorkItemScheduler
+{
+  @NotThreadSafe
+  private static final class Lane
+  {
+    private final EIndexerWorkItemLane m_eLane;
+    private final ICommonsMap <String, ArrayDeque <IIndexerWorkItem>> m_aPerOwner = new CommonsHashMap <> ();
+    private final ArrayDeque <String> m_aOwnerRotation = new ArrayDeque <> ();
+    private int m_nSize = 0;
+    private int m_nCurrentWeight = 0;
+
+    Lane (@Nonnull final EIndexerWorkItemLane eLane)
+    {
+      m_eLane = eLane;
+    }
+
+    void add (@Nonnull final IIndexerWorkItem aWorkItem)
+    {
+      final String sOwnerID = aWorkItem.getOwnerID ();
+      ArrayDeque <IIndexerWorkItem> aOwnerQueue = m_aPerOwner.get (sOwnerID);
+      if (aOwnerQueue == null)
+      {
+        aOwnerQueue = new ArrayDeque <> ();
+        m_aPerOwner.put (sOwnerID, aOwnerQueue);
+        m_aOwnerRotation.addLast (sOwnerID);
+      }
+      aOwnerQueue.addLast (aWorkItem);
+      m_nSize++;
+    }
+
+    @Nonnull
+    IIndexerWorkItem poll ()
+    {
+      // Take the first item of the next owner
+      final String sOwnerID = m_aOwnerRotation.pollFirst ();
+      final ArrayDeque <IIndexerWorkItem> aOwnerQueue = m_aPerOwner.get (sOwnerID);
+      final IIndexerWorkItem ret = aOwnerQueue.pollFirst ();
+      if (aOwnerQueue.isEmpty ())
+        m_aPerOwner.remove (sOwnerID);
+      else
+        m_aOwnerRotation.addLast (sOwnerID);
+      m_nSize--;
+      return ret;
+    }
+
+    void addAllTo (@Nonnull final ICommonsList <IIndexerWorkItem> aTarget)
+    {
+      for (final String sOwnerID : m_aOwnerRotation)
+        aTarget.addAll (m_aPerOwner.get (sOwnerID));
+    }
+
+    void clear ()
+    {
+      m_aPerOwner.clear ();
+      m_aOwnerRotation.clear ();
+      m_nSize = 0;
+      m_nCurrentWeight = 0;
+    }
+  }
+
+  private final SimpleLock m_aLock = new SimpleLock ();
+  private final Condition m_aNotEmpty = m_aLock.newCondition ();
+  @GuardedBy ("m_aLock")
+  private final Lane [] m_aLanes;
+  @GuardedBy ("m_aLock")
+  private int m_nSize = 0;
+  @GuardedBy ("m_aLock")
+  private boolean m_bStopped = false;
+
+  public IndexerWorkItemScheduler ()
+  {
+    final EIndexerWorkItemLane [] aLanes = EIndexerWorkItemLane.values ();
+    m_aLanes = new Lane [aLanes.length];
+    for (final EIndexerWorkItemLane eLane : aLanes)
+      m_aLanes[eLane.ordinal ()] = new Lane (eLane);
+  }
+
+  /**
+   * Add a new work item.
+   *
+   * @param aWorkItem
+   *        The work item to add. May not be <code>null</code>.
+   * @throws IllegalStateException
+   *         If the scheduler was already stopped
+   */
+  public void put (@Nonnull final IIndexerWorkItem aWorkItem)
+  {
+    ValueEnforcer.notNull (aWorkItem, "WorkItem");
+
+    m_aLock.lock ();
+    try
+    {
+      if (m_bStopped)
+        throw new IllegalStateException ("The scheduler is already stopped and does not take any more elements");
+      m_aLanes[EIndexerWorkItemLane.getLaneOfWorkItem (aWorkItem).ordinal ()].add (aWorkItem);
+      m_nSize++;
+      m_aNotEmpty.signal ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  @Nonnull
+  @GuardedBy ("m_aLock")
+  private IIndexerWorkItem _poll ()
+  {
+    // Smooth weighted round robin over all non-empty lanes
+    int nTotalWeight = 0;
+    Lane aSelected = null;
+    for (final Lane aLane : m_aLanes)
+      if (aLane.m_nSize > 0)
+      {
+        final int nWeight = aLane.m_eLane.getWeight ();
+        aLane.m_nCurrentWeight += nWeight;
+        nTotalWeight += nWeight;
+        if (aSelected == null || aLane.m_nCurrentWeight > aSelected.m_nCurrentWeight)
+          aSelected = aLane;
+      }
+      else
+        aLane.m_nCurrentWeight = 0;
+
+    aSelected.m_nCurrentWeight -= nTotalWeight;
+    m_nSize--;
+    return aSelected.poll ();
+  }
+
+  /**
+   * Get the next work item to execute. Blocks until a work item is available or
+   * the scheduler is stopped.
+   *
+   * @return The next work item or <code>null</code> if the scheduler was
+   *         stopped.
+   * @throws InterruptedException
+   *         If the thread was interrupted while waiting
+   */
+  @Nullable
+  public IIndexerWorkItem take () throws InterruptedException
+  {
+    m_aLock.lockInterruptibly ();
+    try
+    {
+      while (m_nSize == 0 && !m_bStopped)
+        m_aNotEmpty.await ();
+      if (m_bStopped)
+        return null;
+      return _poll ();
+    }
+    finally
+    {
+      m_aLock.unlock ();
+    }
+  }
+
+  /**
+   * @return The next work item to execute or <code>null</code> if no work item
+   *         is available or the scheduler was stopped. Never blocks.
+   */
+  @Nullable
+  public IIndexerWorkItem poll ()
+  {
+    return m_aLock.lockedGet ( () -> m_nSize == 0 || m_bStopped ? null : _poll ());
+  }
+
+  /**
+   * Stop the scheduler. No more work items can be added and {@link #take()}
+   * returns <code>null</code> afterwards.
+   */
+  public void stop ()
+  {
+    m_aLock.locked ( () -> {
+      m_bStopped = true;
+      m_aNotEmpty.signalAll ();
+    });
+  }
+
+  /**
+   * Remove all contained work items.
+   *
+   * @return The list of all removed work items. Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IIndexerWorkItem> drainAll ()
+  {
+    return m_aLock.lockedGet ( () -> {
+      final ICommonsList <IIndexerWorkItem> ret = getAllWorkItems ();
+      for (final Lane aLane : m_aLanes)
+        aLane.clear ();
+      m_nSize = 0;
+      return ret;
+    });
+  }
+
+  /**
+   * @return A copy of all contained work items, grouped by lane and owner.
+   *         Never <code>null</code>.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IIndexerWorkItem> getAllWorkItems ()
+  {
+    return m_aLock.lockedGet ( () -> {
+      final ICommonsList <IIndexerWorkItem> ret = new CommonsArrayList <> (m_nSize);
+      for (final Lane aLane : m_aLanes)
+        aLane.addAllTo (ret);
+      return ret;
+    });
+  }
+
+  /**
+   * @return The total number of contained work items. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getSize ()
+  {
+    return m_aLock.lockedInt ( () -> m_nSize);
+  }
+
+  /**
+   * @param eLane
+   *        The lane to check. May not be <code>null</code>.
+   * @return The number of work items in the provided lane. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getSize (@Nonnull final EIndexerWorkItemLane eLane)
+  {
+    ValueEnforcer.notNull (eLane, "Lane");
+    return m_aLock.lockedInt ( () -> m_aLanes[eLane.ordinal ()].m_nSize);
+  }
+
+  /**
+   * @param eLane
+   *        The lane to check. May not be <code>null</code>.
+   * @return The number of different owners with work items in the provided
+   *         lane. Always &ge; 0.
+   */
+  @Nonnegative
+  public int getOwnerCount (@Nonnull final EIndexerWorkItemLane eLane)
+  {
+    ValueEnforcer.notNull (eLane, "Lane");
+    return m_aLock.lockedInt ( () -> m_aLanes[eLane.ordinal ()].m_aOwnerRotation.size ());
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Size", getSize ()).getToString ();
+  }
+}
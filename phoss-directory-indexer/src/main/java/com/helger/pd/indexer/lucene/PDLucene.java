@@ -20,10 +20,13 @@ import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.util.Map;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Supplier;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
@@ -41,6 +44,7 @@ import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.IndexableField;
 import org.apache.lucene.index.Term;
 import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.SearcherManager;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
 import org.slf4j.Logger;
@@ -50,10 +54,13 @@ import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ELockType;
 import com.helger.commons.annotation.MustBeLocked;
 import com.helger.commons.callback.IThrowingRunnable;
+import com.helger.commons.collection.impl.CommonsHashMap;
 import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.functional.IThrowingFunction;
 import com.helger.commons.functional.IThrowingSupplier;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.StringParser;
 import com.helger.photon.app.io.WebFileIO;
 
 /**
@@ -64,6 +71,7 @@ import com.helger.photon.app.io.WebFileIO;
 public final class PDLucene implements Closeable, ILuceneDocumentProvider, ILuceneAnalyzerProvider
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (PDLucene.class);
+  private static final String COMMIT_DATA_CHANGE_COUNT = "pd.changecount";
 
   private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
   private final Directory m_aDir;
@@ -72,8 +80,11 @@ public final class PDLucene implements Closeable, ILuceneDocumentProvider, ILuce
   private DirectoryReader m_aIndexReader;
   private IndexReader m_aSearchReader;
   private IndexSearcher m_aSearcher;
+  // Sees the changes of the writer without a commit
+  private final SearcherManager m_aNRTSearcherMgr;
   private final AtomicBoolean m_aClosing = new AtomicBoolean (false);
   private final AtomicInteger m_aWriterChanges = new AtomicInteger (0);
+  private final AtomicLong m_aChangeCount = new AtomicLong (0);
 
   @Nonnull
   public static File getLuceneIndexDir ()
@@ -127,7 +138,15 @@ public final class PDLucene implements Closeable, ILuceneDocumentProvider, ILuce
     aWriterConfig.setOpenMode (OpenMode.CREATE_OR_APPEND);
     m_aIndexWriter = new IndexWriter (m_aDir, aWriterConfig);
 
+    // Continue the change count of the last commit
+    final Iterable <Map.Entry <String, String>> aCommitData = m_aIndexWriter.getLiveCommitData ();
+    if (aCommitData != null)
+      for (final Map.Entry <String, String> aEntry : aCommitData)
+        if (COMMIT_DATA_CHANGE_COUNT.equals (aEntry.getKey ()))
+          m_aChangeCount.set (StringParser.parseLong (aEntry.getValue (), 0));
+
     // Reader and searcher are opened on demand
+    m_aNRTSearcherMgr = new SearcherManager (m_aIndexWriter, null);
 
     LOGGER.info ("Lucene index operating on " + aPath);
   }
@@ -143,10 +162,13 @@ public final class PDLucene implements Closeable, ILuceneDocumentProvider, ILuce
       {
         // Start closing
         StreamHelper.close (m_aIndexReader);
+        StreamHelper.close (m_aNRTSearcherMgr);
 
         // Ensure to commit the writer in case of pending changes
         if (m_aIndexWriter != null && m_aIndexWriter.isOpen ())
         {
+          if (m_aWriterChanges.intValue () > 0)
+            _setCommitData (m_aIndexWriter);
           final long nSeqNum = m_aIndexWriter.commit ();
           if (nSeqNum >= 0)
             if (LOGGER.isDebugEnabled ())
@@ -186,6 +208,27 @@ public final class PDLucene implements Closeable, ILuceneDocumentProvider, ILuce
     return m_aAnalyzer;
   }
 
+  private void _setCommitData (@Nonnull final IndexWriter aWriter)
+  {
+    final CommonsHashMap <String, String> aCommitData = new CommonsHashMap <> ();
+    aCommitData.put (COMMIT_DATA_CHANGE_COUNT, Long.toString (m_aChangeCount.get ()));
+    aWriter.setLiveCommitData (aCommitData.entrySet ());
+  }
+
+  /**
+   * Get the total number of write operations ever performed on this index. The
+   * value is stored together with each commit, so it survives restarts and can
+   * be used to determine whether the index changed between two points in time.
+   *
+   * @return The total number of index changes. Always &ge; 0.
+   * @since 0.9.6
+   */
+  @Nonnegative
+  public long getChangeCount ()
+  {
+    return m_aChangeCount.get ();
+  }
+
   @Nonnull
   private IndexWriter _getWriter ()
   {
@@ -203,6 +246,7 @@ public final class PDLucene implements Closeable, ILuceneDocumentProvider, ILuce
       if (m_aWriterChanges.intValue () > 0)
       {
         LOGGER.info ("Lazily committing " + m_aWriterChanges.intValue () + " changes to the Lucene index");
+        _setCommitData (_getWriter ());
         final long nSeqNum = _getWriter ().commit ();
         if (LOGGER.isDebugEnabled ())
           LOGGER.debug ("Committed up to seq# " + nSeqNum);
@@ -290,6 +334,46 @@ public final class PDLucene implements Closeable, ILuceneDocumentProvider, ILuce
     return m_aSearcher;
   }
 
+  /**
+   * Run the provided callback with a near-real-time searcher. In contrast to
+   * {@link #getSearcher()} this searcher sees all changes of the index writer
+   * without committing them first, so it is cheap to obtain after changes were
+   * made. The searcher may only be used within the callback.
+   *
+   * @param aCallback
+   *        Callback to be executed with the searcher. May not be
+   *        <code>null</code>.
+   * @return <code>null</code> if the index is just closing, the result of the
+   *         callback otherwise.
+   * @throws IOException
+   *         On IO error or if thrown by the callback
+   * @param <T>
+   *        Result type
+   * @since 0.9.6
+   */
+  @Nullable
+  public <T> T searchNearRealTime (@Nonnull final IThrowingFunction <? super IndexSearcher, T, IOException> aCallback) throws IOException
+  {
+    ValueEnforcer.notNull (aCallback, "Callback");
+    if (isClosing ())
+    {
+      LOGGER.info ("Cannot search near-real-time, because Lucene is shutting down");
+      return null;
+    }
+
+    // Only reopens if the writer has changes
+    m_aNRTSearcherMgr.maybeRefreshBlocking ();
+    final IndexSearcher aSearcher = m_aNRTSearcherMgr.acquire ();
+    try
+    {
+      return aCallback.apply (aSearcher);
+    }
+    finally
+    {
+      m_aNRTSearcherMgr.release (aSearcher);
+    }
+  }
+
   /**
    * Updates a document by first deleting the document(s) containing
    * <code>term</code> and then adding the new document. The delete and then add
@@ -313,6 +397,7 @@ public final class PDLucene implements Closeable, ILuceneDocumentProvider, ILuce
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Last seq# after updateDocument is " + nSeqNum);
     m_aWriterChanges.incrementAndGet ();
+    m_aChangeCount.incrementAndGet ();
   }
 
   /**
@@ -349,6 +434,7 @@ public final class PDLucene implements Closeable, ILuceneDocumentProvider, ILuce
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Last seq# after updateDocuments is " + nSeqNum);
     m_aWriterChanges.incrementAndGet ();
+    m_aChangeCount.incrementAndGet ();
   }
 
   /**
@@ -369,6 +455,7 @@ public final class PDLucene implements Closeable, ILuceneDocumentProvider, ILuce
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Last seq# after deleteDocuments is " + nSeqNum);
     m_aWriterChanges.incrementAndGet ();
+    m_aChangeCount.incrementAndGet ();
   }
 
   /**
@@ -24,6 +24,7 @@ import javax.annotation.Nullable;
 
 import com.helger.commons.state.ESuccess;
 import com.helger.pd.indexer.businesscard.PDExtendedBusinessCard;
+import com.helger.pd.indexer.storage.PDStorageOperation;
 import com.helger.pd.indexer.storage.PDStoredMetaData;
 import com.helger.peppolid.IParticipantIdentifier;
 
@@ -69,4 +70,33 @@ public interface IPDStorageManager extends Closeable
    */
   @Nonnull
   ESuccess deleteEntry (@Nonnull IParticipantIdentifier aParticipantID, @Nullable PDStoredMetaData aMetaData) throws IOException;
+
+  /**
+   * Apply a batch of create/update and delete operations. Implementations
+   * should apply all operations in a single storage pass. The default
+   * implementation applies them one by one.
+   *
+   * @param aOperations
+   *        The operations to be applied in the provided order. May not be
+   *        <code>null</code>.
+   * @return {@link ESuccess#SUCCESS} if all operations were applied,
+   *         {@link ESuccess#FAILURE} on error.
+   * @throws IOException
+   *         in case of IO error
+   * @since 0.9.6
+   */
+  @Nonnull
+  default ESuccess applyBatch (@Nonnull final Iterable <PDStorageOperation> aOperations) throws IOException
+  {
+    ESuccess ret = ESuccess.SUCCESS;
+    for (final PDStorageOperation aOp : aOperations)
+    {
+      final ESuccess eSuccess = aOp.isDelete () ? deleteEntry (aOp.getParticipantID (), aOp.getMetaData ())
+                                               : createOrUpdateEntry (aOp.getParticipantID (),
+                                                                      aOp.getExtendedBusinessCard (),
+                                                                      aOp.getMetaData ());
+      ret = ret.and (eSuccess);
+    }
+    return ret;
+  }
 }
@@ -0,0 +1,246 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.mgr;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.state.ESuccess;
+import com.helger.pd.indexer.businesscard.IPDBusinessCardProvider;
+import com.helger.pd.indexer.businesscard.IPDSMPHostFailureHandler;
+import com.helger.pd.indexer.businesscard.PDBusinessCardCache;
+import com.helger.pd.indexer.index.IIndexerWorkItem;
+import com.helger.pd.indexer.storage.PDStorageOperation;
+
+/**
+ * Internal class to execute work items in batches. The business cards are
+ * retrieved one by one, but the resulting storage operations are collected and
+ * applied to the storage together, once either the maximum batch size or the
+ * maximum collection time is reached, or {@link #flush()} is called. The
+ * success and failure handlers of the work items are invoked upon flushing. It
+ * is invoked by the {@link PDIndexerManager}.<br>
+ * The maximum collection time is only checked when the next work item is
+ * executed. Therefore the owner must call {@link #flush()} when no more work
+ * items are available - the indexer work queue does this every time it runs
+ * empty and the re-index run at its end.<br>
+ * If a batch cannot be applied, its storage operations are retried one by one,
+ * so that only the failing work items are handled as failures.<br>
+ * Unchanged business cards are detected by the storage manager based on the
+ * content hash stored in the index.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@NotThreadSafe
+final class PDIndexBatchExecutor
+{
+  private static final class PendingOperation
+  {
+    private final IIndexerWorkItem m_aWorkItem;
+    private final PDStorageOperation m_aOperation;
+    private final Consumer <? super IIndexerWorkItem> m_aSuccessHandler;
+    private final Consumer <? super IIndexerWorkItem> m_aFailureHandler;
+
+    PendingOperation (@Nonnull final IIndexerWorkItem aWorkItem,
+                      @Nonnull final PDStorageOperation aOperation,
+                      @Nonnull final Consumer <? super IIndexerWorkItem> aSuccessHandler,
+                      @Nonnull final Consumer <? super IIndexerWorkItem> aFailureHandler)
+    {
+      m_aWorkItem = aWorkItem;
+      m_aOperation = aOperation;
+      m_aSuccessHandler = aSuccessHandler;
+      m_aFailureHandler = aFailureHandler;
+    }
+  }
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (PDIndexBatchExecutor.class);
+
+  private final IPDStorageManager m_aStorageMgr;
+  private final PDBusinessCardCache m_aBCCache;
+  private final IPDSMPHostFailureHandler m_aHostFailureHandler;
+  private final int m_nMaxBatchSize;
+  private final long m_nMaxBatchNanos;
+  private final ICommonsList <PendingOperation> m_aPending = new CommonsArrayList <> ();
+  private long m_nFirstPendingNanos;
+
+  /**
+   * Constructor
+   *
+   * @param aStorageMgr
+   *        Storage manager. May not be <code>null</code>.
+   * @param aBCCache
+   *        The business card cache to use. May be <code>null</code>.
+   * @param aHostFailureHandler
+   *        The handler for SMP host failures. May be <code>null</code>.
+   * @param nMaxBatchSize
+   *        The maximum number of storage operations per batch. Must be &gt; 0.
+   * @param nMaxBatchMillis
+   *        The maximum number of milliseconds storage operations are collected
+   *        before they are applied. Must be &ge; 0.
+   */
+  PDIndexBatchExecutor (@Nonnull final IPDStorageManager aStorageMgr,
+                        @Nullable final PDBusinessCardCache aBCCache,
+                        @Nullable final IPDSMPHostFailureHandler aHostFailureHandler,
+                        @Nonnegative final int nMaxBatchSize,
+                        @Nonnegative final long nMaxBatchMillis)
+  {
+    ValueEnforcer.notNull (aStorageMgr, "StorageMgr");
+    ValueEnforcer.isGT0 (nMaxBatchSize, "MaxBatchSize");
+    ValueEnforcer.isGE0 (nMaxBatchMillis, "MaxBatchMillis");
+    m_aStorageMgr = aStorageMgr;
+    m_aBCCache = aBCCache;
+    m_aHostFailureHandler = aHostFailureHandler;
+    m_nMaxBatchSize = nMaxBatchSize;
+    m_nMaxBatchNanos = TimeUnit.MILLISECONDS.toNanos (nMaxBatchMillis);
+  }
+
+  /**
+   * Execute the specified work item depending on its type. Depending on the
+   * batch state, the storage operation is applied directly or later.
+   *
+   * @param aWorkItem
+   *        The work item to be executed. May not be <code>null</code>.
+   * @param nRetryCount
+   *        The retry count. For the initial indexing it is 0, for the first
+   *        retry 1 etc.
+   * @param aSuccessHandler
+   *        A callback that is invoked upon success only.
+   * @param aFailureHandler
+   *        A callback that is invoked upon failure only.
+   */
+  public void executeWorkItem (@Nonnull final IIndexerWorkItem aWorkItem,
+                               @Nonnegative final int nRetryCount,
+                               @Nonnull final Consumer <? super IIndexerWorkItem> aSuccessHandler,
+                               @Nonnull final Consumer <? super IIndexerWorkItem> aFailureHandler)
+  {
+    LOGGER.info ("Execute work item " + aWorkItem.getLogText () + " - " + (nRetryCount > 0 ? "retry #" + nRetryCount : "initial try"));
+
+    final IPDBusinessCardProvider aBCProvider = PDMetaManager.getBusinessCardProviderOrNull ();
+    if (aBCProvider == null)
+    {
+      // Maybe null upon shutdown - in that case ignore it and don't reindex
+      return;
+    }
+
+    PDStorageOperation aOp = null;
+    try
+    {
+      aOp = PDIndexExecutor.getStorageOperation (aBCProvider, m_aBCCache, m_aHostFailureHandler, aWorkItem);
+    }
+    catch (final Exception ex)
+    {
+      LOGGER.error ("Error in executing work item " + aWorkItem.getLogText (), ex);
+    }
+
+    if (aOp == null)
+    {
+      // Invoke failure handler
+      aFailureHandler.accept (aWorkItem);
+      return;
+    }
+
+    final long nNow = System.nanoTime ();
+    if (m_aPending.isEmpty ())
+      m_nFirstPendingNanos = nNow;
+    m_aPending.add (new PendingOperation (aWorkItem, aOp, aSuccessHandler, aFailureHandler));
+
+    if (m_aPending.size () >= m_nMaxBatchSize || nNow - m_nFirstPendingNanos >= m_nMaxBatchNanos)
+      flush ();
+  }
+
+  @Nonnull
+  private ESuccess _applyBatch (@Nonnull final ICommonsList <PendingOperation> aBatch)
+  {
+    try
+    {
+      return m_aStorageMgr.applyBatch (aBatch.getAllMapped (x -> x.m_aOperation));
+    }
+    catch (final Exception ex)
+    {
+      LOGGER.error ("Error in applying a batch of " + aBatch.size () + " storage operations", ex);
+      return ESuccess.FAILURE;
+    }
+  }
+
+  private void _onApplied (@Nonnull final PendingOperation aPending, @Nonnull final ESuccess eSuccess)
+  {
+    if (eSuccess.isSuccess ())
+    {
+      // The SMP business card is no longer needed
+      if (m_aBCCache != null && aPending.m_aOperation.isDelete ())
+        m_aBCCache.remove (aPending.m_aOperation.getParticipantID ());
+
+      // Item handled - remove from overall list
+      aPending.m_aSuccessHandler.accept (aPending.m_aWorkItem);
+    }
+    else
+    {
+      // Invoke failure handler
+      aPending.m_aFailureHandler.accept (aPending.m_aWorkItem);
+    }
+  }
+
+  /**
+   * Apply all pending storage operations in one batch and invoke the success or
+   * failure handlers of the respective work items. If the batch fails, each
+   * storage operation is applied separately, so that only the failing work
+   * items are handled as failures.
+   *
+   * @return {@link ESuccess#SUCCESS} if all storage operations were applied,
+   *         {@link ESuccess#FAILURE} if at least one failed.
+   */
+  @Nonnull
+  public ESuccess flush ()
+  {
+    if (m_aPending.isEmpty ())
+      return ESuccess.SUCCESS;
+
+    final ICommonsList <PendingOperation> aBatch = m_aPending.getClone ();
+    m_aPending.clear ();
+
+    final ESuccess eSuccess = _applyBatch (aBatch);
+    if (eSuccess.isFailure () && aBatch.size () > 1)
+    {
+      // Find the culprit(s)
+      LOGGER.info ("Retrying the " + aBatch.size () + " storage operations of the failed batch one by one");
+      ESuccess eTotalSuccess = ESuccess.SUCCESS;
+      for (final PendingOperation aPending : aBatch)
+      {
+        final ESuccess eItemSuccess = _applyBatch (new CommonsArrayList <> (aPending));
+        _onApplied (aPending, eItemSuccess);
+        if (eItemSuccess.isFailure ())
+          eTotalSuccess = ESuccess.FAILURE;
+      }
+      return eTotalSuccess;
+    }
+
+    for (final PendingOperation aPending : aBatch)
+      _onApplied (aPending, eSuccess);
+    return eSuccess;
+  }
+}
@@ -16,135 +16,84 @@
  */
 package com.helger.pd.indexer.mgr;
 
-import java.util.function.Consumer;
-
-import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
-
-import com.helger.commons.state.ESuccess;
 import com.helger.pd.indexer.businesscard.IPDBusinessCardProvider;
+import com.helger.pd.indexer.businesscard.IPDSMPHostFailureHandler;
+import com.helger.pd.indexer.businesscard.PDBusinessCardCache;
 import com.helger.pd.indexer.businesscard.PDExtendedBusinessCard;
 import com.helger.pd.indexer.index.IIndexerWorkItem;
+import com.helger.pd.indexer.storage.PDStorageOperation;
 import com.helger.peppolid.IParticipantIdentifier;
 
 /**
- * Internal class to execute a single work item. It is invoked by the
- * {@link PDIndexerManager}.
+ * Internal class to determine the storage operation of a single work item. It
+ * is invoked by the {@link PDIndexBatchExecutor}.
  *
  * @author Philip Helger
  */
 final class PDIndexExecutor
 {
-  private static final Logger LOGGER = LoggerFactory.getLogger (PDIndexExecutor.class);
-
   private PDIndexExecutor ()
   {}
 
   /**
-   * This method is responsible for executing the specified work item depending
-   * on its type.
+   * Determine the storage operation for the specified work item depending on
+   * its type. This is the part that contacts the SMP if necessary.
    *
-   * @param aStorageMgr
-   *        Storage manager.
+   * @param aBCProvider
+   *        The business card provider to use. May not be <code>null</code>.
+   * @param aBCCache
+   *        The business card cache to use. May be <code>null</code>.
+   * @param aHostFailureHandler
+   *        The handler for SMP host failures. May be <code>null</code>.
    * @param aWorkItem
    *        The work item to be executed. May not be <code>null</code>.
-   * @param nRetryCount
-   *        The retry count. For the initial indexing it is 0, for the first
-   *        retry 1 etc.
-   * @param aSuccessHandler
-   *        A callback that is invoked upon success only.
-   * @param aFailureHandler
-   *        A callback that is invoked upon failure only.
-   * @return {@link ESuccess}
+   * @return <code>null</code> if the work item cannot be executed (e.g. because
+   *         no business card is present for a create or update item).
    */
-  @Nonnull
-  public static ESuccess executeWorkItem (@Nonnull final IPDStorageManager aStorageMgr,
-                                          @Nonnull final IIndexerWorkItem aWorkItem,
-                                          @Nonnegative final int nRetryCount,
-                                          @Nonnull final Consumer <? super IIndexerWorkItem> aSuccessHandler,
-                                          @Nonnull final Consumer <? super IIndexerWorkItem> aFailureHandler)
+  @Nullable
+  static PDStorageOperation getStorageOperation (@Nonnull final IPDBusinessCardProvider aBCProvider,
+                                                 @Nullable final PDBusinessCardCache aBCCache,
+                                                 @Nullable final IPDSMPHostFailureHandler aHostFailureHandler,
+                                                 @Nonnull final IIndexerWorkItem aWorkItem)
   {
-    LOGGER.info ("Execute work item " + aWorkItem.getLogText () + " - " + (nRetryCount > 0 ? "retry #" + nRetryCount : "initial try"));
-
-    final IPDBusinessCardProvider aBCProvider = PDMetaManager.getBusinessCardProviderOrNull ();
-    if (aBCProvider == null)
-    {
-      // Maybe null upon shutdown - in that case ignore it and don't reindex
-      return ESuccess.FAILURE;
-    }
+    final IParticipantIdentifier aParticipantID = aWorkItem.getParticipantID ();
 
-    try
+    switch (aWorkItem.getType ())
     {
-      final IParticipantIdentifier aParticipantID = aWorkItem.getParticipantID ();
-
-      ESuccess eSuccess;
-      switch (aWorkItem.getType ())
+      case CREATE_UPDATE:
       {
-        case CREATE_UPDATE:
-        {
-          // Get BI from participant (e.g. from SMP)
-          final PDExtendedBusinessCard aBI = aBCProvider.getBusinessCard (aParticipantID);
-          if (aBI == null)
-          {
-            // No/invalid extension present - no need to try again
-            eSuccess = ESuccess.FAILURE;
-          }
-          else
-          {
-            // Got data - put in storage
-            eSuccess = aStorageMgr.createOrUpdateEntry (aParticipantID, aBI, aWorkItem.getAsMetaData ());
-          }
-          break;
-        }
-        case DELETE:
-        {
-          // Really delete it
-          eSuccess = aStorageMgr.deleteEntry (aParticipantID, aWorkItem.getAsMetaData ());
-          break;
-        }
-        case SYNC:
+        // Get BI from participant (e.g. from SMP)
+        final PDExtendedBusinessCard aBI = aBCProvider.getBusinessCard (aParticipantID, aBCCache, aHostFailureHandler);
+        if (aBI == null)
         {
-          // Get BI from participant (e.g. from SMP)
-          final PDExtendedBusinessCard aBI = aBCProvider.getBusinessCard (aParticipantID);
-          if (aBI == null)
-          {
-            // No/invalid extension present - delete from index
-            eSuccess = aStorageMgr.deleteEntry (aParticipantID, aWorkItem.getAsMetaData ());
-          }
-          else
-          {
-            // Got data - put in storage
-            eSuccess = aStorageMgr.createOrUpdateEntry (aParticipantID, aBI, aWorkItem.getAsMetaData ());
-          }
-          break;
+          // No/invalid extension present - no need to try again
+          return null;
         }
-        default:
-          throw new IllegalStateException ("Unsupported work item type: " + aWorkItem);
+        // Got data - put in storage
+        return PDStorageOperation.createOrUpdate (aParticipantID, aBI, aWorkItem.getAsMetaData ());
       }
-
-      if (eSuccess.isSuccess ())
+      case DELETE:
       {
-        // Item handled - remove from overall list
-        aSuccessHandler.accept (aWorkItem);
-
-        // And we're done
-        return ESuccess.SUCCESS;
+        // Really delete it
+        return PDStorageOperation.delete (aParticipantID, aWorkItem.getAsMetaData ());
       }
-
-      // else error storing data
-    }
-    catch (final Exception ex)
-    {
-      LOGGER.error ("Error in executing work item " + aWorkItem.getLogText (), ex);
-      // Fall through
+      case SYNC:
+      {
+        // Get BI from participant (e.g. from SMP)
+        final PDExtendedBusinessCard aBI = aBCProvider.getBusinessCard (aParticipantID, aBCCache, aHostFailureHandler);
+        if (aBI == null)
+        {
+          // No/invalid extension present - delete from index
+          return PDStorageOperation.delete (aParticipantID, aWorkItem.getAsMetaData ());
+        }
+        // Got data - put in storage
+        return PDStorageOperation.createOrUpdate (aParticipantID, aBI, aWorkItem.getAsMetaData ());
+      }
+      default:
+        throw new IllegalStateException ("Unsupported work item type: " + aWorkItem);
     }
-
-    // Invoke failure handler
-    aFailureHandler.accept (aWorkItem);
-
-    return ESuccess.FAILURE;
   }
 }
@@ -21,8 +21,11 @@ import java.io.File;
 import java.io.IOException;
 import java.time.LocalDateTime;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
 
 import org.slf4j.Logger;
@@ -30,8 +33,12 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
 import com.helger.commons.collection.impl.CommonsHashSet;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.commons.collection.impl.ICommonsSet;
 import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.datetime.PDTFactory;
@@ -40,15 +47,23 @@ import com.helger.commons.state.EChange;
 import com.helger.commons.string.ToStringGenerator;
 import com.helger.dao.DAOException;
 import com.helger.pd.indexer.businesscard.IPDBusinessCardProvider;
+import com.helger.pd.indexer.businesscard.IPDSMPHostFailureHandler;
+import com.helger.pd.indexer.businesscard.PDBusinessCardCache;
 import com.helger.pd.indexer.index.EIndexerWorkItemType;
 import com.helger.pd.indexer.index.IIndexerWorkItem;
 import com.helger.pd.indexer.index.IndexerWorkItem;
+import com.helger.pd.indexer.index.IndexerWorkItemJournal;
 import com.helger.pd.indexer.index.IndexerWorkItemQueue;
 import com.helger.pd.indexer.job.ReIndexJob;
+import com.helger.pd.indexer.reindex.IMutableReIndexWorkItemList;
 import com.helger.pd.indexer.reindex.IReIndexWorkItem;
 import com.helger.pd.indexer.reindex.IReIndexWorkItemList;
 import com.helger.pd.indexer.reindex.ReIndexWorkItem;
+import com.helger.pd.indexer.reindex.ReIndexWorkItemBinaryList;
 import com.helger.pd.indexer.reindex.ReIndexWorkItemList;
+import com.helger.pd.indexer.reindex.SMPCircuitBreaker;
+import com.helger.pd.indexer.reindex.SMPCircuitBreakerManager;
+import com.helger.pd.indexer.settings.PDServerConfiguration;
 import com.helger.peppolid.IParticipantIdentifier;
 import com.helger.photon.app.io.WebFileIO;
 import com.helger.quartz.SimpleScheduleBuilder;
@@ -56,14 +71,12 @@ import com.helger.quartz.TriggerKey;
 import com.helger.schedule.quartz.GlobalQuartzScheduler;
 import com.helger.xml.microdom.IMicroDocument;
 import com.helger.xml.microdom.IMicroElement;
-import com.helger.xml.microdom.MicroDocument;
 import com.helger.xml.microdom.convert.MicroTypeConverter;
 import com.helger.xml.microdom.serialize.MicroReader;
-import com.helger.xml.microdom.serialize.MicroWriter;
 
 /**
- * The global indexer manager that takes an item for queuing and maintains the
- * uniqueness of the items to queue.
+ * The global indexer manager that takes an item for queuing and coalesces the
+ * items to queue per participant.
  *
  * @author Philip Helger
  */
@@ -72,43 +85,104 @@ public final class PDIndexerManager implements Closeable
   public static final String HOST_LOCALHOST = "localhost";
 
   private static final Logger LOGGER = LoggerFactory.getLogger (PDIndexerManager.class);
-  private static final String ELEMENT_ROOT = "root";
   private static final String ELEMENT_ITEM = "item";
 
   private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
   private final IPDStorageManager m_aStorageMgr;
-  private final File m_aIndexerWorkItemFile;
-  private final ReIndexWorkItemList m_aReIndexList;
-  private final ReIndexWorkItemList m_aDeadList;
+  private final IndexerWorkItemJournal m_aJournal;
+  private final IMutableReIndexWorkItemList m_aReIndexList;
+  private final IMutableReIndexWorkItemList m_aDeadList;
+  private final SMPCircuitBreakerManager m_aCircuitBreakerMgr = new SMPCircuitBreakerManager ();
+  private final PDBusinessCardCache m_aBCCache;
+  // Only used from within the indexer work queue thread
+  private final PDIndexBatchExecutor m_aQueueExecutor;
   private final IndexerWorkItemQueue m_aIndexerWorkQueue;
   private final TriggerKey m_aTriggerKey;
 
   /**
-   * This set contains all work items that are not yet finished. It contains all
-   * items in the indexer work queue as well as the ones in the re-index work
-   * item list. Once the items are moved to the dead list, they are removed from
-   * here.
+   * This map contains the effective work item per participant that is not yet
+   * finished. It contains items in the indexer work queue as well as the ones
+   * in the re-index work item list. Once the items are moved to the dead list,
+   * they are removed from here. Items in the queue or the re-index list that
+   * are not contained here, were superseded by a later work item for the same
+   * participant and are skipped.
    */
   @GuardedBy ("m_aRWLock")
-  private final ICommonsSet <IIndexerWorkItem> m_aUniqueItems = new CommonsHashSet <> ();
+  private final ICommonsMap <IParticipantIdentifier, IIndexerWorkItem> m_aPendingItems = new CommonsHashMap <> ();
+  private final AtomicLong m_aCoalescedCount = new AtomicLong (0);
 
   // Status vars
   private final GlobalQuartzScheduler m_aScheduler;
 
+  /**
+   * @param aWorkItem
+   *        Work item to check. May not be <code>null</code>.
+   * @return <code>true</code> if the work item is the effective pending item
+   *         for its participant, <code>false</code> if it was superseded.
+   */
+  private boolean _isPendingItem (@Nonnull final IIndexerWorkItem aWorkItem)
+  {
+    return m_aRWLock.readLockedBoolean ( () -> {
+      final IIndexerWorkItem aPending = m_aPendingItems.get (aWorkItem.getParticipantID ());
+      return aPending != null && aPending.getID ().equals (aWorkItem.getID ());
+    });
+  }
+
+  private void _removePendingItem (@Nonnull final IIndexerWorkItem aWorkItem)
+  {
+    m_aRWLock.writeLocked ( () -> {
+      final IIndexerWorkItem aPending = m_aPendingItems.get (aWorkItem.getParticipantID ());
+      // Don't remove a newer work item
+      if (aPending != null && aPending.getID ().equals (aWorkItem.getID ()))
+      {
+        m_aPendingItems.remove (aWorkItem.getParticipantID ());
+        m_aCircuitBreakerMgr.removeParticipantHost (aWorkItem.getParticipantID ());
+      }
+    });
+  }
+
+  @Nonnull
+  private PDIndexBatchExecutor _createBatchExecutor (@Nonnull final IPDSMPHostFailureHandler aHostFailureHandler)
+  {
+    return new PDIndexBatchExecutor (m_aStorageMgr,
+                                     m_aBCCache,
+                                     aHostFailureHandler,
+                                     PDServerConfiguration.getIndexerBatchMaxSize (),
+                                     PDServerConfiguration.getIndexerBatchMaxMillis ());
+  }
+
+  private void _executeQueuedWorkItem (@Nonnull final IIndexerWorkItem aWorkItem)
+  {
+    if (!_isPendingItem (aWorkItem))
+    {
+      LOGGER.info ("Skipping work item " + aWorkItem.getLogText () + " because it was superseded");
+      m_aJournal.onAck (aWorkItem);
+      return;
+    }
+
+    m_aQueueExecutor.executeWorkItem (aWorkItem,
+                                      0,
+                                      aSuccessItem -> _onIndexSuccess (aSuccessItem),
+                                      aFailureItem -> _onIndexFailure (aFailureItem));
+  }
+
   private void _onIndexSuccess (@Nonnull final IIndexerWorkItem aWorkItem)
   {
-    m_aRWLock.writeLockedBoolean ( () -> m_aUniqueItems.remove (aWorkItem));
+    _removePendingItem (aWorkItem);
+    m_aJournal.onAck (aWorkItem);
   }
 
   private void _onIndexFailure (@Nonnull final IIndexerWorkItem aWorkItem)
   {
     m_aReIndexList.addItem (new ReIndexWorkItem (aWorkItem));
-    // Keep it in the "Unique items" list until re-indexing worked
+    // Keep it in the "Pending items" map until re-indexing worked
+    // The re-index list is persisted separately
+    m_aJournal.onAck (aWorkItem);
   }
 
   private void _onReIndexSuccess (@Nonnull final IIndexerWorkItem aWorkItem)
   {
-    _onIndexSuccess (aWorkItem);
+    _removePendingItem (aWorkItem);
   }
 
   private void _onReIndexFailure (@Nonnull final IReIndexWorkItem aReIndexItem)
@@ -116,12 +190,62 @@ public final class PDIndexerManager implements Closeable
     m_aReIndexList.incRetryCountAndAddItem (aReIndexItem);
   }
 
+  private void _updateCircuitBreaker (@Nonnull final IParticipantIdentifier aParticipantID,
+                                      @Nullable final SMPCircuitBreaker aCB,
+                                      @Nonnull final ICommonsSet <IParticipantIdentifier> aHostFailures)
+  {
+    if (aHostFailures.remove (aParticipantID))
+    {
+      // The SMP host may have been unknown before
+      final SMPCircuitBreaker aFailedCB = m_aCircuitBreakerMgr.getCircuitBreakerOfParticipant (aParticipantID);
+      if (aFailedCB != null)
+        aFailedCB.onFailure (PDTFactory.getCurrentLocalDateTime ());
+    }
+    else
+      if (aCB != null)
+      {
+        // The SMP host responded - even if no business card was returned
+        aCB.onSuccess ();
+      }
+  }
+
+  @Nonnull
+  private static IMutableReIndexWorkItemList _createReIndexWorkItemList (@Nonnull @Nonempty final String sBaseName) throws DAOException
+  {
+    final String sXMLFilename = sBaseName + ".xml";
+    if (PDServerConfiguration.isReIndexXMLStorage ())
+      return new ReIndexWorkItemList (sXMLFilename);
+
+    final File aBinaryFile = WebFileIO.getDataIO ().getFile (sBaseName + ".bin");
+    final ReIndexWorkItemBinaryList ret;
+    try
+    {
+      ret = new ReIndexWorkItemBinaryList (aBinaryFile);
+    }
+    catch (final IOException ex)
+    {
+      throw new DAOException ("Failed to read the re-index list " + aBinaryFile, ex);
+    }
+
+    // Migrate existing XML data once
+    final File aXMLFile = WebFileIO.getDataIO ().getFile (sXMLFilename);
+    if (aXMLFile.isFile ())
+    {
+      LOGGER.info ("Migrating " + aXMLFile + " to the binary format");
+      // The imported records are synced, so the XML file can be renamed now
+      ret.importFromXML (aXMLFile);
+      FileOperationManager.INSTANCE.renameFile (aXMLFile, new File (aXMLFile.getParentFile (), sXMLFilename + ".imported"));
+    }
+    return ret;
+  }
+
   /**
    * Constructor.<br>
-   * Initialized the work item queue, the re-index queue and the dead-queue.<br>
+   * Initialized the work item queue, the re-index queue and the dead-queue.
+   * All items of the re-index queue are considered pending again.<br>
    * Schedules the re-index job.<br>
-   * Read all work items persisted to disk. This happens when the application is
-   * shutdown while elements are still in the queue.<br>
+   * Replays all work items from the journal. This happens when the application
+   * is shutdown or crashed while elements are still in the queue.<br>
    * Please note that the queuing of the items might directly trigger the usage
    * of the {@link PDMetaManager#getBusinessCardProvider()} so make sure to call
    * {@link PDMetaManager#setBusinessCardProvider(IPDBusinessCardProvider)}
@@ -136,21 +260,46 @@ public final class PDIndexerManager implements Closeable
   {
     m_aStorageMgr = ValueEnforcer.notNull (aStorageMgr, "StorageMgr");
 
-    // Remember the file because upon shutdown WebFileIO may already be
-    // discarded
-    m_aIndexerWorkItemFile = WebFileIO.getDataIO ().getFile ("indexer-work-items.xml");
+    // Open the journal and replay all pending items
+    try
+    {
+      m_aJournal = new IndexerWorkItemJournal (WebFileIO.getDataIO ().getFile ("indexer-journal"));
+    }
+    catch (final IOException ex)
+    {
+      throw new DAOException ("Failed to open the indexer work item journal", ex);
+    }
+
+    // Local business card cache
+    if (PDServerConfiguration.isIndexerBusinessCardCacheEnabled ())
+      m_aBCCache = new PDBusinessCardCache (WebFileIO.getDataIO ().getFile ("bc-cache"));
+    else
+      m_aBCCache = null;
 
     // Re-index list
-    m_aReIndexList = new ReIndexWorkItemList ("reindex-work-items.xml");
+    m_aReIndexList = _createReIndexWorkItemList ("reindex-work-items");
     // Dead list
-    m_aDeadList = new ReIndexWorkItemList ("dead-work-items.xml");
+    m_aDeadList = _createReIndexWorkItemList ("dead-work-items");
+
+    // All persisted re-index items are pending again. If a participant has
+    // multiple items, the newest one is the effective one - on equal creation
+    // date times the later one in the list. Items of the dead list are not
+    // pending by definition.
+    m_aRWLock.writeLocked ( () -> {
+      for (final IReIndexWorkItem aReIndexItem : m_aReIndexList.getAllItems ())
+      {
+        final IIndexerWorkItem aWorkItem = aReIndexItem.getWorkItem ();
+        final IIndexerWorkItem aPending = m_aPendingItems.get (aWorkItem.getParticipantID ());
+        if (aPending == null || !aWorkItem.getCreationDateTime ().isBefore (aPending.getCreationDateTime ()))
+          m_aPendingItems.put (aWorkItem.getParticipantID (), aWorkItem);
+      }
+    });
+    if (m_aPendingItems.isNotEmpty ())
+      LOGGER.info ("Restored " + m_aPendingItems.size () + " pending work items from the re-index list");
 
     // Main worker to perform the jobs
-    m_aIndexerWorkQueue = new IndexerWorkItemQueue (aQueueItem -> PDIndexExecutor.executeWorkItem (m_aStorageMgr,
-                                                                                                   aQueueItem,
-                                                                                                   0,
-                                                                                                   aSuccessItem -> _onIndexSuccess (aSuccessItem),
-                                                                                                   aFailureItem -> _onIndexFailure (aFailureItem)));
+    m_aQueueExecutor = _createBatchExecutor (m_aCircuitBreakerMgr::setParticipantHost);
+    m_aIndexerWorkQueue = new IndexerWorkItemQueue (this::_executeQueuedWorkItem, m_aQueueExecutor::flush);
 
     // Schedule re-index job
     m_aTriggerKey = ReIndexJob.schedule (SimpleScheduleBuilder.repeatMinutelyForever (1));
@@ -158,82 +307,114 @@ public final class PDIndexerManager implements Closeable
     // remember here
     m_aScheduler = GlobalQuartzScheduler.getInstance ();
 
-    // Read the file - may not be existing
-    final IMicroDocument aDoc = MicroReader.readMicroXML (m_aIndexerWorkItemFile);
+    // Queue all items from the journal - they are already journaled
+    for (final IIndexerWorkItem aWorkItem : m_aJournal.getAllReplayedItems ())
+      _queueUniqueWorkItem (aWorkItem, false);
+
+    // Read the file of old versions - may not be existing
+    final File aLegacyWorkItemFile = WebFileIO.getDataIO ().getFile ("indexer-work-items.xml");
+    final IMicroDocument aDoc = MicroReader.readMicroXML (aLegacyWorkItemFile);
     if (aDoc != null)
     {
       if (LOGGER.isDebugEnabled ())
-        LOGGER.debug ("Reading persisted indexer work items from " + m_aIndexerWorkItemFile);
+        LOGGER.debug ("Reading persisted indexer work items from " + aLegacyWorkItemFile);
 
       for (final IMicroElement eItem : aDoc.getDocumentElement ().getAllChildElements (ELEMENT_ITEM))
       {
         final IIndexerWorkItem aWorkItem = MicroTypeConverter.convertToNative (eItem, IndexerWorkItem.class);
-        _queueUniqueWorkItem (aWorkItem);
+        _queueUniqueWorkItem (aWorkItem, true);
       }
 
       // Delete the files to ensure it is not read again next startup time
-      FileOperationManager.INSTANCE.deleteFile (m_aIndexerWorkItemFile);
+      FileOperationManager.INSTANCE.deleteFile (aLegacyWorkItemFile);
     }
   }
 
   public void close () throws IOException
   {
-    // Get all remaining objects and save them for late reuse
+    // Unschedule the job first, so that it cannot access the lists after they
+    // are closed. Use the saved instance because
+    // GlobalQuartzScheduler.getInstance() would fail because the global scope
+    // is already in destruction.
+    m_aScheduler.unscheduleJob (m_aTriggerKey);
+
+    // Stop the queue - all remaining objects are contained in the journal
     final ICommonsList <IIndexerWorkItem> aRemainingWorkItems = m_aIndexerWorkQueue.stop ();
     if (aRemainingWorkItems.isNotEmpty ())
-    {
-      LOGGER.info ("Persisting " + aRemainingWorkItems.size () + " indexer work items");
-      final IMicroDocument aDoc = new MicroDocument ();
-      final IMicroElement eRoot = aDoc.appendElement (ELEMENT_ROOT);
-      for (final IIndexerWorkItem aItem : aRemainingWorkItems)
-        eRoot.appendChild (MicroTypeConverter.convertToMicroElement (aItem, ELEMENT_ITEM));
-      if (MicroWriter.writeToFile (aDoc, m_aIndexerWorkItemFile).isFailure ())
-        throw new IllegalStateException ("Failed to write IndexerWorkItems to " + m_aIndexerWorkItemFile);
-    }
+      LOGGER.info ("Leaving " + aRemainingWorkItems.size () + " indexer work items in the journal");
 
-    // Unschedule the job to avoid problems on shutdown. Use the saved instance
-    // because GlobalQuartzScheduler.getInstance() would fail because the global
-    // scope is already in destruction.
-    m_aScheduler.unscheduleJob (m_aTriggerKey);
+    // Ensure everything is on disk
+    m_aJournal.close ();
+    m_aReIndexList.close ();
+    m_aDeadList.close ();
 
     // Close Lucene index etc.
     m_aStorageMgr.close ();
   }
 
   /**
-   * Queue a single work item of any type. If the item is already in the queue,
-   * it is ignored.
+   * Queue a single work item of any type. If an item of the same participant is
+   * already pending, the two items are coalesced into one effective item (see
+   * {@link EIndexerWorkItemType#isSupersededBy(EIndexerWorkItemType)}).
    *
    * @param aWorkItem
    *        Work item to be queued. May not be <code>null</code>.
+   * @param bJournal
+   *        <code>true</code> to add the item to the journal,
+   *        <code>false</code> if it is already contained in the journal.
    * @return {@link EChange#CHANGED} if it was queued
    */
   @Nonnull
-  private EChange _queueUniqueWorkItem (@Nonnull final IIndexerWorkItem aWorkItem)
+  private EChange _queueUniqueWorkItem (@Nonnull final IIndexerWorkItem aWorkItem, final boolean bJournal)
   {
     ValueEnforcer.notNull (aWorkItem, "WorkItem");
 
-    // Check for duplicate
+    // Check for pending items of the same participant
+    final IParticipantIdentifier aParticipantID = aWorkItem.getParticipantID ();
+    final IIndexerWorkItem aSupersededItem;
     m_aRWLock.writeLock ().lock ();
     try
     {
-      if (!m_aUniqueItems.add (aWorkItem))
+      final IIndexerWorkItem aPending = m_aPendingItems.get (aParticipantID);
+      if (aPending != null && !aPending.getType ().isSupersededBy (aWorkItem.getType ()))
       {
-        LOGGER.info ("Ignoring work item " + aWorkItem.getLogText () + " because it is already in the queue/re-index list!");
+        m_aCoalescedCount.incrementAndGet ();
+        LOGGER.info ("Ignoring work item " +
+                     aWorkItem.getLogText () +
+                     " because " +
+                     aPending.getLogText () +
+                     " is already in the queue/re-index list!");
+        if (!bJournal)
+          m_aJournal.onAck (aWorkItem);
         return EChange.UNCHANGED;
       }
+
+      // Either not pending or the pending one is superseded. A superseded item
+      // remains in the queue/re-index list but is skipped there.
+      m_aPendingItems.put (aParticipantID, aWorkItem);
+      aSupersededItem = aPending;
     }
     finally
     {
       m_aRWLock.writeLock ().unlock ();
     }
 
+    if (aSupersededItem != null)
+    {
+      m_aCoalescedCount.incrementAndGet ();
+      LOGGER.info ("Work item " + aSupersededItem.getLogText () + " is superseded by " + aWorkItem.getLogText ());
+    }
+
+    // Journal it before queuing it, so that the ack is always after it
+    if (bJournal)
+      m_aJournal.onEnqueue (aWorkItem);
+
     // Queue it
     m_aIndexerWorkQueue.queueObject (aWorkItem);
     LOGGER.info ("Queued work item " + aWorkItem.getLogText ());
 
     // Remove the entry from the dead list to avoid spamming the dead list
-    if (m_aDeadList.getAndRemoveEntry (x -> x.getWorkItem ().equals (aWorkItem)) != null)
+    if (m_aDeadList.getAndRemoveEntryOfWorkItem (aWorkItem) != null)
       LOGGER.info ("Removed the new work item " + aWorkItem.getLogText () + " from the dead list");
 
     return EChange.CHANGED;
@@ -250,8 +431,9 @@ public final class PDIndexerManager implements Closeable
    *        Owner of this action
    * @param sRequestingHost
    *        Requesting host (IP address)
-   * @return {@link EChange#UNCHANGED} if the item was queued,
-   *         {@link EChange#UNCHANGED} if this item is already in the queue!
+   * @return {@link EChange#CHANGED} if the item was queued,
+   *         {@link EChange#UNCHANGED} if this item is already covered by a
+   *         pending item of the same participant!
    */
   @Nonnull
   public EChange queueWorkItem (@Nonnull final IParticipantIdentifier aParticipantID,
@@ -262,7 +444,31 @@ public final class PDIndexerManager implements Closeable
     // Build item
     final IIndexerWorkItem aWorkItem = new IndexerWorkItem (aParticipantID, eType, sOwnerID, sRequestingHost);
     // And queue it
-    return _queueUniqueWorkItem (aWorkItem);
+    return _queueUniqueWorkItem (aWorkItem, true);
+  }
+
+  /**
+   * Queue multiple work items at once, e.g. from a batch request. Each item is
+   * handled like in {@link #queueWorkItem(IParticipantIdentifier, EIndexerWorkItemType, String, String)}.
+   *
+   * @param aWorkItems
+   *        The work items to be queued. May not be <code>null</code>.
+   * @return A list with one entry per work item in the same order.
+   *         {@link EChange#CHANGED} if the item was queued,
+   *         {@link EChange#UNCHANGED} if this item is already covered by a
+   *         pending item of the same participant. Never <code>null</code>.
+   * @since 0.9.6
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <EChange> queueWorkItems (@Nonnull final Iterable <? extends IIndexerWorkItem> aWorkItems)
+  {
+    ValueEnforcer.notNull (aWorkItems, "WorkItems");
+
+    final ICommonsList <EChange> ret = new CommonsArrayList <> ();
+    for (final IIndexerWorkItem aWorkItem : aWorkItems)
+      ret.add (_queueUniqueWorkItem (aWorkItem, true));
+    return ret;
   }
 
   /**
@@ -273,15 +479,19 @@ public final class PDIndexerManager implements Closeable
   public void expireOldEntries ()
   {
     // Expire old entries
-    final ICommonsList <IReIndexWorkItem> aExpiredItems = m_aReIndexList.getAndRemoveAllEntries (IReIndexWorkItem::isExpired);
+    final ICommonsList <IReIndexWorkItem> aExpiredItems = m_aReIndexList.getAndRemoveAllExpiredEntries (PDTFactory.getCurrentLocalDateTime ());
     if (aExpiredItems.isNotEmpty ())
     {
       LOGGER.info ("Expiring " + aExpiredItems.size () + " re-index work items and move them to the dead list");
 
       for (final IReIndexWorkItem aItem : aExpiredItems)
       {
+        // Superseded items are simply dropped
+        if (!_isPendingItem (aItem.getWorkItem ()))
+          continue;
+
         // remove them from the overall list but move to dead item list
-        m_aRWLock.writeLockedBoolean ( () -> m_aUniqueItems.remove (aItem.getWorkItem ()));
+        _removePendingItem (aItem.getWorkItem ());
 
         // move all to the dead item list
         m_aDeadList.addItem ((ReIndexWorkItem) aItem);
@@ -299,21 +509,84 @@ public final class PDIndexerManager implements Closeable
     final LocalDateTime aNow = PDTFactory.getCurrentLocalDateTime ();
 
     // Get and remove all items to re-index "now"
-    final List <IReIndexWorkItem> aReIndexNowItems = m_aReIndexList.getAndRemoveAllEntries (aWorkItem -> aWorkItem.isRetryPossible (aNow));
+    final List <IReIndexWorkItem> aReIndexNowItems = m_aReIndexList.getAndRemoveAllRetryPossibleEntries (aNow);
 
     if (LOGGER.isDebugEnabled ())
       LOGGER.debug ("Re-indexing " + aReIndexNowItems.size () + " work items");
 
+    m_aCircuitBreakerMgr.onStartOfReIndexRun ();
+
+    // The participants whose SMP host failed in this run
+    final ICommonsSet <IParticipantIdentifier> aHostFailures = new CommonsHashSet <> ();
+    final PDIndexBatchExecutor aExecutor = _createBatchExecutor ( (aFailedParticipantID, sHost) -> {
+      m_aCircuitBreakerMgr.setParticipantHost (aFailedParticipantID, sHost);
+      aHostFailures.add (aFailedParticipantID);
+    });
+    int nDeferred = 0;
     for (final IReIndexWorkItem aReIndexItem : aReIndexNowItems)
     {
+      if (!_isPendingItem (aReIndexItem.getWorkItem ()))
+      {
+        LOGGER.info ("Dropping re-index work item " + aReIndexItem.getLogText () + " because it was superseded");
+        continue;
+      }
+
+      // Check the circuit breaker of the responsible SMP host. The host is
+      // only known after it failed before.
+      final IParticipantIdentifier aParticipantID = aReIndexItem.getWorkItem ().getParticipantID ();
+      final SMPCircuitBreaker aCB = m_aCircuitBreakerMgr.getCircuitBreakerOfParticipant (aParticipantID);
+      if (aCB != null && !aCB.tryAcquire (aNow))
+      {
+        // Don't contact the SMP host - just try again after the open period,
+        // so that the item is not removed and re-added in every run
+        final LocalDateTime aOpenUntilDT = aCB.getOpenUntilDT ();
+        m_aReIndexList.addDeferredItem (aReIndexItem, aOpenUntilDT != null ? aOpenUntilDT : aNow);
+        nDeferred++;
+        continue;
+      }
+
       LOGGER.info ("Try to re-index " + aReIndexItem.getLogText ());
 
-      PDIndexExecutor.executeWorkItem (m_aStorageMgr,
-                                       aReIndexItem.getWorkItem (),
-                                       1 + aReIndexItem.getRetryCount (),
-                                       aSuccessItem -> _onReIndexSuccess (aSuccessItem),
-                                       aFailureItem -> _onReIndexFailure (aReIndexItem));
+      aExecutor.executeWorkItem (aReIndexItem.getWorkItem (),
+                                 1 + aReIndexItem.getRetryCount (),
+                                 aSuccessItem -> {
+                                   _updateCircuitBreaker (aParticipantID, aCB, aHostFailures);
+                                   _onReIndexSuccess (aSuccessItem);
+                                 },
+                                 aFailureItem -> {
+                                   _updateCircuitBreaker (aParticipantID, aCB, aHostFailures);
+                                   _onReIndexFailure (aReIndexItem);
+                                 });
     }
+    // Apply the rest
+    aExecutor.flush ();
+
+    m_aCircuitBreakerMgr.onEndOfReIndexRun ();
+
+    if (nDeferred > 0)
+      LOGGER.info ("Deferred " + nDeferred + " re-index work items because of open SMP circuit breakers");
+  }
+
+  /**
+   * @return The number of work items that were coalesced with other work items
+   *         of the same participant since the startup. Always &ge; 0.
+   * @since 0.9.6
+   */
+  @Nonnegative
+  public long getCoalescedItemCount ()
+  {
+    return m_aCoalescedCount.get ();
+  }
+
+  /**
+   * @return The number of participants with pending work items (in the queue
+   *         or the re-index list). Always &ge; 0.
+   * @since 0.9.6
+   */
+  @Nonnegative
+  public int getPendingItemCount ()
+  {
+    return m_aRWLock.readLockedInt (m_aPendingItems::size);
   }
 
   /**
@@ -346,14 +619,40 @@ public final class PDIndexerManager implements Closeable
     return m_aDeadList;
   }
 
+  /**
+   * @return The manager for the SMP host circuit breakers used by the
+   *         re-indexing. Never <code>null</code>.
+   * @since 0.9.6
+   */
+  @Nonnull
+  public SMPCircuitBreakerManager getCircuitBreakerMgr ()
+  {
+    return m_aCircuitBreakerMgr;
+  }
+
+  /**
+   * @return The local business card cache. May be <code>null</code> if it is
+   *         disabled.
+   * @since 0.9.6
+   */
+  @Nullable
+  public PDBusinessCardCache getBusinessCardCache ()
+  {
+    return m_aBCCache;
+  }
+
   @Override
   public String toString ()
   {
     return ToStringGenerator.getDerived (super.toString ())
-                            .append ("UniqueItems", m_aUniqueItems)
+                            .append ("PendingItems", m_aPendingItems)
+                            .append ("CoalescedCount", m_aCoalescedCount)
                             .append ("ReIndexList", m_aReIndexList)
                             .append ("DeadList", m_aDeadList)
+                            .append ("CircuitBreakerMgr", m_aCircuitBreakerMgr)
+                            .append ("BCCache", m_aBCCache)
                             .append ("IndexerWorkQueue", m_aIndexerWorkQueue)
+                            .append ("Journal", m_aJournal)
                             .append ("TriggerKey", m_aTriggerKey)
                             .getToString ();
   }
@@ -16,6 +16,8 @@
  */
 package com.helger.pd.indexer.mgr;
 
+import java.security.cert.X509Certificate;
+
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.annotation.concurrent.GuardedBy;
@@ -23,14 +25,18 @@ import javax.annotation.concurrent.GuardedBy;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.CGlobal;
 import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.UsedViaReflection;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.debug.GlobalDebug;
 import com.helger.commons.exception.InitializationException;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.lang.ClassHelper;
 import com.helger.pd.indexer.businesscard.IPDBusinessCardProvider;
+import com.helger.pd.indexer.clientcert.ClientCertificateRevocationCache;
+import com.helger.pd.indexer.clientcert.ClientCertificateValidator;
 import com.helger.pd.indexer.lucene.PDLucene;
 import com.helger.pd.indexer.settings.PDServerConfiguration;
 import com.helger.pd.indexer.storage.PDStorageManager;
@@ -58,6 +64,7 @@ public final class PDMetaManager extends AbstractGlobalSingleton
   private PDLucene m_aLucene;
   private PDStorageManager m_aStorageMgr;
   private PDIndexerManager m_aIndexerMgr;
+  private ClientCertificateRevocationCache m_aRevocationCache;
 
   @Deprecated
   @UsedViaReflection
@@ -73,6 +80,18 @@ public final class PDMetaManager extends AbstractGlobalSingleton
       m_aStorageMgr = new PDStorageManager (m_aLucene);
       m_aIndexerMgr = new PDIndexerManager (m_aStorageMgr);
 
+      // Configured CRLs (e.g. local files for offline use) replace the CRL
+      // distribution points of the certificates
+      final ICommonsList <X509Certificate> aIssuerCerts = ClientCertificateValidator.getAllRootCerts ();
+      final ICommonsList <String> aCRLSources = PDServerConfiguration.getAllClientCertCRLSources ();
+      final boolean bDiscoverCRLSources = aCRLSources.isEmpty ();
+      if (bDiscoverCRLSources)
+        for (final X509Certificate aIssuerCert : aIssuerCerts)
+          aCRLSources.addAll (ClientCertificateRevocationCache.getAllCRLDistributionPoints (aIssuerCert));
+      final long nRefreshMillis = PDServerConfiguration.getClientCertCRLRefreshMinutes () * CGlobal.MILLISECONDS_PER_MINUTE;
+      m_aRevocationCache = new ClientCertificateRevocationCache (aIssuerCerts, aCRLSources, bDiscoverCRLSources, nRefreshMillis);
+      ClientCertificateValidator.setRevocationCache (m_aRevocationCache);
+
       LOGGER.info (ClassHelper.getClassLocalName (this) + " was initialized");
     }
     catch (final Exception ex)
@@ -89,6 +108,11 @@ public final class PDMetaManager extends AbstractGlobalSingleton
   @Override
   protected void onDestroy (@Nonnull final IScope aScopeInDestruction)
   {
+    if (m_aRevocationCache != null)
+    {
+      ClientCertificateValidator.setRevocationCache (null);
+      StreamHelper.close (m_aRevocationCache);
+    }
     StreamHelper.close (m_aLucene);
     StreamHelper.close (m_aStorageMgr);
     StreamHelper.close (m_aIndexerMgr);
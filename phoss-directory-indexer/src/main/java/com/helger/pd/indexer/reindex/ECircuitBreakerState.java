@@ -0,0 +1,70 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.reindex;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+import com.helger.commons.name.IHasDisplayName;
+
+/**
+ * The states of a single {@link SMPCircuitBreaker}.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+public enum ECircuitBreakerState implements IHasID <String>, IHasDisplayName
+{
+  /** All retries for the SMP host are performed */
+  CLOSED ("closed", "Closed"),
+  /** All retries for the SMP host are deferred */
+  OPEN ("open", "Open"),
+  /** Only a limited number of retries for the SMP host are performed */
+  HALF_OPEN ("halfopen", "Half open");
+
+  private final String m_sID;
+  private final String m_sDisplayName;
+
+  private ECircuitBreakerState (@Nonnull @Nonempty final String sID, @Nonnull @Nonempty final String sDisplayName)
+  {
+    m_sID = sID;
+    m_sDisplayName = sDisplayName;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getDisplayName ()
+  {
+    return m_sDisplayName;
+  }
+
+  @Nullable
+  public static ECircuitBreakerState getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (ECircuitBreakerState.class, sID);
+  }
+}
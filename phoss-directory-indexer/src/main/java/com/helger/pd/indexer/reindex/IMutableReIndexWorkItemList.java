@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.reindex;
+
+import java.io.Closeable;
+import java.time.LocalDateTime;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.pd.indexer.index.IIndexerWorkItem;
+
+/**
+ * Writable version of {@link IReIndexWorkItemList} that is used by the
+ * {@link com.helger.pd.indexer.mgr.PDIndexerManager} for "re-index" and "dead"
+ * work items.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+public interface IMutableReIndexWorkItemList extends IReIndexWorkItemList, Closeable
+{
+  /**
+   * Add a unique item to the list.
+   *
+   * @param aItem
+   *        The item to be added. May not be <code>null</code>.
+   * @throws IllegalStateException
+   *         If an item with the same ID is already contained
+   */
+  void addItem (@Nonnull ReIndexWorkItem aItem);
+
+  /**
+   * Add an item back to the list, that was removed for re-indexing but was
+   * deferred without being executed. The retry count is not modified, but the
+   * next retry is postponed to the provided date and time, so that the item is
+   * not picked up again before.
+   *
+   * @param aItem
+   *        The item to be added. May not be <code>null</code>.
+   * @param aNextRetryDT
+   *        The earliest date and time of the next retry. May not be
+   *        <code>null</code>.
+   */
+  void addDeferredItem (@Nonnull IReIndexWorkItem aItem, @Nonnull LocalDateTime aNextRetryDT);
+
+  /**
+   * Increment the retry count of an item that was removed for re-indexing and
+   * add it back to the list.
+   *
+   * @param aItem
+   *        The item to be added. May not be <code>null</code>.
+   */
+  void incRetryCountAndAddItem (@Nonnull IReIndexWorkItem aItem);
+
+  /**
+   * Find and remove the first entry with an equal work item (same participant
+   * ID and same type).
+   *
+   * @param aWorkItem
+   *        The work item to search. May not be <code>null</code>.
+   * @return <code>null</code> if no such entry exists.
+   */
+  @Nullable
+  IReIndexWorkItem getAndRemoveEntryOfWorkItem (@Nonnull IIndexerWorkItem aWorkItem);
+
+  /**
+   * Remove all entries where the retry is possible at the provided date time.
+   *
+   * @param aDT
+   *        The date time to check. May not be <code>null</code>.
+   * @return The list of all removed items, sorted ascending by the next retry
+   *         date time. Never <code>null</code> but maybe empty.
+   * @see IReIndexWorkItem#isRetryPossible(LocalDateTime)
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <IReIndexWorkItem> getAndRemoveAllRetryPossibleEntries (@Nonnull LocalDateTime aDT);
+
+  /**
+   * Remove all entries where the maximum retry date time is before the
+   * provided date time.
+   *
+   * @param aDT
+   *        The date time to check. May not be <code>null</code>.
+   * @return The list of all removed items. Never <code>null</code> but maybe
+   *         empty.
+   * @see IReIndexWorkItem#isExpired()
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  ICommonsList <IReIndexWorkItem> getAndRemoveAllExpiredEntries (@Nonnull LocalDateTime aDT);
+
+  /**
+   * Close all resources. The default implementation does nothing.
+   */
+  default void close ()
+  {}
+}
@@ -142,6 +142,22 @@ public class ReIndexWorkItem implements IReIndexWorkItem
     m_aNextRetryDT = m_aPreviousRetryDT.plusMinutes (PDServerConfiguration.getReIndexRetryMinutes ());
   }
 
+  /**
+   * Postpone the next retry without modifying the number of retries. If the
+   * next retry is already scheduled later, nothing happens.
+   *
+   * @param aNextRetryDT
+   *        The earliest date and time of the next retry. May not be
+   *        <code>null</code>.
+   * @since 0.9.6
+   */
+  public void deferNextRetry (@Nonnull final LocalDateTime aNextRetryDT)
+  {
+    ValueEnforcer.notNull (aNextRetryDT, "NextRetryDT");
+    if (aNextRetryDT.isAfter (m_aNextRetryDT))
+      m_aNextRetryDT = aNextRetryDT;
+  }
+
   @Nonnull
   @Nonempty
   public String getLogText ()
@@ -0,0 +1,654 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.reindex;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.LocalDateTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.concurrent.ExecutorServiceHelper;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.mutable.MutableBoolean;
+import com.helger.commons.state.EChange;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.pd.indexer.index.BinaryRecordHelper;
+import com.helger.pd.indexer.index.IIndexerWorkItem;
+import com.helger.pd.indexer.index.IndexerWorkItemBinaryConverter;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.MicroDocument;
+import com.helger.xml.microdom.convert.MicroTypeConverter;
+import com.helger.xml.microdom.serialize.MicroReader;
+import com.helger.xml.microdom.serialize.MicroWriter;
+
+/**
+ * A {@link IMutableReIndexWorkItemList} that is persisted in a compact binary
+ * log file. Every change is appended as a record. If the log contains too many
+ * outdated records, it is compacted by writing all current items into a new
+ * file that atomically replaces the old one. The file is read completely in
+ * the constructor. If a damaged record is found that is not at the end of the
+ * file, a copy of the file is kept aside before it is compacted, so that the
+ * following records can be recovered manually.<br>
+ * The file system sync happens asynchronously in regular intervals, so that
+ * many records share a single sync (group commit) and no sync happens while
+ * the list is locked.<br>
+ * The XML format of {@link ReIndexWorkItemList} can be used for import and
+ * export.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@ThreadSafe
+public final class ReIndexWorkItemBinaryList implements IMutableReIndexWorkItemList
+{
+  /** The minimum number of records before a compaction happens */
+  public static final int MIN_RECORDS_FOR_COMPACTION = 1000;
+  /** The default interval in milliseconds between two file system syncs */
+  public static final long DEFAULT_SYNC_INTERVAL_MS = 50;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (ReIndexWorkItemBinaryList.class);
+
+  private static final byte RECORD_ADD = 1;
+  private static final byte RECORD_REMOVE = 2;
+  private static final String ELEMENT_ROOT = "root";
+  private static final String ELEMENT_ITEM = "item";
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  private final File m_aFile;
+  private final ScheduledExecutorService m_aSyncExecutor;
+
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsOrderedMap <String, ReIndexWorkItem> m_aMap = new CommonsLinkedHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private final ReIndexWorkItemIndex m_aIndex = new ReIndexWorkItemIndex ();
+  @GuardedBy ("m_aRWLock")
+  private boolean m_bClosed = false;
+  @GuardedBy ("m_aRWLock")
+  private FileChannel m_aChannel;
+  @GuardedBy ("m_aRWLock")
+  private int m_nRecordCount;
+  @GuardedBy ("m_aRWLock")
+  private boolean m_bDirty = false;
+
+  /**
+   * Constructor with the default sync interval. The file is read here.
+   *
+   * @param aFile
+   *        The file to store the data in. May not be <code>null</code>.
+   * @throws IOException
+   *         If the file cannot be read or written
+   */
+  public ReIndexWorkItemBinaryList (@Nonnull final File aFile) throws IOException
+  {
+    this (aFile, DEFAULT_SYNC_INTERVAL_MS);
+  }
+
+  /**
+   * Constructor. The file is read here.
+   *
+   * @param aFile
+   *        The file to store the data in. May not be <code>null</code>.
+   * @param nSyncIntervalMS
+   *        The interval in milliseconds between two file system syncs. Must
+   *        be &gt; 0.
+   * @throws IOException
+   *         If the file cannot be read or written
+   */
+  public ReIndexWorkItemBinaryList (@Nonnull final File aFile, @Nonnegative final long nSyncIntervalMS) throws IOException
+  {
+    ValueEnforcer.notNull (aFile, "File");
+    ValueEnforcer.isGT0 (nSyncIntervalMS, "SyncIntervalMS");
+    m_aFile = aFile;
+    m_aRWLock.writeLockedThrowing (this::_load);
+    m_aSyncExecutor = Executors.newSingleThreadScheduledExecutor (new BasicThreadFactory.Builder ().namingPattern ("pd-reindex-list-%d")
+                                                                                                 .daemon (true)
+                                                                                                 .build ());
+    m_aSyncExecutor.scheduleWithFixedDelay (this::sync, nSyncIntervalMS, nSyncIntervalMS, TimeUnit.MILLISECONDS);
+  }
+
+  /**
+   * @return The file the data is stored in. Never <code>null</code>.
+   */
+  @Nonnull
+  public File getFile ()
+  {
+    return m_aFile;
+  }
+
+  private static void _writeItem (@Nonnull final ReIndexWorkItem aItem, @Nonnull final DataOutputStream aDOS) throws IOException
+  {
+    IndexerWorkItemBinaryConverter.writeWorkItem (aItem.getWorkItem (), aDOS);
+    IndexerWorkItemBinaryConverter.writeDateTime (aItem.getMaxRetryDT (), aDOS);
+    aDOS.writeInt (aItem.getRetryCount ());
+    IndexerWorkItemBinaryConverter.writeDateTime (aItem.getPreviousRetryDT (), aDOS);
+    IndexerWorkItemBinaryConverter.writeDateTime (aItem.getNextRetryDT (), aDOS);
+  }
+
+  @Nonnull
+  private static ReIndexWorkItem _readItem (@Nonnull final DataInputStream aDIS) throws IOException
+  {
+    final IIndexerWorkItem aWorkItem = IndexerWorkItemBinaryConverter.readWorkItem (aDIS);
+    final LocalDateTime aMaxRetryDT = IndexerWorkItemBinaryConverter.readDateTime (aDIS);
+    final int nRetryCount = aDIS.readInt ();
+    final LocalDateTime aPreviousRetryDT = IndexerWorkItemBinaryConverter.readDateTime (aDIS);
+    final LocalDateTime aNextRetryDT = IndexerWorkItemBinaryConverter.readDateTime (aDIS);
+    if (aMaxRetryDT == null || aNextRetryDT == null || nRetryCount < 0)
+      throw new IOException ("Inconsistent re-index work item " + aWorkItem.getID ());
+    return new ReIndexWorkItem (aWorkItem, aMaxRetryDT, nRetryCount, aPreviousRetryDT, aNextRetryDT);
+  }
+
+  @Nonnull
+  private static byte [] _createAddRecord (@Nonnull final ReIndexWorkItem aItem) throws IOException
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+         final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      aDOS.writeByte (RECORD_ADD);
+      _writeItem (aItem, aDOS);
+      aDOS.flush ();
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Nonnull
+  private static byte [] _createRemoveRecord (@Nonnull @Nonempty final String sID) throws IOException
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+         final DataOutputStream aDOS = new DataOutputStream (aBAOS))
+    {
+      aDOS.writeByte (RECORD_REMOVE);
+      aDOS.writeUTF (sID);
+      aDOS.flush ();
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _openForAppend () throws IOException
+  {
+    m_aChannel = FileChannel.open (m_aFile.toPath (), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+  }
+
+  /**
+   * Write all current items to a new file and atomically replace the existing
+   * file with it.
+   */
+  @GuardedBy ("m_aRWLock")
+  private void _compact () throws IOException
+  {
+    if (m_aChannel != null)
+    {
+      m_aChannel.close ();
+      m_aChannel = null;
+    }
+
+    final File aTmpFile = new File (m_aFile.getParentFile (), m_aFile.getName () + ".tmp");
+    try (final FileChannel aTmpChannel = FileChannel.open (aTmpFile.toPath (),
+                                                           StandardOpenOption.CREATE,
+                                                           StandardOpenOption.TRUNCATE_EXISTING,
+                                                           StandardOpenOption.WRITE))
+    {
+      for (final ReIndexWorkItem aItem : m_aMap.values ())
+        BinaryRecordHelper.writeRecord (aTmpChannel, _createAddRecord (aItem));
+      aTmpChannel.force (true);
+    }
+    Files.move (aTmpFile.toPath (), m_aFile.toPath (), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    m_nRecordCount = m_aMap.size ();
+    // Everything was just synced
+    m_bDirty = false;
+
+    _openForAppend ();
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _checkNotClosed ()
+  {
+    if (m_bClosed)
+      throw new IllegalStateException ("The re-index list " + m_aFile + " is already closed");
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _load () throws IOException
+  {
+    final MutableBoolean aDamaged = new MutableBoolean (false);
+    BinaryRecordHelper.readAllRecords (m_aFile, aPayload -> {
+      try (final DataInputStream aDIS = new DataInputStream (new NonBlockingByteArrayInputStream (aPayload)))
+      {
+        final byte nType = aDIS.readByte ();
+        switch (nType)
+        {
+          case RECORD_ADD:
+          {
+            final ReIndexWorkItem aItem = _readItem (aDIS);
+            final ReIndexWorkItem aOld = m_aMap.put (aItem.getID (), aItem);
+            if (aOld != null)
+              m_aIndex.remove (aOld);
+            m_aIndex.add (aItem);
+            break;
+          }
+          case RECORD_REMOVE:
+          {
+            final ReIndexWorkItem aOld = m_aMap.remove (aDIS.readUTF ());
+            if (aOld != null)
+              m_aIndex.remove (aOld);
+            break;
+          }
+          default:
+            throw new IOException ("Unsupported record type " + nType + " in " + m_aFile);
+        }
+      }
+    }, aDamaged);
+
+    if (aDamaged.booleanValue ())
+    {
+      // Compacting would drop the following records permanently
+      final File aDamagedFile = new File (m_aFile.getParentFile (),
+                                          m_aFile.getName () + ".damaged-" + PDTFactory.getCurrentMillis ());
+      Files.copy (m_aFile.toPath (), aDamagedFile.toPath (), StandardCopyOption.REPLACE_EXISTING);
+      LOGGER.error ("The re-index list " +
+                    m_aFile +
+                    " is damaged - only the " +
+                    m_aMap.size () +
+                    " items before the damage were read. The original file was kept as " +
+                    aDamagedFile);
+    }
+
+    // Always compact after reading, to get rid of outdated records and of a
+    // potentially truncated last record
+    _compact ();
+    LOGGER.info ("Read " + m_aMap.size () + " re-index work items from " + m_aFile);
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _append (@Nonnull final ICommonsList <byte []> aRecords)
+  {
+    if (aRecords.isEmpty ())
+      return;
+
+    try
+    {
+      for (final byte [] aRecord : aRecords)
+        BinaryRecordHelper.writeRecord (m_aChannel, aRecord);
+      // Synced in the background
+      m_bDirty = true;
+      m_nRecordCount += aRecords.size ();
+
+      if (m_nRecordCount >= MIN_RECORDS_FOR_COMPACTION && m_nRecordCount > 2 * m_aMap.size ())
+        _compact ();
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException ("Failed to write re-index list to " + m_aFile, ex);
+    }
+  }
+
+  @GuardedBy ("m_aRWLock")
+  private void _add (@Nonnull final ReIndexWorkItem aItem, @Nonnull final ICommonsList <byte []> aRecords)
+  {
+    if (m_aMap.containsKey (aItem.getID ()))
+      throw new IllegalStateException ("An item with ID '" + aItem.getID () + "' is already contained!");
+    try
+    {
+      aRecords.add (_createAddRecord (aItem));
+    }
+    catch (final IOException ex)
+    {
+      throw new UncheckedIOException (ex);
+    }
+    m_aMap.put (aItem.getID (), aItem);
+    m_aIndex.add (aItem);
+  }
+
+  @GuardedBy ("m_aRWLock")
+  @Nullable
+  private ReIndexWorkItem _remove (@Nonnull final String sID, @Nonnull final ICommonsList <byte []> aRecords)
+  {
+    final ReIndexWorkItem aItem = m_aMap.remove (sID);
+    if (aItem != null)
+    {
+      m_aIndex.remove (aItem);
+      try
+      {
+        aRecords.add (_createRemoveRecord (sID));
+      }
+      catch (final IOException ex)
+      {
+        throw new UncheckedIOException (ex);
+      }
+    }
+    return aItem;
+  }
+
+  public void addItem (@Nonnull final ReIndexWorkItem aItem)
+  {
+    ValueEnforcer.notNull (aItem, "Item");
+    m_aRWLock.writeLocked ( () -> {
+      _checkNotClosed ();
+      final ICommonsList <byte []> aRecords = new CommonsArrayList <> (1);
+      _add (aItem, aRecords);
+      _append (aRecords);
+    });
+    LOGGER.info ("Added " + aItem.getLogText () + " to re-try list for retry #" + (aItem.getRetryCount () + 1));
+  }
+
+  public void addDeferredItem (@Nonnull final IReIndexWorkItem aItem, @Nonnull final LocalDateTime aNextRetryDT)
+  {
+    ValueEnforcer.notNull (aItem, "Item");
+    ValueEnforcer.notNull (aNextRetryDT, "NextRetryDT");
+
+    // Item is not in the list anymore, therefore we need to cast it :(
+    final ReIndexWorkItem aRealItem = (ReIndexWorkItem) aItem;
+    // Note: the item is not in the sorted sets, so it may be modified
+    m_aRWLock.writeLocked ( () -> {
+      _checkNotClosed ();
+      aRealItem.deferNextRetry (aNextRetryDT);
+      final ICommonsList <byte []> aRecords = new CommonsArrayList <> (1);
+      _add (aRealItem, aRecords);
+      _append (aRecords);
+    });
+  }
+
+  public void incRetryCountAndAddItem (@Nonnull final IReIndexWorkItem aItem)
+  {
+    ValueEnforcer.notNull (aItem, "Item");
+
+    // Item is not in the list anymore, therefore we need to cast it :(
+    final ReIndexWorkItem aRealItem = (ReIndexWorkItem) aItem;
+    m_aRWLock.writeLocked ( () -> aRealItem.incRetryCount ());
+    addItem (aRealItem);
+  }
+
+  @Nullable
+  public IReIndexWorkItem getAndRemoveEntry (@Nonnull final Predicate <? super IReIndexWorkItem> aFilter)
+  {
+    ValueEnforcer.notNull (aFilter, "Filter");
+    return m_aRWLock.writeLockedGet ( () -> {
+      _checkNotClosed ();
+      ReIndexWorkItem aItem = null;
+      for (final ReIndexWorkItem aCur : m_aMap.values ())
+        if (aFilter.test (aCur))
+        {
+          aItem = aCur;
+          break;
+        }
+      if (aItem == null)
+        return null;
+      final ICommonsList <byte []> aRecords = new CommonsArrayList <> (1);
+      _remove (aItem.getID (), aRecords);
+      _append (aRecords);
+      return aItem;
+    });
+  }
+
+  @Nullable
+  public IReIndexWorkItem getAndRemoveEntryOfWorkItem (@Nonnull final IIndexerWorkItem aWorkItem)
+  {
+    ValueEnforcer.notNull (aWorkItem, "WorkItem");
+    return m_aRWLock.writeLockedGet ( () -> {
+      _checkNotClosed ();
+      final ReIndexWorkItem aItem = m_aIndex.getFirstOfWorkItem (aWorkItem);
+      if (aItem == null)
+        return null;
+      final ICommonsList <byte []> aRecords = new CommonsArrayList <> (1);
+      _remove (aItem.getID (), aRecords);
+      _append (aRecords);
+      return aItem;
+    });
+  }
+
+  @Nonnull
+  public EChange deleteItem (@Nullable final String sID)
+  {
+    if (sID == null)
+      return EChange.UNCHANGED;
+    return m_aRWLock.writeLockedGet ( () -> {
+      _checkNotClosed ();
+      final ICommonsList <byte []> aRecords = new CommonsArrayList <> (1);
+      final EChange ret = EChange.valueOf (_remove (sID, aRecords) != null);
+      _append (aRecords);
+      return ret;
+    });
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IReIndexWorkItem> getAndRemoveAllEntries (@Nonnull final Predicate <? super IReIndexWorkItem> aFilter)
+  {
+    ValueEnforcer.notNull (aFilter, "Filter");
+    return m_aRWLock.writeLockedGet ( () -> {
+      _checkNotClosed ();
+      final ICommonsList <IReIndexWorkItem> ret = new CommonsArrayList <> ();
+      final ICommonsList <byte []> aRecords = new CommonsArrayList <> ();
+      // Operate on a copy for removal!
+      for (final ReIndexWorkItem aItem : m_aMap.copyOfValues ())
+        if (aFilter.test (aItem))
+          ret.add (_remove (aItem.getID (), aRecords));
+      _append (aRecords);
+      return ret;
+    });
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IReIndexWorkItem> getAndRemoveAllRetryPossibleEntries (@Nonnull final LocalDateTime aDT)
+  {
+    ValueEnforcer.notNull (aDT, "DT");
+    return m_aRWLock.writeLockedGet ( () -> {
+      _checkNotClosed ();
+      final ICommonsList <byte []> aRecords = new CommonsArrayList <> ();
+      final ICommonsList <IReIndexWorkItem> ret = m_aIndex.removeAllRetryPossible (aDT, x -> _remove (x, aRecords));
+      _append (aRecords);
+      return ret;
+    });
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IReIndexWorkItem> getAndRemoveAllExpiredEntries (@Nonnull final LocalDateTime aDT)
+  {
+    ValueEnforcer.notNull (aDT, "DT");
+    return m_aRWLock.writeLockedGet ( () -> {
+      _checkNotClosed ();
+      final ICommonsList <byte []> aRecords = new CommonsArrayList <> ();
+      final ICommonsList <IReIndexWorkItem> ret = m_aIndex.removeAllExpired (aDT, x -> _remove (x, aRecords));
+      _append (aRecords);
+      return ret;
+    });
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IReIndexWorkItem> getAllItems ()
+  {
+    return m_aRWLock.writeLockedGet ( () -> {
+      _checkNotClosed ();
+      return new CommonsArrayList <> (m_aMap.values ());
+    });
+  }
+
+  @Nonnegative
+  public int getItemCount ()
+  {
+    return m_aRWLock.writeLockedInt ( () -> {
+      _checkNotClosed ();
+      return m_aMap.size ();
+    });
+  }
+
+  @Nullable
+  public IReIndexWorkItem getItemOfID (@Nullable final String sID)
+  {
+    return m_aRWLock.writeLockedGet ( () -> {
+      _checkNotClosed ();
+      return m_aMap.get (sID);
+    });
+  }
+
+  /**
+   * Import all items from an XML file as written by {@link ReIndexWorkItemList}
+   * or {@link #exportToXML(File)}. Items with an ID that is already contained
+   * are ignored. The imported records are synced to the file system before
+   * this method returns, so the XML file may be deleted afterwards.
+   *
+   * @param aXMLFile
+   *        The XML file to read. May not be <code>null</code>.
+   * @return The number of imported items. Always &ge; 0.
+   */
+  @Nonnegative
+  public int importFromXML (@Nonnull final File aXMLFile)
+  {
+    ValueEnforcer.notNull (aXMLFile, "XMLFile");
+
+    final IMicroDocument aDoc = MicroReader.readMicroXML (aXMLFile);
+    if (aDoc == null || aDoc.getDocumentElement () == null)
+      return 0;
+
+    return m_aRWLock.writeLockedInt ( () -> {
+      _checkNotClosed ();
+      final ICommonsList <byte []> aRecords = new CommonsArrayList <> ();
+      for (final IMicroElement eItem : aDoc.getDocumentElement ().getAllChildElements (ELEMENT_ITEM))
+      {
+        final ReIndexWorkItem aItem = MicroTypeConverter.convertToNative (eItem, ReIndexWorkItem.class);
+        if (aItem != null && !m_aMap.containsKey (aItem.getID ()))
+          _add (aItem, aRecords);
+      }
+      _append (aRecords);
+      try
+      {
+        m_aChannel.force (false);
+      }
+      catch (final IOException ex)
+      {
+        throw new UncheckedIOException ("Failed to sync re-index list " + m_aFile, ex);
+      }
+      LOGGER.info ("Imported " + aRecords.size () + " re-index work items from " + aXMLFile);
+      return aRecords.size ();
+    });
+  }
+
+  /**
+   * Export all items to an XML file in the format of
+   * {@link ReIndexWorkItemList}.
+   *
+   * @param aXMLFile
+   *        The XML file to write. May not be <code>null</code>.
+   * @return {@link ESuccess}
+   */
+  @Nonnull
+  public ESuccess exportToXML (@Nonnull final File aXMLFile)
+  {
+    ValueEnforcer.notNull (aXMLFile, "XMLFile");
+
+    final IMicroDocument aDoc = new MicroDocument ();
+    final IMicroElement eRoot = aDoc.appendElement (ELEMENT_ROOT);
+    for (final IReIndexWorkItem aItem : getAllItems ())
+      eRoot.appendChild (MicroTypeConverter.convertToMicroElement (aItem, ELEMENT_ITEM));
+    return MicroWriter.writeToFile (aDoc, aXMLFile);
+  }
+
+  /**
+   * Sync all written records to the file system. This is called regularly in
+   * the background but may be called manually as well. The sync itself
+   * happens outside of the lock, so that the list can be modified in the
+   * meantime.
+   */
+  public void sync ()
+  {
+    final FileChannel aChannel = m_aRWLock.writeLockedGet ( () -> {
+      if (!m_bDirty)
+        return null;
+      m_bDirty = false;
+      return m_aChannel;
+    });
+    if (aChannel != null)
+    {
+      try
+      {
+        aChannel.force (false);
+      }
+      catch (final ClosedChannelException ex)
+      {
+        // Compacted or closed in the meantime - both sync on their own
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Failed to sync re-index list " + m_aFile, ex);
+        m_aRWLock.writeLocked ( () -> m_bDirty = true);
+      }
+    }
+  }
+
+  public void close ()
+  {
+    ExecutorServiceHelper.shutdownAndWaitUntilAllTasksAreFinished (m_aSyncExecutor);
+    m_aRWLock.writeLocked ( () -> {
+      if (m_aChannel != null)
+      {
+        try
+        {
+          m_aChannel.force (true);
+          m_aChannel.close ();
+        }
+        catch (final IOException ex)
+        {
+          LOGGER.error ("Failed to close re-index list " + m_aFile, ex);
+        }
+        m_aChannel = null;
+      }
+      m_bClosed = true;
+    });
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("File", m_aFile).getToString ();
+  }
+}
@@ -0,0 +1,149 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.reindex;
+
+import java.time.LocalDateTime;
+import java.util.Comparator;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.pd.indexer.index.IIndexerWorkItem;
+
+/**
+ * Secondary indices for {@link ReIndexWorkItem} objects: by work item
+ * (participant ID and type) as well as sorted by the next retry date time and
+ * by the maximum retry date time. That allows to retrieve due or expired items
+ * in O(log n) and to find items by work item in O(1).<br>
+ * Note: items must not be modified while they are contained.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@NotThreadSafe
+final class ReIndexWorkItemIndex
+{
+  private static final Comparator <IReIndexWorkItem> COMP_NEXT_RETRY = Comparator.comparing (IReIndexWorkItem::getNextRetryDT)
+                                                                                  .thenComparing (IReIndexWorkItem::getID);
+  private static final Comparator <IReIndexWorkItem> COMP_MAX_RETRY = Comparator.comparing (IReIndexWorkItem::getMaxRetryDT)
+                                                                                 .thenComparing (IReIndexWorkItem::getID);
+
+  private final ICommonsMap <IIndexerWorkItem, ICommonsList <ReIndexWorkItem>> m_aByWorkItem = new CommonsHashMap <> ();
+  private final NavigableSet <ReIndexWorkItem> m_aByNextRetryDT = new TreeSet <> (COMP_NEXT_RETRY);
+  private final NavigableSet <ReIndexWorkItem> m_aByMaxRetryDT = new TreeSet <> (COMP_MAX_RETRY);
+
+  public void add (@Nonnull final ReIndexWorkItem aItem)
+  {
+    m_aByWorkItem.computeIfAbsent (aItem.getWorkItem (), k -> new CommonsArrayList <> (1)).add (aItem);
+    m_aByNextRetryDT.add (aItem);
+    m_aByMaxRetryDT.add (aItem);
+  }
+
+  public void remove (@Nonnull final ReIndexWorkItem aItem)
+  {
+    final ICommonsList <ReIndexWorkItem> aList = m_aByWorkItem.get (aItem.getWorkItem ());
+    if (aList != null)
+    {
+      aList.remove (aItem);
+      if (aList.isEmpty ())
+        m_aByWorkItem.remove (aItem.getWorkItem ());
+    }
+    m_aByNextRetryDT.remove (aItem);
+    m_aByMaxRetryDT.remove (aItem);
+  }
+
+  public void clear ()
+  {
+    m_aByWorkItem.clear ();
+    m_aByNextRetryDT.clear ();
+    m_aByMaxRetryDT.clear ();
+  }
+
+  public boolean containsWorkItem (@Nonnull final IIndexerWorkItem aWorkItem)
+  {
+    return m_aByWorkItem.containsKey (aWorkItem);
+  }
+
+  @Nullable
+  public ReIndexWorkItem getFirstOfWorkItem (@Nonnull final IIndexerWorkItem aWorkItem)
+  {
+    final ICommonsList <ReIndexWorkItem> aList = m_aByWorkItem.get (aWorkItem);
+    return aList == null ? null : aList.getFirst ();
+  }
+
+  public boolean hasRetryPossible (@Nonnull final LocalDateTime aDT)
+  {
+    return !m_aByNextRetryDT.isEmpty () && m_aByNextRetryDT.first ().isRetryPossible (aDT);
+  }
+
+  public boolean hasExpired (@Nonnull final LocalDateTime aDT)
+  {
+    return !m_aByMaxRetryDT.isEmpty () && m_aByMaxRetryDT.first ().getMaxRetryDT ().isBefore (aDT);
+  }
+
+  /**
+   * Remove all items that can be retried at the provided date time, sorted
+   * ascending by the next retry date time.
+   *
+   * @param aDT
+   *        Date time to check
+   * @param aRemover
+   *        The function that removes the item from the owning container
+   *        (including this index) by ID
+   * @return The removed items
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IReIndexWorkItem> removeAllRetryPossible (@Nonnull final LocalDateTime aDT,
+                                                                 @Nonnull final Function <String, ReIndexWorkItem> aRemover)
+  {
+    final ICommonsList <IReIndexWorkItem> ret = new CommonsArrayList <> ();
+    while (hasRetryPossible (aDT))
+      ret.add (aRemover.apply (m_aByNextRetryDT.first ().getID ()));
+    return ret;
+  }
+
+  /**
+   * Remove all items that are expired at the provided date time.
+   *
+   * @param aDT
+   *        Date time to check
+   * @param aRemover
+   *        The function that removes the item from the owning container
+   *        (including this index) by ID
+   * @return The removed items
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IReIndexWorkItem> removeAllExpired (@Nonnull final LocalDateTime aDT,
+                                                           @Nonnull final Function <String, ReIndexWorkItem> aRemover)
+  {
+    final ICommonsList <IReIndexWorkItem> ret = new CommonsArrayList <> ();
+    while (hasExpired (aDT))
+      ret.add (aRemover.apply (m_aByMaxRetryDT.first ().getID ()));
+    return ret;
+  }
+}
@@ -16,11 +16,13 @@
  */
 package com.helger.pd.indexer.reindex;
 
+import java.time.LocalDateTime;
 import java.util.function.Predicate;
 
 import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
 import javax.annotation.concurrent.ThreadSafe;
 
 import org.slf4j.Logger;
@@ -30,50 +32,81 @@ import com.helger.commons.ValueEnforcer;
 import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.state.EChange;
 import com.helger.dao.DAOException;
+import com.helger.pd.indexer.index.IIndexerWorkItem;
 import com.helger.photon.app.dao.AbstractPhotonMapBasedWALDAO;
 
 /**
  * This is the list with {@link IReIndexWorkItem} objects. It is solely used in
  * the {@link com.helger.pd.indexer.mgr.PDIndexerManager} for "re-index" and
- * "dead" work items.
+ * "dead" work items, if the XML storage is configured. Additionally to the map
+ * by ID, the items are indexed via {@link ReIndexWorkItemIndex}.
  *
  * @author Philip Helger
  */
 @ThreadSafe
 public final class ReIndexWorkItemList extends AbstractPhotonMapBasedWALDAO <IReIndexWorkItem, ReIndexWorkItem> implements
-                                       IReIndexWorkItemList
+                                       IMutableReIndexWorkItemList
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (ReIndexWorkItemList.class);
 
+  @GuardedBy ("m_aRWLock")
+  private final ReIndexWorkItemIndex m_aIndex = new ReIndexWorkItemIndex ();
+
   public ReIndexWorkItemList (@Nullable final String sFilename) throws DAOException
   {
     super (ReIndexWorkItem.class, sFilename);
+
+    // Build the indices from the read data
+    m_aRWLock.writeLocked ( () -> {
+      for (final IReIndexWorkItem aItem : getAll ())
+        m_aIndex.add ((ReIndexWorkItem) aItem);
+    });
+  }
+
+  @GuardedBy ("m_aRWLock")
+  @Nullable
+  private ReIndexWorkItem _internalDelete (@Nonnull final String sID)
+  {
+    final ReIndexWorkItem aItem = internalDeleteItem (sID);
+    if (aItem != null)
+      m_aIndex.remove (aItem);
+    return aItem;
   }
 
-  /**
-   * Add a unique item to the list.
-   *
-   * @param aItem
-   *        The item to be added. May not be <code>null</code>.
-   * @throws IllegalStateException
-   *         If an item with the same ID is already contained
-   */
   public void addItem (@Nonnull final ReIndexWorkItem aItem) throws IllegalStateException
   {
     ValueEnforcer.notNull (aItem, "Item");
     m_aRWLock.writeLocked ( () -> {
       internalCreateItem (aItem);
+      m_aIndex.add (aItem);
     });
     LOGGER.info ("Added " + aItem.getLogText () + " to re-try list for retry #" + (aItem.getRetryCount () + 1));
   }
 
+  public void addDeferredItem (@Nonnull final IReIndexWorkItem aItem, @Nonnull final LocalDateTime aNextRetryDT)
+  {
+    ValueEnforcer.notNull (aItem, "Item");
+    ValueEnforcer.notNull (aNextRetryDT, "NextRetryDT");
+
+    // Item is not in the list anymore, therefore we need to cast it :(
+    final ReIndexWorkItem aRealItem = (ReIndexWorkItem) aItem;
+    // Note: the item is not in the sorted sets, so it may be modified
+    m_aRWLock.writeLocked ( () -> {
+      aRealItem.deferNextRetry (aNextRetryDT);
+      internalCreateItem (aRealItem);
+      m_aIndex.add (aRealItem);
+    });
+  }
+
   public void incRetryCountAndAddItem (@Nonnull final IReIndexWorkItem aItem)
   {
     ValueEnforcer.notNull (aItem, "Item");
 
     // Item is not in the list anymore, therefore we need to cast it :(
     final ReIndexWorkItem aRealItem = (ReIndexWorkItem) aItem;
+    // Note: the item is not in the sorted sets, so it may be modified
     m_aRWLock.writeLocked ( () -> aRealItem.incRetryCount ());
     addItem (aRealItem);
   }
@@ -85,7 +118,31 @@ public final class ReIndexWorkItemList extends AbstractPhotonMapBasedWALDAO <IRe
     if (aWorkItem == null)
       return null;
 
-    return m_aRWLock.writeLockedGet ( () -> internalDeleteItem (aWorkItem.getID ()));
+    return m_aRWLock.writeLockedGet ( () -> _internalDelete (aWorkItem.getID ()));
+  }
+
+  @Nullable
+  public IReIndexWorkItem getAndRemoveEntryOfWorkItem (@Nonnull final IIndexerWorkItem aWorkItem)
+  {
+    ValueEnforcer.notNull (aWorkItem, "WorkItem");
+
+    // Quick check without write lock
+    if (m_aRWLock.readLockedBoolean ( () -> !m_aIndex.containsWorkItem (aWorkItem)))
+      return null;
+
+    return m_aRWLock.writeLockedGet ( () -> {
+      final ReIndexWorkItem aItem = m_aIndex.getFirstOfWorkItem (aWorkItem);
+      return aItem == null ? null : _internalDelete (aItem.getID ());
+    });
+  }
+
+  @Override
+  @Nonnull
+  public EChange deleteItem (@Nullable final String sID)
+  {
+    if (sID == null)
+      return EChange.UNCHANGED;
+    return EChange.valueOf (m_aRWLock.writeLockedGet ( () -> _internalDelete (sID)) != null);
   }
 
   @Nonnull
@@ -101,12 +158,38 @@ public final class ReIndexWorkItemList extends AbstractPhotonMapBasedWALDAO <IRe
         if (aFilter.test (aWorkItem))
         {
           ret.add (aWorkItem);
-          internalDeleteItem (aWorkItem.getID ());
+          _internalDelete (aWorkItem.getID ());
         }
     });
     return ret;
   }
 
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IReIndexWorkItem> getAndRemoveAllRetryPossibleEntries (@Nonnull final LocalDateTime aDT)
+  {
+    ValueEnforcer.notNull (aDT, "DT");
+
+    // Quick check without write lock
+    if (m_aRWLock.readLockedBoolean ( () -> !m_aIndex.hasRetryPossible (aDT)))
+      return new CommonsArrayList <> ();
+
+    return m_aRWLock.writeLockedGet ( () -> m_aIndex.removeAllRetryPossible (aDT, this::_internalDelete));
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <IReIndexWorkItem> getAndRemoveAllExpiredEntries (@Nonnull final LocalDateTime aDT)
+  {
+    ValueEnforcer.notNull (aDT, "DT");
+
+    // Quick check without write lock
+    if (m_aRWLock.readLockedBoolean ( () -> !m_aIndex.hasExpired (aDT)))
+      return new CommonsArrayList <> ();
+
+    return m_aRWLock.writeLockedGet ( () -> m_aIndex.removeAllExpired (aDT, this::_internalDelete));
+  }
+
   @Nonnull
   @ReturnsMutableCopy
   public ICommonsList <IReIndexWorkItem> getAllItems ()
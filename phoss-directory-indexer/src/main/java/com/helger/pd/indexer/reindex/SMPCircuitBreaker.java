@@ -0,0 +1,292 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.reindex;
+
+import java.time.LocalDateTime;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A circuit breaker for a single SMP host that is used by the re-index
+ * scheduler. If too many consecutive retries fail, the circuit is opened and
+ * all retries for that host are deferred without network access. After the
+ * open period a single probe is allowed (half open). If that succeeds, the
+ * number of released items per re-index run is doubled until the maximum is
+ * reached and the circuit is closed again. If a re-index run ends without
+ * using all of its release permits, there is no more backlog for the host and
+ * the circuit is closed as well. Any failure while half open re-opens the
+ * circuit.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@ThreadSafe
+public final class SMPCircuitBreaker
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (SMPCircuitBreaker.class);
+
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  private final String m_sHost;
+  private final int m_nFailureThreshold;
+  private final int m_nOpenMinutes;
+  private final int m_nMaxRelease;
+
+  @GuardedBy ("m_aRWLock")
+  private ECircuitBreakerState m_eState = ECircuitBreakerState.CLOSED;
+  @GuardedBy ("m_aRWLock")
+  private int m_nConsecutiveFailures = 0;
+  @GuardedBy ("m_aRWLock")
+  private LocalDateTime m_aOpenUntilDT;
+  @GuardedBy ("m_aRWLock")
+  private int m_nReleaseSize = 0;
+  @GuardedBy ("m_aRWLock")
+  private int m_nReleasePermits = 0;
+  @GuardedBy ("m_aRWLock")
+  private int m_nReleaseSuccesses = 0;
+
+  /**
+   * Constructor
+   *
+   * @param sHost
+   *        The SMP host this circuit breaker is responsible for. May neither
+   *        be <code>null</code> nor empty.
+   * @param nFailureThreshold
+   *        The number of consecutive failures after which the circuit is
+   *        opened. Must be &gt; 0.
+   * @param nOpenMinutes
+   *        The number of minutes the circuit stays open before a probe is
+   *        performed. Must be &gt; 0.
+   * @param nMaxRelease
+   *        The number of items that need to be released successfully in a
+   *        single re-index run, before the circuit is closed again. Must be
+   *        &gt; 0.
+   */
+  public SMPCircuitBreaker (@Nonnull @Nonempty final String sHost,
+                            @Nonnegative final int nFailureThreshold,
+                            @Nonnegative final int nOpenMinutes,
+                            @Nonnegative final int nMaxRelease)
+  {
+    ValueEnforcer.notEmpty (sHost, "Host");
+    ValueEnforcer.isGT0 (nFailureThreshold, "FailureThreshold");
+    ValueEnforcer.isGT0 (nOpenMinutes, "OpenMinutes");
+    ValueEnforcer.isGT0 (nMaxRelease, "MaxRelease");
+    m_sHost = sHost;
+    m_nFailureThreshold = nFailureThreshold;
+    m_nOpenMinutes = nOpenMinutes;
+    m_nMaxRelease = nMaxRelease;
+  }
+
+  /**
+   * @return The SMP host this circuit breaker is responsible for. Neither
+   *         <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getHost ()
+  {
+    return m_sHost;
+  }
+
+  /**
+   * @return The current state. Never <code>null</code>.
+   */
+  @Nonnull
+  public ECircuitBreakerState getState ()
+  {
+    return m_aRWLock.readLockedGet ( () -> m_eState);
+  }
+
+  /**
+   * @return The number of consecutive failures since the last success. Always
+   *         &ge; 0.
+   */
+  @Nonnegative
+  public int getConsecutiveFailures ()
+  {
+    return m_aRWLock.readLockedInt ( () -> m_nConsecutiveFailures);
+  }
+
+  /**
+   * @return The date and time until which the circuit stays open. Only set if
+   *         the circuit was opened at least once. May be <code>null</code>.
+   */
+  @Nullable
+  public LocalDateTime getOpenUntilDT ()
+  {
+    return m_aRWLock.readLockedGet ( () -> m_aOpenUntilDT);
+  }
+
+  /**
+   * Must be called once at the beginning of each re-index run, to reset the
+   * number of items that may be released in a half open state.
+   */
+  public void onStartOfReIndexRun ()
+  {
+    m_aRWLock.writeLocked ( () -> {
+      if (m_eState == ECircuitBreakerState.HALF_OPEN)
+      {
+        m_nReleasePermits = m_nReleaseSize;
+        m_nReleaseSuccesses = 0;
+      }
+    });
+  }
+
+  /**
+   * Must be called once at the end of each re-index run, after the results of
+   * all released items were reported. A half open circuit is closed, if not
+   * all release permits of the run were used, because then the host could
+   * handle all of its due items.
+   *
+   * @since 0.9.6
+   */
+  public void onEndOfReIndexRun ()
+  {
+    m_aRWLock.writeLocked ( () -> {
+      // Any failure would have re-opened the circuit
+      if (m_eState == ECircuitBreakerState.HALF_OPEN && m_nReleasePermits > 0)
+      {
+        LOGGER.info ("Circuit breaker for SMP host '" + m_sHost + "' is closed again, because all due items were handled");
+        m_eState = ECircuitBreakerState.CLOSED;
+        m_nReleaseSize = 0;
+        m_nReleasePermits = 0;
+        m_nReleaseSuccesses = 0;
+      }
+    });
+  }
+
+  /**
+   * Check if a network request to the SMP host may be performed.
+   *
+   * @param aNow
+   *        The current date and time. May not be <code>null</code>.
+   * @return <code>true</code> if the request may be performed,
+   *         <code>false</code> if it should be deferred.
+   */
+  public boolean tryAcquire (@Nonnull final LocalDateTime aNow)
+  {
+    ValueEnforcer.notNull (aNow, "Now");
+
+    return m_aRWLock.writeLockedBoolean ( () -> {
+      switch (m_eState)
+      {
+        case CLOSED:
+          return true;
+        case OPEN:
+          if (aNow.isBefore (m_aOpenUntilDT))
+            return false;
+          // Open period is over - let a single probe pass
+          LOGGER.info ("Circuit breaker for SMP host '" + m_sHost + "' is now half open");
+          m_eState = ECircuitBreakerState.HALF_OPEN;
+          m_nReleaseSize = 1;
+          m_nReleasePermits = 0;
+          m_nReleaseSuccesses = 0;
+          return true;
+        case HALF_OPEN:
+          if (m_nReleasePermits <= 0)
+            return false;
+          m_nReleasePermits--;
+          return true;
+        default:
+          throw new IllegalStateException ("Unsupported state " + m_eState);
+      }
+    });
+  }
+
+  /**
+   * Called after a request to the SMP host succeeded.
+   */
+  public void onSuccess ()
+  {
+    m_aRWLock.writeLocked ( () -> {
+      m_nConsecutiveFailures = 0;
+      if (m_eState == ECircuitBreakerState.HALF_OPEN)
+      {
+        m_nReleaseSuccesses++;
+        if (m_nReleaseSuccesses >= m_nReleaseSize)
+        {
+          if (m_nReleaseSize >= m_nMaxRelease)
+          {
+            LOGGER.info ("Circuit breaker for SMP host '" + m_sHost + "' is closed again");
+            m_eState = ECircuitBreakerState.CLOSED;
+            m_nReleasePermits = 0;
+          }
+          else
+          {
+            // Release more items in the next run
+            m_nReleaseSize = Math.min (m_nReleaseSize * 2, m_nMaxRelease);
+          }
+        }
+      }
+    });
+  }
+
+  /**
+   * Called after a request to the SMP host failed.
+   *
+   * @param aNow
+   *        The current date and time. May not be <code>null</code>.
+   */
+  public void onFailure (@Nonnull final LocalDateTime aNow)
+  {
+    ValueEnforcer.notNull (aNow, "Now");
+
+    m_aRWLock.writeLocked ( () -> {
+      m_nConsecutiveFailures++;
+      if (m_eState == ECircuitBreakerState.HALF_OPEN ||
+          (m_eState == ECircuitBreakerState.CLOSED && m_nConsecutiveFailures >= m_nFailureThreshold))
+      {
+        m_eState = ECircuitBreakerState.OPEN;
+        m_aOpenUntilDT = aNow.plusMinutes (m_nOpenMinutes);
+        m_nReleaseSize = 0;
+        m_nReleasePermits = 0;
+        m_nReleaseSuccesses = 0;
+        LOGGER.warn ("Circuit breaker for SMP host '" +
+                     m_sHost +
+                     "' is open after " +
+                     m_nConsecutiveFailures +
+                     " consecutive failures - deferring all retries until " +
+                     m_aOpenUntilDT);
+      }
+    });
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Host", m_sHost)
+                                       .append ("FailureThreshold", m_nFailureThreshold)
+                                       .append ("OpenMinutes", m_nOpenMinutes)
+                                       .append ("MaxRelease", m_nMaxRelease)
+                                       .append ("State", m_eState)
+                                       .append ("ConsecutiveFailures", m_nConsecutiveFailures)
+                                       .append ("OpenUntilDT", m_aOpenUntilDT)
+                                       .append ("ReleaseSize", m_nReleaseSize)
+                                       .getToString ();
+  }
+}
@@ -0,0 +1,194 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.reindex;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.annotation.ReturnsMutableCopy;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.concurrent.SimpleReadWriteLock;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.pd.indexer.settings.PDServerConfiguration;
+import com.helger.peppolid.IParticipantIdentifier;
+
+/**
+ * This class manages all {@link SMPCircuitBreaker} objects - one per SMP host.
+ * Additionally it remembers the SMP host of all participants whose SMP host
+ * failed, so that the circuit breaker of a participant can be determined
+ * without any DNS lookup.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@ThreadSafe
+public final class SMPCircuitBreakerManager
+{
+  private final SimpleReadWriteLock m_aRWLock = new SimpleReadWriteLock ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <String, SMPCircuitBreaker> m_aMap = new CommonsHashMap <> ();
+  @GuardedBy ("m_aRWLock")
+  private final ICommonsMap <IParticipantIdentifier, String> m_aParticipantHosts = new CommonsHashMap <> ();
+
+  public SMPCircuitBreakerManager ()
+  {}
+
+  /**
+   * @return <code>true</code> if circuit breakers are enabled in the
+   *         configuration, <code>false</code> if not.
+   */
+  public static boolean isEnabled ()
+  {
+    return PDServerConfiguration.getReIndexCircuitBreakerFailureThreshold () > 0;
+  }
+
+  /**
+   * Get or create the circuit breaker for the provided SMP host.
+   *
+   * @param sHost
+   *        The SMP host to use. May be <code>null</code>.
+   * @return <code>null</code> if the host is empty or if circuit breakers are
+   *         disabled.
+   */
+  @Nullable
+  public SMPCircuitBreaker getOrCreateCircuitBreaker (@Nullable final String sHost)
+  {
+    if (StringHelper.hasNoText (sHost) || !isEnabled ())
+      return null;
+
+    SMPCircuitBreaker ret = m_aRWLock.readLockedGet ( () -> m_aMap.get (sHost));
+    if (ret == null)
+    {
+      ret = m_aRWLock.writeLockedGet ( () -> m_aMap.computeIfAbsent (sHost,
+                                                                     k -> new SMPCircuitBreaker (k,
+                                                                                                 PDServerConfiguration.getReIndexCircuitBreakerFailureThreshold (),
+                                                                                                 PDServerConfiguration.getReIndexCircuitBreakerOpenMinutes (),
+                                                                                                 PDServerConfiguration.getReIndexCircuitBreakerMaxRelease ())));
+    }
+    return ret;
+  }
+
+  /**
+   * Remember the SMP host of a participant. This is called after a request to
+   * the SMP host of the participant failed.
+   *
+   * @param aParticipantID
+   *        The participant ID. May not be <code>null</code>.
+   * @param sHost
+   *        The SMP host to use. May neither be <code>null</code> nor empty.
+   */
+  public void setParticipantHost (@Nonnull final IParticipantIdentifier aParticipantID, @Nonnull @Nonempty final String sHost)
+  {
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+    ValueEnforcer.notEmpty (sHost, "Host");
+    m_aRWLock.writeLocked ( () -> m_aParticipantHosts.put (aParticipantID, sHost));
+  }
+
+  /**
+   * Forget the SMP host of a participant. This must be called when the
+   * participant has no more pending work items.
+   *
+   * @param aParticipantID
+   *        The participant ID. May not be <code>null</code>.
+   */
+  public void removeParticipantHost (@Nonnull final IParticipantIdentifier aParticipantID)
+  {
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+    m_aRWLock.writeLocked ( () -> m_aParticipantHosts.remove (aParticipantID));
+  }
+
+  /**
+   * Get the circuit breaker of the SMP host of the provided participant. No
+   * network access happens here.
+   *
+   * @param aParticipantID
+   *        The participant ID. May not be <code>null</code>.
+   * @return <code>null</code> if no failure of the SMP host of the participant
+   *         is known or if circuit breakers are disabled.
+   */
+  @Nullable
+  public SMPCircuitBreaker getCircuitBreakerOfParticipant (@Nonnull final IParticipantIdentifier aParticipantID)
+  {
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+    return getOrCreateCircuitBreaker (m_aRWLock.readLockedGet ( () -> m_aParticipantHosts.get (aParticipantID)));
+  }
+
+  /**
+   * Must be called at the beginning of each re-index run.
+   */
+  public void onStartOfReIndexRun ()
+  {
+    for (final SMPCircuitBreaker aCB : getAllCircuitBreakers ())
+      aCB.onStartOfReIndexRun ();
+  }
+
+  /**
+   * Must be called at the end of each re-index run. Circuit breakers that are
+   * closed and that are not referenced by any participant are removed, so
+   * that the number of circuit breakers does not grow with the number of SMP
+   * hosts that ever failed.
+   */
+  public void onEndOfReIndexRun ()
+  {
+    for (final SMPCircuitBreaker aCB : getAllCircuitBreakers ())
+      aCB.onEndOfReIndexRun ();
+
+    m_aRWLock.writeLocked ( () -> {
+      final ICommonsSet <String> aUsedHosts = new CommonsHashSet <> (m_aParticipantHosts.values ());
+      m_aMap.entrySet ().removeIf (e -> e.getValue ().getState () == ECircuitBreakerState.CLOSED && !aUsedHosts.contains (e.getKey ()));
+    });
+  }
+
+  /**
+   * @return A copy of all contained circuit breakers. Never <code>null</code>
+   *         but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <SMPCircuitBreaker> getAllCircuitBreakers ()
+  {
+    return m_aRWLock.readLockedGet (m_aMap::copyOfValues);
+  }
+
+  /**
+   * @return A copy of all circuit breakers that are currently not closed.
+   *         Never <code>null</code> but maybe empty.
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <SMPCircuitBreaker> getAllNonClosedCircuitBreakers ()
+  {
+    return getAllCircuitBreakers ().getAll (x -> x.getState () != ECircuitBreakerState.CLOSED);
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("Map", m_aMap)
+                                       .append ("ParticipantHosts", m_aParticipantHosts)
+                                       .getToString ();
+  }
+}
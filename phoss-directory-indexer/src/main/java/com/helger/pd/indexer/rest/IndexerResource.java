@@ -16,17 +16,26 @@
  */
 package com.helger.pd.indexer.rest;
 
+import java.io.BufferedReader;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
 
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 import javax.servlet.http.HttpServletRequest;
+import javax.ws.rs.Consumes;
 import javax.ws.rs.DELETE;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.PUT;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
+import javax.ws.rs.Produces;
 import javax.ws.rs.core.Context;
+import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
 
@@ -34,10 +43,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
 import com.helger.commons.url.URLHelper;
 import com.helger.pd.indexer.clientcert.ClientCertificateValidationResult;
 import com.helger.pd.indexer.clientcert.ClientCertificateValidator;
 import com.helger.pd.indexer.index.EIndexerWorkItemType;
+import com.helger.pd.indexer.index.IIndexerWorkItem;
+import com.helger.pd.indexer.index.IndexerWorkItem;
 import com.helger.pd.indexer.mgr.PDMetaManager;
 import com.helger.pd.indexer.storage.EQueryMode;
 import com.helger.peppolid.IParticipantIdentifier;
@@ -51,6 +66,15 @@ import com.helger.peppolid.factory.IIdentifierFactory;
 @Path ("1.0")
 public class IndexerResource
 {
+  /** Batch result: the work item was queued */
+  public static final String BATCH_RESULT_QUEUED = "queued";
+  /** Batch result: the work item is covered by a pending work item */
+  public static final String BATCH_RESULT_DUPLICATE = "duplicate";
+  /** Batch result: the line could not be interpreted */
+  public static final String BATCH_RESULT_INVALID = "invalid";
+  /** The number of batch items that are queued at once */
+  public static final int BATCH_CHUNK_SIZE = 1000;
+
   private static final Logger LOGGER = LoggerFactory.getLogger (IndexerResource.class);
 
   /**
@@ -178,6 +202,110 @@ public class IndexerResource
     return Response.noContent ().build ();
   }
 
+  private static void _queueBatchChunk (@Nonnull final ICommonsList <IIndexerWorkItem> aChunk,
+                                        @Nonnull final ICommonsList <String> aChunkResults,
+                                        @Nonnull final StringBuilder aResponse)
+  {
+    final Iterator <EChange> aChanges = PDMetaManager.getIndexerMgr ().queueWorkItems (aChunk).iterator ();
+    for (final String sResult : aChunkResults)
+    {
+      if (sResult != null)
+        aResponse.append (sResult);
+      else
+      {
+        // The item was passed to the indexer manager
+        aResponse.append (aChanges.next ().isChanged () ? BATCH_RESULT_QUEUED : BATCH_RESULT_DUPLICATE);
+      }
+      aResponse.append ('\n');
+    }
+    aChunk.clear ();
+    aChunkResults.clear ();
+  }
+
+  /**
+   * Create, update or delete multiple participants with a single request. The
+   * request body is plain text in UTF-8 with one operation per line in the
+   * format <code>operation participantID</code> where operation is either
+   * <code>create</code> or <code>delete</code>. Empty lines are ignored. The
+   * body is read incrementally and the work items are queued in chunks while
+   * reading.<br>
+   * The response body contains one line per non-empty request line in the
+   * same order, containing one of {@link #BATCH_RESULT_QUEUED},
+   * {@link #BATCH_RESULT_DUPLICATE} or {@link #BATCH_RESULT_INVALID}.
+   *
+   * @param aHttpServletRequest
+   *        The current servlet request. May not be <code>null</code>.
+   * @param aIS
+   *        The request body. May not be <code>null</code>.
+   * @return The response with the results per item.
+   * @throws IOException
+   *         In case reading the request body failed
+   * @since 0.9.6
+   */
+  @POST
+  @Path ("batch")
+  @Consumes (MediaType.TEXT_PLAIN)
+  @Produces (MediaType.TEXT_PLAIN)
+  public Response executeBatch (@Context @Nonnull final HttpServletRequest aHttpServletRequest,
+                                @Nonnull final InputStream aIS) throws IOException
+  {
+    final String sLogPrefix = "[executeBatch] ";
+    // Verify the client certificate only once for all items
+    final ClientCertificateValidationResult aResult = _checkClientCertificate (aHttpServletRequest, sLogPrefix);
+    if (aResult.isFailure ())
+      return Response.status (Response.Status.FORBIDDEN).build ();
+
+    final String sRequestingHost = _getRequestingHost (aHttpServletRequest);
+    final IIdentifierFactory aIdentifierFactory = PDMetaManager.getIdentifierFactory ();
+    final ICommonsList <IIndexerWorkItem> aChunk = new CommonsArrayList <> (BATCH_CHUNK_SIZE);
+    final ICommonsList <String> aChunkResults = new CommonsArrayList <> (BATCH_CHUNK_SIZE);
+    final StringBuilder aResponse = new StringBuilder ();
+    int nItems = 0;
+    int nInvalid = 0;
+
+    try (final BufferedReader aReader = new BufferedReader (new InputStreamReader (aIS, StandardCharsets.UTF_8)))
+    {
+      String sLine;
+      while ((sLine = aReader.readLine ()) != null)
+      {
+        final String sTrimmed = sLine.trim ();
+        if (sTrimmed.isEmpty ())
+          continue;
+        nItems++;
+
+        final IParticipantIdentifier aPI;
+        final int nSep = StringHelper.getIndexOf (sTrimmed, ' ');
+        final EIndexerWorkItemType eType = nSep < 0 ? null : EIndexerWorkItemType.getFromIDOrNull (sTrimmed.substring (0, nSep));
+        if (eType == EIndexerWorkItemType.CREATE_UPDATE || eType == EIndexerWorkItemType.DELETE)
+          aPI = aIdentifierFactory.parseParticipantIdentifier (_unifyPID (sTrimmed.substring (nSep + 1)));
+        else
+          aPI = null;
+
+        if (aPI == null)
+        {
+          if (LOGGER.isWarnEnabled ())
+            LOGGER.warn (sLogPrefix + "Failed to interpret batch line '" + sTrimmed + "'");
+          aChunkResults.add (BATCH_RESULT_INVALID);
+          nInvalid++;
+        }
+        else
+        {
+          aChunk.add (new IndexerWorkItem (aPI, eType, aResult.getClientID (), sRequestingHost));
+          aChunkResults.add (null);
+          if (aChunk.size () >= BATCH_CHUNK_SIZE)
+            _queueBatchChunk (aChunk, aChunkResults, aResponse);
+        }
+      }
+    }
+    _queueBatchChunk (aChunk, aChunkResults, aResponse);
+
+    if (LOGGER.isInfoEnabled ())
+      LOGGER.info (sLogPrefix + "Handled " + nItems + " batch items of which " + nInvalid + " were invalid");
+
+    // And done
+    return Response.ok (aResponse.toString (), MediaType.TEXT_PLAIN_TYPE.withCharset (StandardCharsets.UTF_8.name ())).build ();
+  }
+
   @GET
   @Path ("{participantID}")
   public Response checkParticipantExistence (@Context @Nonnull final HttpServletRequest aHttpServletRequest,
@@ -290,6 +290,67 @@ public final class PDServerConfiguration extends AbstractGlobalSingleton
     return ret;
   }
 
+  /**
+   * Read value of <code>clientcert.cache.ttl.seconds</code>. Defaults to
+   * <code>600</code>.
+   *
+   * @return The number of seconds the validation result of a client
+   *         certificate is cached. A value of 0 disables the cache. Always
+   *         &ge; 0.
+   * @since 0.9.6
+   */
+  public static long getClientCertValidationCacheTTLSeconds ()
+  {
+    final long ret = getConfig ().getAsLong ("clientcert.cache.ttl.seconds", 600);
+    if (ret < 0)
+      throw new IllegalStateException ("The clientcert.cache.ttl.seconds property must be >= 0!");
+    return ret;
+  }
+
+  /**
+   * Read value of <code>clientcert.crl.X</code> values, where "X" is an
+   * ascending number starting from 1.
+   *
+   * @return The list of URLs or file paths of the certificate revocation lists
+   *         of the client certificate issuers. Never <code>null</code> but
+   *         maybe empty.
+   * @since 0.9.6
+   */
+  @Nonnull
+  public static ICommonsList <String> getAllClientCertCRLSources ()
+  {
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+
+    int nIndex = 1;
+    while (true)
+    {
+      final String sValue = getConfig ().getAsString ("clientcert.crl." + nIndex);
+      if (StringHelper.hasNoText (sValue))
+        break;
+
+      // Present - try next
+      ret.add (sValue.trim ());
+      ++nIndex;
+    }
+    return ret;
+  }
+
+  /**
+   * Read value of <code>clientcert.crl.refresh.minutes</code>. Defaults to
+   * <code>60</code>.
+   *
+   * @return The number of minutes after which the certificate revocation lists
+   *         are read again. Always &gt; 0.
+   * @since 0.9.6
+   */
+  public static long getClientCertCRLRefreshMinutes ()
+  {
+    final long ret = getConfig ().getAsLong ("clientcert.crl.refresh.minutes", 60);
+    if (ret <= 0)
+      throw new IllegalStateException ("The clientcert.crl.refresh.minutes property must be > 0!");
+    return ret;
+  }
+
   /**
    * @return A list of trust stores configured. Property names are
    *         <code>truststore.X.type</code>, <code>truststore.X.path</code>,
@@ -324,6 +385,52 @@ public final class PDServerConfiguration extends AbstractGlobalSingleton
     return ret;
   }
 
+  /**
+   * Read value of <code>indexer.batch.maxsize</code>. Defaults to
+   * <code>100</code>.
+   *
+   * @return The maximum number of storage operations the indexer applies to
+   *         the index in a single batch. Always &gt; 0.
+   * @since 0.9.6
+   */
+  public static int getIndexerBatchMaxSize ()
+  {
+    final int ret = getConfig ().getAsInt ("indexer.batch.maxsize", 100);
+    if (ret <= 0)
+      throw new IllegalStateException ("The indexer.batch.maxsize property must be > 0!");
+    return ret;
+  }
+
+  /**
+   * Read value of <code>indexer.batch.maxmillis</code>. Defaults to
+   * <code>1000</code>.
+   *
+   * @return The maximum number of milliseconds storage operations are collected
+   *         by the indexer before they are applied to the index. Always &ge; 0.
+   * @since 0.9.6
+   */
+  public static long getIndexerBatchMaxMillis ()
+  {
+    final long ret = getConfig ().getAsLong ("indexer.batch.maxmillis", 1000);
+    if (ret < 0)
+      throw new IllegalStateException ("The indexer.batch.maxmillis property must be >= 0!");
+    return ret;
+  }
+
+  /**
+   * Read value of <code>indexer.bccache.enabled</code>. Defaults to
+   * <code>true</code>.
+   *
+   * @return <code>true</code> if the retrieved business cards should be cached
+   *         locally, so that they can be revalidated with conditional requests
+   *         and unchanged business cards are not indexed again during a sync.
+   * @since 0.9.6
+   */
+  public static boolean isIndexerBusinessCardCacheEnabled ()
+  {
+    return getConfig ().getAsBoolean ("indexer.bccache.enabled", true);
+  }
+
   /**
    * Read value of <code>reindex.maxretryhours</code>. Defaults to
    * <code>24</code>.
@@ -354,6 +461,74 @@ public final class PDServerConfiguration extends AbstractGlobalSingleton
     return ret;
   }
 
+  /**
+   * Read value of <code>reindex.storage</code>. Defaults to
+   * <code>binary</code>.
+   *
+   * @return <code>true</code> if the re-index and dead lists should be stored
+   *         in the old XML format, <code>false</code> if the compact binary
+   *         format should be used.
+   * @since 0.9.6
+   */
+  public static boolean isReIndexXMLStorage ()
+  {
+    return "xml".equalsIgnoreCase (getConfig ().getAsString ("reindex.storage"));
+  }
+
+  /**
+   * Read value of <code>reindex.circuitbreaker.failurethreshold</code>.
+   * Defaults to <code>5</code>.
+   *
+   * @return The number of consecutive re-index failures for a single SMP host
+   *         after which no more retries are performed for that host until the
+   *         circuit breaker re-opens. A value of <code>0</code> disables the
+   *         circuit breaker. Always &ge; 0.
+   * @since 0.9.6
+   */
+  @Nonnegative
+  public static int getReIndexCircuitBreakerFailureThreshold ()
+  {
+    final int ret = getConfig ().getAsInt ("reindex.circuitbreaker.failurethreshold", 5);
+    if (ret < 0)
+      throw new IllegalStateException ("The reindex.circuitbreaker.failurethreshold property must be >= 0!");
+    return ret;
+  }
+
+  /**
+   * Read value of <code>reindex.circuitbreaker.openminutes</code>. Defaults to
+   * <code>30</code>.
+   *
+   * @return The number of minutes an opened circuit breaker defers all retries
+   *         for an SMP host before a single probe is performed. Always &gt; 0.
+   * @since 0.9.6
+   */
+  @Nonnegative
+  public static int getReIndexCircuitBreakerOpenMinutes ()
+  {
+    final int ret = getConfig ().getAsInt ("reindex.circuitbreaker.openminutes", 30);
+    if (ret <= 0)
+      throw new IllegalStateException ("The reindex.circuitbreaker.openminutes property must be > 0!");
+    return ret;
+  }
+
+  /**
+   * Read value of <code>reindex.circuitbreaker.maxrelease</code>. Defaults to
+   * <code>64</code>.
+   *
+   * @return The number of items per re-index run that need to be released
+   *         successfully for a recovering SMP host, before the circuit breaker
+   *         is fully closed again. Always &gt; 0.
+   * @since 0.9.6
+   */
+  @Nonnegative
+  public static int getReIndexCircuitBreakerMaxRelease ()
+  {
+    final int ret = getConfig ().getAsInt ("reindex.circuitbreaker.maxrelease", 64);
+    if (ret <= 0)
+      throw new IllegalStateException ("The reindex.circuitbreaker.maxrelease property must be > 0!");
+    return ret;
+  }
+
   /**
    * Read value of <code>http.proxyHost</code>.
    *
@@ -465,4 +640,126 @@ public final class PDServerConfiguration extends AbstractGlobalSingleton
   {
     return getConfig ().getAsBoolean ("sync.businesscards", false);
   }
+
+  /**
+   * Read value of <code>sync.businesscards.periodhours</code>. Defaults to
+   * <code>336</code> (2 weeks).
+   *
+   * @return The number of hours over which the synchronization of all business
+   *         cards is spread. Always &gt; 0.
+   * @since 0.9.6
+   */
+  public static int getSyncAllBusinessCardsPeriodHours ()
+  {
+    final int ret = getConfig ().getAsInt ("sync.businesscards.periodhours", 14 * 24);
+    if (ret <= 0)
+      throw new IllegalStateException ("The sync.businesscards.periodhours property must be > 0!");
+    return ret;
+  }
+
+  /**
+   * Read value of <code>sync.businesscards.maxqueuesize</code>. Defaults to
+   * <code>1000</code>.
+   *
+   * @return The maximum number of background work items in the indexer queue.
+   *         If the queue contains more items, the synchronization is slowed
+   *         down. Always &gt; 0.
+   * @since 0.9.6
+   */
+  public static int getSyncAllBusinessCardsMaxQueueSize ()
+  {
+    final int ret = getConfig ().getAsInt ("sync.businesscards.maxqueuesize", 1000);
+    if (ret <= 0)
+      throw new IllegalStateException ("The sync.businesscards.maxqueuesize property must be > 0!");
+    return ret;
+  }
+
+  /**
+   * Read value of <code>export.checkminutes</code>. Defaults to <code>5</code>.
+   *
+   * @return The interval in minutes in which it is checked whether the
+   *         exported data needs to be regenerated. Always &gt; 0.
+   * @since 0.9.6
+   */
+  @Nonnegative
+  public static int getExportCheckMinutes ()
+  {
+    final int ret = getConfig ().getAsInt ("export.checkminutes", 5);
+    if (ret <= 0)
+      throw new IllegalStateException ("The export.checkminutes property must be > 0!");
+    return ret;
+  }
+
+  /**
+   * Read value of <code>export.minchanges</code>. Defaults to <code>500</code>.
+   *
+   * @return The number of index changes after which the exported data is
+   *         regenerated, before the maximum age is reached. Always &gt; 0.
+   * @since 0.9.6
+   */
+  @Nonnegative
+  public static long getExportMinChanges ()
+  {
+    final long ret = getConfig ().getAsLong ("export.minchanges", 500);
+    if (ret <= 0)
+      throw new IllegalStateException ("The export.minchanges property must be > 0!");
+    return ret;
+  }
+
+  /**
+   * Read value of <code>export.minintervalminutes</code>. Defaults to
+   * <code>60</code>.
+   *
+   * @return The minimum number of minutes between two exports that are
+   *         triggered by the number of changes. Always &ge; 0.
+   * @since 0.9.6
+   */
+  @Nonnegative
+  public static int getExportMinIntervalMinutes ()
+  {
+    final int ret = getConfig ().getAsInt ("export.minintervalminutes", 60);
+    if (ret < 0)
+      throw new IllegalStateException ("The export.minintervalminutes property must be >= 0!");
+    return ret;
+  }
+
+  /**
+   * Read value of <code>export.maxagehours</code>. Defaults to <code>24</code>.
+   *
+   * @return The maximum age in hours of the exported data, if the index
+   *         changed at all. Always &gt; 0.
+   * @since 0.9.6
+   */
+  @Nonnegative
+  public static int getExportMaxAgeHours ()
+  {
+    final int ret = getConfig ().getAsInt ("export.maxagehours", 24);
+    if (ret <= 0)
+      throw new IllegalStateException ("The export.maxagehours property must be > 0!");
+    return ret;
+  }
+
+  /**
+   * Read value of <code>export.partitions</code>. It is a comma separated list
+   * of the partition modes in which the business cards are additionally
+   * exported. Defaults to an empty list.
+   *
+   * @return The list of all configured partition mode IDs. Never
+   *         <code>null</code> but maybe empty.
+   * @since 0.9.6
+   */
+  @Nonnull
+  public static ICommonsList <String> getAllExportPartitionModes ()
+  {
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    final String sValue = getConfig ().getAsString ("export.partitions");
+    if (StringHelper.hasText (sValue))
+      for (final String sPart : StringHelper.getExploded (',', sValue))
+      {
+        final String sMode = sPart.trim ();
+        if (sMode.length () > 0)
+          ret.add (sMode);
+      }
+    return ret;
+  }
 }
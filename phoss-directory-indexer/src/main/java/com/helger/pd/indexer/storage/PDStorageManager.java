@@ -18,14 +18,16 @@ package com.helger.pd.indexer.storage;
 
 import java.io.IOException;
 import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.function.ObjIntConsumer;
 
 import javax.annotation.CheckForSigned;
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
-import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.ThreadSafe;
 
 import org.apache.lucene.document.Document;
 import org.apache.lucene.document.Field;
@@ -33,8 +35,15 @@ import org.apache.lucene.document.Field.Store;
 import org.apache.lucene.document.FieldType;
 import org.apache.lucene.document.TextField;
 import org.apache.lucene.index.IndexOptions;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.index.TermsEnum.SeekStatus;
 import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.DocIdSetIterator;
 import org.apache.lucene.search.IndexSearcher;
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
@@ -43,6 +52,8 @@ import org.apache.lucene.search.TermQuery;
 import org.apache.lucene.search.TopDocs;
 import org.apache.lucene.search.TopScoreDocCollector;
 import org.apache.lucene.search.TotalHitCountCollector;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -52,11 +63,14 @@ import com.helger.commons.annotation.ReturnsMutableCopy;
 import com.helger.commons.callback.IThrowingRunnable;
 import com.helger.commons.collection.CollectionHelper;
 import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
 import com.helger.commons.collection.impl.CommonsLinkedHashMap;
 import com.helger.commons.collection.impl.CommonsTreeMap;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.commons.collection.impl.ICommonsSortedMap;
+import com.helger.commons.concurrent.SimpleLock;
 import com.helger.commons.datetime.PDTWebDateHelper;
 import com.helger.commons.functional.IThrowingSupplier;
 import com.helger.commons.mutable.MutableInt;
@@ -70,6 +84,7 @@ import com.helger.pd.businesscard.generic.PDBusinessEntity;
 import com.helger.pd.businesscard.generic.PDContact;
 import com.helger.pd.businesscard.generic.PDIdentifier;
 import com.helger.pd.businesscard.generic.PDName;
+import com.helger.pd.indexer.businesscard.PDBusinessCardBinaryConverter;
 import com.helger.pd.indexer.businesscard.PDExtendedBusinessCard;
 import com.helger.pd.indexer.lucene.AllDocumentsCollector;
 import com.helger.pd.indexer.lucene.PDLucene;
@@ -84,7 +99,7 @@ import com.helger.photon.audit.AuditHelper;
  *
  * @author Philip Helger
  */
-@Immutable
+@ThreadSafe
 public final class PDStorageManager implements IPDStorageManager
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (PDStorageManager.class);
@@ -103,6 +118,9 @@ public final class PDStorageManager implements IPDStorageManager
   }
 
   private final PDLucene m_aLucene;
+  private final AtomicLong m_aUnchangedCount = new AtomicLong (0);
+  // Makes reading the stored content hashes and writing atomic
+  private final SimpleLock m_aApplyLock = new SimpleLock ();
 
   public PDStorageManager (@Nonnull final PDLucene aLucene)
   {
@@ -114,6 +132,18 @@ public final class PDStorageManager implements IPDStorageManager
     m_aLucene.close ();
   }
 
+  /**
+   * @return The number of create or update operations since the startup that
+   *         were not written to the index, because the business card was
+   *         unchanged. Always &ge; 0.
+   * @since 0.9.6
+   */
+  @Nonnegative
+  public long getUnchangedCount ()
+  {
+    return m_aUnchangedCount.get ();
+  }
+
   private static void _timedSearch (@Nonnull final IThrowingRunnable <IOException> aRunnable,
                                     @Nonnull final Query aQuery) throws IOException
   {
@@ -165,177 +195,346 @@ public final class PDStorageManager implements IPDStorageManager
   }
 
   @Nonnull
-  public ESuccess createOrUpdateEntry (@Nonnull final IParticipantIdentifier aParticipantID,
-                                       @Nonnull final PDExtendedBusinessCard aExtBI,
-                                       @Nonnull final PDStoredMetaData aMetaData) throws IOException
+  @ReturnsMutableCopy
+  private static ICommonsList <Document> _createDocuments (@Nonnull final IParticipantIdentifier aParticipantID,
+                                                          @Nonnull final PDExtendedBusinessCard aExtBI,
+                                                          @Nonnull final String sContentHash,
+                                                          @Nonnull final PDStoredMetaData aMetaData)
   {
-    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
-    ValueEnforcer.notNull (aExtBI, "ExtBI");
-    ValueEnforcer.notNull (aMetaData, "MetaData");
+    final ICommonsList <Document> aDocs = new CommonsArrayList <> ();
 
-    LOGGER.info ("Trying to create or update entry with participant ID '" +
-                 aParticipantID.getURIEncoded () +
-                 "' and " +
-                 aExtBI.getBusinessCard ().businessEntities ().size () +
-                 " entities");
+    final PDBusinessCard aBI = aExtBI.getBusinessCard ();
+    for (final PDBusinessEntity aBusinessEntity : aBI.businessEntities ())
+    {
+      // Convert entity to Lucene document
+      final Document aDoc = new Document ();
+      final StringBuilder aSBAllFields = new StringBuilder ();
 
-    return m_aLucene.writeLockedAtomic ( () -> {
-      final ICommonsList <Document> aDocs = new CommonsArrayList <> ();
+      aDoc.add (PDField.PARTICIPANT_ID.getAsField (aParticipantID));
+      aSBAllFields.append (PDField.PARTICIPANT_ID.getAsStorageValue (aParticipantID)).append (' ');
 
-      final PDBusinessCard aBI = aExtBI.getBusinessCard ();
-      for (final PDBusinessEntity aBusinessEntity : aBI.businessEntities ())
+      if (aBusinessEntity.names ().size () == 1 && aBusinessEntity.names ().getFirst ().hasNoLanguageCode ())
       {
-        // Convert entity to Lucene document
-        final Document aDoc = new Document ();
-        final StringBuilder aSBAllFields = new StringBuilder ();
-
-        aDoc.add (PDField.PARTICIPANT_ID.getAsField (aParticipantID));
-        aSBAllFields.append (PDField.PARTICIPANT_ID.getAsStorageValue (aParticipantID)).append (' ');
-
-        if (aBusinessEntity.names ().size () == 1 && aBusinessEntity.names ().getFirst ().hasNoLanguageCode ())
+        // Single name without a language - legacy case
+        final String sName = aBusinessEntity.names ().getFirst ().getName ();
+        aDoc.add (PDField.NAME.getAsField (sName));
+        aSBAllFields.append (sName).append (' ');
+      }
+      else
+      {
+        // More than one name or language
+        for (final PDName aName : aBusinessEntity.names ())
         {
-          // Single name without a language - legacy case
-          final String sName = aBusinessEntity.names ().getFirst ().getName ();
-          aDoc.add (PDField.NAME.getAsField (sName));
+          final String sName = aName.getName ();
+          aDoc.add (PDField.ML_NAME.getAsField (sName));
           aSBAllFields.append (sName).append (' ');
-        }
-        else
-        {
-          // More than one name or language
-          for (final PDName aName : aBusinessEntity.names ())
-          {
-            final String sName = aName.getName ();
-            aDoc.add (PDField.ML_NAME.getAsField (sName));
-            aSBAllFields.append (sName).append (' ');
-
-            final String sLanguage = StringHelper.getNotNull (aName.getLanguageCode ());
-            aDoc.add (PDField.ML_LANGUAGE.getAsField (sLanguage));
-            aSBAllFields.append (sLanguage).append (' ');
-          }
-        }
-
-        if (aBusinessEntity.hasCountryCode ())
-        {
-          // Index all country codes in upper case (since 2017-09-20)
-          final String sCountryCode = aBusinessEntity.getCountryCode ().toUpperCase (Locale.US);
-          aDoc.add (PDField.COUNTRY_CODE.getAsField (sCountryCode));
-          aSBAllFields.append (sCountryCode).append (' ');
-        }
-
-        // Add all document types to all documents
-        for (final IDocumentTypeIdentifier aDocTypeID : aExtBI.getAllDocumentTypeIDs ())
-        {
-          aDoc.add (PDField.DOCTYPE_ID.getAsField (aDocTypeID));
-          aSBAllFields.append (PDField.DOCTYPE_ID.getAsStorageValue (aDocTypeID)).append (' ');
-        }
 
-        if (aBusinessEntity.hasGeoInfo ())
-        {
-          aDoc.add (PDField.GEO_INFO.getAsField (aBusinessEntity.getGeoInfo ()));
-          aSBAllFields.append (aBusinessEntity.getGeoInfo ()).append (' ');
+          final String sLanguage = StringHelper.getNotNull (aName.getLanguageCode ());
+          aDoc.add (PDField.ML_LANGUAGE.getAsField (sLanguage));
+          aSBAllFields.append (sLanguage).append (' ');
         }
+      }
 
-        for (final PDIdentifier aIdentifier : aBusinessEntity.identifiers ())
-        {
-          aDoc.add (PDField.IDENTIFIER_SCHEME.getAsField (aIdentifier.getScheme ()));
-          aSBAllFields.append (aIdentifier.getScheme ()).append (' ');
-
-          aDoc.add (PDField.IDENTIFIER_VALUE.getAsField (aIdentifier.getValue ()));
-          aSBAllFields.append (aIdentifier.getValue ()).append (' ');
-        }
+      if (aBusinessEntity.hasCountryCode ())
+      {
+        // Index all country codes in upper case (since 2017-09-20)
+        final String sCountryCode = aBusinessEntity.getCountryCode ().toUpperCase (Locale.US);
+        aDoc.add (PDField.COUNTRY_CODE.getAsField (sCountryCode));
+        aSBAllFields.append (sCountryCode).append (' ');
+      }
 
-        for (final String sWebSite : aBusinessEntity.websiteURIs ())
-        {
-          aDoc.add (PDField.WEBSITE_URI.getAsField (sWebSite));
-          aSBAllFields.append (sWebSite).append (' ');
-        }
+      // Add all document types to all documents
+      for (final IDocumentTypeIdentifier aDocTypeID : aExtBI.getAllDocumentTypeIDs ())
+      {
+        aDoc.add (PDField.DOCTYPE_ID.getAsField (aDocTypeID));
+        aSBAllFields.append (PDField.DOCTYPE_ID.getAsStorageValue (aDocTypeID)).append (' ');
+      }
 
-        for (final PDContact aContact : aBusinessEntity.contacts ())
-        {
-          final String sType = StringHelper.getNotNull (aContact.getType ());
-          aDoc.add (PDField.CONTACT_TYPE.getAsField (sType));
-          aSBAllFields.append (sType).append (' ');
+      if (aBusinessEntity.hasGeoInfo ())
+      {
+        aDoc.add (PDField.GEO_INFO.getAsField (aBusinessEntity.getGeoInfo ()));
+        aSBAllFields.append (aBusinessEntity.getGeoInfo ()).append (' ');
+      }
 
-          final String sName = StringHelper.getNotNull (aContact.getName ());
-          aDoc.add (PDField.CONTACT_NAME.getAsField (sName));
-          aSBAllFields.append (sName).append (' ');
+      for (final PDIdentifier aIdentifier : aBusinessEntity.identifiers ())
+      {
+        aDoc.add (PDField.IDENTIFIER_SCHEME.getAsField (aIdentifier.getScheme ()));
+        aSBAllFields.append (aIdentifier.getScheme ()).append (' ');
 
-          final String sPhone = StringHelper.getNotNull (aContact.getPhoneNumber ());
-          aDoc.add (PDField.CONTACT_PHONE.getAsField (sPhone));
-          aSBAllFields.append (sPhone).append (' ');
+        aDoc.add (PDField.IDENTIFIER_VALUE.getAsField (aIdentifier.getValue ()));
+        aSBAllFields.append (aIdentifier.getValue ()).append (' ');
+      }
 
-          final String sEmail = StringHelper.getNotNull (aContact.getEmail ());
-          aDoc.add (PDField.CONTACT_EMAIL.getAsField (sEmail));
-          aSBAllFields.append (sEmail).append (' ');
-        }
+      for (final String sWebSite : aBusinessEntity.websiteURIs ())
+      {
+        aDoc.add (PDField.WEBSITE_URI.getAsField (sWebSite));
+        aSBAllFields.append (sWebSite).append (' ');
+      }
 
-        if (aBusinessEntity.hasAdditionalInfo ())
-        {
-          aDoc.add (PDField.ADDITIONAL_INFO.getAsField (aBusinessEntity.getAdditionalInfo ()));
-          aSBAllFields.append (aBusinessEntity.getAdditionalInfo ()).append (' ');
-        }
+      for (final PDContact aContact : aBusinessEntity.contacts ())
+      {
+        final String sType = StringHelper.getNotNull (aContact.getType ());
+        aDoc.add (PDField.CONTACT_TYPE.getAsField (sType));
+        aSBAllFields.append (sType).append (' ');
 
-        if (aBusinessEntity.hasRegistrationDate ())
-        {
-          final String sDate = PDTWebDateHelper.getAsStringXSD (aBusinessEntity.getRegistrationDate ());
-          aDoc.add (PDField.REGISTRATION_DATE.getAsField (sDate));
-          aSBAllFields.append (sDate).append (' ');
-        }
+        final String sName = StringHelper.getNotNull (aContact.getName ());
+        aDoc.add (PDField.CONTACT_NAME.getAsField (sName));
+        aSBAllFields.append (sName).append (' ');
 
-        // Add the "all" field - no need to store
-        aDoc.add (new TextField (CPDStorage.FIELD_ALL_FIELDS, aSBAllFields.toString (), Store.NO));
+        final String sPhone = StringHelper.getNotNull (aContact.getPhoneNumber ());
+        aDoc.add (PDField.CONTACT_PHONE.getAsField (sPhone));
+        aSBAllFields.append (sPhone).append (' ');
 
-        // Add meta data (not part of the "all field" field!)
-        // Lucene6: cannot yet use a LongPoint because it has no way to create a
-        // stored one
-        aDoc.add (PDField.METADATA_CREATIONDT.getAsField (aMetaData.getCreationDT ()));
-        aDoc.add (PDField.METADATA_OWNERID.getAsField (aMetaData.getOwnerID ()));
-        aDoc.add (PDField.METADATA_REQUESTING_HOST.getAsField (aMetaData.getRequestingHost ()));
+        final String sEmail = StringHelper.getNotNull (aContact.getEmail ());
+        aDoc.add (PDField.CONTACT_EMAIL.getAsField (sEmail));
+        aSBAllFields.append (sEmail).append (' ');
+      }
 
-        aDocs.add (aDoc);
+      if (aBusinessEntity.hasAdditionalInfo ())
+      {
+        aDoc.add (PDField.ADDITIONAL_INFO.getAsField (aBusinessEntity.getAdditionalInfo ()));
+        aSBAllFields.append (aBusinessEntity.getAdditionalInfo ()).append (' ');
       }
 
-      if (aDocs.isNotEmpty ())
+      if (aBusinessEntity.hasRegistrationDate ())
       {
-        // Add "group end" marker
-        CollectionHelper.getLastElement (aDocs).add (new Field (FIELD_GROUP_END, VALUE_GROUP_END, TYPE_GROUP_END));
+        final String sDate = PDTWebDateHelper.getAsStringXSD (aBusinessEntity.getRegistrationDate ());
+        aDoc.add (PDField.REGISTRATION_DATE.getAsField (sDate));
+        aSBAllFields.append (sDate).append (' ');
       }
 
-      // Delete all existing documents of the participant ID
-      // and add the new ones to the index
-      m_aLucene.updateDocuments (PDField.PARTICIPANT_ID.getExactMatchTerm (aParticipantID), aDocs);
+      // Add the "all" field - no need to store
+      aDoc.add (new TextField (CPDStorage.FIELD_ALL_FIELDS, aSBAllFields.toString (), Store.NO));
 
-      LOGGER.info ("Added " + aDocs.size () + " Lucene documents");
-      AuditHelper.onAuditExecuteSuccess ("pd-indexer-create",
-                                         aParticipantID.getURIEncoded (),
-                                         Integer.valueOf (aDocs.size ()),
-                                         aMetaData);
-    });
+      // Add meta data (not part of the "all field" field!)
+      // Lucene6: cannot yet use a LongPoint because it has no way to create a
+      // stored one
+      aDoc.add (PDField.METADATA_CREATIONDT.getAsField (aMetaData.getCreationDT ()));
+      aDoc.add (PDField.METADATA_OWNERID.getAsField (aMetaData.getOwnerID ()));
+      aDoc.add (PDField.METADATA_REQUESTING_HOST.getAsField (aMetaData.getRequestingHost ()));
+      aDoc.add (PDField.METADATA_CONTENT_HASH.getAsField (sContentHash));
+
+      aDocs.add (aDoc);
+    }
+
+    if (aDocs.isNotEmpty ())
+    {
+      // Add "group end" marker
+      CollectionHelper.getLastElement (aDocs).add (new Field (FIELD_GROUP_END, VALUE_GROUP_END, TYPE_GROUP_END));
+    }
+    return aDocs;
+  }
+
+  @Nonnull
+  public ESuccess createOrUpdateEntry (@Nonnull final IParticipantIdentifier aParticipantID,
+                                       @Nonnull final PDExtendedBusinessCard aExtBI,
+                                       @Nonnull final PDStoredMetaData aMetaData) throws IOException
+  {
+    return applyBatch (new CommonsArrayList <> (PDStorageOperation.createOrUpdate (aParticipantID, aExtBI, aMetaData)));
   }
 
   @Nonnull
   public ESuccess deleteEntry (@Nonnull final IParticipantIdentifier aParticipantID,
                                @Nullable final PDStoredMetaData aMetaData) throws IOException
   {
-    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+    return applyBatch (new CommonsArrayList <> (PDStorageOperation.delete (aParticipantID, aMetaData)));
+  }
+
+  /**
+   * Get the content hash stored with the documents of the provided participant.
+   *
+   * @param aSearcher
+   *        The searcher to use. May not be <code>null</code>.
+   * @param aParticipantID
+   *        The participant ID to query. May not be <code>null</code>.
+   * @return <code>null</code> if the participant is not contained or if it was
+   *         stored before content hashes were introduced.
+   */
+  @Nullable
+  private static String _getStoredContentHash (@Nonnull final IndexSearcher aSearcher,
+                                               @Nonnull final IParticipantIdentifier aParticipantID) throws IOException
+  {
+    final Query aQuery = EQueryMode.NON_DELETED_ONLY.getEffectiveQuery (new TermQuery (PDField.PARTICIPANT_ID.getExactMatchTerm (aParticipantID)));
+    final TopDocs aTopDocs = _timedSearch ( () -> aSearcher.search (aQuery, 1), aQuery);
+    // Lucene 8
+    // if (aTopDocs.totalHits.value == 0)
+    if (aTopDocs.totalHits == 0)
+      return null;
+
+    // All documents of a participant have the same hash
+    final Document aDoc = aSearcher.doc (aTopDocs.scoreDocs[0].doc,
+                                         new CommonsHashSet <> (PDField.METADATA_CONTENT_HASH.getFieldName ()));
+    return PDField.METADATA_CONTENT_HASH.getDocValue (aDoc);
+  }
+
+  @Nonnull
+  @ReturnsMutableCopy
+  private ICommonsMap <String, String> _getStoredContentHashes (@Nonnull final ICommonsList <PDStorageOperation> aOps) throws IOException
+  {
+    // Only required for create or update operations
+    if (!aOps.containsAny (x -> !x.isDelete ()))
+      return new CommonsHashMap <> ();
+
+    final ICommonsMap <String, String> ret = m_aLucene.searchNearRealTime (aSearcher -> {
+      final ICommonsMap <String, String> aMap = new CommonsHashMap <> ();
+      for (final PDStorageOperation aOp : aOps)
+        if (!aOp.isDelete ())
+        {
+          final String sParticipantID = aOp.getParticipantID ().getURIEncoded ();
+          if (!aMap.containsKey (sParticipantID))
+            aMap.put (sParticipantID, _getStoredContentHash (aSearcher, aOp.getParticipantID ()));
+        }
+      return aMap;
+    });
+    return ret != null ? ret : new CommonsHashMap <> ();
+  }
+
+  /**
+   * Apply all operations within a single write locked section. The Lucene
+   * documents are created before the lock is acquired and subsequent deletes
+   * are passed to the index writer at once. Business cards that are identical
+   * to the stored ones (according to the content hash stored with the
+   * documents) are not written again, so the meta data of the stored documents
+   * is kept in that case. The stored content hashes are read with a
+   * near-real-time searcher inside the write locked section, so that no other
+   * batch can change them between the comparison and the write.
+   */
+  @Override
+  @Nonnull
+  public ESuccess applyBatch (@Nonnull final Iterable <PDStorageOperation> aOperations) throws IOException
+  {
+    ValueEnforcer.notNull (aOperations, "Operations");
+
+    // Convert all business cards to Lucene documents outside of the lock
+    final ICommonsList <PDStorageOperation> aOps = new CommonsArrayList <> (aOperations);
+    final ICommonsList <String> aContentHashes = new CommonsArrayList <> ();
+    final ICommonsList <ICommonsList <Document>> aDocsPerOp = new CommonsArrayList <> ();
+    for (final PDStorageOperation aOp : aOps)
+    {
+      final String sParticipantID = aOp.getParticipantID ().getURIEncoded ();
+      if (aOp.isDelete ())
+      {
+        LOGGER.info ("Trying to delete entry with participant ID '" + sParticipantID + "'");
+        aContentHashes.add (null);
+        aDocsPerOp.add (null);
+      }
+      else
+      {
+        LOGGER.info ("Trying to create or update entry with participant ID '" +
+                     sParticipantID +
+                     "' and " +
+                     aOp.getExtendedBusinessCard ().getBusinessCard ().businessEntities ().size () +
+                     " entities");
+        final String sContentHash = PDBusinessCardBinaryConverter.getContentHash (aOp.getExtendedBusinessCard ());
+        aContentHashes.add (sContentHash);
+        aDocsPerOp.add (_createDocuments (aOp.getParticipantID (), aOp.getExtendedBusinessCard (), sContentHash, aOp.getMetaData ()));
+      }
+    }
 
-    LOGGER.info ("Trying to delete entry with participant ID '" + aParticipantID.getURIEncoded () + "'");
+    if (aOps.isEmpty ())
+      return ESuccess.SUCCESS;
 
-    final Term aTerm = PDField.PARTICIPANT_ID.getExactMatchTerm (aParticipantID);
-    final int nCount = getCount (new TermQuery (aTerm));
-    if (m_aLucene.writeLockedAtomic ( () -> {
-      // Delete
-      m_aLucene.deleteDocuments (aTerm);
-    }).isFailure ())
+    // Whether each operation was applied or skipped because it is unchanged
+    final boolean [] aApplied = new boolean [aOps.size ()];
+    // The number of deleted documents per delete operation
+    final int [] aDeletedCounts = new int [aOps.size ()];
+    // The write lock of PDLucene is not exclusive
+    m_aApplyLock.lock ();
+    try
+    {
+      if (m_aLucene.writeLockedAtomic ( () -> {
+        // Participant ID to content hash stored in the index
+        final ICommonsMap <String, String> aStoredHashes = _getStoredContentHashes (aOps);
+        // Participant ID to content hash of the previous operations in this
+        // batch
+        final ICommonsMap <String, String> aBatchHashes = new CommonsHashMap <> ();
+        final ICommonsList <Term> aPendingDeletes = new CommonsArrayList <> ();
+        for (int i = 0; i < aOps.size (); ++i)
+        {
+          final String sParticipantID = aOps.get (i).getParticipantID ().getURIEncoded ();
+          final Term aTerm = PDField.PARTICIPANT_ID.getExactMatchTerm (aOps.get (i).getParticipantID ());
+          final ICommonsList <Document> aDocs = aDocsPerOp.get (i);
+          if (aDocs == null)
+          {
+            // Remember the number of documents for the audit log. The
+            // near-real-time searcher sees all previous operations of the batch
+            final Integer aCount = m_aLucene.searchNearRealTime (aSearcher -> Integer.valueOf (aSearcher.count (new TermQuery (aTerm))));
+            aDeletedCounts[i] = aCount == null ? 0 : aCount.intValue ();
+
+            // Collect subsequent deletes
+            aPendingDeletes.add (aTerm);
+            aBatchHashes.put (sParticipantID, null);
+          }
+          else
+          {
+            final String sContentHash = aContentHashes.get (i);
+            final String sPreviousHash = aBatchHashes.containsKey (sParticipantID) ? aBatchHashes.get (sParticipantID)
+                                                                                   : aStoredHashes.get (sParticipantID);
+            if (sContentHash.equals (sPreviousHash))
+            {
+              LOGGER.info ("Entry with participant ID '" + sParticipantID + "' is unchanged");
+              m_aUnchangedCount.incrementAndGet ();
+              continue;
+            }
+
+            // Keep the order of operations
+            if (aPendingDeletes.isNotEmpty ())
+            {
+              m_aLucene.deleteDocuments (aPendingDeletes.toArray (new Term [0]));
+              aPendingDeletes.clear ();
+            }
+
+            // Delete all existing documents of the participant ID
+            // and add the new ones to the index
+            m_aLucene.updateDocuments (aTerm, aDocs);
+            aBatchHashes.put (sParticipantID, sContentHash);
+          }
+          aApplied[i] = true;
+        }
+        if (aPendingDeletes.isNotEmpty ())
+          m_aLucene.deleteDocuments (aPendingDeletes.toArray (new Term [0]));
+      }).isFailure ())
+      {
+        return ESuccess.FAILURE;
+      }
+    }
+    finally
     {
-      return ESuccess.FAILURE;
+      m_aApplyLock.unlock ();
     }
 
-    LOGGER.info ("Deleted " + nCount + " docs from the index using the term '" + aTerm + "'");
-    AuditHelper.onAuditExecuteSuccess ("pd-indexer-delete",
-                                       aParticipantID.getURIEncoded (),
-                                       Integer.valueOf (nCount),
-                                       aMetaData);
+    int nAppliedCount = 0;
+    for (int i = 0; i < aOps.size (); ++i)
+    {
+      if (!aApplied[i])
+        continue;
+      nAppliedCount++;
+
+      final PDStorageOperation aOp = aOps.get (i);
+      final ICommonsList <Document> aDocs = aDocsPerOp.get (i);
+      if (aDocs == null)
+      {
+        LOGGER.info ("Deleted " +
+                     aDeletedCounts[i] +
+                     " docs of participant ID '" +
+                     aOp.getParticipantID ().getURIEncoded () +
+                     "' from the index");
+        AuditHelper.onAuditExecuteSuccess ("pd-indexer-delete",
+                                           aOp.getParticipantID ().getURIEncoded (),
+                                           Integer.valueOf (aDeletedCounts[i]),
+                                           aOp.getMetaData ());
+      }
+      else
+      {
+        LOGGER.info ("Added " + aDocs.size () + " Lucene documents");
+        AuditHelper.onAuditExecuteSuccess ("pd-indexer-create",
+                                           aOp.getParticipantID ().getURIEncoded (),
+                                           Integer.valueOf (aDocs.size ()),
+                                           aOp.getMetaData ());
+      }
+    }
+    if (nAppliedCount > 1)
+      LOGGER.info ("Applied a batch of " + nAppliedCount + " storage operations");
     return ESuccess.SUCCESS;
   }
 
@@ -538,6 +737,83 @@ public final class PDStorageManager implements IPDStorageManager
     return aTargetSet;
   }
 
+  /**
+   * Get the next participant IDs contained in the index in the order of their
+   * storage value, starting after the provided one. This iterates the terms of
+   * the participant ID field directly and does not need to load any document,
+   * so it can be used to walk over all participants in small chunks. Please
+   * note that participants marked as deleted are contained as well.
+   *
+   * @param sAfterParticipantID
+   *        The URI encoded participant ID after which to start. May be
+   *        <code>null</code> to start at the beginning.
+   * @param nMaxCount
+   *        The maximum number of participant IDs to return. Must be &gt; 0.
+   * @return The URI encoded participant IDs in ascending order. Never
+   *         <code>null</code>. If less than the requested number of
+   *         participant IDs is returned, the end was reached.
+   * @throws IOException
+   *         On Lucene error or if the index is just closing. In that case it
+   *         is unknown whether the end was reached.
+   * @since 0.9.6
+   */
+  @Nonnull
+  @ReturnsMutableCopy
+  public ICommonsList <String> getNextContainedParticipantIDs (@Nullable final String sAfterParticipantID,
+                                                              @Nonnegative final int nMaxCount) throws IOException
+  {
+    ValueEnforcer.isGT0 (nMaxCount, "MaxCount");
+
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    final IThrowingSupplier <Boolean, IOException> cb = () -> {
+      final IndexReader aReader = m_aLucene.getReader ();
+      if (aReader == null)
+        return Boolean.FALSE;
+
+      // Lucene 8
+      // final Terms aTerms = MultiTerms.getTerms (aReader, ...)
+      final Terms aTerms = MultiFields.getTerms (aReader, PDField.PARTICIPANT_ID.getFieldName ());
+      if (aTerms == null)
+        return Boolean.FALSE;
+
+      final Bits aLiveDocs = MultiFields.getLiveDocs (aReader);
+      final TermsEnum aTermsEnum = aTerms.iterator ();
+      BytesRef aTerm;
+      if (sAfterParticipantID == null)
+        aTerm = aTermsEnum.next ();
+      else
+      {
+        final SeekStatus eStatus = aTermsEnum.seekCeil (new BytesRef (sAfterParticipantID));
+        if (eStatus == SeekStatus.END)
+          aTerm = null;
+        else
+          if (eStatus == SeekStatus.FOUND)
+            aTerm = aTermsEnum.next ();
+          else
+            aTerm = aTermsEnum.term ();
+      }
+
+      PostingsEnum aPostings = null;
+      while (aTerm != null && ret.size () < nMaxCount)
+      {
+        // Ignore terms that only occur in deleted documents
+        aPostings = aTermsEnum.postings (aPostings, PostingsEnum.NONE);
+        int nDocID;
+        while ((nDocID = aPostings.nextDoc ()) != DocIdSetIterator.NO_MORE_DOCS)
+          if (aLiveDocs == null || aLiveDocs.get (nDocID))
+          {
+            ret.add (aTerm.utf8ToString ());
+            break;
+          }
+        aTerm = aTermsEnum.next ();
+      }
+      return Boolean.TRUE;
+    };
+    if (m_aLucene.readLockedAtomic (cb) == null)
+      throw new IOException ("Cannot iterate participant IDs after '" + sAfterParticipantID + "', because Lucene is shutting down");
+    return ret;
+  }
+
   @CheckForSigned
   public int getContainedParticipantCount (@Nonnull final EQueryMode eQueryMode)
   {
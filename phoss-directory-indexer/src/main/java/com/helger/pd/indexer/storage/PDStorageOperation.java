@@ -0,0 +1,141 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.storage;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.pd.indexer.businesscard.PDExtendedBusinessCard;
+import com.helger.peppolid.IParticipantIdentifier;
+
+/**
+ * A single create/update or delete operation to be applied to the storage as
+ * part of a batch.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@Immutable
+public final class PDStorageOperation
+{
+  private final IParticipantIdentifier m_aParticipantID;
+  private final PDExtendedBusinessCard m_aExtBI;
+  private final PDStoredMetaData m_aMetaData;
+
+  private PDStorageOperation (@Nonnull final IParticipantIdentifier aParticipantID,
+                              @Nullable final PDExtendedBusinessCard aExtBI,
+                              @Nullable final PDStoredMetaData aMetaData)
+  {
+    m_aParticipantID = aParticipantID;
+    m_aExtBI = aExtBI;
+    m_aMetaData = aMetaData;
+  }
+
+  /**
+   * @return The participant identifier this operation is about. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public IParticipantIdentifier getParticipantID ()
+  {
+    return m_aParticipantID;
+  }
+
+  /**
+   * @return The extended business card to be stored. Only <code>null</code>
+   *         for delete operations.
+   */
+  @Nullable
+  public PDExtendedBusinessCard getExtendedBusinessCard ()
+  {
+    return m_aExtBI;
+  }
+
+  /**
+   * @return <code>true</code> if this is a delete operation,
+   *         <code>false</code> if it is a create or update operation.
+   */
+  public boolean isDelete ()
+  {
+    return m_aExtBI == null;
+  }
+
+  /**
+   * @return The meta data of the operation. Never <code>null</code> for create
+   *         or update operations.
+   */
+  @Nullable
+  public PDStoredMetaData getMetaData ()
+  {
+    return m_aMetaData;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (this).append ("ParticipantID", m_aParticipantID)
+                                       .append ("ExtBI", m_aExtBI)
+                                       .append ("MetaData", m_aMetaData)
+                                       .getToString ();
+  }
+
+  /**
+   * Create a new create or update operation.
+   *
+   * @param aParticipantID
+   *        Participant identifier it is all about. May not be
+   *        <code>null</code>.
+   * @param aExtBI
+   *        The extended business card with the document type identifiers. May
+   *        not be <code>null</code>.
+   * @param aMetaData
+   *        The additional meta data to be stored. May not be
+   *        <code>null</code>.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  public static PDStorageOperation createOrUpdate (@Nonnull final IParticipantIdentifier aParticipantID,
+                                                   @Nonnull final PDExtendedBusinessCard aExtBI,
+                                                   @Nonnull final PDStoredMetaData aMetaData)
+  {
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+    ValueEnforcer.notNull (aExtBI, "ExtBI");
+    ValueEnforcer.notNull (aMetaData, "MetaData");
+    return new PDStorageOperation (aParticipantID, aExtBI, aMetaData);
+  }
+
+  /**
+   * Create a new delete operation.
+   *
+   * @param aParticipantID
+   *        Participant ID to be deleted. May not be <code>null</code>.
+   * @param aMetaData
+   *        The entry metadata. Basically only for logging purposes. May be
+   *        <code>null</code>.
+   * @return Never <code>null</code>.
+   */
+  @Nonnull
+  public static PDStorageOperation delete (@Nonnull final IParticipantIdentifier aParticipantID,
+                                           @Nullable final PDStoredMetaData aMetaData)
+  {
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+    return new PDStorageOperation (aParticipantID, null, aMetaData);
+  }
+}
@@ -93,6 +93,10 @@ public final class PDField
   public static final PDStringField <String> METADATA_REQUESTING_HOST = PDStringField.createString ("md-requestinghost",
                                                                                                     Field.Store.YES,
                                                                                                     EPDStringFieldTokenize.NO_TOKENIZE);
+  // Since 0.9.6
+  public static final PDStringField <String> METADATA_CONTENT_HASH = PDStringField.createString ("md-contenthash",
+                                                                                                 Field.Store.YES,
+                                                                                                 EPDStringFieldTokenize.NO_TOKENIZE);
 
   private PDField ()
   {}
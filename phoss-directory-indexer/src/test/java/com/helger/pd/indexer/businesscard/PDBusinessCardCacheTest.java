@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.businesscard;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.io.File;
+import java.time.LocalDate;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.string.StringHelper;
+import com.helger.pd.businesscard.generic.PDBusinessCard;
+import com.helger.pd.businesscard.generic.PDBusinessEntity;
+import com.helger.pd.businesscard.generic.PDContact;
+import com.helger.pd.businesscard.generic.PDIdentifier;
+import com.helger.pd.businesscard.generic.PDName;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.simple.doctype.SimpleDocumentTypeIdentifier;
+import com.helger.peppolid.simple.participant.SimpleParticipantIdentifier;
+
+/**
+ * Test class for class {@link PDBusinessCardCache}.
+ *
+ * @author Philip Helger
+ */
+public final class PDBusinessCardCacheTest
+{
+  @Nonnull
+  private static PDBusinessCard _createBC ()
+  {
+    final PDBusinessCard ret = new PDBusinessCard ();
+    ret.setParticipantIdentifier (new PDIdentifier ("iso6523-actorid-upis", "9915:test"));
+    final PDBusinessEntity aEntity = new PDBusinessEntity ();
+    aEntity.names ().add (new PDName ("Test Company", "en"));
+    aEntity.names ().add (new PDName ("Testfirma"));
+    aEntity.setCountryCode ("AT");
+    aEntity.setGeoInfo ("Vienna");
+    aEntity.identifiers ().add (new PDIdentifier ("VAT", "ATU12345678"));
+    aEntity.websiteURIs ().add ("https://www.example.org");
+    aEntity.contacts ().add (new PDContact ("type", "name", null, "info@example.org"));
+    // Exceeds the 64KB limit of writeUTF
+    aEntity.setAdditionalInfo (StringHelper.getRepeated ('x', 70_000));
+    aEntity.setRegistrationDate (LocalDate.of (2020, 2, 29));
+    ret.businessEntities ().add (aEntity);
+    return ret;
+  }
+
+  @Test
+  public void testContentHash ()
+  {
+    final SimpleDocumentTypeIdentifier aDT1 = new SimpleDocumentTypeIdentifier ("busdox-docid-qns", "doc1");
+    final SimpleDocumentTypeIdentifier aDT2 = new SimpleDocumentTypeIdentifier ("busdox-docid-qns", "doc2");
+    final String sHash = PDBusinessCardBinaryConverter.getContentHash (new PDExtendedBusinessCard (_createBC (),
+                                                                                                    new CommonsArrayList <> (aDT1,
+                                                                                                                             aDT2)));
+    assertNotNull (sHash);
+
+    // Order of document types does not matter
+    assertEquals (sHash,
+                  PDBusinessCardBinaryConverter.getContentHash (new PDExtendedBusinessCard (_createBC (),
+                                                                                            new CommonsArrayList <> (aDT2, aDT1))));
+
+    // Changed content
+    final PDBusinessCard aBC = _createBC ();
+    aBC.businessEntities ().getFirst ().setCountryCode ("DE");
+    assertNotEquals (sHash,
+                     PDBusinessCardBinaryConverter.getContentHash (new PDExtendedBusinessCard (aBC,
+                                                                                               new CommonsArrayList <> (aDT1, aDT2))));
+    assertNotEquals (sHash,
+                     PDBusinessCardBinaryConverter.getContentHash (new PDExtendedBusinessCard (_createBC (),
+                                                                                               new CommonsArrayList <> (aDT1))));
+  }
+
+  @Test
+  public void testCache ()
+  {
+    final File aDir = new File ("target/test-bc-cache");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+
+    final IParticipantIdentifier aPI = new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9915:test");
+    final PDBusinessCardCache aCache = new PDBusinessCardCache (aDir);
+    assertNull (aCache.getEntry (aPI));
+
+    aCache.onFetched (aPI, "\"etag\"", null, _createBC ());
+    PDBusinessCardCacheEntry aEntry = aCache.getEntry (aPI);
+    assertNotNull (aEntry);
+    assertEquals ("\"etag\"", aEntry.getETag ());
+    assertNull (aEntry.getLastModified ());
+    assertEquals (_createBC (), aEntry.getBusinessCard ());
+
+    // Replaced on refetch
+    aCache.onFetched (aPI, null, "Wed, 21 Oct 2015 07:28:00 GMT", _createBC ());
+    aEntry = new PDBusinessCardCache (aDir).getEntry (aPI);
+    assertNotNull (aEntry);
+    assertNull (aEntry.getETag ());
+    assertEquals ("Wed, 21 Oct 2015 07:28:00 GMT", aEntry.getLastModified ());
+    assertEquals (_createBC (), aEntry.getBusinessCard ());
+
+    aCache.remove (aPI);
+    assertNull (aCache.getEntry (aPI));
+  }
+}
@@ -17,10 +17,16 @@
 package com.helger.pd.indexer.businesscard;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 
+import java.net.ConnectException;
+import java.net.SocketTimeoutException;
+import java.net.UnknownHostException;
 import java.util.function.Supplier;
 
+import org.apache.http.client.HttpResponseException;
 import org.junit.Ignore;
 import org.junit.Rule;
 import org.junit.Test;
@@ -30,12 +36,14 @@ import org.slf4j.LoggerFactory;
 
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.http.CHttp;
 import com.helger.commons.url.URLHelper;
 import com.helger.httpclient.HttpClientSettings;
 import com.helger.pd.indexer.settings.PDServerConfiguration;
 import com.helger.peppol.sml.ESML;
 import com.helger.peppolid.factory.PeppolIdentifierFactory;
 import com.helger.photon.app.mock.PhotonAppWebTestRule;
+import com.helger.smpclient.exception.SMPClientException;
 import com.helger.smpclient.peppol.SMPClientReadOnly;
 
 /**
@@ -63,6 +71,24 @@ public final class SMPBusinessCardProviderTest
     LOGGER.info (aExtBI.toString ());
   }
 
+  @Test
+  public void testIsSMPHostFailure ()
+  {
+    assertFalse (SMPBusinessCardProvider.isSMPHostFailure (null));
+    assertTrue (SMPBusinessCardProvider.isSMPHostFailure (new ConnectException ("Connection refused")));
+    assertTrue (SMPBusinessCardProvider.isSMPHostFailure (new SocketTimeoutException ("Read timed out")));
+    assertTrue (SMPBusinessCardProvider.isSMPHostFailure (new HttpResponseException (CHttp.HTTP_SERVICE_UNAVAILABLE, "Unavailable")));
+    assertTrue (SMPBusinessCardProvider.isSMPHostFailure (new SMPClientException ("Unknown error", new ConnectException ("Refused"))));
+
+    // Not a problem of the SMP host
+    assertFalse (SMPBusinessCardProvider.isSMPHostFailure (new HttpResponseException (CHttp.HTTP_NOT_FOUND, "Not found")));
+    assertFalse (SMPBusinessCardProvider.isSMPHostFailure (new UnknownHostException ("b-123.example.org")));
+    assertFalse (SMPBusinessCardProvider.isSMPHostFailure (new SMPClientException ("Bad request",
+                                                                                   new HttpResponseException (CHttp.HTTP_BAD_REQUEST,
+                                                                                                              "Bad request"))));
+    assertFalse (SMPBusinessCardProvider.isSMPHostFailure (new IllegalStateException ("Parsing error")));
+  }
+
   @Test
   @Ignore ("Dont hammer server :)")
   public void testFetchRemote ()
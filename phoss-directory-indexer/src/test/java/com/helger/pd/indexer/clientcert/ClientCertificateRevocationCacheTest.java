@@ -0,0 +1,124 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.clientcert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+
+/**
+ * Test class for class {@link ClientCertificateRevocationCache}.
+ *
+ * @author Philip Helger
+ */
+public final class ClientCertificateRevocationCacheTest
+{
+  @Nonnull
+  private static X509Certificate _readCert (@Nonnull final String sFilename) throws Exception
+  {
+    try (final InputStream aIS = new FileInputStream ("src/test/resources/crl/" + sFilename))
+    {
+      return (X509Certificate) CertificateFactory.getInstance ("X.509").generateCertificate (aIS);
+    }
+  }
+
+  @Test
+  public void testLocalFile () throws Exception
+  {
+    final X509Certificate aCACert = _readCert ("test-ca.crt");
+    final X509Certificate aRevoked = _readCert ("test-client-revoked.crt");
+    final X509Certificate aValid = _readCert ("test-client-valid.crt");
+
+    try (final ClientCertificateRevocationCache aCache = new ClientCertificateRevocationCache (new CommonsArrayList <> (aCACert),
+                                                                                             new CommonsArrayList <> ("src/test/resources/crl/test-ca.crl",
+                                                                                                                      "src/test/resources/crl/does-not-exist.crl"),
+                                                                                             60_000))
+    {
+      assertTrue (aCache.hasCRL (aCACert.getSubjectX500Principal ()));
+      assertTrue (aCache.isRevoked (aRevoked));
+      assertFalse (aCache.isRevoked (aValid));
+      // Issuer is not known
+      assertFalse (aCache.isRevoked (aCACert));
+
+      // Refreshing keeps the state
+      aCache.refresh ();
+      assertTrue (aCache.isRevoked (aRevoked));
+    }
+  }
+
+  @Test
+  public void testUnknownIssuer () throws Exception
+  {
+    final X509Certificate aRevoked = _readCert ("test-client-revoked.crt");
+
+    // The CRL is not signed by an accepted issuer and is therefore ignored
+    try (final ClientCertificateRevocationCache aCache = new ClientCertificateRevocationCache (new CommonsArrayList <> (),
+                                                                                             new CommonsArrayList <> ("src/test/resources/crl/test-ca.crl"),
+                                                                                             60_000))
+    {
+      assertFalse (aCache.hasCRL (aRevoked.getIssuerX500Principal ()));
+      assertFalse (aCache.isRevoked (aRevoked));
+    }
+  }
+
+  @Test
+  public void testCRLDistributionPoints () throws Exception
+  {
+    // LDAP is ignored
+    assertEquals (new CommonsArrayList <> ("http://crl.example.org/test-ca.crl", "https://crl2.example.org/test-ca.crl"),
+                  ClientCertificateRevocationCache.getAllCRLDistributionPoints (_readCert ("test-ca-crldp.crt")));
+    assertTrue (ClientCertificateRevocationCache.getAllCRLDistributionPoints (_readCert ("test-ca.crt")).isEmpty ());
+  }
+
+  @Test
+  public void testDiscoverSources () throws Exception
+  {
+    final X509Certificate aCACert = _readCert ("test-ca.crt");
+    try (final ClientCertificateRevocationCache aCache = new ClientCertificateRevocationCache (new CommonsArrayList <> (aCACert),
+                                                                                             new CommonsArrayList <> (),
+                                                                                             true,
+                                                                                             60_000))
+    {
+      assertTrue (aCache.getAllSources ().isEmpty ());
+      aCache.discoverSources (_readCert ("test-ca-crldp.crt"));
+      assertEquals (2, aCache.getAllSources ().size ());
+      // No duplicates
+      aCache.discoverSources (_readCert ("test-ca-crldp.crt"));
+      assertEquals (2, aCache.getAllSources ().size ());
+    }
+
+    // Disabled
+    try (final ClientCertificateRevocationCache aCache = new ClientCertificateRevocationCache (new CommonsArrayList <> (aCACert),
+                                                                                             new CommonsArrayList <> ("src/test/resources/crl/test-ca.crl"),
+                                                                                             60_000))
+    {
+      aCache.discoverSources (_readCert ("test-ca-crldp.crt"));
+      assertEquals (1, aCache.getAllSources ().size ());
+    }
+  }
+}
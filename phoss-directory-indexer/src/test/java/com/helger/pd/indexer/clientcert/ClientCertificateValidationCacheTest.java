@@ -0,0 +1,82 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.clientcert;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.security.KeyStore;
+import java.security.cert.X509Certificate;
+
+import org.junit.Test;
+
+import com.helger.security.keystore.EKeyStoreType;
+import com.helger.security.keystore.KeyStoreHelper;
+
+/**
+ * Test class for class {@link ClientCertificateValidationCache}.
+ *
+ * @author Philip Helger
+ */
+public final class ClientCertificateValidationCacheTest
+{
+  @Test
+  public void testBasic () throws Exception
+  {
+    final KeyStore aKS = KeyStoreHelper.loadKeyStoreDirect (EKeyStoreType.JKS, "test-https-keystore.jks", "password");
+    final X509Certificate aCert = (X509Certificate) aKS.getCertificate ("selfsigned");
+    assertNotNull (aCert);
+
+    final String sFingerprint = ClientCertificateValidationCache.getFingerprint (aCert);
+    assertNotNull (sFingerprint);
+    assertEquals (64, sFingerprint.length ());
+
+    final ClientCertificateValidationCache aCache = new ClientCertificateValidationCache (1000);
+    assertTrue (aCache.isEnabled ());
+    final long nNow = aCert.getNotBefore ().getTime ();
+    assertNull (aCache.get (sFingerprint, nNow));
+
+    final ClientCertificateValidationResult aResult = ClientCertificateValidationResult.createSuccess ("client");
+    aCache.put (sFingerprint, aCert, aResult, nNow);
+    assertSame (aResult, aCache.get (sFingerprint, nNow + 999));
+    // TTL exceeded
+    assertNull (aCache.get (sFingerprint, nNow + 1000));
+    assertEquals (0, aCache.size ());
+
+    // Success is never cached beyond the certificate expiration
+    final long nNotAfter = aCert.getNotAfter ().getTime ();
+    aCache.put (sFingerprint, aCert, aResult, nNotAfter - 10);
+    assertSame (aResult, aCache.get (sFingerprint, nNotAfter - 1));
+    assertNull (aCache.get (sFingerprint, nNotAfter));
+
+    // Failure only depends on the TTL
+    aCache.put (sFingerprint, aCert, ClientCertificateValidationResult.createFailure (), nNotAfter);
+    assertFalse (aCache.get (sFingerprint, nNotAfter + 999).isSuccess ());
+    aCache.clear ();
+    assertNull (aCache.get (sFingerprint, nNotAfter));
+
+    // Disabled
+    final ClientCertificateValidationCache aDisabled = new ClientCertificateValidationCache (0);
+    assertFalse (aDisabled.isEnabled ());
+    aDisabled.put (sFingerprint, aCert, aResult, nNow);
+    assertNull (aDisabled.get (sFingerprint, nNow));
+  }
+}
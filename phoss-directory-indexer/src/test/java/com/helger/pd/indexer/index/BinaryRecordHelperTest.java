@@ -0,0 +1,94 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.index;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.io.file.FileOperationManager;
+
+/**
+ * Test class for class {@link BinaryRecordHelper}.
+ *
+ * @author Philip Helger
+ */
+public final class BinaryRecordHelperTest
+{
+  private static void _writeGarbageHeader (@Nonnull final File aFile, final int nLength) throws IOException
+  {
+    try (final FileChannel aChannel = FileChannel.open (aFile.toPath (), StandardOpenOption.WRITE, StandardOpenOption.APPEND))
+    {
+      final ByteBuffer aBB = ByteBuffer.allocate (BinaryRecordHelper.RECORD_HEADER_BYTES + 4);
+      aBB.putInt (nLength);
+      aBB.putInt (4711);
+      aBB.putInt (0);
+      aBB.flip ();
+      aChannel.write (aBB);
+    }
+  }
+
+  private static int _readAll (@Nonnull final File aFile, @Nonnull final ICommonsList <byte []> aTarget) throws IOException
+  {
+    aTarget.clear ();
+    return BinaryRecordHelper.readAllRecords (aFile, aTarget::add);
+  }
+
+  @Test
+  public void testInvalidLength () throws IOException
+  {
+    final File aFile = new File ("target/test-binary-records.bin");
+    FileOperationManager.INSTANCE.deleteFileIfExisting (aFile);
+
+    try (final FileChannel aChannel = FileChannel.open (aFile.toPath (), StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+    {
+      BinaryRecordHelper.writeRecord (aChannel, "abc".getBytes (StandardCharsets.UTF_8));
+      BinaryRecordHelper.writeRecord (aChannel, "defg".getBytes (StandardCharsets.UTF_8));
+    }
+
+    final ICommonsList <byte []> aRead = new CommonsArrayList <> ();
+    assertEquals (2, _readAll (aFile, aRead));
+    assertArrayEquals ("defg".getBytes (StandardCharsets.UTF_8), aRead.getLast ());
+
+    // Length larger than the rest of the file
+    _writeGarbageHeader (aFile, Integer.MAX_VALUE);
+    assertEquals (2, _readAll (aFile, aRead));
+
+    // Negative length
+    FileOperationManager.INSTANCE.deleteFileIfExisting (aFile);
+    try (final FileChannel aChannel = FileChannel.open (aFile.toPath (), StandardOpenOption.CREATE, StandardOpenOption.WRITE))
+    {
+      BinaryRecordHelper.writeRecord (aChannel, "abc".getBytes (StandardCharsets.UTF_8));
+    }
+    _writeGarbageHeader (aFile, -5);
+    assertEquals (1, _readAll (aFile, aRead));
+
+    FileOperationManager.INSTANCE.deleteFileIfExisting (aFile);
+  }
+}
@@ -0,0 +1,44 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.index;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link EIndexerWorkItemType}.
+ *
+ * @author Philip Helger
+ */
+public final class EIndexerWorkItemTypeTest
+{
+  @Test
+  public void testIsSupersededBy ()
+  {
+    for (final EIndexerWorkItemType e : EIndexerWorkItemType.values ())
+    {
+      assertFalse (e.isSupersededBy (e));
+      assertFalse (e.isSupersededBy (EIndexerWorkItemType.SYNC));
+    }
+    assertTrue (EIndexerWorkItemType.CREATE_UPDATE.isSupersededBy (EIndexerWorkItemType.DELETE));
+    assertTrue (EIndexerWorkItemType.DELETE.isSupersededBy (EIndexerWorkItemType.CREATE_UPDATE));
+    assertTrue (EIndexerWorkItemType.SYNC.isSupersededBy (EIndexerWorkItemType.CREATE_UPDATE));
+    assertTrue (EIndexerWorkItemType.SYNC.isSupersededBy (EIndexerWorkItemType.DELETE));
+  }
+}
@@ -0,0 +1,98 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.peppolid.simple.participant.SimpleParticipantIdentifier;
+
+/**
+ * Test class for class {@link IndexerWorkItemJournal}.
+ *
+ * @author Philip Helger
+ */
+public final class IndexerWorkItemJournalTest
+{
+  @Nonnull
+  private static IndexerWorkItem _createItem (final int n)
+  {
+    return new IndexerWorkItem ("id" + n,
+                                PDTFactory.getCurrentLocalDateTime (),
+                                new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9915:test" + n),
+                                EIndexerWorkItemType.CREATE_UPDATE,
+                                "owner",
+                                "localhost");
+  }
+
+  @Test
+  public void testReplay () throws IOException
+  {
+    final File aDir = new File ("target/test-journal");
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+
+    // Use a tiny segment size to force rotations
+    try (final IndexerWorkItemJournal aJournal = new IndexerWorkItemJournal (aDir, 1024, 10))
+    {
+      assertTrue (aJournal.getAllReplayedItems ().isEmpty ());
+      for (int i = 0; i < 100; ++i)
+        aJournal.onEnqueue (_createItem (i));
+      for (int i = 0; i < 100; i += 2)
+        aJournal.onAck (_createItem (i));
+      assertEquals (50, aJournal.getPendingItemCount ());
+    }
+
+    // Reopen
+    try (final IndexerWorkItemJournal aJournal = new IndexerWorkItemJournal (aDir, 1024, 10))
+    {
+      final ICommonsList <IIndexerWorkItem> aItems = aJournal.getAllReplayedItems ();
+      assertEquals (50, aItems.size ());
+      assertEquals ("id1", aItems.getFirst ().getID ());
+      assertEquals ("9915:test1", aItems.getFirst ().getParticipantID ().getValue ());
+      assertEquals ("id99", aItems.getLast ().getID ());
+
+      aJournal.onEnqueue (_createItem (200));
+    }
+
+    // Simulate a crash while writing the last record
+    final File [] aFiles = aDir.listFiles ();
+    assertEquals (1, aFiles.length);
+    try (final RandomAccessFile aRAF = new RandomAccessFile (aFiles[0], "rw"))
+    {
+      aRAF.setLength (aRAF.length () - 3);
+    }
+
+    try (final IndexerWorkItemJournal aJournal = new IndexerWorkItemJournal (aDir, 1024, 10))
+    {
+      // The last item is lost, but all others are replayed
+      assertEquals (50, aJournal.getAllReplayedItems ().size ());
+    }
+
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (aDir);
+  }
+}
@@ -0,0 +1,106 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.index;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.pd.indexer.mgr.PDIndexerManager;
+import com.helger.peppolid.simple.participant.SimpleParticipantIdentifier;
+
+/**
+ * Test class for class {@link IndexerWorkItemScheduler}.
+ *
+ * @author Philip Helger
+ */
+public final class IndexerWorkItemSchedulerTest
+{
+  @Nonnull
+  private static IndexerWorkItem _createItem (@Nonnull final String sID,
+                                              @Nonnull final EIndexerWorkItemType eType,
+                                              @Nonnull final String sOwnerID,
+                                              @Nonnull final String sHost)
+  {
+    return new IndexerWorkItem (sID,
+                                PDTFactory.getCurrentLocalDateTime (),
+                                new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9915:" + sID),
+                                eType,
+                                sOwnerID,
+                                sHost);
+  }
+
+  @Test
+  public void testLanes ()
+  {
+    assertEquals (EIndexerWorkItemLane.BACKGROUND,
+                  EIndexerWorkItemLane.getLaneOfWorkItem (_createItem ("a", EIndexerWorkItemType.SYNC, "sync-job", PDIndexerManager.HOST_LOCALHOST)));
+    assertEquals (EIndexerWorkItemLane.ADMIN,
+                  EIndexerWorkItemLane.getLaneOfWorkItem (_createItem ("a",
+                                                                       EIndexerWorkItemType.CREATE_UPDATE,
+                                                                       "manually-triggered",
+                                                                       PDIndexerManager.HOST_LOCALHOST)));
+    assertEquals (EIndexerWorkItemLane.INTERACTIVE,
+                  EIndexerWorkItemLane.getLaneOfWorkItem (_createItem ("a", EIndexerWorkItemType.DELETE, "CN=SMP1", "1.2.3.4")));
+  }
+
+  @Test
+  public void testWeightedLanes ()
+  {
+    final IndexerWorkItemScheduler aScheduler = new IndexerWorkItemScheduler ();
+    for (int i = 0; i < 100; ++i)
+      aScheduler.put (_createItem ("bg" + i, EIndexerWorkItemType.SYNC, "sync-job", PDIndexerManager.HOST_LOCALHOST));
+    for (int i = 0; i < 10; ++i)
+      aScheduler.put (_createItem ("api" + i, EIndexerWorkItemType.CREATE_UPDATE, "CN=SMP1", "1.2.3.4"));
+    assertEquals (110, aScheduler.getSize ());
+    assertEquals (100, aScheduler.getSize (EIndexerWorkItemLane.BACKGROUND));
+
+    // All interactive items come within the first 11 items
+    int nInteractive = 0;
+    for (int i = 0; i < 11; ++i)
+      if (aScheduler.poll ().getID ().startsWith ("api"))
+        nInteractive++;
+    assertEquals (10, nInteractive);
+    assertEquals (EIndexerWorkItemLane.BACKGROUND, EIndexerWorkItemLane.getLaneOfWorkItem (aScheduler.poll ()));
+    assertEquals (98, aScheduler.getSize ());
+  }
+
+  @Test
+  public void testFairOwners ()
+  {
+    final IndexerWorkItemScheduler aScheduler = new IndexerWorkItemScheduler ();
+    for (int i = 0; i < 100; ++i)
+      aScheduler.put (_createItem ("a" + i, EIndexerWorkItemType.CREATE_UPDATE, "CN=SMP1", "1.2.3.4"));
+    aScheduler.put (_createItem ("b0", EIndexerWorkItemType.CREATE_UPDATE, "CN=SMP2", "1.2.3.5"));
+    assertEquals (2, aScheduler.getOwnerCount (EIndexerWorkItemLane.INTERACTIVE));
+
+    assertEquals ("a0", aScheduler.poll ().getID ());
+    // The second owner does not wait for the 99 other items of the first
+    assertEquals ("b0", aScheduler.poll ().getID ());
+    assertEquals ("a1", aScheduler.poll ().getID ());
+    assertEquals (1, aScheduler.getOwnerCount (EIndexerWorkItemLane.INTERACTIVE));
+
+    aScheduler.stop ();
+    assertNull (aScheduler.poll ());
+    assertEquals (98, aScheduler.drainAll ().size ());
+    assertEquals (0, aScheduler.getSize ());
+  }
+}
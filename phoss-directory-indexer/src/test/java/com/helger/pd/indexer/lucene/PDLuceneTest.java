@@ -180,4 +180,26 @@ public final class PDLuceneTest
     assertNotNull (aDoc);
     assertNull (aDoc.getField ("num"));
   }
+
+  @Test
+  public void testSearchNearRealTime () throws IOException
+  {
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (PDLucene.getLuceneIndexDir ());
+
+    final Query aQuery = new TermQuery (new Term ("id", "nrt"));
+    try (final PDLucene aLucene = new PDLucene ())
+    {
+      assertEquals (Integer.valueOf (0), aLucene.searchNearRealTime (x -> Integer.valueOf (x.count (aQuery))));
+
+      final Document aDoc = new Document ();
+      aDoc.add (new StringField ("id", "nrt", Field.Store.YES));
+      aLucene.writeLockedAtomic ( () -> aLucene.updateDocument (new Term ("id", "nrt"), aDoc));
+
+      // Visible without a commit
+      assertEquals (Integer.valueOf (1), aLucene.searchNearRealTime (x -> Integer.valueOf (x.count (aQuery))));
+
+      aLucene.writeLockedAtomic ( () -> aLucene.deleteDocuments (new Term ("id", "nrt")));
+      assertEquals (Integer.valueOf (0), aLucene.searchNearRealTime (x -> Integer.valueOf (x.count (aQuery))));
+    }
+  }
 }
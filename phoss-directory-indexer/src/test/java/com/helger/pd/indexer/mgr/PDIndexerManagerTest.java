@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.mgr;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.state.EChange;
+import com.helger.dao.DAOException;
+import com.helger.pd.indexer.PDIndexerTestRule;
+import com.helger.pd.indexer.index.EIndexerWorkItemType;
+import com.helger.pd.indexer.index.IndexerWorkItem;
+import com.helger.pd.indexer.lucene.PDLucene;
+import com.helger.pd.indexer.reindex.ReIndexWorkItem;
+import com.helger.pd.indexer.reindex.ReIndexWorkItemBinaryList;
+import com.helger.pd.indexer.storage.PDStorageManager;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.peppolid.simple.participant.SimpleParticipantIdentifier;
+import com.helger.photon.app.io.WebFileIO;
+
+/**
+ * Test class for class {@link PDIndexerManager}.
+ *
+ * @author Philip Helger
+ */
+public final class PDIndexerManagerTest
+{
+  @Rule
+  public final TestRule m_aRule = new PDIndexerTestRule ();
+
+  @Before
+  public void setUp ()
+  {
+    // Start without any persisted work items
+    FileOperationManager.INSTANCE.deleteDirRecursiveIfExisting (WebFileIO.getDataIO ().getFile ("indexer-journal"));
+    FileOperationManager.INSTANCE.deleteFileIfExisting (WebFileIO.getDataIO ().getFile ("reindex-work-items.bin"));
+    FileOperationManager.INSTANCE.deleteFileIfExisting (WebFileIO.getDataIO ().getFile ("dead-work-items.bin"));
+
+    // No business card is available - the items are never indexed
+    PDMetaManager.setBusinessCardProvider (aParticipantID -> null);
+  }
+
+  @Nonnull
+  private static IndexerWorkItem _createWorkItem (@Nonnull final IParticipantIdentifier aParticipantID,
+                                                  @Nonnull final EIndexerWorkItemType eType)
+  {
+    return new IndexerWorkItem (aParticipantID, eType, "junittest", PDIndexerManager.HOST_LOCALHOST);
+  }
+
+  @Test
+  public void testRestartWithReIndexList () throws DAOException, IOException
+  {
+    final IParticipantIdentifier aPI1 = new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9915:test1");
+    final IParticipantIdentifier aPI2 = new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9915:test2");
+
+    // Simulate the re-index list of a previous run
+    try (final ReIndexWorkItemBinaryList aList = new ReIndexWorkItemBinaryList (WebFileIO.getDataIO ()
+                                                                                         .getFile ("reindex-work-items.bin")))
+    {
+      aList.addItem (new ReIndexWorkItem (_createWorkItem (aPI1, EIndexerWorkItemType.CREATE_UPDATE)));
+      // Superseded by the next item
+      aList.addItem (new ReIndexWorkItem (_createWorkItem (aPI2, EIndexerWorkItemType.CREATE_UPDATE)));
+      aList.addItem (new ReIndexWorkItem (_createWorkItem (aPI2, EIndexerWorkItemType.DELETE)));
+    }
+
+    try (final PDIndexerManager aMgr = new PDIndexerManager (new PDStorageManager (new PDLucene ())))
+    {
+      assertNotNull (aMgr.getReIndexList ());
+      assertEquals (3, aMgr.getReIndexList ().getItemCount ());
+
+      // One pending item per participant
+      assertEquals (2, aMgr.getPendingItemCount ());
+
+      // Already covered by the persisted items
+      assertEquals (EChange.UNCHANGED,
+                    aMgr.queueWorkItem (aPI1, EIndexerWorkItemType.CREATE_UPDATE, "junittest", PDIndexerManager.HOST_LOCALHOST));
+      assertEquals (EChange.UNCHANGED,
+                    aMgr.queueWorkItem (aPI2, EIndexerWorkItemType.DELETE, "junittest", PDIndexerManager.HOST_LOCALHOST));
+      assertEquals (EChange.UNCHANGED, aMgr.queueWorkItem (aPI2, EIndexerWorkItemType.SYNC, "junittest", PDIndexerManager.HOST_LOCALHOST));
+      assertEquals (3, aMgr.getCoalescedItemCount ());
+      assertEquals (2, aMgr.getPendingItemCount ());
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.reindex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.time.LocalDateTime;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.pd.indexer.PDIndexerTestRule;
+import com.helger.pd.indexer.index.BinaryRecordHelper;
+import com.helger.pd.indexer.index.EIndexerWorkItemType;
+import com.helger.pd.indexer.index.IndexerWorkItem;
+import com.helger.peppolid.simple.participant.SimpleParticipantIdentifier;
+
+/**
+ * Test class for class {@link ReIndexWorkItemBinaryList}.
+ *
+ * @author Philip Helger
+ */
+public final class ReIndexWorkItemBinaryListTest
+{
+  @Rule
+  public final TestRule m_aRule = new PDIndexerTestRule ();
+
+  @Test
+  public void testBasic () throws IOException
+  {
+    final File aFile = new File ("target/test-reindex.bin");
+    final File aXMLFile = new File ("target/test-reindex.xml");
+    FileOperationManager.INSTANCE.deleteFileIfExisting (aFile);
+
+    final LocalDateTime aNow = PDTFactory.getCurrentLocalDateTime ();
+    final IndexerWorkItem aWI1 = new IndexerWorkItem (new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9915:test1"),
+                                                      EIndexerWorkItemType.CREATE_UPDATE,
+                                                      "owner",
+                                                      "localhost");
+    final IndexerWorkItem aWI2 = new IndexerWorkItem (new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9915:test2"),
+                                                      EIndexerWorkItemType.DELETE,
+                                                      "owner",
+                                                      "localhost");
+    final IndexerWorkItem aWI3 = new IndexerWorkItem (new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9915:test3"),
+                                                      EIndexerWorkItemType.SYNC,
+                                                      "owner",
+                                                      "localhost");
+
+    try (final ReIndexWorkItemBinaryList aList = new ReIndexWorkItemBinaryList (aFile))
+    {
+      assertEquals (0, aList.getItemCount ());
+      aList.addItem (new ReIndexWorkItem (aWI1, aNow.plusHours (1), 0, null, aNow.plusMinutes (2)));
+      aList.addItem (new ReIndexWorkItem (aWI2, aNow.plusHours (1), 0, null, aNow.plusMinutes (1)));
+      aList.addItem (new ReIndexWorkItem (aWI3, aNow.minusHours (1), 0, null, aNow.plusMinutes (3)));
+      assertEquals (3, aList.getItemCount ());
+
+      // Expired
+      final ICommonsList <IReIndexWorkItem> aExpired = aList.getAndRemoveAllExpiredEntries (aNow);
+      assertEquals (1, aExpired.size ());
+      assertEquals (aWI3, aExpired.getFirst ().getWorkItem ());
+      assertTrue (aList.getAndRemoveAllExpiredEntries (aNow).isEmpty ());
+      assertEquals (2, aList.getItemCount ());
+    }
+
+    // Reopen
+    try (final ReIndexWorkItemBinaryList aList = new ReIndexWorkItemBinaryList (aFile))
+    {
+      assertEquals (2, aList.getItemCount ());
+      assertNotNull (aList.getItemOfID (aWI1.getID ()));
+
+      // Export and remove all
+      assertTrue (aList.exportToXML (aXMLFile).isSuccess ());
+
+      // Sorted by next retry
+      final ICommonsList <IReIndexWorkItem> aDue = aList.getAndRemoveAllRetryPossibleEntries (aNow.plusMinutes (5));
+      assertEquals (2, aDue.size ());
+      assertEquals (aWI2, aDue.get (0).getWorkItem ());
+      assertEquals (aWI1, aDue.get (1).getWorkItem ());
+      assertEquals (0, aList.getItemCount ());
+
+      // Import again
+      assertEquals (2, aList.importFromXML (aXMLFile));
+      assertEquals (2, aList.getItemCount ());
+      assertNotNull (aList.getAndRemoveEntryOfWorkItem (aWI1));
+      assertNull (aList.getAndRemoveEntryOfWorkItem (aWI1));
+      assertEquals (1, aList.getItemCount ());
+    }
+
+    FileOperationManager.INSTANCE.deleteFileIfExisting (aFile);
+    FileOperationManager.INSTANCE.deleteFileIfExisting (aXMLFile);
+  }
+
+  @Test
+  public void testDeferred () throws IOException
+  {
+    final File aFile = new File ("target/test-reindex-deferred.bin");
+    FileOperationManager.INSTANCE.deleteFileIfExisting (aFile);
+
+    final LocalDateTime aNow = PDTFactory.getCurrentLocalDateTime ();
+    final IndexerWorkItem aWI1 = new IndexerWorkItem (new SimpleParticipantIdentifier ("iso6523-actorid-upis", "9915:test1"),
+                                                      EIndexerWorkItemType.CREATE_UPDATE,
+                                                      "owner",
+                                                      "localhost");
+    try (final ReIndexWorkItemBinaryList aList = new ReIndexWorkItemBinaryList (aFile))
+    {
+      aList.addItem (new ReIndexWorkItem (aWI1, aNow.plusHours (1), 0, null, aNow.plusMinutes (1)));
+      ICommonsList <IReIndexWorkItem> aDue = aList.getAndRemoveAllRetryPossibleEntries (aNow.plusMinutes (2));
+      assertEquals (1, aDue.size ());
+
+      // Deferred until the circuit breaker is no longer open
+      aList.addDeferredItem (aDue.getFirst (), aNow.plusMinutes (10));
+      assertEquals (1, aList.getItemCount ());
+      assertTrue (aList.getAndRemoveAllRetryPossibleEntries (aNow.plusMinutes (2)).isEmpty ());
+      assertEquals (0, aList.getItemOfID (aWI1.getID ()).getRetryCount ());
+
+      // Never earlier than before
+      aDue = aList.getAndRemoveAllRetryPossibleEntries (aNow.plusMinutes (11));
+      assertEquals (1, aDue.size ());
+      aList.addDeferredItem (aDue.getFirst (), aNow);
+      assertEquals (aNow.plusMinutes (10), aList.getItemOfID (aWI1.getID ()).getNextRetryDT ());
+    }
+
+    FileOperationManager.INSTANCE.deleteFileIfExisting (aFile);
+  }
+
+  @Test
+  public void testDamaged () throws IOException
+  {
+    final File aDir = new File ("target");
+    final File aFile = new File (aDir, "test-reindex-damaged.bin");
+    FileOperationManager.INSTANCE.deleteFileIfExisting (aFile);
+
+    final LocalDateTime aNow = PDTFactory.getCurrentLocalDateTime ();
+    try (final ReIndexWorkItemBinaryList aList = new ReIndexWorkItemBinaryList (aFile))
+    {
+      for (int i = 0; i < 3; ++i)
+        aList.addItem (new ReIndexWorkItem (new IndexerWorkItem (new SimpleParticipantIdentifier ("iso6523-actorid-upis",
+                                                                                                  "9915:test" + i),
+                                                                 EIndexerWorkItemType.CREATE_UPDATE,
+                                                                 "owner",
+                                                                 "localhost"),
+                                            aNow.plusHours (1),
+                                            0,
+                                            null,
+                                            aNow.plusMinutes (1)));
+    }
+
+    // Corrupt the payload of the first record
+    try (final RandomAccessFile aRAF = new RandomAccessFile (aFile, "rw"))
+    {
+      aRAF.seek (BinaryRecordHelper.RECORD_HEADER_BYTES + 1);
+      final int n = aRAF.read ();
+      aRAF.seek (BinaryRecordHelper.RECORD_HEADER_BYTES + 1);
+      aRAF.write (n ^ 0xff);
+    }
+    final long nDamagedLength = aFile.length ();
+
+    try (final ReIndexWorkItemBinaryList aList = new ReIndexWorkItemBinaryList (aFile))
+    {
+      // All items after the damage are lost
+      assertEquals (0, aList.getItemCount ());
+    }
+
+    // But the original file was kept aside
+    final File [] aDamagedFiles = aDir.listFiles ( (d, n) -> n.startsWith (aFile.getName () + ".damaged-"));
+    assertNotNull (aDamagedFiles);
+    assertEquals (1, aDamagedFiles.length);
+    assertEquals (nDamagedLength, aDamagedFiles[0].length ());
+    assertFalse (nDamagedLength == aFile.length ());
+
+    FileOperationManager.INSTANCE.deleteFile (aDamagedFiles[0]);
+    FileOperationManager.INSTANCE.deleteFileIfExisting (aFile);
+  }
+}
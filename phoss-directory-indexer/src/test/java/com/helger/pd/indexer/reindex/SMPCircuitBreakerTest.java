@@ -0,0 +1,115 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.indexer.reindex;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.time.LocalDateTime;
+
+import org.junit.Test;
+
+import com.helger.commons.datetime.PDTFactory;
+
+/**
+ * Test class for class {@link SMPCircuitBreaker}.
+ *
+ * @author Philip Helger
+ */
+public final class SMPCircuitBreakerTest
+{
+  @Test
+  public void testBasic ()
+  {
+    final LocalDateTime aNow = PDTFactory.getCurrentLocalDateTime ();
+    final SMPCircuitBreaker aCB = new SMPCircuitBreaker ("127.0.0.1", 3, 10, 4);
+    assertEquals (ECircuitBreakerState.CLOSED, aCB.getState ());
+    assertTrue (aCB.tryAcquire (aNow));
+
+    // Open after 3 failures
+    aCB.onFailure (aNow);
+    aCB.onFailure (aNow);
+    assertEquals (ECircuitBreakerState.CLOSED, aCB.getState ());
+    aCB.onFailure (aNow);
+    assertEquals (ECircuitBreakerState.OPEN, aCB.getState ());
+    assertEquals (3, aCB.getConsecutiveFailures ());
+    assertFalse (aCB.tryAcquire (aNow));
+    assertFalse (aCB.tryAcquire (aNow.plusMinutes (9)));
+
+    // Failed probe re-opens
+    assertTrue (aCB.tryAcquire (aNow.plusMinutes (11)));
+    assertEquals (ECircuitBreakerState.HALF_OPEN, aCB.getState ());
+    assertFalse (aCB.tryAcquire (aNow.plusMinutes (11)));
+    aCB.onFailure (aNow.plusMinutes (11));
+    assertEquals (ECircuitBreakerState.OPEN, aCB.getState ());
+    assertFalse (aCB.tryAcquire (aNow.plusMinutes (12)));
+
+    // Successful probe
+    final LocalDateTime aLater = aNow.plusMinutes (30);
+    assertTrue (aCB.tryAcquire (aLater));
+    aCB.onSuccess ();
+    assertEquals (ECircuitBreakerState.HALF_OPEN, aCB.getState ());
+    assertEquals (0, aCB.getConsecutiveFailures ());
+
+    // Next run releases 2 items
+    aCB.onStartOfReIndexRun ();
+    assertTrue (aCB.tryAcquire (aLater));
+    assertTrue (aCB.tryAcquire (aLater));
+    assertFalse (aCB.tryAcquire (aLater));
+    aCB.onSuccess ();
+    aCB.onSuccess ();
+    assertEquals (ECircuitBreakerState.HALF_OPEN, aCB.getState ());
+
+    // Next run releases 4 items - that's the maximum
+    aCB.onStartOfReIndexRun ();
+    for (int i = 0; i < 4; ++i)
+      assertTrue (aCB.tryAcquire (aLater));
+    assertFalse (aCB.tryAcquire (aLater));
+    for (int i = 0; i < 4; ++i)
+      aCB.onSuccess ();
+    assertEquals (ECircuitBreakerState.CLOSED, aCB.getState ());
+    assertTrue (aCB.tryAcquire (aLater));
+  }
+
+  @Test
+  public void testCloseWithoutBacklog ()
+  {
+    final LocalDateTime aNow = PDTFactory.getCurrentLocalDateTime ();
+    final SMPCircuitBreaker aCB = new SMPCircuitBreaker ("127.0.0.1", 1, 10, 8);
+    aCB.onFailure (aNow);
+    assertEquals (ECircuitBreakerState.OPEN, aCB.getState ());
+    assertEquals (aNow.plusMinutes (10), aCB.getOpenUntilDT ());
+
+    // Successful probe - the probe run does not close the circuit
+    final LocalDateTime aLater = aNow.plusMinutes (30);
+    aCB.onStartOfReIndexRun ();
+    assertTrue (aCB.tryAcquire (aLater));
+    aCB.onSuccess ();
+    aCB.onEndOfReIndexRun ();
+    assertEquals (ECircuitBreakerState.HALF_OPEN, aCB.getState ());
+
+    // Only one of the two permits is needed
+    aCB.onStartOfReIndexRun ();
+    assertTrue (aCB.tryAcquire (aLater));
+    aCB.onSuccess ();
+    assertEquals (ECircuitBreakerState.HALF_OPEN, aCB.getState ());
+    aCB.onEndOfReIndexRun ();
+    assertEquals (ECircuitBreakerState.CLOSED, aCB.getState ());
+    assertTrue (aCB.tryAcquire (aLater));
+  }
+}
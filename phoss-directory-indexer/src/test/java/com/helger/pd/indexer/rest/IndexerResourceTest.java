@@ -217,4 +217,51 @@ public final class IndexerResourceTest
       }
     }
   }
+
+  @Test
+  public void testBatch ()
+  {
+    final PeppolIdentifierFactory aIF = PeppolIdentifierFactory.INSTANCE;
+    final int nCount = 10;
+
+    // Create
+    final StringBuilder aSB = new StringBuilder ();
+    for (int i = 0; i < nCount; ++i)
+      aSB.append ("create ").append (aIF.createParticipantIdentifierWithDefaultScheme ("9915:batch" + i).getURIEncoded ()).append ('\n');
+    aSB.append ('\n');
+    aSB.append ("foo ").append (aIF.createParticipantIdentifierWithDefaultScheme ("9915:batch0").getURIEncoded ()).append ('\n');
+    aSB.append ("create iso6523-actorid-upis%3a%3a9915%3atest0%%%abc\n");
+
+    String sResponseMsg = m_aTarget.path ("1.0").path ("batch").request ().post (Entity.text (aSB.toString ()), String.class);
+    String [] aResults = sResponseMsg.split ("\n");
+    assertEquals (nCount + 2, aResults.length);
+    for (int i = 0; i < nCount; ++i)
+      assertEquals (IndexerResource.BATCH_RESULT_QUEUED, aResults[i]);
+    assertEquals (IndexerResource.BATCH_RESULT_INVALID, aResults[nCount]);
+    assertEquals (IndexerResource.BATCH_RESULT_INVALID, aResults[nCount + 1]);
+
+    LOGGER.info ("waiting");
+    ThreadHelper.sleep (2000);
+    for (int i = 0; i < nCount; ++i)
+    {
+      final IParticipantIdentifier aPI = aIF.createParticipantIdentifierWithDefaultScheme ("9915:batch" + i);
+      assertTrue (PDMetaManager.getStorageMgr ().containsEntry (aPI, EQueryMode.NON_DELETED_ONLY));
+    }
+
+    // Delete
+    aSB.setLength (0);
+    for (int i = 0; i < nCount; ++i)
+      aSB.append ("delete ").append (aIF.createParticipantIdentifierWithDefaultScheme ("9915:batch" + i).getURIPercentEncoded ()).append ('\n');
+    sResponseMsg = m_aTarget.path ("1.0").path ("batch").request ().post (Entity.text (aSB.toString ()), String.class);
+    aResults = sResponseMsg.split ("\n");
+    assertEquals (nCount, aResults.length);
+
+    LOGGER.info ("waiting");
+    ThreadHelper.sleep (2000);
+    for (int i = 0; i < nCount; ++i)
+    {
+      final IParticipantIdentifier aPI = aIF.createParticipantIdentifierWithDefaultScheme ("9915:batch" + i);
+      assertFalse (PDMetaManager.getStorageMgr ().containsEntry (aPI, EQueryMode.NON_DELETED_ONLY));
+    }
+  }
 }
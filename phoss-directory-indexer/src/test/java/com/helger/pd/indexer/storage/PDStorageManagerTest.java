@@ -20,6 +20,7 @@ import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNotNull;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.time.Month;
@@ -206,4 +207,78 @@ public final class PDStorageManagerTest
       }
     }
   }
+
+  @Test
+  public void testApplyBatch () throws IOException
+  {
+    final IParticipantIdentifier aParticipantID1 = PDMetaManager.getIdentifierFactory ()
+                                                                .createParticipantIdentifier ("myscheme-actorid-upis", "0088:test1");
+    final IParticipantIdentifier aParticipantID2 = PDMetaManager.getIdentifierFactory ()
+                                                                .createParticipantIdentifier ("myscheme-actorid-upis", "0088:test2");
+
+    try (PDStorageManager aMgr = new PDStorageManager (new PDLucene ()))
+    {
+      final PDStoredMetaData aMetaData = _createMockMetaData ();
+      assertTrue (aMgr.applyBatch (new CommonsArrayList <> (PDStorageOperation.createOrUpdate (aParticipantID1,
+                                                                                              _createMockBI (aParticipantID1),
+                                                                                              aMetaData),
+                                                           PDStorageOperation.createOrUpdate (aParticipantID2,
+                                                                                              _createMockBI (aParticipantID2),
+                                                                                              aMetaData)))
+                      .isSuccess ());
+      try
+      {
+        assertEquals (2, aMgr.getAllDocumentsOfParticipant (aParticipantID1).size ());
+        assertEquals (2, aMgr.getAllDocumentsOfParticipant (aParticipantID2).size ());
+
+        // Delete one, update the other one in the same batch
+        assertTrue (aMgr.applyBatch (new CommonsArrayList <> (PDStorageOperation.delete (aParticipantID1, aMetaData),
+                                                             PDStorageOperation.createOrUpdate (aParticipantID2,
+                                                                                                _createMockBI (aParticipantID2),
+                                                                                                aMetaData)))
+                        .isSuccess ());
+        assertEquals (0, aMgr.getAllDocumentsOfParticipant (aParticipantID1).size ());
+        assertEquals (2, aMgr.getAllDocumentsOfParticipant (aParticipantID2).size ());
+      }
+      finally
+      {
+        // Finally delete the entries again
+        aMgr.applyBatch (new CommonsArrayList <> (PDStorageOperation.delete (aParticipantID1, aMetaData),
+                                                 PDStorageOperation.delete (aParticipantID2, aMetaData)));
+      }
+    }
+  }
+
+  @Test
+  public void testUnchangedEntry () throws IOException
+  {
+    final IParticipantIdentifier aParticipantID = PDMetaManager.getIdentifierFactory ()
+                                                               .createParticipantIdentifier ("myscheme-actorid-upis", "0088:test3");
+
+    try (PDStorageManager aMgr = new PDStorageManager (new PDLucene ()))
+    {
+      final PDStoredMetaData aMetaData = _createMockMetaData ();
+      assertTrue (aMgr.createOrUpdateEntry (aParticipantID, _createMockBI (aParticipantID), aMetaData).isSuccess ());
+      try
+      {
+        final long nUnchanged = aMgr.getUnchangedCount ();
+
+        // Same content again
+        assertTrue (aMgr.createOrUpdateEntry (aParticipantID, _createMockBI (aParticipantID), aMetaData).isSuccess ());
+        assertEquals (nUnchanged + 1, aMgr.getUnchangedCount ());
+        assertEquals (2, aMgr.getAllDocumentsOfParticipant (aParticipantID).size ());
+
+        // Changed content
+        final PDExtendedBusinessCard aExtBI = _createMockBI (aParticipantID);
+        aExtBI.getBusinessCard ().businessEntities ().remove (1);
+        assertTrue (aMgr.createOrUpdateEntry (aParticipantID, aExtBI, aMetaData).isSuccess ());
+        assertEquals (nUnchanged + 1, aMgr.getUnchangedCount ());
+        assertEquals (1, aMgr.getAllDocumentsOfParticipant (aParticipantID).size ());
+      }
+      finally
+      {
+        aMgr.deleteEntry (aParticipantID, aMetaData);
+      }
+    }
+  }
 }
@@ -38,6 +38,8 @@ public final class CPDPublisher
   public static final boolean EXPORT_PARTICIPANTS_XML = true;
   public static final boolean EXPORT_PARTICIPANTS_JSON = true;
   public static final boolean EXPORT_PARTICIPANTS_CSV = true;
+  public static final boolean EXPORT_BUSINESS_CARDS_DELTA = true;
+  public static final boolean EXPORT_BUSINESS_CARDS_BINARY = true;
 
   // APP Name - like "Peppol Directory"
   private static final String APPLICATION_TITLE = PDServerConfiguration.getAppName ();
@@ -277,6 +277,13 @@ public class PublicHTMLProvider extends AbstractSWECHTMLProvider
                                                             ExportServlet.SERVLET_DEFAULT_PATH +
                                                                            ExportDeliveryHttpHandler.SPECIAL_BUSINESS_CARDS_CSV)).addChild ("BusinessCards CSV"));
       }
+      if (CPDPublisher.EXPORT_BUSINESS_CARDS_BINARY)
+      {
+        aP.addChild (" | ")
+          .addChild (new HCA (LinkHelper.getURLWithContext (aRequestScope,
+                                                            ExportServlet.SERVLET_DEFAULT_PATH +
+                                                                           ExportDeliveryHttpHandler.SPECIAL_BUSINESS_CARDS_BINARY)).addChild ("BusinessCards binary"));
+      }
       if (CPDPublisher.EXPORT_PARTICIPANTS_XML)
       {
         aP.addChild (" | ")
@@ -298,6 +305,13 @@ public class PublicHTMLProvider extends AbstractSWECHTMLProvider
                                                             ExportServlet.SERVLET_DEFAULT_PATH +
                                                                            ExportDeliveryHttpHandler.SPECIAL_PARTICIPANTS_CSV)).addChild ("Participant IDs CSV"));
       }
+      if (CPDPublisher.EXPORT_BUSINESS_CARDS_DELTA)
+      {
+        aP.addChild (" | ")
+          .addChild (new HCA (LinkHelper.getURLWithContext (aRequestScope,
+                                                            ExportServlet.SERVLET_DEFAULT_PATH +
+                                                                           ExportDeliveryHttpHandler.SPECIAL_BUSINESS_CARDS_DELTA_MANIFEST)).addChild ("BusinessCards delta manifest"));
+      }
       aP.addChild ("]");
       aDiv.addChild (aP);
 
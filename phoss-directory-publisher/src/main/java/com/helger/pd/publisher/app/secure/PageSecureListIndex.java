@@ -17,16 +17,17 @@
 package com.helger.pd.publisher.app.secure;
 
 import java.util.Locale;
-import java.util.concurrent.LinkedBlockingQueue;
 
 import javax.annotation.Nonnull;
 
 import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.compare.ESortOrder;
 import com.helger.commons.datetime.PDTFactory;
 import com.helger.commons.datetime.PDTToString;
 import com.helger.html.hc.html.tabular.HCRow;
 import com.helger.html.hc.impl.HCNodeList;
+import com.helger.pd.indexer.index.EIndexerWorkItemLane;
 import com.helger.pd.indexer.index.IIndexerWorkItem;
 import com.helger.pd.indexer.mgr.PDMetaManager;
 import com.helger.pd.publisher.ui.AbstractAppWebPage;
@@ -62,7 +63,7 @@ public final class PageSecureListIndex extends AbstractAppWebPage
                                                                                                            .addClass (PDCommonUI.CSS_CLASS_VERTICAL_PADDED_TEXT));
     }
 
-    final LinkedBlockingQueue <Object> aQueue = PDMetaManager.getIndexerMgr ().getIndexerWorkQueue ().getQueue ();
+    final ICommonsList <IIndexerWorkItem> aQueue = PDMetaManager.getIndexerMgr ().getIndexerWorkQueue ().getAllQueuedWorkItems ();
     final int nLength = aQueue.size ();
     if (nLength == 0)
     {
@@ -76,19 +77,19 @@ public final class PageSecureListIndex extends AbstractAppWebPage
                                                                                      .setInitialSorting (ESortOrder.DESCENDING),
                                                         new DTCol ("Participant ID"),
                                                         new DTCol ("Action"),
+                                                        new DTCol ("Lane"),
                                                         new DTCol ("Owner"),
                                                         new DTCol ("Requestor")).setID ("indexqueue");
-      for (final Object o : aQueue)
-        if (o instanceof IIndexerWorkItem)
-        {
-          final IIndexerWorkItem aObj = (IIndexerWorkItem) o;
-          final HCRow aRow = aTable.addBodyRow ();
-          aRow.addCell (PDTToString.getAsString (aObj.getCreationDateTime (), aDisplayLocale));
-          aRow.addCell (aObj.getParticipantID ().getURIEncoded ());
-          aRow.addCell (aObj.getType ().getDisplayName ());
-          aRow.addCell (aObj.getOwnerID ());
-          aRow.addCell (aObj.getRequestingHost ());
-        }
+      for (final IIndexerWorkItem aObj : aQueue)
+      {
+        final HCRow aRow = aTable.addBodyRow ();
+        aRow.addCell (PDTToString.getAsString (aObj.getCreationDateTime (), aDisplayLocale));
+        aRow.addCell (aObj.getParticipantID ().getURIEncoded ());
+        aRow.addCell (aObj.getType ().getDisplayName ());
+        aRow.addCell (EIndexerWorkItemLane.getLaneOfWorkItem (aObj).getDisplayName ());
+        aRow.addCell (aObj.getOwnerID ());
+        aRow.addCell (aObj.getRequestingHost ());
+      }
       aNodeList.addChild (aTable).addChild (BootstrapDataTables.createDefaultDataTables (aWPEC, aTable));
     }
   }
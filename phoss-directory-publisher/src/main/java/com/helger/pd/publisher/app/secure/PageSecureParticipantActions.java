@@ -21,7 +21,6 @@ import java.nio.charset.StandardCharsets;
 import java.time.LocalDateTime;
 import java.util.Locale;
 import java.util.Map;
-import java.util.Set;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
@@ -40,7 +39,6 @@ import com.helger.commons.collection.impl.ICommonsSortedSet;
 import com.helger.commons.compare.IComparator;
 import com.helger.commons.csv.CSVWriter;
 import com.helger.commons.datetime.PDTToString;
-import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
 import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.mime.CMimeType;
 import com.helger.html.hc.html.grouping.HCDiv;
@@ -76,9 +74,6 @@ import com.helger.photon.uicore.page.WebPageExecutionContext;
 import com.helger.poi.excel.EExcelVersion;
 import com.helger.poi.excel.WorkbookCreationHelper;
 import com.helger.web.scope.IRequestWebScopeWithoutResponse;
-import com.helger.xml.microdom.IMicroDocument;
-import com.helger.xml.microdom.IMicroElement;
-import com.helger.xml.microdom.MicroDocument;
 
 public final class PageSecureParticipantActions extends AbstractAppWebPage
 {
@@ -97,48 +92,47 @@ public final class PageSecureParticipantActions extends AbstractAppWebPage
 
   static
   {
+    // All live downloads are streamed to the response while the index is
+    // read, so that the memory consumption does not depend on the number of
+    // participants
     s_aDownloadAllIDsXML = addAjax ( (req, res) -> {
-      final IMicroDocument aDoc = new MicroDocument ();
-      final IMicroElement aRoot = aDoc.appendElement ("root");
-      final Set <IParticipantIdentifier> aAllIDs = PDMetaManager.getStorageMgr ()
-                                                                .getAllContainedParticipantIDs (EQueryMode.NON_DELETED_ONLY)
-                                                                .keySet ();
-      for (final IParticipantIdentifier aParticipantID : aAllIDs)
-      {
-        // Use the same layout as for the "full export", so that it can be used
-        // by the import
-        aRoot.appendElement ("participant")
-             .setAttribute ("scheme", aParticipantID.getScheme ())
-             .setAttribute ("value", aParticipantID.getValue ());
-      }
-      res.xml (aDoc);
+      ExportAllManager.streamLiveExportTo (aOS -> ExportAllManager.writeAllContainedParticipantIDsAsXML (EQueryMode.NON_DELETED_ONLY,
+                                                                                                          aOS),
+                                           res);
+      res.setMimeType (CMimeType.APPLICATION_XML);
       res.attachment ("directory-participant-list.xml");
     });
     s_aDownloadAllBCsXMLFull = addAjax ( (req, res) -> {
-      final IMicroDocument aDoc = ExportAllManager.queryAllContainedBusinessCardsAsXML (EQueryMode.NON_DELETED_ONLY, true);
-      res.xml (aDoc);
+      ExportAllManager.streamLiveExportTo (aOS -> ExportAllManager.writeAllContainedBusinessCardsAsXML (EQueryMode.NON_DELETED_ONLY,
+                                                                                                         true,
+                                                                                                         aOS),
+                                           res);
+      res.setMimeType (CMimeType.APPLICATION_XML);
       res.attachment (ExportAllManager.EXTERNAL_EXPORT_ALL_BUSINESSCARDS_XML_FULL);
     });
     s_aDownloadAllBCsXMLNoDocTypes = addAjax ( (req, res) -> {
-      final IMicroDocument aDoc = ExportAllManager.queryAllContainedBusinessCardsAsXML (EQueryMode.NON_DELETED_ONLY, false);
-      res.xml (aDoc);
+      ExportAllManager.streamLiveExportTo (aOS -> ExportAllManager.writeAllContainedBusinessCardsAsXML (EQueryMode.NON_DELETED_ONLY,
+                                                                                                         false,
+                                                                                                         aOS),
+                                           res);
+      res.setMimeType (CMimeType.APPLICATION_XML);
       res.attachment (ExportAllManager.EXTERNAL_EXPORT_ALL_BUSINESSCARDS_XML_NO_DOC_TYPES);
     });
     s_aDownloadAllBCsExcel = addAjax ( (req, res) -> {
-      final WorkbookCreationHelper aWBCH = ExportAllManager.queryAllContainedBusinessCardsAsExcel (EQueryMode.NON_DELETED_ONLY, true);
-      try (NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
-      {
-        aWBCH.writeTo (aBAOS);
-        res.binary (aBAOS, EExcelVersion.XLSX.getMimeType (), ExportAllManager.EXTERNAL_EXPORT_ALL_BUSINESSCARDS_XLSX);
-      }
+      ExportAllManager.streamLiveExportTo (aOS -> ExportAllManager.writeAllContainedBusinessCardsAsExcel (EQueryMode.NON_DELETED_ONLY,
+                                                                                                           true,
+                                                                                                           aOS),
+                                           res);
+      res.setMimeType (EExcelVersion.XLSX.getMimeType ());
+      res.attachment (ExportAllManager.EXTERNAL_EXPORT_ALL_BUSINESSCARDS_XLSX);
     });
     s_aDownloadAllBCsCSV = addAjax ( (req, res) -> {
-      try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
-           final CSVWriter aCSVWriter = new CSVWriter (StreamHelper.createWriter (aBAOS, StandardCharsets.ISO_8859_1)))
-      {
+      ExportAllManager.streamLiveExportTo (aOS -> {
+        final CSVWriter aCSVWriter = new CSVWriter (StreamHelper.createWriter (aOS, StandardCharsets.ISO_8859_1));
         ExportAllManager.queryAllContainedBusinessCardsAsCSV (EQueryMode.NON_DELETED_ONLY, aCSVWriter);
-        res.binary (aBAOS, CMimeType.TEXT_CSV, ExportAllManager.EXTERNAL_EXPORT_ALL_BUSINESSCARDS_CSV);
-      }
+      }, res);
+      res.setMimeType (CMimeType.TEXT_CSV);
+      res.attachment (ExportAllManager.EXTERNAL_EXPORT_ALL_BUSINESSCARDS_CSV);
     });
   }
 
@@ -430,6 +424,12 @@ public final class PageSecureParticipantActions extends AbstractAppWebPage
 
     aCard.createAndAddHeader ().addChild ("Data Synchronization");
     aBody = aCard.createAndAddBody ();
+    if (SyncAllBusinessCardsJob.isSyncInProgress ())
+      aBody.addChild (info ("The synchronization started at " +
+                            PDTToString.getAsString (SyncAllBusinessCardsJob.getLastSync (), aDisplayLocale) +
+                            " is in progress - " +
+                            SyncAllBusinessCardsJob.getSyncQueuedCount () +
+                            " Business Cards were queued so far."));
     aBody.addChild (new BootstrapButton ().addChild ("Synchronize all Business Cards (re-query from SMP - unforced)")
                                           .setOnClick (aWPEC.getSelfHref ().add (CPageParam.PARAM_ACTION, ACTION_SYNC_BCS_UNFORCED))
                                           .setIcon (EDefaultIcon.REFRESH));
@@ -66,6 +66,12 @@ public final class PageSecureParticipantCount extends AbstractAppWebPage
     final int nDeadCount = PDMetaManager.getIndexerMgr ().getDeadList ().getItemCount ();
     aNodeList.addChild (h3 (nDeadCount + " dead items are contained"));
 
+    final long nCoalescedCount = PDMetaManager.getIndexerMgr ().getCoalescedItemCount ();
+    aNodeList.addChild (h3 (nCoalescedCount + " work items were coalesced since the startup"));
+
+    final long nUnchangedCount = PDMetaManager.getStorageMgr ().getUnchangedCount ();
+    aNodeList.addChild (h3 (nUnchangedCount + " unchanged business cards were not written to the index since the startup"));
+
     if (false)
       try
       {
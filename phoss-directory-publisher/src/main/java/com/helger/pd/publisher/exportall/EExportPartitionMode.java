@@ -0,0 +1,137 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import java.util.Locale;
+import java.util.regex.Pattern;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.id.IHasID;
+import com.helger.commons.lang.EnumHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.pd.indexer.storage.PDStoredBusinessEntity;
+
+/**
+ * Defines how the business card export can be split into partitions.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+public enum EExportPartitionMode implements IHasID <String>
+{
+  /** One partition per country code of the business entity */
+  COUNTRY ("country"),
+  /**
+   * One partition per participant identifier scheme, which is the part of the
+   * participant identifier value before the first colon (e.g. the ISO 6523
+   * ICD)
+   */
+  SCHEME ("scheme");
+
+  /** The partition key used for entities without a usable value */
+  public static final String PARTITION_KEY_NONE = "none";
+  /**
+   * The partition key used for all entities exceeding the maximum number of
+   * partitions
+   */
+  public static final String PARTITION_KEY_OTHER = "other";
+
+  private static final int MAX_PARTITION_KEY_LENGTH = 32;
+  private static final Pattern PARTITION_KEY_PATTERN = Pattern.compile ("[A-Za-z0-9_]{1," +
+                                                                        MAX_PARTITION_KEY_LENGTH +
+                                                                        "}");
+
+  private final String m_sID;
+
+  private EExportPartitionMode (@Nonnull @Nonempty final String sID)
+  {
+    m_sID = sID;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getID ()
+  {
+    return m_sID;
+  }
+
+  @Nullable
+  private String _getRawPartitionKey (@Nonnull final PDStoredBusinessEntity aEntity)
+  {
+    switch (this)
+    {
+      case COUNTRY:
+        return aEntity.getCountryCode ();
+      case SCHEME:
+      {
+        final String sValue = aEntity.getParticipantID ().getValue ();
+        final int nIndex = sValue.indexOf (':');
+        return nIndex > 0 ? sValue.substring (0, nIndex) : null;
+      }
+      default:
+        throw new IllegalStateException ("Unsupported partition mode " + this);
+    }
+  }
+
+  /**
+   * Get the partition key of the provided entity. The key can safely be used as
+   * part of a filename.
+   *
+   * @param aEntity
+   *        The entity to get the key from. May not be <code>null</code>.
+   * @return The partition key. Never <code>null</code> and always matching
+   *         {@link #isValidPartitionKey(String)}.
+   */
+  @Nonnull
+  @Nonempty
+  public String getPartitionKey (@Nonnull final PDStoredBusinessEntity aEntity)
+  {
+    final String sRawKey = _getRawPartitionKey (aEntity);
+    if (StringHelper.hasNoText (sRawKey))
+      return PARTITION_KEY_NONE;
+
+    final StringBuilder aSB = new StringBuilder (sRawKey.length ());
+    for (final char c : sRawKey.trim ().toUpperCase (Locale.ROOT).toCharArray ())
+    {
+      if (aSB.length () == MAX_PARTITION_KEY_LENGTH)
+        break;
+      aSB.append ((c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') ? c : '_');
+    }
+    return aSB.length () == 0 ? PARTITION_KEY_NONE : aSB.toString ();
+  }
+
+  /**
+   * Check if the provided string is a syntactically valid partition key.
+   *
+   * @param sKey
+   *        The key to check. May be <code>null</code>.
+   * @return <code>true</code> if it is valid, <code>false</code> if not.
+   */
+  public static boolean isValidPartitionKey (@Nullable final String sKey)
+  {
+    return sKey != null && PARTITION_KEY_PATTERN.matcher (sKey).matches ();
+  }
+
+  @Nullable
+  public static EExportPartitionMode getFromIDOrNull (@Nullable final String sID)
+  {
+    return EnumHelper.getFromIDOrNull (EExportPartitionMode.class, sID);
+  }
+}
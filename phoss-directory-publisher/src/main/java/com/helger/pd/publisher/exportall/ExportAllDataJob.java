@@ -16,8 +16,12 @@
  */
 package com.helger.pd.publisher.exportall;
 
+import java.io.File;
 import java.io.IOException;
+import java.time.Duration;
 import java.time.LocalDateTime;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
 import java.util.concurrent.atomic.AtomicBoolean;
 
 import javax.annotation.Nonnull;
@@ -26,8 +30,14 @@ import javax.annotation.Nullable;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.string.StringParser;
 import com.helger.commons.timing.StopWatch;
+import com.helger.pd.indexer.mgr.PDMetaManager;
+import com.helger.pd.indexer.settings.PDServerConfiguration;
 import com.helger.pd.indexer.storage.EQueryMode;
 import com.helger.pd.publisher.CPDPublisher;
 import com.helger.photon.app.PhotonWorkerPool;
@@ -36,9 +46,15 @@ import com.helger.quartz.IJobExecutionContext;
 import com.helger.quartz.JobDataMap;
 import com.helger.quartz.JobExecutionException;
 import com.helger.web.scope.util.AbstractScopeAwareJob;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.MicroDocument;
+import com.helger.xml.microdom.serialize.MicroReader;
+import com.helger.xml.microdom.serialize.MicroWriter;
 
 /**
- * Job to export all BCs regularly to disk.
+ * Job to export all BCs regularly to disk. The job is executed frequently but
+ * only exports, if the {@link ExportAllSchedulePolicy} requires it.
  *
  * @author Philip Helger
  */
@@ -46,6 +62,9 @@ import com.helger.web.scope.util.AbstractScopeAwareJob;
 public final class ExportAllDataJob extends AbstractScopeAwareJob
 {
   private static final Logger LOGGER = LoggerFactory.getLogger (ExportAllDataJob.class);
+  private static final String ELEMENT_SCHEDULE_STATE = "exportschedule";
+  private static final String ATTR_CHANGE_COUNT = "changecount";
+  private static final String ATTR_EXPORTDT = "exportdt";
 
   private static final AtomicBoolean EXPORT_RUNNING = new AtomicBoolean (false);
   private static LocalDateTime EXPORT_START_DT;
@@ -74,117 +93,158 @@ public final class ExportAllDataJob extends AbstractScopeAwareJob
     if (!EXPORT_RUNNING.getAndSet (true))
     {
       EXPORT_START_DT = PDTFactory.getCurrentLocalDateTime ();
+      // Remember the state of the index before scanning it
+      final long nChangeCount = PDMetaManager.getLucene ().getChangeCount ();
+      final ZonedDateTime aExportDT = PDTFactory.getCurrentZonedDateTimeUTC ();
       final StopWatch aSW = StopWatch.createdStarted ();
 
       try
       {
-        LOGGER.info ("Start exporting business cards as XML (full)");
-        try
-        {
-          ExportAllManager.writeFileBusinessCardXMLFull (EQueryMode.NON_DELETED_ONLY);
-        }
-        finally
+        // One index scan for all formats
+        final ICommonsList <IExportAllSink> aSinks = new CommonsArrayList <> ();
+        aSinks.add (ExportAllSinks.createBusinessCardXMLSink (true));
+        aSinks.add (ExportAllSinks.createBusinessCardXMLSink (false));
+        if (CPDPublisher.EXPORT_BUSINESS_CARDS_EXCEL)
+          aSinks.add (ExportAllSinks.createBusinessCardExcelSink ());
+        if (CPDPublisher.EXPORT_BUSINESS_CARDS_CSV)
+          aSinks.add (ExportAllSinks.createBusinessCardCSVSink ());
+        if (CPDPublisher.EXPORT_PARTICIPANTS_XML)
+          aSinks.add (ExportAllSinks.createParticipantXMLSink ());
+        if (CPDPublisher.EXPORT_PARTICIPANTS_JSON)
+          aSinks.add (ExportAllSinks.createParticipantJSONSink ());
+        if (CPDPublisher.EXPORT_PARTICIPANTS_CSV)
+          aSinks.add (ExportAllSinks.createParticipantCSVSink ());
+        if (CPDPublisher.EXPORT_BUSINESS_CARDS_BINARY)
+          aSinks.add (ExportAllSinks.createBusinessCardBinarySink ());
+        if (CPDPublisher.EXPORT_BUSINESS_CARDS_DELTA)
+          aSinks.add (new ExportBusinessCardDeltaSink ());
+        for (final String sPartitionMode : PDServerConfiguration.getAllExportPartitionModes ())
         {
-          LOGGER.info ("Finished exporting business cards as XML (full) after " + aSW.stopAndGetMillis () + " milliseconds");
+          final EExportPartitionMode eMode = EExportPartitionMode.getFromIDOrNull (sPartitionMode);
+          if (eMode != null)
+            aSinks.add (new ExportBusinessCardPartitionSink (eMode, true));
+          else
+            LOGGER.warn ("Ignoring unsupported export partition mode '" + sPartitionMode + "'");
         }
 
-        aSW.restart ();
-        LOGGER.info ("Start exporting business cards as XML (no doc types)");
+        LOGGER.info ("Start exporting business cards in " + aSinks.size () + " formats");
+        ESuccess eSuccess = ESuccess.FAILURE;
         try
         {
-          ExportAllManager.writeFileBusinessCardXMLNoDocTypes (EQueryMode.NON_DELETED_ONLY);
+          final ExportGeneration aGeneration = ExportAllManager.createNextGeneration ();
+          eSuccess = new ExportAllPipeline (aSinks).run (aGeneration, EQueryMode.NON_DELETED_ONLY);
+          // The index was scanned completely. Failed sinks are logged and are
+          // retried with the next regular export - otherwise a permanently
+          // failing sink would trigger a complete export on every job run
+          _writeScheduleState (nChangeCount, aExportDT);
         }
         finally
         {
-          LOGGER.info ("Finished exporting business cards as XML (no doc types) after " + aSW.stopAndGetMillis () + " milliseconds");
+          LOGGER.info ((eSuccess.isSuccess () ? "Finished" : "Failed") +
+                       " exporting business cards after " +
+                       aSW.stopAndGetMillis () +
+                       " milliseconds");
         }
+      }
+      finally
+      {
+        EXPORT_START_DT = null;
+        EXPORT_RUNNING.set (false);
+      }
+    }
+    else
+    {
+      LOGGER.info ("Export is already running, so avoiding a parallel run");
+    }
+  }
 
-        if (CPDPublisher.EXPORT_BUSINESS_CARDS_EXCEL)
-        {
-          aSW.restart ();
-          LOGGER.info ("Start exporting business cards as Excel");
-          try
-          {
-            ExportAllManager.writeFileBusinessCardExcel (EQueryMode.NON_DELETED_ONLY);
-          }
-          finally
-          {
-            LOGGER.info ("Finished exporting business cards as Excel after " + aSW.stopAndGetMillis () + " milliseconds");
-          }
-        }
+  private static void _writeScheduleState (final long nChangeCount, @Nonnull final ZonedDateTime aExportDT)
+  {
+    final IMicroDocument aDoc = new MicroDocument ();
+    final IMicroElement eRoot = aDoc.appendElement (ELEMENT_SCHEDULE_STATE);
+    eRoot.setAttribute (ATTR_CHANGE_COUNT, nChangeCount);
+    eRoot.setAttribute (ATTR_EXPORTDT, aExportDT.toString ());
+    final File aFile = ExportAllManager.getInternalFileScheduleState ();
+    if (MicroWriter.writeToFile (aDoc, aFile).isFailure ())
+      LOGGER.error ("Failed to write export schedule state to " + aFile.getAbsolutePath ());
+  }
 
-        if (CPDPublisher.EXPORT_BUSINESS_CARDS_CSV)
-        {
-          aSW.restart ();
-          LOGGER.info ("Start exporting business cards as CSV");
-          try
-          {
-            ExportAllManager.writeFileBusinessCardCSV (EQueryMode.NON_DELETED_ONLY);
-          }
-          finally
-          {
-            LOGGER.info ("Finished exporting business cards as CSV after " + aSW.stopAndGetMillis () + " milliseconds");
-          }
-        }
+  /**
+   * Check if an export is required according to the provided policy.
+   *
+   * @param aPolicy
+   *        The policy to use. May not be <code>null</code>.
+   * @return <code>null</code> if no export is required, the human readable
+   *         reason otherwise.
+   * @since 0.9.6
+   */
+  @Nullable
+  public static String getExportReason (@Nonnull final ExportAllSchedulePolicy aPolicy)
+  {
+    final ZonedDateTime aNow = PDTFactory.getCurrentZonedDateTimeUTC ();
 
-        if (CPDPublisher.EXPORT_PARTICIPANTS_XML)
+    long nChanges = -1;
+    ZonedDateTime aStateDT = null;
+    final File aFile = ExportAllManager.getInternalFileScheduleState ();
+    if (aFile.isFile ())
+    {
+      final IMicroDocument aDoc = MicroReader.readMicroXML (aFile);
+      if (aDoc != null && aDoc.getDocumentElement () != null)
+      {
+        final IMicroElement eRoot = aDoc.getDocumentElement ();
+        final long nExportedChangeCount = StringParser.parseLong (eRoot.getAttributeValue (ATTR_CHANGE_COUNT), -1);
+        if (nExportedChangeCount >= 0)
         {
-          aSW.restart ();
-          LOGGER.info ("Start exporting participants as XML");
-          try
-          {
-            ExportAllManager.writeFileParticipantXML (EQueryMode.NON_DELETED_ONLY);
-          }
-          finally
-          {
-            LOGGER.info ("Finished exporting participants as XML after " + aSW.stopAndGetMillis () + " milliseconds");
-          }
+          final long nCurrentChangeCount = PDMetaManager.getLucene ().getChangeCount ();
+          // A smaller value means that the index was recreated
+          nChanges = nCurrentChangeCount >= nExportedChangeCount ? nCurrentChangeCount - nExportedChangeCount : -1;
         }
-
-        if (CPDPublisher.EXPORT_PARTICIPANTS_JSON)
+        try
         {
-          aSW.restart ();
-          LOGGER.info ("Start exporting participants as JSON");
-          try
-          {
-            ExportAllManager.writeFileParticipantJSON (EQueryMode.NON_DELETED_ONLY);
-          }
-          finally
-          {
-            LOGGER.info ("Finished exporting participants as JSON after " + aSW.stopAndGetMillis () + " milliseconds");
-          }
+          final String sExportDT = eRoot.getAttributeValue (ATTR_EXPORTDT);
+          if (sExportDT != null)
+            aStateDT = ZonedDateTime.parse (sExportDT);
         }
-
-        if (CPDPublisher.EXPORT_PARTICIPANTS_CSV)
+        catch (final DateTimeParseException ex)
         {
-          aSW.restart ();
-          LOGGER.info ("Start exporting participants as CSV");
-          try
-          {
-            ExportAllManager.writeFileParticipantCSV (EQueryMode.NON_DELETED_ONLY);
-          }
-          finally
-          {
-            LOGGER.info ("Finished exporting participants as CSV after " + aSW.stopAndGetMillis () + " milliseconds");
-          }
+          // Use the export file creation date time
         }
       }
-      finally
-      {
-        EXPORT_START_DT = null;
-        EXPORT_RUNNING.set (false);
-      }
     }
-    else
+
+    final ExportFileMetadata aMetadata = ExportAllManager.getMetadataBusinessCardXMLFull ();
+    if (aMetadata == null || !ExportAllManager.getInternalFileBusinessCardXMLFull ().isFile ())
     {
-      LOGGER.info ("Export is already running, so avoiding a parallel run");
+      // Don't retry a failed export on every job run
+      if (aStateDT != null && _getAge (aStateDT, aNow).compareTo (aPolicy.getMinInterval ()) < 0)
+        return null;
+      return aPolicy.getExportReason (-1, null);
     }
+
+    final ZonedDateTime aExportDT = aStateDT != null ? aStateDT : aMetadata.getCreationDateTime ();
+    return aPolicy.getExportReason (nChanges, _getAge (aExportDT, aNow));
+  }
+
+  @Nonnull
+  private static Duration _getAge (@Nonnull final ZonedDateTime aDT, @Nonnull final ZonedDateTime aNow)
+  {
+    final Duration aAge = Duration.between (aDT, aNow);
+    return aAge.isNegative () ? Duration.ZERO : aAge;
   }
 
   @Override
   protected void onExecute (@Nonnull final JobDataMap aJobDataMap,
                             @Nonnull final IJobExecutionContext aContext) throws JobExecutionException
   {
+    final String sReason = getExportReason (ExportAllSchedulePolicy.createFromConfiguration ());
+    if (sReason == null)
+    {
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Skipping export of all business cards, because not enough changed");
+      return;
+    }
+
+    LOGGER.info ("Exporting all business cards, because " + sReason);
     try
     {
       exportAllBusinessCards ();
@@ -16,42 +16,67 @@
  */
 package com.helger.pd.publisher.exportall;
 
+import java.io.BufferedOutputStream;
 import java.io.File;
 import java.io.IOException;
-import java.io.Writer;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.temporal.ChronoUnit;
+import java.util.Collection;
 import java.util.Comparator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
 import java.util.function.Consumer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.WillNotClose;
 import javax.annotation.concurrent.ThreadSafe;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.lucene.search.MatchAllDocsQuery;
 import org.apache.lucene.search.Query;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.CGlobal;
+import com.helger.commons.annotation.Nonempty;
 import com.helger.commons.collection.impl.CommonsArrayList;
 import com.helger.commons.collection.impl.CommonsLinkedHashMap;
 import com.helger.commons.collection.impl.CommonsTreeSet;
 import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.collection.impl.ICommonsOrderedMap;
 import com.helger.commons.collection.impl.ICommonsSortedSet;
+import com.helger.commons.concurrent.SimpleLock;
 import com.helger.commons.concurrent.SimpleReadWriteLock;
 import com.helger.commons.csv.CSVWriter;
 import com.helger.commons.datetime.PDTFactory;
 import com.helger.commons.datetime.PDTWebDateHelper;
+import com.helger.commons.functional.IThrowingConsumer;
 import com.helger.commons.http.CHttpHeader;
-import com.helger.commons.io.file.FileHelper;
-import com.helger.commons.io.resource.FileSystemResource;
-import com.helger.commons.state.ESuccess;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.StreamHelper;
 import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
 import com.helger.json.IJsonArray;
 import com.helger.json.IJsonObject;
 import com.helger.json.JsonArray;
 import com.helger.json.JsonObject;
-import com.helger.json.serialize.JsonWriter;
 import com.helger.pd.indexer.mgr.PDMetaManager;
 import com.helger.pd.indexer.storage.EQueryMode;
 import com.helger.pd.indexer.storage.PDStoredBusinessEntity;
@@ -61,14 +86,17 @@ import com.helger.pd.indexer.storage.PDStoredMLName;
 import com.helger.pd.indexer.storage.field.PDField;
 import com.helger.peppolid.IDocumentTypeIdentifier;
 import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.photon.app.PhotonWorkerPool;
 import com.helger.photon.app.io.WebFileIO;
 import com.helger.poi.excel.EExcelVersion;
 import com.helger.poi.excel.WorkbookCreationHelper;
 import com.helger.poi.excel.style.ExcelStyle;
 import com.helger.servlet.response.UnifiedResponse;
+import com.helger.web.scope.IRequestWebScopeWithoutResponse;
 import com.helger.xml.microdom.IMicroDocument;
 import com.helger.xml.microdom.IMicroElement;
 import com.helger.xml.microdom.MicroDocument;
+import com.helger.xml.microdom.serialize.MicroReader;
 import com.helger.xml.microdom.serialize.MicroWriter;
 
 @ThreadSafe
@@ -79,99 +107,245 @@ public final class ExportAllManager
   public static final String EXTERNAL_EXPORT_ALL_BUSINESSCARDS_XML_NO_DOC_TYPES = "directory-export-business-cards-no-doc-types.xml";
   public static final String EXTERNAL_EXPORT_ALL_BUSINESSCARDS_XLSX = "directory-export-business-cards.xlsx";
   public static final String EXTERNAL_EXPORT_ALL_BUSINESSCARDS_CSV = "directory-export-business-cards.csv";
+  public static final String EXTERNAL_EXPORT_ALL_BUSINESSCARDS_BINARY = "directory-export-business-cards.bin";
   public static final String EXTERNAL_EXPORT_ALL_PARTICIPANTS_XML = "directory-export-participants.xml";
   public static final String EXTERNAL_EXPORT_ALL_PARTICIPANTS_JSON = "directory-export-participants.json";
   public static final String EXTERNAL_EXPORT_ALL_PARTICIPANTS_CSV = "directory-export-participants.csv";
+  public static final String EXTERNAL_EXPORT_DELTA_BUSINESSCARDS_MANIFEST = "directory-export-business-cards-delta-manifest.xml";
+  private static final String EXTERNAL_EXPORT_DELTA_BUSINESSCARDS_PREFIX = "directory-export-business-cards-delta-";
+  private static final String EXTERNAL_EXPORT_PARTITION_BUSINESSCARDS_PREFIX = "directory-export-business-cards-";
 
   // Internal filenames
   private static final String INTERNAL_EXPORT_ALL_BUSINESSCARDS_XML_FULL = "export-all-businesscards.xml";
   private static final String INTERNAL_EXPORT_ALL_BUSINESSCARDS_XML_NO_DOC_TYPES = "export-all-businesscards-no-doc-types.xml";
   private static final String INTERNAL_EXPORT_ALL_BUSINESSCARDS_XLSX = "export-all-businesscards.xlsx";
   private static final String INTERNAL_EXPORT_ALL_BUSINESSCARDS_CSV = "export-all-businesscards.csv";
+  private static final String INTERNAL_EXPORT_ALL_BUSINESSCARDS_BINARY = "export-all-businesscards.bin";
   private static final String INTERNAL_EXPORT_ALL_PARTICIPANTS_XML = "export-all-participants.xml";
   private static final String INTERNAL_EXPORT_ALL_PARTICIPANTS_JSON = "export-all-participants.json";
   private static final String INTERNAL_EXPORT_ALL_PARTICIPANTS_CSV = "export-all-participants.csv";
+  private static final String INTERNAL_EXPORT_DELTA_BUSINESSCARDS_PREFIX = "export-delta-businesscards-";
+  private static final String INTERNAL_EXPORT_DELTA_BUSINESSCARDS_MANIFEST = "export-delta-businesscards-manifest.xml";
+  private static final String INTERNAL_EXPORT_DELTA_BUSINESSCARDS_STATE = "export-delta-businesscards-state.bin";
+  private static final String INTERNAL_EXPORT_SCHEDULE_STATE = "export-schedule-state.xml";
+  private static final String INTERNAL_EXPORT_GENERATION = "export-generation.xml";
+  private static final String INTERNAL_EXPORT_PARTITION_BUSINESSCARDS_PREFIX = "export-partition-businesscards-";
+  private static final String PARTITION_MANIFEST = "manifest";
 
   // Rest
   private static final Logger LOGGER = LoggerFactory.getLogger (ExportAllManager.class);
 
+  private static final String METADATA_FILE_SUFFIX = ".meta.xml";
+  private static final String GZIP_FILE_SUFFIX = ".gz";
+  private static final int LIVE_EXPORT_PIPE_SIZE = 64 * CGlobal.BYTES_PER_KILOBYTE;
+  private static final String ELEMENT_GENERATION = "exportgeneration";
+  private static final String ATTR_GENERATION = "generation";
+  private static final String ATTR_CREATIONDT = "creationdt";
+
   private static final SimpleReadWriteLock s_aRWLock = new SimpleReadWriteLock ();
+  // Current metadata per internal filename
+  private static final Map <String, ExportFileMetadata> s_aMetadata = new ConcurrentHashMap <> ();
+  private static final SimpleLock s_aGenerationLock = new SimpleLock ();
 
   private ExportAllManager ()
   {}
 
   @Nonnull
-  public static IMicroDocument queryAllContainedBusinessCardsAsXML (@Nonnull final Query aQuery,
-                                                                    final boolean bIncludeDocTypes) throws IOException
+  private static File _getMetadataFile (@Nonnull final File aFile)
   {
-    // Query all and group by participant ID
-    final ICommonsOrderedMap <IParticipantIdentifier, ICommonsList <PDStoredBusinessEntity>> aMap = new CommonsLinkedHashMap <> ();
-    PDMetaManager.getStorageMgr ()
-                 .searchAllDocuments (aQuery,
-                                      -1,
-                                      x -> aMap.computeIfAbsent (x.getParticipantID (), k -> new CommonsArrayList <> ())
-                                               .add (x));
+    return new File (aFile.getParentFile (), aFile.getName () + METADATA_FILE_SUFFIX);
+  }
 
-    return ExportHelper.getAsXML (aMap, bIncludeDocTypes);
+  private static void _moveAtomic (@Nonnull final File aSrc, @Nonnull final File aDst) throws IOException
+  {
+    try
+    {
+      Files.move (aSrc.toPath (), aDst.toPath (), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+    catch (final AtomicMoveNotSupportedException ex)
+    {
+      LOGGER.warn ("The file system does not support atomic moves - falling back to a regular move for " +
+                   aDst.getAbsolutePath ());
+      Files.move (aSrc.toPath (), aDst.toPath (), StandardCopyOption.REPLACE_EXISTING);
+    }
   }
 
-  @Nonnull
-  public static IMicroDocument queryAllContainedBusinessCardsAsXML (@Nonnull final EQueryMode eQueryMode,
-                                                                    final boolean bIncludeDocTypes) throws IOException
+  private static void _syncDirectory (@Nonnull final File aDir)
   {
-    final Query aQuery = eQueryMode.getEffectiveQuery (new MatchAllDocsQuery ());
-    return queryAllContainedBusinessCardsAsXML (aQuery, bIncludeDocTypes);
+    // Make the renames durable. Not supported on all platforms (e.g. Windows)
+    try (final FileChannel aChannel = FileChannel.open (aDir.toPath (), StandardOpenOption.READ))
+    {
+      aChannel.force (true);
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.debug ("Failed to sync directory " + aDir.getAbsolutePath (), ex);
+    }
   }
 
-  @Nonnull
-  private static File _getInternalFileBusinessCardXMLFull ()
+  /**
+   * Publish a new generation of an export file. The temporary file must have
+   * been completely written and synced already. It replaces the target file
+   * with an atomic rename, so that a download always gets either the previous
+   * or the new generation, but never a partially written file. The write lock
+   * is only held for the renames, so downloads are basically never blocked.
+   *
+   * @param aTempFile
+   *        The completely written temporary file. May not be <code>null</code>.
+   * @param aTargetFile
+   *        The file to be replaced. May not be <code>null</code>.
+   * @param aMetadata
+   *        The metadata of the new generation. May not be <code>null</code>.
+   * @throws IOException
+   *         If the files could not be moved
+   * @since 0.9.6
+   */
+  static void publishFile (@Nonnull final File aTempFile,
+                           @Nonnull final File aTargetFile,
+                           @Nonnull final ExportFileMetadata aMetadata) throws IOException
   {
-    return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_ALL_BUSINESSCARDS_XML_FULL);
+    final File aTempMetadataFile = _getMetadataFile (aTempFile);
+    aMetadata.writeToFile (aTempMetadataFile);
+
+    // Do it in a write lock, so that file and metadata are switched together
+    s_aRWLock.writeLock ().lock ();
+    try
+    {
+      _moveAtomic (aTempFile, aTargetFile);
+      _moveAtomic (aTempMetadataFile, _getMetadataFile (aTargetFile));
+      s_aMetadata.put (aTargetFile.getName (), aMetadata);
+    }
+    finally
+    {
+      s_aRWLock.writeLock ().unlock ();
+    }
+    _syncDirectory (aTargetFile.getParentFile ());
   }
 
-  @Nonnull
-  static ESuccess writeFileBusinessCardXMLFull (@Nonnull final EQueryMode eQueryMode) throws IOException
+  /**
+   * Delete an export file together with its metadata and its gzip variant.
+   *
+   * @param aFile
+   *        The export file to delete. May not be <code>null</code>.
+   * @since 0.9.6
+   */
+  static void deleteFile (@Nonnull final File aFile)
   {
-    final IMicroDocument aDoc = queryAllContainedBusinessCardsAsXML (eQueryMode, true);
-    final File f = _getInternalFileBusinessCardXMLFull ();
+    final File aGzipFile = getGzipFile (aFile);
 
     // Do it in a write lock!
     s_aRWLock.writeLock ().lock ();
     try
     {
-      if (MicroWriter.writeToFile (aDoc, f).isFailure ())
+      for (final File f : new File [] { aFile, _getMetadataFile (aFile), aGzipFile, _getMetadataFile (aGzipFile) })
+        FileOperationManager.INSTANCE.deleteFileIfExisting (f);
+      s_aMetadata.remove (aFile.getName ());
+      s_aMetadata.remove (aGzipFile.getName ());
+    }
+    finally
+    {
+      s_aRWLock.writeLock ().unlock ();
+    }
+  }
+
+  /**
+   * Allocate the generation of a new export run. All files created in the
+   * same run share this generation, so that clients can check that e.g. a
+   * full export and a delta manifest belong together. The last generation is
+   * persisted, so the numbers are strictly increasing across restarts.
+   *
+   * @return The new generation. Never <code>null</code>.
+   * @throws IOException
+   *         If the new generation could not be persisted
+   * @since 0.9.6
+   */
+  @Nonnull
+  static ExportGeneration createNextGeneration () throws IOException
+  {
+    final File aFile = getInternalFileGeneration ();
+    s_aGenerationLock.lock ();
+    try
+    {
+      long nLastGeneration = ExportFileMetadata.NO_GENERATION;
+      if (aFile.isFile ())
       {
-        if (LOGGER.isErrorEnabled ())
-          LOGGER.error ("Failed to export all BCs as XML (full) to " + f.getAbsolutePath ());
-        return ESuccess.FAILURE;
+        final IMicroDocument aDoc = MicroReader.readMicroXML (aFile);
+        if (aDoc != null && aDoc.getDocumentElement () != null)
+          nLastGeneration = StringParser.parseLong (aDoc.getDocumentElement ().getAttributeValue (ATTR_GENERATION),
+                                                    ExportFileMetadata.NO_GENERATION);
       }
-      LOGGER.info ("Successfully wrote all BCs as XML (full) to " + f.getAbsolutePath ());
+      if (nLastGeneration <= ExportFileMetadata.NO_GENERATION)
+      {
+        // Never reuse the generation numbers of existing deltas
+        nLastGeneration = Math.max (ExportFileMetadata.NO_GENERATION, ExportBusinessCardDeltaSink.getManifestGeneration ());
+      }
+
+      // The fingerprint files only store milliseconds
+      final ExportGeneration ret = new ExportGeneration (nLastGeneration + 1,
+                                                         PDTFactory.getCurrentZonedDateTimeUTC ()
+                                                                   .truncatedTo (ChronoUnit.MILLIS));
+      final IMicroDocument aDoc = new MicroDocument ();
+      aDoc.appendElement (ELEMENT_GENERATION)
+          .setAttribute (ATTR_GENERATION, ret.getGeneration ())
+          .setAttribute (ATTR_CREATIONDT, ret.getCreationDateTime ().toString ());
+
+      final File aTempFile = new File (aFile.getParentFile (), aFile.getName () + ".tmp");
+      // Closes the stream
+      if (MicroWriter.writeToStream (aDoc, new BufferedOutputStream (new ExportFileOutputStream (aTempFile))).isFailure ())
+        throw new IOException ("Failed to write the export generation to " + aTempFile.getAbsolutePath ());
+      _moveAtomic (aTempFile, aFile);
+      return ret;
     }
     finally
     {
-      s_aRWLock.writeLock ().unlock ();
+      s_aGenerationLock.unlock ();
     }
-    return ESuccess.SUCCESS;
+  }
+
+  @Nullable
+  private static ExportFileMetadata _getFileMetadata (@Nonnull final File aFile)
+  {
+    // Lazily read from disk after a restart
+    return s_aMetadata.computeIfAbsent (aFile.getName (), k -> ExportFileMetadata.readFromFile (_getMetadataFile (aFile)));
   }
 
   /**
-   * Stream the stored XML file to the provided HTTP response
+   * Get the precompressed gzip variant of an export file.
    *
-   * @param aUR
-   *        The response to stream to. May not be <code>null</code>.
+   * @param aFile
+   *        The export file. May not be <code>null</code>.
+   * @return The gzip file. It may not exist. Never <code>null</code>.
+   * @since 0.9.6
    */
-  public static void streamFileBusinessCardXMLFullTo (@Nonnull final UnifiedResponse aUR)
+  @Nonnull
+  static File getGzipFile (@Nonnull final File aFile)
   {
-    // Do it in a read lock!
+    return new File (aFile.getParentFile (), aFile.getName () + GZIP_FILE_SUFFIX);
+  }
+
+  private static void _streamFileTo (@Nonnull final File aFile,
+                                     @Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                                     @Nonnull final UnifiedResponse aUR)
+  {
+    final HttpServletRequest aRequest = aRequestScope.getRequest ();
+
+    // Do it in a read lock, so that file and metadata match
     s_aRWLock.readLock ().lock ();
     try
     {
-      final File f = _getInternalFileBusinessCardXMLFull ();
-      // setContent(IReadableResource) is lazy
-      aUR.setContent (new FileSystemResource (f));
-      final long nFileLen = f.length ();
-      if (nFileLen > 0)
-        aUR.setCustomResponseHeader (CHttpHeader.CONTENT_LENGTH, Long.toString (nFileLen));
+      final ExportFileMetadata aMetadata = _getFileMetadata (aFile);
+      final File aGzipFile = getGzipFile (aFile);
+      final ExportFileMetadata aGzipMetadata = aMetadata == null ? null : _getFileMetadata (aGzipFile);
+      final boolean bHasVariants = aGzipMetadata != null;
+      if (bHasVariants && ExportFileHttpHelper.isGzipAccepted (aRequest.getHeader (CHttpHeader.ACCEPT_ENCODING)))
+        ExportFileHttpHelper.deliver (aGzipFile,
+                                      aGzipMetadata,
+                                      ExportFileHttpHelper.CONTENT_ENCODING_GZIP,
+                                      bHasVariants,
+                                      aRequestScope,
+                                      aUR);
+      else
+        ExportFileHttpHelper.deliver (aFile, aMetadata, null, bHasVariants, aRequestScope, aUR);
     }
     finally
     {
@@ -180,59 +354,327 @@ public final class ExportAllManager
   }
 
   @Nonnull
-  private static File _getInternalFileBusinessCardXMLNoDocTypes ()
+  public static IMicroDocument queryAllContainedBusinessCardsAsXML (@Nonnull final Query aQuery,
+                                                                    final boolean bIncludeDocTypes) throws IOException
   {
-    return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_ALL_BUSINESSCARDS_XML_NO_DOC_TYPES);
+    // Query all and group by participant ID
+    final ICommonsOrderedMap <IParticipantIdentifier, ICommonsList <PDStoredBusinessEntity>> aMap = new CommonsLinkedHashMap <> ();
+    PDMetaManager.getStorageMgr ()
+                 .searchAllDocuments (aQuery,
+                                      -1,
+                                      x -> aMap.computeIfAbsent (x.getParticipantID (), k -> new CommonsArrayList <> ())
+                                               .add (x));
+
+    return ExportHelper.getAsXML (aMap, bIncludeDocTypes);
   }
 
   @Nonnull
-  static ESuccess writeFileBusinessCardXMLNoDocTypes (@Nonnull final EQueryMode eQueryMode) throws IOException
+  public static IMicroDocument queryAllContainedBusinessCardsAsXML (@Nonnull final EQueryMode eQueryMode,
+                                                                    final boolean bIncludeDocTypes) throws IOException
   {
-    final IMicroDocument aDoc = queryAllContainedBusinessCardsAsXML (eQueryMode, false);
-    final File f = _getInternalFileBusinessCardXMLNoDocTypes ();
+    final Query aQuery = eQueryMode.getEffectiveQuery (new MatchAllDocsQuery ());
+    return queryAllContainedBusinessCardsAsXML (aQuery, bIncludeDocTypes);
+  }
 
-    // Do it in a write lock!
-    s_aRWLock.writeLock ().lock ();
+  /**
+   * Write all business cards matching the query as XML to the provided output
+   * stream. In contrast to {@link #queryAllContainedBusinessCardsAsXML(Query,
+   * boolean)} each business card is written as soon as it was read from the
+   * index, so the memory consumption does not depend on the number of
+   * participants.
+   *
+   * @param aQuery
+   *        The query to use. May not be <code>null</code>.
+   * @param bIncludeDocTypes
+   *        <code>true</code> to include the document types.
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         On Lucene or write error
+   * @since 0.9.6
+   */
+  public static void writeAllContainedBusinessCardsAsXML (@Nonnull final Query aQuery,
+                                                          final boolean bIncludeDocTypes,
+                                                          @Nonnull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    try (final ExportBusinessCardXMLWriter aWriter = new ExportBusinessCardXMLWriter (aOS, bIncludeDocTypes))
+    {
+      PDMetaManager.getStorageMgr ().searchAllDocuments (aQuery, -1, x -> {
+        try
+        {
+          aWriter.addEntity (x);
+        }
+        catch (final IOException ex)
+        {
+          throw new UncheckedIOException (ex);
+        }
+      });
+    }
+    catch (final UncheckedIOException ex)
+    {
+      throw ex.getCause ();
+    }
+  }
+
+  public static void writeAllContainedBusinessCardsAsXML (@Nonnull final EQueryMode eQueryMode,
+                                                          final boolean bIncludeDocTypes,
+                                                          @Nonnull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    final Query aQuery = eQueryMode.getEffectiveQuery (new MatchAllDocsQuery ());
+    writeAllContainedBusinessCardsAsXML (aQuery, bIncludeDocTypes, aOS);
+  }
+
+  /**
+   * Write the IDs of all participants as XML to the provided output stream.
+   * Each participant is written as soon as it was read from the index. The
+   * layout is the same as for the full business card export, so that it can be
+   * used by the import.<br>
+   * Note: the participants are written in index order and are not sorted.
+   * Every participant is contained only once, because all entities of a
+   * participant are stored as one contiguous block (see
+   * {@link com.helger.pd.indexer.lucene.PDLucene#updateDocuments(org.apache.lucene.index.Term, Iterable)}).
+   *
+   * @param eQueryMode
+   *        The query mode to use. May not be <code>null</code>.
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         On Lucene or write error
+   * @since 0.9.6
+   */
+  public static void writeAllContainedParticipantIDsAsXML (@Nonnull final EQueryMode eQueryMode,
+                                                           @Nonnull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    final Query aQuery = eQueryMode.getEffectiveQuery (new MatchAllDocsQuery ());
     try
     {
-      if (MicroWriter.writeToFile (aDoc, f).isFailure ())
+      final XMLStreamWriter aWriter = XMLOutputFactory.newFactory ().createXMLStreamWriter (aOS, StandardCharsets.UTF_8.name ());
+      aWriter.writeStartDocument (StandardCharsets.UTF_8.name (), "1.0");
+      aWriter.writeCharacters ("\n");
+      aWriter.writeStartElement ("root");
+      aWriter.writeCharacters ("\n");
+
+      // All entities of a participant are contiguous in the index
+      final IParticipantIdentifier [] aLastParticipantID = new IParticipantIdentifier [1];
+      PDMetaManager.getStorageMgr ().searchAllDocuments (aQuery, -1, x -> {
+        final IParticipantIdentifier aParticipantID = x.getParticipantID ();
+        if (aLastParticipantID[0] == null || !aLastParticipantID[0].hasSameContent (aParticipantID))
+        {
+          aLastParticipantID[0] = aParticipantID;
+          try
+          {
+            aWriter.writeEmptyElement ("participant");
+            aWriter.writeAttribute ("scheme", aParticipantID.getScheme ());
+            aWriter.writeAttribute ("value", aParticipantID.getValue ());
+            aWriter.writeCharacters ("\n");
+          }
+          catch (final XMLStreamException ex)
+          {
+            throw new UncheckedIOException (new IOException ("Failed to write participant", ex));
+          }
+        }
+      });
+
+      aWriter.writeEndElement ();
+      aWriter.writeEndDocument ();
+      aWriter.flush ();
+      aWriter.close ();
+      aOS.flush ();
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new IOException ("Failed to write participant XML", ex);
+    }
+    catch (final UncheckedIOException ex)
+    {
+      throw ex.getCause ();
+    }
+  }
+
+  /**
+   * The reading side of a live export. The export is written by a worker
+   * thread. A failure of the export is reported to the reader instead of a
+   * regular end of stream, so that a truncated export is never delivered as
+   * complete.
+   *
+   * @author Philip Helger
+   */
+  private static final class LiveExportInputStream extends PipedInputStream
+  {
+    private final AtomicReference <Exception> m_aError = new AtomicReference <> ();
+
+    LiveExportInputStream ()
+    {
+      super (LIVE_EXPORT_PIPE_SIZE);
+    }
+
+    private int _checkEOF (final int nRead) throws IOException
+    {
+      if (nRead < 0)
       {
-        if (LOGGER.isErrorEnabled ())
-          LOGGER.error ("Failed to export all BCs as XML (no doctypes) to " + f.getAbsolutePath ());
-        return ESuccess.FAILURE;
+        final Exception ex = m_aError.get ();
+        if (ex != null)
+          throw new IOException ("Failed to create the live export", ex);
       }
-      LOGGER.info ("Successfully wrote all BCs as XML (no doctypes) to " + f.getAbsolutePath ());
+      return nRead;
     }
-    finally
+
+    @Override
+    public synchronized int read () throws IOException
     {
-      s_aRWLock.writeLock ().unlock ();
+      return _checkEOF (super.read ());
+    }
+
+    @Override
+    public synchronized int read (final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      return _checkEOF (super.read (aBuf, nOfs, nLen));
     }
-    return ESuccess.SUCCESS;
   }
 
   /**
-   * Stream the stored XML file to the provided HTTP response
+   * Start an export on demand. The export is written by a worker thread into a
+   * fixed size pipe, so that neither memory nor disk consumption depend on the
+   * size of the export. If the returned stream is closed before the end, the
+   * export is stopped.
+   *
+   * @param aExporter
+   *        The callback that writes the export. May not be <code>null</code>.
+   *        The output stream must not be closed by the callback.
+   * @return The stream to read the export from. Reading throws an
+   *         {@link IOException} if the export failed. Never <code>null</code>.
+   * @throws IOException
+   *         If the pipe could not be created
+   * @since 0.9.6
+   */
+  @Nonnull
+  static InputStream openLiveExport (@Nonnull final IThrowingConsumer <? super OutputStream, IOException> aExporter) throws IOException
+  {
+    final LiveExportInputStream aIS = new LiveExportInputStream ();
+    final PipedOutputStream aPOS = new PipedOutputStream (aIS);
+    PhotonWorkerPool.getInstance ().runThrowing ("LiveExport", () -> {
+      final OutputStream aOS = new BufferedOutputStream (aPOS, LIVE_EXPORT_PIPE_SIZE);
+      try
+      {
+        aExporter.accept (aOS);
+        aOS.flush ();
+      }
+      catch (final IOException | RuntimeException ex)
+      {
+        // Happens as well if the reader closed the stream. Must be set before
+        // the pipe is closed.
+        aIS.m_aError.set (ex);
+        LOGGER.warn ("Failed to create the live export: " + ex.getMessage ());
+      }
+      finally
+      {
+        StreamHelper.close (aOS);
+      }
+    });
+    return aIS;
+  }
+
+  /**
+   * Create an export on demand and stream it into the provided response. The
+   * export is only started when the response content is read and it is
+   * directly copied to the servlet output (see
+   * {@link #openLiveExport(IThrowingConsumer)}). If the response is not read
+   * or the client disconnects, nothing is left behind.
    *
+   * @param aExporter
+   *        The callback that writes the export. May not be <code>null</code>.
+   *        The output stream must not be closed by the callback.
    * @param aUR
    *        The response to stream to. May not be <code>null</code>.
+   * @since 0.9.6
    */
-  public static void streamFileBusinessCardXMLNoDocTypesTo (@Nonnull final UnifiedResponse aUR)
+  public static void streamLiveExportTo (@Nonnull final IThrowingConsumer <? super OutputStream, IOException> aExporter,
+                                         @Nonnull final UnifiedResponse aUR)
   {
-    // Do it in a read lock!
-    s_aRWLock.readLock ().lock ();
-    try
+    aUR.setContent (new IHasInputStream ()
     {
-      final File f = _getInternalFileBusinessCardXMLNoDocTypes ();
-      // setContent(IReadableResource) is lazy
-      aUR.setContent (new FileSystemResource (f));
-      final long nFileLen = f.length ();
-      if (nFileLen > 0)
-        aUR.setCustomResponseHeader (CHttpHeader.CONTENT_LENGTH, Long.toString (nFileLen));
-    }
-    finally
-    {
-      s_aRWLock.readLock ().unlock ();
-    }
+      @Nonnull
+      public InputStream getInputStream ()
+      {
+        try
+        {
+          return openLiveExport (aExporter);
+        }
+        catch (final IOException ex)
+        {
+          throw new UncheckedIOException (ex);
+        }
+      }
+
+      public boolean isReadMultiple ()
+      {
+        return false;
+      }
+    });
+  }
+
+  @Nonnull
+  static File getInternalFileBusinessCardXMLFull ()
+  {
+    return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_ALL_BUSINESSCARDS_XML_FULL);
+  }
+
+  /**
+   * @return The metadata of the current export file or <code>null</code> if no
+   *         export with metadata was created so far.
+   * @since 0.9.6
+   */
+  @Nullable
+  public static ExportFileMetadata getMetadataBusinessCardXMLFull ()
+  {
+    return _getFileMetadata (getInternalFileBusinessCardXMLFull ());
+  }
+
+  /**
+   * Stream the stored XML file to the provided HTTP response. Conditional
+   * requests, byte ranges and the precompressed gzip variant are supported.
+   *
+   * @param aRequestScope
+   *        The current request. May not be <code>null</code>.
+   * @param aUR
+   *        The response to stream to. May not be <code>null</code>.
+   */
+  public static void streamFileBusinessCardXMLFullTo (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                                                      @Nonnull final UnifiedResponse aUR)
+  {
+    _streamFileTo (getInternalFileBusinessCardXMLFull (), aRequestScope, aUR);
+  }
+
+  @Nonnull
+  static File getInternalFileBusinessCardXMLNoDocTypes ()
+  {
+    return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_ALL_BUSINESSCARDS_XML_NO_DOC_TYPES);
+  }
+
+  /**
+   * @return The metadata of the current export file or <code>null</code> if no
+   *         export with metadata was created so far.
+   * @since 0.9.6
+   */
+  @Nullable
+  public static ExportFileMetadata getMetadataBusinessCardXMLNoDocTypes ()
+  {
+    return _getFileMetadata (getInternalFileBusinessCardXMLNoDocTypes ());
+  }
+
+  /**
+   * Stream the stored XML file to the provided HTTP response. Conditional
+   * requests, byte ranges and the precompressed gzip variant are supported.
+   *
+   * @param aRequestScope
+   *        The current request. May not be <code>null</code>.
+   * @param aUR
+   *        The response to stream to. May not be <code>null</code>.
+   */
+  public static void streamFileBusinessCardXMLNoDocTypesTo (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                                                            @Nonnull final UnifiedResponse aUR)
+  {
+    _streamFileTo (getInternalFileBusinessCardXMLNoDocTypes (), aRequestScope, aUR);
   }
 
   @Nonnull
@@ -305,75 +747,72 @@ public final class ExportAllManager
     return aWBCH;
   }
 
-  @Nonnull
-  private static File _getInternalFileBusinessCardExcel ()
+  /**
+   * Write all business cards as an Excel file to the provided output stream.
+   * In contrast to {@link #queryAllContainedBusinessCardsAsExcel(EQueryMode,
+   * boolean)} only a small window of rows is kept in memory.
+   *
+   * @param eQueryMode
+   *        The query mode to use. May not be <code>null</code>.
+   * @param bIncludeDocTypes
+   *        <code>true</code> to include the document types.
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         On Lucene or write error
+   * @since 0.9.6
+   */
+  public static void writeAllContainedBusinessCardsAsExcel (@Nonnull final EQueryMode eQueryMode,
+                                                            final boolean bIncludeDocTypes,
+                                                            @Nonnull @WillNotClose final OutputStream aOS) throws IOException
   {
-    return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_ALL_BUSINESSCARDS_XLSX);
+    final Query aQuery = eQueryMode.getEffectiveQuery (new MatchAllDocsQuery ());
+    try (final ExportBusinessCardExcelWriter aWriter = new ExportBusinessCardExcelWriter (bIncludeDocTypes))
+    {
+      PDMetaManager.getStorageMgr ().searchAllDocuments (aQuery, -1, aWriter::addEntity);
+      aWriter.writeTo (aOS);
+    }
   }
 
   @Nonnull
-  static ESuccess writeFileBusinessCardExcel (@Nonnull final EQueryMode eQueryMode) throws IOException
+  static File getInternalFileBusinessCardExcel ()
   {
-    final WorkbookCreationHelper aWBCH = queryAllContainedBusinessCardsAsExcel (eQueryMode, true);
-    final File f = _getInternalFileBusinessCardExcel ();
-
-    // Do it in a write lock!
-    s_aRWLock.writeLock ().lock ();
-    try
-    {
-      if (aWBCH.writeTo (f).isFailure ())
-      {
-        if (LOGGER.isErrorEnabled ())
-          LOGGER.error ("Failed to export all BCs as XLSX to " + f.getAbsolutePath ());
-        return ESuccess.FAILURE;
-      }
-      LOGGER.info ("Successfully exported all BCs as XLSX to " + f.getAbsolutePath ());
-    }
-    finally
-    {
-      s_aRWLock.writeLock ().unlock ();
-    }
+    return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_ALL_BUSINESSCARDS_XLSX);
+  }
 
-    return ESuccess.SUCCESS;
+  /**
+   * @return The metadata of the current export file or <code>null</code> if no
+   *         export with metadata was created so far.
+   * @since 0.9.6
+   */
+  @Nullable
+  public static ExportFileMetadata getMetadataBusinessCardExcel ()
+  {
+    return _getFileMetadata (getInternalFileBusinessCardExcel ());
   }
 
   /**
-   * Stream the stored Excel file to the provided HTTP response
+   * Stream the stored Excel file to the provided HTTP response. Conditional
+   * requests, byte ranges and the precompressed gzip variant are supported.
    *
+   * @param aRequestScope
+   *        The current request. May not be <code>null</code>.
    * @param aUR
    *        The response to stream to. May not be <code>null</code>.
    */
-  public static void streamFileBusinessCardExcelTo (@Nonnull final UnifiedResponse aUR)
+  public static void streamFileBusinessCardExcelTo (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                                                    @Nonnull final UnifiedResponse aUR)
   {
-    // Do it in a read lock!
-    s_aRWLock.readLock ().lock ();
-    try
-    {
-      final File f = _getInternalFileBusinessCardExcel ();
-      // setContent(IReadableResource) is lazy
-      aUR.setContent (new FileSystemResource (f));
-      final long nFileLen = f.length ();
-      if (nFileLen > 0)
-        aUR.setCustomResponseHeader (CHttpHeader.CONTENT_LENGTH, Long.toString (nFileLen));
-    }
-    finally
-    {
-      s_aRWLock.readLock ().unlock ();
-    }
+    _streamFileTo (getInternalFileBusinessCardExcel (), aRequestScope, aUR);
   }
 
-  private static void _unify (@Nonnull @WillNotClose final CSVWriter aCSVWriter)
+  static void unifyCSV (@Nonnull @WillNotClose final CSVWriter aCSVWriter)
   {
     aCSVWriter.setSeparatorChar (';');
   }
 
-  public static void queryAllContainedBusinessCardsAsCSV (@Nonnull final EQueryMode eQueryMode,
-                                                          @Nonnull @WillNotClose final CSVWriter aCSVWriter) throws IOException
+  static void writeBusinessCardCSVHeader (@Nonnull @WillNotClose final CSVWriter aCSVWriter)
   {
-    _unify (aCSVWriter);
-
-    final Query aQuery = eQueryMode.getEffectiveQuery (new MatchAllDocsQuery ());
-
     aCSVWriter.writeNext ("Participant ID",
                           "Names (per-row)",
                           "Country code",
@@ -388,113 +827,143 @@ public final class ExportAllManager
                           "Additional info",
                           "Registration date",
                           "Document types");
+  }
 
-    final Consumer <? super PDStoredBusinessEntity> aConsumer = aEntity -> {
-      aCSVWriter.writeNext (aEntity.getParticipantID ().getURIEncoded (),
-                            StringHelper.getImplodedMapped ("\n",
-                                                            aEntity.names (),
-                                                            PDStoredMLName::getNameAndLanguageCode),
-                            aEntity.getCountryCode (),
-                            aEntity.getGeoInfo (),
-                            StringHelper.getImplodedMapped ("\n",
-                                                            aEntity.identifiers (),
-                                                            PDStoredIdentifier::getScheme),
-                            StringHelper.getImplodedMapped ("\n", aEntity.identifiers (), PDStoredIdentifier::getValue),
-                            StringHelper.getImploded ("\n", aEntity.websiteURIs ()),
-                            StringHelper.getImplodedMapped ("\n", aEntity.contacts (), PDStoredContact::getType),
-                            StringHelper.getImplodedMapped ("\n", aEntity.contacts (), PDStoredContact::getName),
-                            StringHelper.getImplodedMapped ("\n", aEntity.contacts (), PDStoredContact::getPhone),
-                            StringHelper.getImplodedMapped ("\n", aEntity.contacts (), PDStoredContact::getEmail),
-                            aEntity.getAdditionalInformation (),
-                            aEntity.getRegistrationDate () == null ? "" : aEntity.getRegistrationDate ().toString (),
-                            StringHelper.getImplodedMapped ("\n",
-                                                            aEntity.documentTypeIDs (),
-                                                            IDocumentTypeIdentifier::getURIEncoded));
-    };
-    PDMetaManager.getStorageMgr ().searchAllDocuments (aQuery, -1, aConsumer);
+  static void writeBusinessCardCSVLine (@Nonnull @WillNotClose final CSVWriter aCSVWriter,
+                                        @Nonnull final PDStoredBusinessEntity aEntity)
+  {
+    aCSVWriter.writeNext (aEntity.getParticipantID ().getURIEncoded (),
+                          StringHelper.getImplodedMapped ("\n", aEntity.names (), PDStoredMLName::getNameAndLanguageCode),
+                          aEntity.getCountryCode (),
+                          aEntity.getGeoInfo (),
+                          StringHelper.getImplodedMapped ("\n", aEntity.identifiers (), PDStoredIdentifier::getScheme),
+                          StringHelper.getImplodedMapped ("\n", aEntity.identifiers (), PDStoredIdentifier::getValue),
+                          StringHelper.getImploded ("\n", aEntity.websiteURIs ()),
+                          StringHelper.getImplodedMapped ("\n", aEntity.contacts (), PDStoredContact::getType),
+                          StringHelper.getImplodedMapped ("\n", aEntity.contacts (), PDStoredContact::getName),
+                          StringHelper.getImplodedMapped ("\n", aEntity.contacts (), PDStoredContact::getPhone),
+                          StringHelper.getImplodedMapped ("\n", aEntity.contacts (), PDStoredContact::getEmail),
+                          aEntity.getAdditionalInformation (),
+                          aEntity.getRegistrationDate () == null ? "" : aEntity.getRegistrationDate ().toString (),
+                          StringHelper.getImplodedMapped ("\n",
+                                                          aEntity.documentTypeIDs (),
+                                                          IDocumentTypeIdentifier::getURIEncoded));
+  }
+
+  public static void queryAllContainedBusinessCardsAsCSV (@Nonnull final EQueryMode eQueryMode,
+                                                          @Nonnull @WillNotClose final CSVWriter aCSVWriter) throws IOException
+  {
+    unifyCSV (aCSVWriter);
+
+    final Query aQuery = eQueryMode.getEffectiveQuery (new MatchAllDocsQuery ());
+
+    writeBusinessCardCSVHeader (aCSVWriter);
+    PDMetaManager.getStorageMgr ().searchAllDocuments (aQuery, -1, x -> writeBusinessCardCSVLine (aCSVWriter, x));
     aCSVWriter.flush ();
   }
 
   @Nonnull
-  private static File _getInternalFileBusinessCardCSV ()
+  static File getInternalFileBusinessCardCSV ()
   {
     return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_ALL_BUSINESSCARDS_CSV);
   }
 
-  @Nonnull
-  static ESuccess writeFileBusinessCardCSV (@Nonnull final EQueryMode eQueryMode)
+  /**
+   * @return The metadata of the current export file or <code>null</code> if no
+   *         export with metadata was created so far.
+   * @since 0.9.6
+   */
+  @Nullable
+  public static ExportFileMetadata getMetadataBusinessCardCSV ()
   {
-    final File f = _getInternalFileBusinessCardCSV ();
+    return _getFileMetadata (getInternalFileBusinessCardCSV ());
+  }
 
-    // Do it in a write lock!
-    s_aRWLock.writeLock ().lock ();
-    try (final CSVWriter aCSVWriter = new CSVWriter (FileHelper.getBufferedWriter (f, StandardCharsets.ISO_8859_1)))
-    {
-      queryAllContainedBusinessCardsAsCSV (eQueryMode, aCSVWriter);
-      LOGGER.info ("Successfully exported all BCs as CSV to " + f.getAbsolutePath ());
-    }
-    catch (final IOException ex)
-    {
-      LOGGER.error ("Failed to export all BCs as CSV to " + f.getAbsolutePath (), ex);
-    }
-    finally
-    {
-      s_aRWLock.writeLock ().unlock ();
-    }
+  /**
+   * Stream the stored CSV file to the provided HTTP response. Conditional
+   * requests, byte ranges and the precompressed gzip variant are supported.
+   *
+   * @param aRequestScope
+   *        The current request. May not be <code>null</code>.
+   * @param aUR
+   *        The response to stream to. May not be <code>null</code>.
+   */
+  public static void streamFileBusinessCardCSVTo (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                                                  @Nonnull final UnifiedResponse aUR)
+  {
+    _streamFileTo (getInternalFileBusinessCardCSV (), aRequestScope, aUR);
+  }
 
-    return ESuccess.SUCCESS;
+  @Nonnull
+  static File getInternalFileBusinessCardBinary ()
+  {
+    return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_ALL_BUSINESSCARDS_BINARY);
+  }
+
+  /**
+   * @return The metadata of the current export file or <code>null</code> if no
+   *         export with metadata was created so far.
+   * @since 0.9.6
+   */
+  @Nullable
+  public static ExportFileMetadata getMetadataBusinessCardBinary ()
+  {
+    return _getFileMetadata (getInternalFileBusinessCardBinary ());
   }
 
   /**
-   * Stream the stored CSV file to the provided HTTP response
+   * Stream the stored binary file to the provided HTTP response. Conditional
+   * requests and byte ranges are supported. The file can be read with
+   * {@link com.helger.pd.businesscard.bulk.PDBulkExportReader}.
    *
+   * @param aRequestScope
+   *        The current request. May not be <code>null</code>.
    * @param aUR
    *        The response to stream to. May not be <code>null</code>.
+   * @since 0.9.6
    */
-  public static void streamFileBusinessCardCSVTo (@Nonnull final UnifiedResponse aUR)
+  public static void streamFileBusinessCardBinaryTo (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                                                     @Nonnull final UnifiedResponse aUR)
   {
-    // Do it in a read lock!
-    s_aRWLock.readLock ().lock ();
-    try
-    {
-      final File f = _getInternalFileBusinessCardCSV ();
-      // setContent(IReadableResource) is lazy
-      aUR.setContent (new FileSystemResource (f));
-      final long nFileLen = f.length ();
-      if (nFileLen > 0)
-        aUR.setCustomResponseHeader (CHttpHeader.CONTENT_LENGTH, Long.toString (nFileLen));
-    }
-    finally
-    {
-      s_aRWLock.readLock ().unlock ();
-    }
+    _streamFileTo (getInternalFileBusinessCardBinary (), aRequestScope, aUR);
   }
 
   @Nonnull
-  private static File _getInternalFileParticipantXML ()
+  static File getInternalFileParticipantXML ()
   {
     return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_ALL_PARTICIPANTS_XML);
   }
 
-  @Nonnull
-  public static IMicroDocument queryAllContainedParticipantsAsXML (@Nonnull final EQueryMode eQueryMode) throws IOException
+  /**
+   * @return The metadata of the current export file or <code>null</code> if no
+   *         export with metadata was created so far.
+   * @since 0.9.6
+   */
+  @Nullable
+  public static ExportFileMetadata getMetadataParticipantXML ()
   {
-    final Query aQuery = eQueryMode.getEffectiveQuery (new MatchAllDocsQuery ());
+    return _getFileMetadata (getInternalFileParticipantXML ());
+  }
 
-    // Query all and group by participant ID
-    final ICommonsSortedSet <IParticipantIdentifier> aSet = new CommonsTreeSet <> (Comparator.comparing (IParticipantIdentifier::getURIEncoded));
-    PDMetaManager.getStorageMgr ().searchAll (aQuery, -1, PDField.PARTICIPANT_ID::getDocValue, aSet::add);
+  @Nonnull
+  static ICommonsSortedSet <IParticipantIdentifier> createParticipantSet ()
+  {
+    return new CommonsTreeSet <> (Comparator.comparing (IParticipantIdentifier::getURIEncoded));
+  }
 
+  @Nonnull
+  static IMicroDocument getParticipantsAsXML (@Nonnull final Collection <? extends IParticipantIdentifier> aParticipantIDs)
+  {
     // XML root
     final IMicroDocument aDoc = new MicroDocument ();
     final String sNamespaceURI = "http://www.peppol.eu/schema/pd/participant-generic/201910/";
     final IMicroElement aRoot = aDoc.appendElement (sNamespaceURI, "root");
     aRoot.setAttribute ("version", "1");
     aRoot.setAttribute ("creationdt", PDTWebDateHelper.getAsStringXSD (PDTFactory.getCurrentZonedDateTimeUTC ()));
-    aRoot.setAttribute ("count", aSet.size ());
+    aRoot.setAttribute ("count", aParticipantIDs.size ());
 
     // For all participants
-    for (final IParticipantIdentifier aParticipantID : aSet)
+    for (final IParticipantIdentifier aParticipantID : aParticipantIDs)
     {
       aRoot.appendElement (sNamespaceURI, "participantID")
            .setAttribute ("scheme", aParticipantID.getScheme ())
@@ -505,79 +974,60 @@ public final class ExportAllManager
   }
 
   @Nonnull
-  static ESuccess writeFileParticipantXML (@Nonnull final EQueryMode eQueryMode) throws IOException
+  public static IMicroDocument queryAllContainedParticipantsAsXML (@Nonnull final EQueryMode eQueryMode) throws IOException
   {
-    final IMicroDocument aDoc = queryAllContainedParticipantsAsXML (eQueryMode);
-    final File f = _getInternalFileParticipantXML ();
+    final Query aQuery = eQueryMode.getEffectiveQuery (new MatchAllDocsQuery ());
 
-    // Do it in a write lock!
-    s_aRWLock.writeLock ().lock ();
-    try
-    {
-      if (MicroWriter.writeToFile (aDoc, f).isFailure ())
-      {
-        if (LOGGER.isErrorEnabled ())
-          LOGGER.error ("Failed to export all Participants as XML to " + f.getAbsolutePath ());
-        return ESuccess.FAILURE;
-      }
-      LOGGER.info ("Successfully wrote all Participants as XML to " + f.getAbsolutePath ());
-    }
-    finally
-    {
-      s_aRWLock.writeLock ().unlock ();
-    }
-    return ESuccess.SUCCESS;
+    // Query all and group by participant ID
+    final ICommonsSortedSet <IParticipantIdentifier> aSet = createParticipantSet ();
+    PDMetaManager.getStorageMgr ().searchAll (aQuery, -1, PDField.PARTICIPANT_ID::getDocValue, aSet::add);
+
+    return getParticipantsAsXML (aSet);
   }
 
   /**
-   * Stream the stored XML file to the provided HTTP response
+   * Stream the stored XML file to the provided HTTP response. Conditional
+   * requests, byte ranges and the precompressed gzip variant are supported.
    *
+   * @param aRequestScope
+   *        The current request. May not be <code>null</code>.
    * @param aUR
    *        The response to stream to. May not be <code>null</code>.
    */
-  public static void streamFileParticipantXMLTo (@Nonnull final UnifiedResponse aUR)
+  public static void streamFileParticipantXMLTo (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                                                 @Nonnull final UnifiedResponse aUR)
   {
-    // Do it in a read lock!
-    s_aRWLock.readLock ().lock ();
-    try
-    {
-      final File f = _getInternalFileParticipantXML ();
-      // setContent(IReadableResource) is lazy
-      aUR.setContent (new FileSystemResource (f));
-      final long nFileLen = f.length ();
-      if (nFileLen > 0)
-        aUR.setCustomResponseHeader (CHttpHeader.CONTENT_LENGTH, Long.toString (nFileLen));
-    }
-    finally
-    {
-      s_aRWLock.readLock ().unlock ();
-    }
+    _streamFileTo (getInternalFileParticipantXML (), aRequestScope, aUR);
   }
 
   @Nonnull
-  private static File _getInternalFileParticipantJSON ()
+  static File getInternalFileParticipantJSON ()
   {
     return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_ALL_PARTICIPANTS_JSON);
   }
 
-  @Nonnull
-  public static IJsonObject queryAllContainedParticipantsAsJSON (@Nonnull final EQueryMode eQueryMode) throws IOException
+  /**
+   * @return The metadata of the current export file or <code>null</code> if no
+   *         export with metadata was created so far.
+   * @since 0.9.6
+   */
+  @Nullable
+  public static ExportFileMetadata getMetadataParticipantJSON ()
   {
-    final Query aQuery = eQueryMode.getEffectiveQuery (new MatchAllDocsQuery ());
-
-    // Query all and group by participant ID
-    final ICommonsSortedSet <IParticipantIdentifier> aSet = new CommonsTreeSet <> (Comparator.comparing (IParticipantIdentifier::getURIEncoded));
-    PDMetaManager.getStorageMgr ().searchAll (aQuery, -1, PDField.PARTICIPANT_ID::getDocValue, aSet::add);
+    return _getFileMetadata (getInternalFileParticipantJSON ());
+  }
 
-    // XML root
+  @Nonnull
+  static IJsonObject getParticipantsAsJSON (@Nonnull final Collection <? extends IParticipantIdentifier> aParticipantIDs)
+  {
     final IJsonObject aObj = new JsonObject ();
     aObj.add ("version", 1);
     aObj.add ("creationdt", PDTWebDateHelper.getAsStringXSD (PDTFactory.getCurrentZonedDateTimeUTC ()));
-    aObj.add ("count", aSet.size ());
+    aObj.add ("count", aParticipantIDs.size ());
 
     // For all participants
     final IJsonArray aArray = new JsonArray ();
-    for (final IParticipantIdentifier aParticipantID : aSet)
+    for (final IParticipantIdentifier aParticipantID : aParticipantIDs)
       aArray.add (aParticipantID.getURIEncoded ());
     aObj.addJson ("participants", aArray);
 
@@ -585,64 +1035,53 @@ public final class ExportAllManager
   }
 
   @Nonnull
-  static ESuccess writeFileParticipantJSON (@Nonnull final EQueryMode eQueryMode) throws IOException
+  public static IJsonObject queryAllContainedParticipantsAsJSON (@Nonnull final EQueryMode eQueryMode) throws IOException
   {
-    final IJsonObject aObj = queryAllContainedParticipantsAsJSON (eQueryMode);
-    final File f = _getInternalFileParticipantJSON ();
+    final Query aQuery = eQueryMode.getEffectiveQuery (new MatchAllDocsQuery ());
 
-    // Do it in a write lock!
-    s_aRWLock.writeLock ().lock ();
-    try (final Writer aWriter = FileHelper.getBufferedWriter (f, StandardCharsets.UTF_8))
-    {
-      new JsonWriter ().writeToWriterAndClose (aObj, aWriter);
-      LOGGER.info ("Successfully wrote all Participants as JSON to " + f.getAbsolutePath ());
-    }
-    catch (final IOException ex)
-    {
-      LOGGER.error ("Failed to export all Participants as JSON to " + f.getAbsolutePath (), ex);
-    }
-    finally
-    {
-      s_aRWLock.writeLock ().unlock ();
-    }
-    return ESuccess.SUCCESS;
+    // Query all and group by participant ID
+    final ICommonsSortedSet <IParticipantIdentifier> aSet = createParticipantSet ();
+    PDMetaManager.getStorageMgr ().searchAll (aQuery, -1, PDField.PARTICIPANT_ID::getDocValue, aSet::add);
+
+    return getParticipantsAsJSON (aSet);
   }
 
   /**
-   * Stream the stored JSON file to the provided HTTP response
+   * Stream the stored JSON file to the provided HTTP response. Conditional
+   * requests, byte ranges and the precompressed gzip variant are supported.
    *
+   * @param aRequestScope
+   *        The current request. May not be <code>null</code>.
    * @param aUR
    *        The response to stream to. May not be <code>null</code>.
    */
-  public static void streamFileParticipantJSONTo (@Nonnull final UnifiedResponse aUR)
+  public static void streamFileParticipantJSONTo (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                                                  @Nonnull final UnifiedResponse aUR)
   {
-    // Do it in a read lock!
-    s_aRWLock.readLock ().lock ();
-    try
-    {
-      final File f = _getInternalFileParticipantJSON ();
-      // setContent(IReadableResource) is lazy
-      aUR.setContent (new FileSystemResource (f));
-      final long nFileLen = f.length ();
-      if (nFileLen > 0)
-        aUR.setCustomResponseHeader (CHttpHeader.CONTENT_LENGTH, Long.toString (nFileLen));
-    }
-    finally
-    {
-      s_aRWLock.readLock ().unlock ();
-    }
+    _streamFileTo (getInternalFileParticipantJSON (), aRequestScope, aUR);
   }
 
   @Nonnull
-  private static File _getInternalFileParticipantCSV ()
+  static File getInternalFileParticipantCSV ()
   {
     return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_ALL_PARTICIPANTS_CSV);
   }
 
+  /**
+   * @return The metadata of the current export file or <code>null</code> if no
+   *         export with metadata was created so far.
+   * @since 0.9.6
+   */
+  @Nullable
+  public static ExportFileMetadata getMetadataParticipantCSV ()
+  {
+    return _getFileMetadata (getInternalFileParticipantCSV ());
+  }
+
   public static void queryAllContainedParticipantsAsCSV (@Nonnull final EQueryMode eQueryMode,
                                                          @Nonnull @WillNotClose final CSVWriter aCSVWriter) throws IOException
   {
-    _unify (aCSVWriter);
+    unifyCSV (aCSVWriter);
 
     final Query aQuery = eQueryMode.getEffectiveQuery (new MatchAllDocsQuery ());
 
@@ -655,51 +1094,181 @@ public final class ExportAllManager
     aCSVWriter.flush ();
   }
 
+  /**
+   * Stream the stored CSV file to the provided HTTP response. Conditional
+   * requests, byte ranges and the precompressed gzip variant are supported.
+   *
+   * @param aRequestScope
+   *        The current request. May not be <code>null</code>.
+   * @param aUR
+   *        The response to stream to. May not be <code>null</code>.
+   */
+  public static void streamFileParticipantCSVTo (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                                                 @Nonnull final UnifiedResponse aUR)
+  {
+    _streamFileTo (getInternalFileParticipantCSV (), aRequestScope, aUR);
+  }
+
   @Nonnull
-  static ESuccess writeFileParticipantCSV (@Nonnull final EQueryMode eQueryMode)
+  public static String getExternalFilenameBusinessCardDelta (final long nGeneration)
   {
-    final File f = _getInternalFileParticipantCSV ();
+    return EXTERNAL_EXPORT_DELTA_BUSINESSCARDS_PREFIX + nGeneration + ".xml";
+  }
 
-    // Do it in a write lock!
-    s_aRWLock.writeLock ().lock ();
-    try (final CSVWriter aCSVWriter = new CSVWriter (FileHelper.getBufferedWriter (f, StandardCharsets.ISO_8859_1)))
-    {
-      queryAllContainedParticipantsAsCSV (eQueryMode, aCSVWriter);
-      LOGGER.info ("Successfully wrote all Participants as CSV to " + f.getAbsolutePath ());
-    }
-    catch (final IOException ex)
-    {
-      LOGGER.error ("Failed to export all Participants as CSV to " + f.getAbsolutePath (), ex);
-    }
-    finally
-    {
-      s_aRWLock.writeLock ().unlock ();
-    }
-    return ESuccess.SUCCESS;
+  @Nonnull
+  static File getInternalFileBusinessCardDelta (final long nGeneration)
+  {
+    return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_DELTA_BUSINESSCARDS_PREFIX + nGeneration + ".xml");
+  }
+
+  @Nonnull
+  static File getInternalFileBusinessCardDeltaManifest ()
+  {
+    return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_DELTA_BUSINESSCARDS_MANIFEST);
+  }
+
+  @Nonnull
+  static File getInternalFileBusinessCardDeltaState ()
+  {
+    return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_DELTA_BUSINESSCARDS_STATE);
+  }
+
+  @Nonnull
+  static File getInternalFileGeneration ()
+  {
+    return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_GENERATION);
+  }
+
+  @Nonnull
+  static File getInternalFileScheduleState ()
+  {
+    return WebFileIO.getDataIO ().getFile (INTERNAL_EXPORT_SCHEDULE_STATE);
+  }
+
+  @Nonnull
+  public static String getExternalFilenameBusinessCardPartition (@Nonnull final EExportPartitionMode eMode,
+                                                                 @Nonnull @Nonempty final String sPartitionKey)
+  {
+    return EXTERNAL_EXPORT_PARTITION_BUSINESSCARDS_PREFIX + eMode.getID () + "-" + sPartitionKey + ".xml";
+  }
+
+  @Nonnull
+  public static String getExternalFilenameBusinessCardPartitionManifest (@Nonnull final EExportPartitionMode eMode)
+  {
+    return EXTERNAL_EXPORT_PARTITION_BUSINESSCARDS_PREFIX + eMode.getID () + "-" + PARTITION_MANIFEST + ".xml";
+  }
+
+  @Nonnull
+  static File getInternalFileBusinessCardPartition (@Nonnull final EExportPartitionMode eMode,
+                                                    @Nonnull @Nonempty final String sPartitionKey)
+  {
+    if (!EExportPartitionMode.isValidPartitionKey (sPartitionKey))
+      throw new IllegalArgumentException ("Invalid partition key '" + sPartitionKey + "'");
+    return WebFileIO.getDataIO ()
+                    .getFile (INTERNAL_EXPORT_PARTITION_BUSINESSCARDS_PREFIX + eMode.getID () + "-" + sPartitionKey + ".xml");
+  }
+
+  @Nonnull
+  static File getInternalFileBusinessCardPartitionManifest (@Nonnull final EExportPartitionMode eMode)
+  {
+    // The manifest name contains a dash, so it cannot clash with a partition
+    return WebFileIO.getDataIO ()
+                    .getFile (INTERNAL_EXPORT_PARTITION_BUSINESSCARDS_PREFIX + eMode.getID () + "-" + PARTITION_MANIFEST + "-list.xml");
   }
 
   /**
-   * Stream the stored CSV file to the provided HTTP response
+   * Stream a single partition of the business card export to the provided
+   * HTTP response. If the partition does not exist, a 404 is returned.
    *
+   * @param eMode
+   *        The partition mode. May not be <code>null</code>.
+   * @param sPartitionKey
+   *        The partition key. May be <code>null</code>.
+   * @param aRequestScope
+   *        The current request. May not be <code>null</code>.
    * @param aUR
    *        The response to stream to. May not be <code>null</code>.
+   * @since 0.9.6
    */
-  public static void streamFileParticipantCSVTo (@Nonnull final UnifiedResponse aUR)
+  public static void streamFileBusinessCardPartitionTo (@Nonnull final EExportPartitionMode eMode,
+                                                        @Nullable final String sPartitionKey,
+                                                        @Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                                                        @Nonnull final UnifiedResponse aUR)
   {
-    // Do it in a read lock!
-    s_aRWLock.readLock ().lock ();
-    try
-    {
-      final File f = _getInternalFileParticipantCSV ();
-      // setContent(IReadableResource) is lazy
-      aUR.setContent (new FileSystemResource (f));
-      final long nFileLen = f.length ();
-      if (nFileLen > 0)
-        aUR.setCustomResponseHeader (CHttpHeader.CONTENT_LENGTH, Long.toString (nFileLen));
-    }
-    finally
+    if (EExportPartitionMode.isValidPartitionKey (sPartitionKey))
     {
-      s_aRWLock.readLock ().unlock ();
+      final File f = getInternalFileBusinessCardPartition (eMode, sPartitionKey);
+      if (f.isFile ())
+      {
+        _streamFileTo (f, aRequestScope, aUR);
+        return;
+      }
     }
+    aUR.setStatus (HttpServletResponse.SC_NOT_FOUND);
+  }
+
+  /**
+   * Stream the manifest of all partitions of the provided mode to the provided
+   * HTTP response. If no such export exists, a 404 is returned.
+   *
+   * @param eMode
+   *        The partition mode. May not be <code>null</code>.
+   * @param aRequestScope
+   *        The current request. May not be <code>null</code>.
+   * @param aUR
+   *        The response to stream to. May not be <code>null</code>.
+   * @since 0.9.6
+   */
+  public static void streamFileBusinessCardPartitionManifestTo (@Nonnull final EExportPartitionMode eMode,
+                                                                @Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                                                                @Nonnull final UnifiedResponse aUR)
+  {
+    final File f = getInternalFileBusinessCardPartitionManifest (eMode);
+    if (f.isFile ())
+      _streamFileTo (f, aRequestScope, aUR);
+    else
+      aUR.setStatus (HttpServletResponse.SC_NOT_FOUND);
+  }
+
+  /**
+   * Stream the delta of the provided generation to the provided HTTP response.
+   * If the delta does not exist (anymore), a 404 is returned.
+   *
+   * @param nGeneration
+   *        The generation of the delta to be streamed.
+   * @param aRequestScope
+   *        The current request. May not be <code>null</code>.
+   * @param aUR
+   *        The response to stream to. May not be <code>null</code>.
+   * @since 0.9.6
+   */
+  public static void streamFileBusinessCardDeltaTo (final long nGeneration,
+                                                    @Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                                                    @Nonnull final UnifiedResponse aUR)
+  {
+    final File f = getInternalFileBusinessCardDelta (nGeneration);
+    if (f.isFile ())
+      _streamFileTo (f, aRequestScope, aUR);
+    else
+      aUR.setStatus (HttpServletResponse.SC_NOT_FOUND);
+  }
+
+  /**
+   * Stream the manifest of all available deltas to the provided HTTP response.
+   *
+   * @param aRequestScope
+   *        The current request. May not be <code>null</code>.
+   * @param aUR
+   *        The response to stream to. May not be <code>null</code>.
+   * @since 0.9.6
+   */
+  public static void streamFileBusinessCardDeltaManifestTo (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                                                            @Nonnull final UnifiedResponse aUR)
+  {
+    final File f = getInternalFileBusinessCardDeltaManifest ();
+    if (f.isFile ())
+      _streamFileTo (f, aRequestScope, aUR);
+    else
+      aUR.setStatus (HttpServletResponse.SC_NOT_FOUND);
   }
 }
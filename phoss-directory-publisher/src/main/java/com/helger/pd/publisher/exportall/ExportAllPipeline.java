@@ -0,0 +1,392 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.functional.IThrowingConsumer;
+import com.helger.commons.state.ESuccess;
+import com.helger.commons.timing.StopWatch;
+import com.helger.pd.indexer.mgr.PDMetaManager;
+import com.helger.pd.indexer.storage.EQueryMode;
+import com.helger.pd.indexer.storage.PDStoredBusinessEntity;
+
+/**
+ * Export pipeline that scans the index only once and passes each decoded
+ * entity to all registered {@link IExportAllSink} objects. Each sink runs in
+ * its own thread and is fed via a bounded queue, so the total export time is
+ * roughly the time of the slowest sink and not the sum of all sinks. The
+ * entities are passed in chunks to reduce the synchronization overhead.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@NotThreadSafe
+public final class ExportAllPipeline
+{
+  /** The default number of entities passed to a sink at once */
+  public static final int DEFAULT_CHUNK_SIZE = 256;
+  /** The default number of chunks that may be queued per sink */
+  public static final int DEFAULT_QUEUE_CAPACITY = 16;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (ExportAllPipeline.class);
+  private static final long POLL_MILLIS = 500;
+  // Compared by identity
+  private static final ICommonsList <PDStoredBusinessEntity> END_OF_DATA = new CommonsArrayList <> (0);
+
+  private final ICommonsList <IExportAllSink> m_aSinks;
+  private final int m_nChunkSize;
+  private final int m_nQueueCapacity;
+
+  /**
+   * Worker that passes all queued chunks to a single sink.
+   *
+   * @author Philip Helger
+   */
+  private static final class SinkWorker implements Callable <ESuccess>
+  {
+    private final IExportAllSink m_aSink;
+    private final ExportGeneration m_aGeneration;
+    private final BlockingQueue <ICommonsList <PDStoredBusinessEntity>> m_aQueue;
+    private final AtomicBoolean m_aScanAborted;
+    private volatile boolean m_bDone = false;
+
+    SinkWorker (@Nonnull final IExportAllSink aSink,
+                @Nonnull final ExportGeneration aGeneration,
+                @Nonnegative final int nQueueCapacity,
+                @Nonnull final AtomicBoolean aScanAborted)
+    {
+      m_aSink = aSink;
+      m_aGeneration = aGeneration;
+      m_aQueue = new ArrayBlockingQueue <> (nQueueCapacity);
+      m_aScanAborted = aScanAborted;
+    }
+
+    boolean isDone ()
+    {
+      return m_bDone;
+    }
+
+    /**
+     * Add a chunk to the queue, waiting if the queue is full. If the worker
+     * terminated unexpectedly, the chunk is discarded so that the scan does not
+     * block forever.
+     */
+    void put (@Nonnull final ICommonsList <PDStoredBusinessEntity> aChunk) throws InterruptedException
+    {
+      while (!m_aQueue.offer (aChunk, POLL_MILLIS, TimeUnit.MILLISECONDS))
+        if (m_bDone)
+          break;
+    }
+
+    @Nonnull
+    private ESuccess _run () throws InterruptedException
+    {
+      final String sName = m_aSink.getDisplayName ();
+      boolean bHealthy = true;
+      try
+      {
+        m_aSink.onStart (m_aGeneration);
+      }
+      catch (final IOException | RuntimeException ex)
+      {
+        LOGGER.error ("Failed to start export sink '" + sName + "'", ex);
+        bHealthy = false;
+      }
+
+      // Even a failed sink must drain its queue, so that the scan is not blocked
+      while (true)
+      {
+        if (m_aScanAborted.get ())
+        {
+          m_aSink.onAbort ();
+          return ESuccess.FAILURE;
+        }
+
+        final ICommonsList <PDStoredBusinessEntity> aChunk = m_aQueue.poll (POLL_MILLIS, TimeUnit.MILLISECONDS);
+        if (aChunk == null)
+          continue;
+        if (aChunk == END_OF_DATA)
+          break;
+
+        if (bHealthy)
+          try
+          {
+            for (final PDStoredBusinessEntity aEntity : aChunk)
+              m_aSink.onEntity (aEntity);
+          }
+          catch (final IOException | RuntimeException ex)
+          {
+            LOGGER.error ("Failed to write to export sink '" + sName + "'", ex);
+            bHealthy = false;
+          }
+      }
+
+      if (bHealthy)
+        try
+        {
+          m_aSink.onFinish ();
+          return ESuccess.SUCCESS;
+        }
+        catch (final IOException | RuntimeException ex)
+        {
+          LOGGER.error ("Failed to finish export sink '" + sName + "'", ex);
+        }
+      m_aSink.onAbort ();
+      return ESuccess.FAILURE;
+    }
+
+    @Nonnull
+    public ESuccess call ()
+    {
+      final String sName = m_aSink.getDisplayName ();
+      final StopWatch aSW = StopWatch.createdStarted ();
+      LOGGER.info ("Start exporting " + sName);
+      ESuccess eSuccess = ESuccess.FAILURE;
+      try
+      {
+        eSuccess = _run ();
+      }
+      catch (final InterruptedException ex)
+      {
+        LOGGER.error ("Export sink '" + sName + "' was interrupted");
+        m_aSink.onAbort ();
+        Thread.currentThread ().interrupt ();
+      }
+      finally
+      {
+        m_bDone = true;
+        LOGGER.info ((eSuccess.isSuccess () ? "Finished" : "Failed") +
+                     " exporting " +
+                     sName +
+                     " after " +
+                     aSW.stopAndGetMillis () +
+                     " milliseconds");
+      }
+      return eSuccess;
+    }
+  }
+
+  /**
+   * Collects the scanned entities into chunks and passes each full chunk to
+   * all workers.
+   *
+   * @author Philip Helger
+   */
+  private static final class ChunkDispatcher implements Consumer <PDStoredBusinessEntity>
+  {
+    private final ICommonsList <SinkWorker> m_aWorkers;
+    private final int m_nChunkSize;
+    private ICommonsList <PDStoredBusinessEntity> m_aChunk;
+    private int m_nEntityCount = 0;
+
+    ChunkDispatcher (@Nonnull final ICommonsList <SinkWorker> aWorkers, @Nonnegative final int nChunkSize)
+    {
+      m_aWorkers = aWorkers;
+      m_nChunkSize = nChunkSize;
+      m_aChunk = new CommonsArrayList <> (nChunkSize);
+    }
+
+    void dispatch (@Nonnull final ICommonsList <PDStoredBusinessEntity> aChunk)
+    {
+      try
+      {
+        for (final SinkWorker aWorker : m_aWorkers)
+          aWorker.put (aChunk);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new UncheckedIOException (new InterruptedIOException ("Interrupted while exporting"));
+      }
+    }
+
+    public void accept (@Nonnull final PDStoredBusinessEntity aEntity)
+    {
+      m_aChunk.add (aEntity);
+      m_nEntityCount++;
+      if (m_aChunk.size () >= m_nChunkSize)
+      {
+        // The chunk is shared by all workers, so a new one is needed
+        dispatch (m_aChunk);
+        m_aChunk = new CommonsArrayList <> (m_nChunkSize);
+      }
+    }
+
+    void finish ()
+    {
+      if (m_aChunk.isNotEmpty ())
+        dispatch (m_aChunk);
+      dispatch (END_OF_DATA);
+    }
+
+    int getEntityCount ()
+    {
+      return m_nEntityCount;
+    }
+  }
+
+  public ExportAllPipeline (@Nonnull @Nonempty final ICommonsList <? extends IExportAllSink> aSinks)
+  {
+    this (aSinks, DEFAULT_CHUNK_SIZE, DEFAULT_QUEUE_CAPACITY);
+  }
+
+  public ExportAllPipeline (@Nonnull @Nonempty final ICommonsList <? extends IExportAllSink> aSinks,
+                            @Nonnegative final int nChunkSize,
+                            @Nonnegative final int nQueueCapacity)
+  {
+    ValueEnforcer.notEmptyNoNullValue (aSinks, "Sinks");
+    ValueEnforcer.isGT0 (nChunkSize, "ChunkSize");
+    ValueEnforcer.isGT0 (nQueueCapacity, "QueueCapacity");
+    m_aSinks = new CommonsArrayList <> (aSinks);
+    m_nChunkSize = nChunkSize;
+    m_nQueueCapacity = nQueueCapacity;
+  }
+
+  /**
+   * Scan the index once and pass all matching entities to all sinks.
+   *
+   * @param aGeneration
+   *        The generation of this export run. May not be <code>null</code>.
+   * @param aQuery
+   *        The query to use. May not be <code>null</code>.
+   * @return {@link ESuccess#SUCCESS} if all sinks finished successfully,
+   *         {@link ESuccess#FAILURE} if at least one sink failed. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         If the index scan failed. In that case all sinks were aborted.
+   */
+  @Nonnull
+  public ESuccess run (@Nonnull final ExportGeneration aGeneration, @Nonnull final Query aQuery) throws IOException
+  {
+    ValueEnforcer.notNull (aQuery, "Query");
+
+    return run (aGeneration, aConsumer -> PDMetaManager.getStorageMgr ().searchAllDocuments (aQuery, -1, aConsumer));
+  }
+
+  /**
+   * Run the provided scan once and pass all scanned entities to all sinks.
+   *
+   * @param aGeneration
+   *        The generation of this export run. May not be <code>null</code>.
+   * @param aScanner
+   *        The scanner that passes all entities to the provided consumer. May
+   *        not be <code>null</code>.
+   * @return {@link ESuccess#SUCCESS} if all sinks finished successfully,
+   *         {@link ESuccess#FAILURE} if at least one sink failed. Never
+   *         <code>null</code>.
+   * @throws IOException
+   *         If the scan failed. In that case all sinks were aborted.
+   */
+  @Nonnull
+  ESuccess run (@Nonnull final ExportGeneration aGeneration,
+                @Nonnull final IThrowingConsumer <Consumer <PDStoredBusinessEntity>, IOException> aScanner) throws IOException
+  {
+    ValueEnforcer.notNull (aGeneration, "Generation");
+    ValueEnforcer.notNull (aScanner, "Scanner");
+
+    final AtomicBoolean aScanAborted = new AtomicBoolean (false);
+    final ICommonsList <SinkWorker> aWorkers = m_aSinks.getAllMapped (x -> new SinkWorker (x,
+                                                                                          aGeneration,
+                                                                                          m_nQueueCapacity,
+                                                                                          aScanAborted));
+    final ExecutorService aExecutor = Executors.newFixedThreadPool (aWorkers.size (),
+                                                                    new BasicThreadFactory.Builder ().namingPattern ("pd-export-%d")
+                                                                                                     .daemon (true)
+                                                                                                     .build ());
+    final ICommonsList <Future <ESuccess>> aFutures = new CommonsArrayList <> ();
+    for (final SinkWorker aWorker : aWorkers)
+      aFutures.add (aExecutor.submit (aWorker));
+
+    final ChunkDispatcher aDispatcher = new ChunkDispatcher (aWorkers, m_nChunkSize);
+    boolean bScanSuccess = false;
+    try
+    {
+      aScanner.accept (aDispatcher);
+      aDispatcher.finish ();
+      bScanSuccess = true;
+      LOGGER.info ("Scanned " +
+                   aDispatcher.getEntityCount () +
+                   " entities for " +
+                   aWorkers.size () +
+                   " export sink(s) of generation " +
+                   aGeneration.getGeneration ());
+    }
+    catch (final UncheckedIOException ex)
+    {
+      throw ex.getCause ();
+    }
+    finally
+    {
+      if (!bScanSuccess)
+        aScanAborted.set (true);
+      aExecutor.shutdown ();
+    }
+
+    ESuccess eSuccess = ESuccess.SUCCESS;
+    for (final Future <ESuccess> aFuture : aFutures)
+      try
+      {
+        if (aFuture.get ().isFailure ())
+          eSuccess = ESuccess.FAILURE;
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        aScanAborted.set (true);
+        eSuccess = ESuccess.FAILURE;
+      }
+      catch (final ExecutionException ex)
+      {
+        LOGGER.error ("Export sink terminated unexpectedly", ex.getCause ());
+        eSuccess = ESuccess.FAILURE;
+      }
+    return eSuccess;
+  }
+
+  @Nonnull
+  public ESuccess run (@Nonnull final ExportGeneration aGeneration, @Nonnull final EQueryMode eQueryMode) throws IOException
+  {
+    return run (aGeneration, eQueryMode.getEffectiveQuery (new MatchAllDocsQuery ()));
+  }
+}
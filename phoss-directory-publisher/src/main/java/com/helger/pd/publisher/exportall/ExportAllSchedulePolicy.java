@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import java.time.Duration;
+
+import javax.annotation.CheckForSigned;
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.pd.indexer.settings.PDServerConfiguration;
+
+/**
+ * Decides whether the exported data needs to be regenerated. An export is
+ * triggered if no export is present, if enough index changes accumulated since
+ * the last export or if the last export reached its maximum age. If the index
+ * did not change at all, no export is triggered.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@Immutable
+public final class ExportAllSchedulePolicy
+{
+  private final long m_nMinChanges;
+  private final Duration m_aMinInterval;
+  private final Duration m_aMaxAge;
+
+  public ExportAllSchedulePolicy (@Nonnegative final long nMinChanges,
+                                  @Nonnull final Duration aMinInterval,
+                                  @Nonnull final Duration aMaxAge)
+  {
+    ValueEnforcer.isGT0 (nMinChanges, "MinChanges");
+    ValueEnforcer.notNull (aMinInterval, "MinInterval");
+    ValueEnforcer.isFalse (aMinInterval.isNegative (), "MinInterval may not be negative");
+    ValueEnforcer.notNull (aMaxAge, "MaxAge");
+    ValueEnforcer.isFalse (aMaxAge.isNegative () || aMaxAge.isZero (), "MaxAge must be positive");
+    m_nMinChanges = nMinChanges;
+    m_aMinInterval = aMinInterval;
+    m_aMaxAge = aMaxAge;
+  }
+
+  /**
+   * @return The number of index changes that trigger an export. Always &gt; 0.
+   */
+  @Nonnegative
+  public long getMinChanges ()
+  {
+    return m_nMinChanges;
+  }
+
+  /**
+   * @return The minimum duration between two exports triggered by the number
+   *         of changes. Never <code>null</code>.
+   */
+  @Nonnull
+  public Duration getMinInterval ()
+  {
+    return m_aMinInterval;
+  }
+
+  /**
+   * @return The maximum age of an export if the index changed. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public Duration getMaxAge ()
+  {
+    return m_aMaxAge;
+  }
+
+  /**
+   * Check if an export is required.
+   *
+   * @param nChanges
+   *        The number of index changes since the last export. A negative value
+   *        means that the number is unknown.
+   * @param aAge
+   *        The age of the last export. May be <code>null</code> if no export
+   *        is present.
+   * @return <code>null</code> if no export is required, the human readable
+   *         reason for the export otherwise.
+   */
+  @Nullable
+  public String getExportReason (@CheckForSigned final long nChanges, @Nullable final Duration aAge)
+  {
+    if (aAge == null)
+      return "no export is present";
+    if (nChanges < 0)
+      return "the index state of the last export is unknown";
+    if (nChanges == 0)
+      return null;
+    if (nChanges >= m_nMinChanges && aAge.compareTo (m_aMinInterval) >= 0)
+      return nChanges + " index changes accumulated";
+    if (aAge.compareTo (m_aMaxAge) >= 0)
+      return "the last export is older than " + m_aMaxAge;
+    return null;
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("MinChanges", m_nMinChanges)
+                                       .append ("MinInterval", m_aMinInterval)
+                                       .append ("MaxAge", m_aMaxAge)
+                                       .getToString ();
+  }
+
+  /**
+   * @return A new policy based on the current server configuration. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public static ExportAllSchedulePolicy createFromConfiguration ()
+  {
+    return new ExportAllSchedulePolicy (PDServerConfiguration.getExportMinChanges (),
+                                        Duration.ofMinutes (PDServerConfiguration.getExportMinIntervalMinutes ()),
+                                        Duration.ofHours (PDServerConfiguration.getExportMaxAgeHours ()));
+  }
+}
@@ -0,0 +1,569 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPOutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.collection.impl.ICommonsSortedSet;
+import com.helger.commons.csv.CSVWriter;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.json.serialize.JsonWriter;
+import com.helger.pd.businesscard.bulk.PDBulkExportParticipant;
+import com.helger.pd.businesscard.bulk.PDBulkExportWriter;
+import com.helger.pd.businesscard.generic.PDIdentifier;
+import com.helger.pd.indexer.storage.PDStoredBusinessEntity;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.xml.microdom.serialize.MicroWriter;
+
+/**
+ * Factory for the {@link IExportAllSink} implementations that write the files
+ * delivered by {@link ExportAllManager}. Each sink writes into a temporary file
+ * next to the target file and publishes it with an atomic rename only after
+ * it was written and synced completely. Except for Excel, a precompressed gzip
+ * variant is created as well.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@Immutable
+public final class ExportAllSinks
+{
+  private static final Logger LOGGER = LoggerFactory.getLogger (ExportAllSinks.class);
+  private static final int BUFFER_SIZE = 64 * CGlobal.BYTES_PER_KILOBYTE;
+
+  /**
+   * Base class for all sinks writing a single file.
+   *
+   * @author Philip Helger
+   */
+  @NotThreadSafe
+  private abstract static class AbstractFileSink implements IExportAllSink
+  {
+    private final String m_sDisplayName;
+    private final File m_aTargetFile;
+    private final File m_aTempFile;
+    private final boolean m_bCreateGzipVariant;
+    private final File m_aGzipTempFile;
+    private ExportGeneration m_aGeneration;
+    private ExportFileOutputStream m_aTempOS;
+
+    protected AbstractFileSink (@Nonnull @Nonempty final String sDisplayName,
+                                @Nonnull final File aTargetFile,
+                                final boolean bCreateGzipVariant)
+    {
+      m_sDisplayName = sDisplayName;
+      m_aTargetFile = aTargetFile;
+      m_aTempFile = new File (aTargetFile.getParentFile (), aTargetFile.getName () + ".tmp");
+      m_bCreateGzipVariant = bCreateGzipVariant;
+      m_aGzipTempFile = new File (aTargetFile.getParentFile (), ExportAllManager.getGzipFile (aTargetFile).getName () + ".tmp");
+    }
+
+    @Nonnull
+    @Nonempty
+    public final String getDisplayName ()
+    {
+      return m_sDisplayName;
+    }
+
+    public final void onStart (@Nonnull final ExportGeneration aGeneration) throws IOException
+    {
+      m_aGeneration = aGeneration;
+      onStartWriting ();
+    }
+
+    /**
+     * @return The generation of the current export run. Only available after
+     *         {@link #onStart(ExportGeneration)} was called.
+     */
+    @Nonnull
+    protected final ExportGeneration getGeneration ()
+    {
+      return m_aGeneration;
+    }
+
+    /**
+     * Called once before the first entity is passed in.
+     *
+     * @throws IOException
+     *         If the output cannot be created
+     */
+    protected abstract void onStartWriting () throws IOException;
+
+    /**
+     * Open the temporary file. May only be called once per sink.
+     *
+     * @return The buffered output stream to write to. Closing it forces the
+     *         content to the storage device.
+     * @throws IOException
+     *         If the file cannot be opened
+     */
+    @Nonnull
+    protected final OutputStream openTempFile () throws IOException
+    {
+      if (m_aTempOS != null)
+        throw new IllegalStateException ("The temporary file was already opened");
+      m_aTempOS = new ExportFileOutputStream (m_aTempFile);
+      return new BufferedOutputStream (m_aTempOS);
+    }
+
+    @Nonnull
+    protected final Writer openTempFileWriter (@Nonnull final Charset aCharset) throws IOException
+    {
+      return new OutputStreamWriter (openTempFile (), aCharset);
+    }
+
+    /**
+     * Write all outstanding data and close the temporary file.
+     *
+     * @throws IOException
+     *         On write error
+     */
+    protected abstract void closeTempFile () throws IOException;
+
+    /**
+     * Release all open resources without caring about the written content.
+     */
+    protected abstract void releaseResources ();
+
+    @Nonnull
+    private ExportFileMetadata _writeGzipVariant () throws IOException
+    {
+      final ExportFileOutputStream aGzipOS = new ExportFileOutputStream (m_aGzipTempFile);
+      try (final InputStream aIS = new FileInputStream (m_aTempFile);
+           final OutputStream aOS = new GZIPOutputStream (new BufferedOutputStream (aGzipOS, BUFFER_SIZE),
+                                                          BUFFER_SIZE))
+      {
+        final byte [] aBuffer = new byte [BUFFER_SIZE];
+        int nRead;
+        while ((nRead = aIS.read (aBuffer)) >= 0)
+          aOS.write (aBuffer, 0, nRead);
+      }
+      finally
+      {
+        // No-op if already closed
+        aGzipOS.close ();
+      }
+      return new ExportFileMetadata (m_aGeneration, aGzipOS.getBytesWritten (), aGzipOS.getChecksum ());
+    }
+
+    public final void onFinish () throws IOException
+    {
+      closeTempFile ();
+      if (m_aTempOS == null || !m_aTempOS.isClosed ())
+        throw new IllegalStateException ("The temporary file of " + m_sDisplayName + " was not closed");
+
+      if (m_bCreateGzipVariant)
+      {
+        // Publish the compressed variant first, so that it is never older than
+        // the uncompressed file
+        final ExportFileMetadata aGzipMetadata = _writeGzipVariant ();
+        ExportAllManager.publishFile (m_aGzipTempFile, ExportAllManager.getGzipFile (m_aTargetFile), aGzipMetadata);
+      }
+
+      final ExportFileMetadata aMetadata = new ExportFileMetadata (m_aGeneration,
+                                                                   m_aTempOS.getBytesWritten (),
+                                                                   m_aTempOS.getChecksum ());
+      ExportAllManager.publishFile (m_aTempFile, m_aTargetFile, aMetadata);
+      LOGGER.info ("Successfully exported all " +
+                   m_sDisplayName +
+                   " to " +
+                   m_aTargetFile.getAbsolutePath () +
+                   " (" +
+                   aMetadata.getSize () +
+                   " bytes, SHA-256 " +
+                   aMetadata.getChecksum () +
+                   ")");
+    }
+
+    public final void onAbort ()
+    {
+      releaseResources ();
+      FileOperationManager.INSTANCE.deleteFileIfExisting (m_aTempFile);
+      FileOperationManager.INSTANCE.deleteFileIfExisting (m_aGzipTempFile);
+    }
+  }
+
+  private static final class BusinessCardXMLSink extends AbstractFileSink
+  {
+    private final boolean m_bIncludeDocTypes;
+    private OutputStream m_aOS;
+    private ExportBusinessCardXMLWriter m_aWriter;
+
+    BusinessCardXMLSink (final boolean bIncludeDocTypes)
+    {
+      super (bIncludeDocTypes ? "business cards as XML (full)" : "business cards as XML (no doc types)",
+             bIncludeDocTypes ? ExportAllManager.getInternalFileBusinessCardXMLFull ()
+                              : ExportAllManager.getInternalFileBusinessCardXMLNoDocTypes (),
+             true);
+      m_bIncludeDocTypes = bIncludeDocTypes;
+    }
+
+    @Override
+    protected void onStartWriting () throws IOException
+    {
+      m_aOS = openTempFile ();
+      // Allows to match the full export with the delta exports
+      final ICommonsOrderedMap <String, String> aRootAttrs = new CommonsLinkedHashMap <> ();
+      aRootAttrs.put (ExportBusinessCardXMLWriter.ATTR_GENERATION, Long.toString (getGeneration ().getGeneration ()));
+      m_aWriter = new ExportBusinessCardXMLWriter (m_aOS, m_bIncludeDocTypes, aRootAttrs);
+    }
+
+    public void onEntity (@Nonnull final PDStoredBusinessEntity aEntity) throws IOException
+    {
+      m_aWriter.addEntity (aEntity);
+    }
+
+    @Override
+    protected void closeTempFile () throws IOException
+    {
+      m_aWriter.close ();
+      m_aWriter = null;
+      m_aOS.close ();
+      m_aOS = null;
+    }
+
+    @Override
+    protected void releaseResources ()
+    {
+      StreamHelper.close (m_aWriter);
+      StreamHelper.close (m_aOS);
+    }
+  }
+
+  private static final class BusinessCardExcelSink extends AbstractFileSink
+  {
+    private ExportBusinessCardExcelWriter m_aWriter;
+
+    BusinessCardExcelSink ()
+    {
+      // XLSX files are ZIP compressed already
+      super ("business cards as Excel", ExportAllManager.getInternalFileBusinessCardExcel (), false);
+    }
+
+    @Override
+    protected void onStartWriting ()
+    {
+      m_aWriter = new ExportBusinessCardExcelWriter (true);
+    }
+
+    public void onEntity (@Nonnull final PDStoredBusinessEntity aEntity)
+    {
+      m_aWriter.addEntity (aEntity);
+    }
+
+    @Override
+    protected void closeTempFile () throws IOException
+    {
+      try (final OutputStream aOS = openTempFile ())
+      {
+        m_aWriter.writeTo (aOS);
+      }
+      m_aWriter.close ();
+      m_aWriter = null;
+    }
+
+    @Override
+    protected void releaseResources ()
+    {
+      StreamHelper.close (m_aWriter);
+    }
+  }
+
+  private static final class BusinessCardCSVSink extends AbstractFileSink
+  {
+    private CSVWriter m_aCSVWriter;
+
+    BusinessCardCSVSink ()
+    {
+      super ("business cards as CSV", ExportAllManager.getInternalFileBusinessCardCSV (), true);
+    }
+
+    @Override
+    protected void onStartWriting () throws IOException
+    {
+      m_aCSVWriter = new CSVWriter (openTempFileWriter (StandardCharsets.ISO_8859_1));
+      ExportAllManager.unifyCSV (m_aCSVWriter);
+      ExportAllManager.writeBusinessCardCSVHeader (m_aCSVWriter);
+    }
+
+    public void onEntity (@Nonnull final PDStoredBusinessEntity aEntity)
+    {
+      ExportAllManager.writeBusinessCardCSVLine (m_aCSVWriter, aEntity);
+    }
+
+    @Override
+    protected void closeTempFile () throws IOException
+    {
+      m_aCSVWriter.close ();
+      m_aCSVWriter = null;
+    }
+
+    @Override
+    protected void releaseResources ()
+    {
+      StreamHelper.close (m_aCSVWriter);
+    }
+  }
+
+  private static final class BusinessCardBinarySink extends AbstractFileSink
+  {
+    private OutputStream m_aOS;
+    private PDBulkExportWriter m_aWriter;
+    private PDBulkExportParticipant m_aCurrent;
+    private IParticipantIdentifier m_aCurrentParticipantID;
+
+    BusinessCardBinarySink ()
+    {
+      // The blocks are Deflate compressed already
+      super ("business cards as binary", ExportAllManager.getInternalFileBusinessCardBinary (), false);
+    }
+
+    @Override
+    protected void onStartWriting () throws IOException
+    {
+      m_aOS = openTempFile ();
+      m_aWriter = new PDBulkExportWriter (m_aOS);
+    }
+
+    private void _flushCurrent () throws IOException
+    {
+      if (m_aCurrent != null)
+      {
+        m_aWriter.addParticipant (m_aCurrent);
+        m_aCurrent = null;
+        m_aCurrentParticipantID = null;
+      }
+    }
+
+    public void onEntity (@Nonnull final PDStoredBusinessEntity aEntity) throws IOException
+    {
+      // All entities of a participant are passed in one after another
+      if (m_aCurrentParticipantID != null && !m_aCurrentParticipantID.hasSameContent (aEntity.getParticipantID ()))
+        _flushCurrent ();
+      if (m_aCurrent == null)
+      {
+        m_aCurrentParticipantID = aEntity.getParticipantID ();
+        m_aCurrent = new PDBulkExportParticipant (aEntity.getAsBusinessCard ());
+        // All entities of a participant share the same document types
+        for (final IDocumentTypeIdentifier aDocTypeID : aEntity.documentTypeIDs ())
+          m_aCurrent.documentTypeIDs ().add (new PDIdentifier (aDocTypeID.getScheme (), aDocTypeID.getValue ()));
+      }
+      else
+        m_aCurrent.getBusinessCard ().businessEntities ().add (aEntity.getAsBusinessEntity ());
+    }
+
+    @Override
+    protected void closeTempFile () throws IOException
+    {
+      _flushCurrent ();
+      m_aWriter.close ();
+      m_aWriter = null;
+      m_aOS.close ();
+      m_aOS = null;
+    }
+
+    @Override
+    protected void releaseResources ()
+    {
+      StreamHelper.close (m_aWriter);
+      StreamHelper.close (m_aOS);
+    }
+  }
+
+  /**
+   * Base class for the participant list sinks. The participant lists are
+   * sorted and contain the total count at the beginning, so they can only be
+   * written after all participants are known.
+   *
+   * @author Philip Helger
+   */
+  private abstract static class AbstractParticipantListSink extends AbstractFileSink
+  {
+    private final ICommonsSortedSet <IParticipantIdentifier> m_aParticipantIDs = ExportAllManager.createParticipantSet ();
+
+    protected AbstractParticipantListSink (@Nonnull @Nonempty final String sDisplayName,
+                                           @Nonnull final File aTargetFile)
+    {
+      super (sDisplayName, aTargetFile, true);
+    }
+
+    @Override
+    protected final void onStartWriting ()
+    {}
+
+    public final void onEntity (@Nonnull final PDStoredBusinessEntity aEntity)
+    {
+      m_aParticipantIDs.add (aEntity.getParticipantID ());
+    }
+
+    @Nonnull
+    protected final ICommonsSortedSet <IParticipantIdentifier> participantIDs ()
+    {
+      return m_aParticipantIDs;
+    }
+
+    @Override
+    protected final void releaseResources ()
+    {
+      m_aParticipantIDs.clear ();
+    }
+  }
+
+  private static final class ParticipantXMLSink extends AbstractParticipantListSink
+  {
+    ParticipantXMLSink ()
+    {
+      super ("participants as XML", ExportAllManager.getInternalFileParticipantXML ());
+    }
+
+    @Override
+    protected void closeTempFile () throws IOException
+    {
+      // Closes the stream
+      if (MicroWriter.writeToStream (ExportAllManager.getParticipantsAsXML (participantIDs ()), openTempFile ())
+                     .isFailure ())
+        throw new IOException ("Failed to write participants as XML");
+    }
+  }
+
+  private static final class ParticipantJSONSink extends AbstractParticipantListSink
+  {
+    ParticipantJSONSink ()
+    {
+      super ("participants as JSON", ExportAllManager.getInternalFileParticipantJSON ());
+    }
+
+    @Override
+    protected void closeTempFile () throws IOException
+    {
+      new JsonWriter ().writeToWriterAndClose (ExportAllManager.getParticipantsAsJSON (participantIDs ()),
+                                               openTempFileWriter (StandardCharsets.UTF_8));
+    }
+  }
+
+  private static final class ParticipantCSVSink extends AbstractFileSink
+  {
+    private CSVWriter m_aCSVWriter;
+    private IParticipantIdentifier m_aLastParticipantID;
+
+    ParticipantCSVSink ()
+    {
+      super ("participants as CSV", ExportAllManager.getInternalFileParticipantCSV (), true);
+    }
+
+    @Override
+    protected void onStartWriting () throws IOException
+    {
+      m_aCSVWriter = new CSVWriter (openTempFileWriter (StandardCharsets.ISO_8859_1));
+      ExportAllManager.unifyCSV (m_aCSVWriter);
+      m_aCSVWriter.writeNext ("Participant ID");
+    }
+
+    public void onEntity (@Nonnull final PDStoredBusinessEntity aEntity)
+    {
+      // All entities of a participant are contiguous - write each participant
+      // only once
+      final IParticipantIdentifier aParticipantID = aEntity.getParticipantID ();
+      if (m_aLastParticipantID == null || !m_aLastParticipantID.hasSameContent (aParticipantID))
+      {
+        m_aCSVWriter.writeNext (aParticipantID.getURIEncoded ());
+        m_aLastParticipantID = aParticipantID;
+      }
+    }
+
+    @Override
+    protected void closeTempFile () throws IOException
+    {
+      m_aCSVWriter.close ();
+      m_aCSVWriter = null;
+    }
+
+    @Override
+    protected void releaseResources ()
+    {
+      StreamHelper.close (m_aCSVWriter);
+    }
+  }
+
+  private ExportAllSinks ()
+  {}
+
+  @Nonnull
+  public static IExportAllSink createBusinessCardXMLSink (final boolean bIncludeDocTypes)
+  {
+    return new BusinessCardXMLSink (bIncludeDocTypes);
+  }
+
+  @Nonnull
+  public static IExportAllSink createBusinessCardExcelSink ()
+  {
+    return new BusinessCardExcelSink ();
+  }
+
+  @Nonnull
+  public static IExportAllSink createBusinessCardCSVSink ()
+  {
+    return new BusinessCardCSVSink ();
+  }
+
+  @Nonnull
+  public static IExportAllSink createBusinessCardBinarySink ()
+  {
+    return new BusinessCardBinarySink ();
+  }
+
+  @Nonnull
+  public static IExportAllSink createParticipantXMLSink ()
+  {
+    return new ParticipantXMLSink ();
+  }
+
+  @Nonnull
+  public static IExportAllSink createParticipantJSONSink ()
+  {
+    return new ParticipantJSONSink ();
+  }
+
+  @Nonnull
+  public static IExportAllSink createParticipantCSVSink ()
+  {
+    return new ParticipantCSVSink ();
+  }
+}
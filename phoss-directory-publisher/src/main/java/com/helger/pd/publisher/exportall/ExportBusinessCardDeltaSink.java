@@ -0,0 +1,489 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.pd.indexer.mgr.PDMetaManager;
+import com.helger.pd.indexer.storage.PDStoredBusinessEntity;
+import com.helger.pd.indexer.storage.PDStoredContact;
+import com.helger.pd.indexer.storage.PDStoredIdentifier;
+import com.helger.pd.indexer.storage.PDStoredMLName;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.MicroDocument;
+import com.helger.xml.microdom.serialize.MicroReader;
+import com.helger.xml.microdom.serialize.MicroWriter;
+
+/**
+ * Export sink that creates incremental delta files between two export
+ * generations. For every participant a fingerprint over all its business
+ * entities is calculated and compared to the fingerprint of the previous
+ * generation. The delta file uses the business card XML export format and
+ * contains the complete business cards of all added or changed participants
+ * plus a <code>removed</code> element for each participant that is no longer
+ * present.<br>
+ * The fingerprints are kept on disk in an {@link ExportFingerprintFile}, so
+ * the memory consumption does not depend on the number of participants. The
+ * generation numbers are the ones of the export run, so the
+ * <code>currentgeneration</code> of the manifest matches the
+ * <code>generation</code> attribute of the full exports created in the same
+ * run. The manifest lists the chain of available deltas, so that mirrors can
+ * catch up from an older generation by applying all subsequent deltas in
+ * order.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@NotThreadSafe
+public final class ExportBusinessCardDeltaSink implements IExportAllSink
+{
+  /** The default number of delta generations kept */
+  public static final int DEFAULT_MAX_GENERATIONS = 30;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (ExportBusinessCardDeltaSink.class);
+  private static final int BUFFER_SIZE = 64 * CGlobal.BYTES_PER_KILOBYTE;
+
+  private static final String MANIFEST_ELEMENT_ROOT = "deltamanifest";
+  private static final String MANIFEST_ELEMENT_DELTA = "delta";
+  private static final String MANIFEST_ATTR_GENERATION = "generation";
+  private static final String MANIFEST_ATTR_CURRENT_GENERATION = "currentgeneration";
+  private static final String MANIFEST_ATTR_BASE_GENERATION = "basegeneration";
+  private static final String MANIFEST_ATTR_CREATIONDT = "creationdt";
+  private static final String MANIFEST_ATTR_BASE_CREATIONDT = "basecreationdt";
+
+  private final int m_nMaxGenerations;
+  private final int m_nRunSize;
+
+  // Previous generation
+  private ExportFingerprintFile.Reader m_aBase;
+
+  // New generation
+  private ExportGeneration m_aGeneration;
+  private final File m_aStateTempFile;
+  private ExportFingerprintFile.Writer m_aStateWriter;
+  private File m_aDeltaTempFile;
+  private ExportFileOutputStream m_aDeltaFOS;
+  private OutputStream m_aDeltaOS;
+  private ExportBusinessCardXMLWriter m_aDeltaWriter;
+  private final ICommonsList <PDStoredBusinessEntity> m_aCurrent = new CommonsArrayList <> ();
+  private int m_nAdded = 0;
+  private int m_nChanged = 0;
+  private int m_nRemoved = 0;
+
+  public ExportBusinessCardDeltaSink ()
+  {
+    this (DEFAULT_MAX_GENERATIONS);
+  }
+
+  public ExportBusinessCardDeltaSink (@Nonnegative final int nMaxGenerations)
+  {
+    this (nMaxGenerations, ExportFingerprintFile.DEFAULT_RUN_SIZE);
+  }
+
+  ExportBusinessCardDeltaSink (@Nonnegative final int nMaxGenerations, @Nonnegative final int nRunSize)
+  {
+    ValueEnforcer.isGT0 (nMaxGenerations, "MaxGenerations");
+    ValueEnforcer.isGT0 (nRunSize, "RunSize");
+    m_nMaxGenerations = nMaxGenerations;
+    m_nRunSize = nRunSize;
+    final File aStateFile = ExportAllManager.getInternalFileBusinessCardDeltaState ();
+    m_aStateTempFile = new File (aStateFile.getParentFile (), aStateFile.getName () + ".tmp");
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getDisplayName ()
+  {
+    return "business cards as XML delta";
+  }
+
+  private static void _update (@Nonnull final MessageDigest aMD, final int n)
+  {
+    aMD.update ((byte) (n >>> 24));
+    aMD.update ((byte) (n >>> 16));
+    aMD.update ((byte) (n >>> 8));
+    aMD.update ((byte) n);
+  }
+
+  private static void _update (@Nonnull final MessageDigest aMD, @Nullable final String s)
+  {
+    if (s == null)
+      _update (aMD, -1);
+    else
+    {
+      final byte [] aBytes = s.getBytes (StandardCharsets.UTF_8);
+      _update (aMD, aBytes.length);
+      aMD.update (aBytes);
+    }
+  }
+
+  /**
+   * Calculate the fingerprint of all entities of a single participant. Two
+   * participants with the same fingerprint have the same exported content.
+   *
+   * @param aEntities
+   *        All entities of the participant in index order. May not be
+   *        <code>null</code>.
+   * @return The first 64 bits of the SHA-256 hash over all exported fields.
+   */
+  static long getFingerprint (@Nonnull final ICommonsList <PDStoredBusinessEntity> aEntities)
+  {
+    final MessageDigest aMD = ExportFileOutputStream.createMessageDigest ();
+    _update (aMD, aEntities.size ());
+    for (final PDStoredBusinessEntity aEntity : aEntities)
+    {
+      _update (aMD, aEntity.getParticipantID ().getURIEncoded ());
+      _update (aMD, aEntity.names ().size ());
+      for (final PDStoredMLName aName : aEntity.names ())
+      {
+        _update (aMD, aName.getName ());
+        _update (aMD, aName.getLanguageCode ());
+      }
+      _update (aMD, aEntity.getCountryCode ());
+      _update (aMD, aEntity.getGeoInfo ());
+      _update (aMD, aEntity.identifiers ().size ());
+      for (final PDStoredIdentifier aID : aEntity.identifiers ())
+      {
+        _update (aMD, aID.getScheme ());
+        _update (aMD, aID.getValue ());
+      }
+      _update (aMD, aEntity.websiteURIs ().size ());
+      for (final String sWebsiteURI : aEntity.websiteURIs ())
+        _update (aMD, sWebsiteURI);
+      _update (aMD, aEntity.contacts ().size ());
+      for (final PDStoredContact aContact : aEntity.contacts ())
+      {
+        _update (aMD, aContact.getType ());
+        _update (aMD, aContact.getName ());
+        _update (aMD, aContact.getPhone ());
+        _update (aMD, aContact.getEmail ());
+      }
+      _update (aMD, aEntity.getAdditionalInformation ());
+      _update (aMD, aEntity.hasRegistrationDate () ? aEntity.getRegistrationDate ().toString () : null);
+      _update (aMD, aEntity.documentTypeIDs ().size ());
+      for (final IDocumentTypeIdentifier aDocTypeID : aEntity.documentTypeIDs ())
+        _update (aMD, aDocTypeID.getURIEncoded ());
+    }
+    return ByteBuffer.wrap (aMD.digest ()).getLong ();
+  }
+
+  @Nullable
+  private static IMicroElement _readManifestRoot ()
+  {
+    final File aManifestFile = ExportAllManager.getInternalFileBusinessCardDeltaManifest ();
+    if (!aManifestFile.isFile ())
+      return null;
+    final IMicroDocument aDoc = MicroReader.readMicroXML (aManifestFile);
+    return aDoc == null ? null : aDoc.getDocumentElement ();
+  }
+
+  /**
+   * @return The current generation of the existing delta manifest or
+   *         {@link ExportFileMetadata#NO_GENERATION} if there is no manifest.
+   */
+  static long getManifestGeneration ()
+  {
+    final IMicroElement eRoot = _readManifestRoot ();
+    return eRoot == null ? ExportFileMetadata.NO_GENERATION
+                         : StringParser.parseLong (eRoot.getAttributeValue (MANIFEST_ATTR_CURRENT_GENERATION),
+                                                   ExportFileMetadata.NO_GENERATION);
+  }
+
+  private void _openBase ()
+  {
+    final File aStateFile = ExportAllManager.getInternalFileBusinessCardDeltaState ();
+    if (!aStateFile.isFile ())
+      return;
+
+    try
+    {
+      final ExportFingerprintFile.Reader aBase = new ExportFingerprintFile.Reader (aStateFile);
+      if (aBase.getGeneration () >= m_aGeneration.getGeneration ())
+      {
+        aBase.close ();
+        LOGGER.warn ("The delta export state has generation " +
+                     aBase.getGeneration () +
+                     " which is not older than the current generation " +
+                     m_aGeneration.getGeneration () +
+                     " - creating a new baseline");
+        return;
+      }
+      m_aBase = aBase;
+      LOGGER.info ("Using " + aBase.getCount () + " fingerprints of export generation " + aBase.getGeneration ());
+    }
+    catch (final IOException ex)
+    {
+      LOGGER.error ("Failed to read the delta export state from " +
+                    aStateFile.getAbsolutePath () +
+                    " - creating a new baseline",
+                    ex);
+    }
+  }
+
+  public void onStart (@Nonnull final ExportGeneration aGeneration) throws IOException
+  {
+    ValueEnforcer.notNull (aGeneration, "Generation");
+    m_aGeneration = aGeneration;
+    _openBase ();
+
+    m_aStateWriter = new ExportFingerprintFile.Writer (m_aStateTempFile, m_nRunSize);
+
+    if (m_aBase != null)
+    {
+      final File aDeltaFile = ExportAllManager.getInternalFileBusinessCardDelta (aGeneration.getGeneration ());
+      m_aDeltaTempFile = new File (aDeltaFile.getParentFile (), aDeltaFile.getName () + ".tmp");
+      m_aDeltaFOS = new ExportFileOutputStream (m_aDeltaTempFile);
+      m_aDeltaOS = new BufferedOutputStream (m_aDeltaFOS, BUFFER_SIZE);
+
+      final ICommonsOrderedMap <String, String> aRootAttrs = new CommonsLinkedHashMap <> ();
+      aRootAttrs.put (MANIFEST_ATTR_GENERATION, Long.toString (aGeneration.getGeneration ()));
+      aRootAttrs.put (MANIFEST_ATTR_BASE_GENERATION, Long.toString (m_aBase.getGeneration ()));
+      aRootAttrs.put (MANIFEST_ATTR_BASE_CREATIONDT, m_aBase.getCreationDateTime ().toString ());
+      m_aDeltaWriter = new ExportBusinessCardXMLWriter (m_aDeltaOS, true, aRootAttrs);
+    }
+  }
+
+  private void _finishParticipant () throws IOException
+  {
+    if (m_aCurrent.isEmpty ())
+      return;
+
+    final String sParticipantID = m_aCurrent.getFirst ().getParticipantID ().getURIEncoded ();
+    final long nIDHash = ExportFingerprintFile.getIDHash (sParticipantID);
+    final long nFingerprint = getFingerprint (m_aCurrent);
+    m_aStateWriter.add (nIDHash, sParticipantID, nFingerprint);
+
+    if (m_aBase != null)
+    {
+      final Long aBaseFingerprint = m_aBase.getFingerprint (nIDHash);
+      if (aBaseFingerprint == null || aBaseFingerprint.longValue () != nFingerprint)
+      {
+        if (aBaseFingerprint == null)
+          m_nAdded++;
+        else
+          m_nChanged++;
+        for (final PDStoredBusinessEntity aEntity : m_aCurrent)
+          m_aDeltaWriter.addEntity (aEntity);
+      }
+    }
+    m_aCurrent.clear ();
+  }
+
+  public void onEntity (@Nonnull final PDStoredBusinessEntity aEntity) throws IOException
+  {
+    if (m_aCurrent.isNotEmpty () && !m_aCurrent.getFirst ().getParticipantID ().hasSameContent (aEntity.getParticipantID ()))
+      _finishParticipant ();
+    m_aCurrent.add (aEntity);
+  }
+
+  private void _onRemoved (@Nonnull final String sParticipantID) throws IOException
+  {
+    if (m_aDeltaWriter == null)
+      return;
+    final IParticipantIdentifier aParticipantID = PDMetaManager.getIdentifierFactory ()
+                                                               .parseParticipantIdentifier (sParticipantID);
+    if (aParticipantID != null)
+    {
+      m_aDeltaWriter.addRemovedParticipant (aParticipantID);
+      m_nRemoved++;
+    }
+  }
+
+  /**
+   * Write the new manifest.
+   *
+   * @param aDeltaMetadata
+   *        The metadata of the delta of this generation. May be
+   *        <code>null</code> if a new baseline was created.
+   * @param nBaseGeneration
+   *        The generation of the delta base. Only relevant if a delta was
+   *        created.
+   * @param sBaseCreationDT
+   *        The creation date time of the delta base. Only relevant if a delta
+   *        was created.
+   * @return The generations of all previous deltas that are no longer
+   *         referenced. Never <code>null</code>.
+   * @throws IOException
+   *         If the manifest could not be written
+   */
+  @Nonnull
+  private ICommonsList <Long> _writeManifest (@Nullable final ExportFileMetadata aDeltaMetadata,
+                                              final long nBaseGeneration,
+                                              @Nullable final String sBaseCreationDT) throws IOException
+  {
+    final long nGeneration = m_aGeneration.getGeneration ();
+    final String sCreationDT = m_aGeneration.getCreationDateTime ().toString ();
+    final ICommonsList <Long> aDropped = new CommonsArrayList <> ();
+
+    final IMicroDocument aDoc = new MicroDocument ();
+    final IMicroElement eRoot = aDoc.appendElement (MANIFEST_ELEMENT_ROOT);
+    eRoot.setAttribute ("version", 1);
+    eRoot.setAttribute (MANIFEST_ATTR_CURRENT_GENERATION, nGeneration);
+    eRoot.setAttribute (MANIFEST_ATTR_CREATIONDT, sCreationDT);
+
+    // All deltas of the previous manifest
+    final ICommonsList <IMicroElement> aOldDeltas = new CommonsArrayList <> ();
+    final IMicroElement eOldRoot = _readManifestRoot ();
+    if (eOldRoot != null)
+      aOldDeltas.addAll (eOldRoot.getAllChildElements (MANIFEST_ELEMENT_DELTA));
+
+    // Keep the newest previous deltas of the same chain. The generation numbers
+    // need not be consecutive, so only the number of deltas counts.
+    int nKept = 0;
+    if (aDeltaMetadata != null &&
+        StringParser.parseLong (eOldRoot == null ? null : eOldRoot.getAttributeValue (MANIFEST_ATTR_CURRENT_GENERATION),
+                                -1) == nBaseGeneration)
+      nKept = Math.max (0, Math.min (aOldDeltas.size (), m_nMaxGenerations - 1));
+    for (int i = 0; i < aOldDeltas.size (); ++i)
+    {
+      final IMicroElement eOldDelta = aOldDeltas.get (i);
+      if (i >= aOldDeltas.size () - nKept)
+        eRoot.appendChild (eOldDelta.getClone ());
+      else
+      {
+        final long nOldGeneration = StringParser.parseLong (eOldDelta.getAttributeValue (MANIFEST_ATTR_GENERATION), -1);
+        if (nOldGeneration > 0)
+          aDropped.add (Long.valueOf (nOldGeneration));
+      }
+    }
+
+    if (aDeltaMetadata != null)
+    {
+      eRoot.appendElement (MANIFEST_ELEMENT_DELTA)
+           .setAttribute (MANIFEST_ATTR_GENERATION, nGeneration)
+           .setAttribute (MANIFEST_ATTR_BASE_GENERATION, nBaseGeneration)
+           .setAttribute (MANIFEST_ATTR_CREATIONDT, sCreationDT)
+           .setAttribute (MANIFEST_ATTR_BASE_CREATIONDT, sBaseCreationDT)
+           .setAttribute ("added", m_nAdded)
+           .setAttribute ("changed", m_nChanged)
+           .setAttribute ("removed", m_nRemoved)
+           .setAttribute ("filename", ExportAllManager.getExternalFilenameBusinessCardDelta (nGeneration))
+           .setAttribute ("size", aDeltaMetadata.getSize ())
+           .setAttribute ("sha256", aDeltaMetadata.getChecksum ());
+    }
+
+    final File aManifestFile = ExportAllManager.getInternalFileBusinessCardDeltaManifest ();
+    final File aTempFile = new File (aManifestFile.getParentFile (), aManifestFile.getName () + ".tmp");
+    final ExportFileOutputStream aFOS = new ExportFileOutputStream (aTempFile);
+    // Closes the stream
+    if (MicroWriter.writeToStream (aDoc, new BufferedOutputStream (aFOS)).isFailure ())
+      throw new IOException ("Failed to write delta manifest to " + aTempFile.getAbsolutePath ());
+    ExportAllManager.publishFile (aTempFile,
+                                  aManifestFile,
+                                  new ExportFileMetadata (m_aGeneration, aFOS.getBytesWritten (), aFOS.getChecksum ()));
+    return aDropped;
+  }
+
+  public void onFinish () throws IOException
+  {
+    _finishParticipant ();
+
+    // Merge the fingerprints of this generation and find the removed
+    // participants
+    final ExportFileOutputStream aStateFOS = m_aStateWriter.finish (m_aGeneration, m_aBase, this::_onRemoved);
+    m_aStateWriter = null;
+
+    long nBaseGeneration = ExportFileMetadata.NO_GENERATION;
+    String sBaseCreationDT = null;
+    if (m_aBase != null)
+    {
+      nBaseGeneration = m_aBase.getGeneration ();
+      sBaseCreationDT = m_aBase.getCreationDateTime ().toString ();
+      // Must be closed before the state file is replaced
+      m_aBase.close ();
+      m_aBase = null;
+    }
+
+    ExportFileMetadata aDeltaMetadata = null;
+    if (m_aDeltaWriter != null)
+    {
+      m_aDeltaWriter.close ();
+      m_aDeltaWriter = null;
+      m_aDeltaOS.close ();
+      m_aDeltaOS = null;
+      aDeltaMetadata = new ExportFileMetadata (m_aGeneration, m_aDeltaFOS.getBytesWritten (), m_aDeltaFOS.getChecksum ());
+      ExportAllManager.publishFile (m_aDeltaTempFile,
+                                    ExportAllManager.getInternalFileBusinessCardDelta (m_aGeneration.getGeneration ()),
+                                    aDeltaMetadata);
+    }
+
+    // The state must be published before the manifest. If the manifest is not
+    // updated, the next delta simply starts a new chain.
+    ExportAllManager.publishFile (m_aStateTempFile,
+                                  ExportAllManager.getInternalFileBusinessCardDeltaState (),
+                                  new ExportFileMetadata (m_aGeneration,
+                                                          aStateFOS.getBytesWritten (),
+                                                          aStateFOS.getChecksum ()));
+    for (final Long aDropped : _writeManifest (aDeltaMetadata, nBaseGeneration, sBaseCreationDT))
+      ExportAllManager.deleteFile (ExportAllManager.getInternalFileBusinessCardDelta (aDropped.longValue ()));
+
+    if (aDeltaMetadata != null)
+      LOGGER.info ("Successfully exported the delta of generation " +
+                   m_aGeneration.getGeneration () +
+                   ": " +
+                   m_nAdded +
+                   " added, " +
+                   m_nChanged +
+                   " changed and " +
+                   m_nRemoved +
+                   " removed participants (" +
+                   aDeltaMetadata.getSize () +
+                   " bytes)");
+    else
+      LOGGER.info ("Successfully created the delta export baseline of generation " + m_aGeneration.getGeneration ());
+  }
+
+  public void onAbort ()
+  {
+    StreamHelper.close (m_aDeltaWriter);
+    StreamHelper.close (m_aDeltaOS);
+    StreamHelper.close (m_aStateWriter);
+    StreamHelper.close (m_aBase);
+    m_aBase = null;
+    if (m_aDeltaTempFile != null)
+      FileOperationManager.INSTANCE.deleteFileIfExisting (m_aDeltaTempFile);
+    FileOperationManager.INSTANCE.deleteFileIfExisting (m_aStateTempFile);
+    m_aCurrent.clear ();
+  }
+}
@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.ss.usermodel.Cell;
+import org.apache.poi.ss.usermodel.CellStyle;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.util.CellRangeAddress;
+import org.apache.poi.xssf.streaming.SXSSFSheet;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.string.StringHelper;
+import com.helger.pd.indexer.storage.PDStoredBusinessEntity;
+import com.helger.pd.indexer.storage.PDStoredContact;
+import com.helger.pd.indexer.storage.PDStoredIdentifier;
+import com.helger.pd.indexer.storage.PDStoredMLName;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+
+/**
+ * Write the business card Excel export with a streaming workbook. Only a small
+ * window of rows is kept in memory - all other rows are flushed to a temporary
+ * file. Because the rows are no longer available at the end, the column widths
+ * are fixed instead of being calculated from all cells. If the maximum number
+ * of rows of an XLSX sheet is reached, the remaining entities are written to
+ * additional sheets, each with its own header row.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@NotThreadSafe
+public final class ExportBusinessCardExcelWriter implements Closeable
+{
+  /** The number of rows kept in memory */
+  public static final int ROW_WINDOW_SIZE = 500;
+
+  // Width in characters
+  private static final int [] COLUMN_WIDTHS = { 40, 50, 14, 30, 20, 25, 40, 15, 25, 18, 30, 50, 18, 80 };
+  private static final String [] COLUMN_HEADERS = { "Participant ID",
+                                                    "Names (per-row)",
+                                                    "Country code",
+                                                    "Geo info",
+                                                    "Identifier schemes",
+                                                    "Identifier values",
+                                                    "Websites",
+                                                    "Contact type",
+                                                    "Contact name",
+                                                    "Contact phone",
+                                                    "Contact email",
+                                                    "Additional info",
+                                                    "Registration date",
+                                                    "Document types" };
+  private static final int MAX_TEXT_LENGTH = SpreadsheetVersion.EXCEL2007.getMaxTextLength ();
+  // Including the header row
+  private static final int MAX_ROWS_PER_SHEET = SpreadsheetVersion.EXCEL2007.getMaxRows ();
+
+  private final SXSSFWorkbook m_aWB;
+  private final CellStyle m_aStyleWrap;
+  private final CellStyle m_aStyleDate;
+  private final boolean m_bIncludeDocTypes;
+  private final int m_nColumnCount;
+  private SXSSFSheet m_aSheet;
+  // Row index within the current sheet
+  private int m_nRowIndex = 0;
+  private Row m_aRow;
+  private int m_nCellIndex;
+  private int m_nEntityCount = 0;
+
+  /**
+   * Constructor. Creates the first sheet with the header row.
+   *
+   * @param bIncludeDocTypes
+   *        <code>true</code> to include the document types of each entity.
+   */
+  public ExportBusinessCardExcelWriter (final boolean bIncludeDocTypes)
+  {
+    m_bIncludeDocTypes = bIncludeDocTypes;
+    m_nColumnCount = bIncludeDocTypes ? COLUMN_HEADERS.length : COLUMN_HEADERS.length - 1;
+
+    m_aWB = new SXSSFWorkbook (ROW_WINDOW_SIZE);
+    m_aWB.setCompressTempFiles (true);
+
+    m_aStyleWrap = m_aWB.createCellStyle ();
+    m_aStyleWrap.setWrapText (true);
+    m_aStyleDate = m_aWB.createCellStyle ();
+    m_aStyleDate.setDataFormat (m_aWB.createDataFormat ().getFormat ("yyyy-mm-dd"));
+
+    _createSheet ();
+  }
+
+  private void _finishSheet ()
+  {
+    m_aSheet.setAutoFilter (new CellRangeAddress (0, m_nRowIndex - 1, 0, m_nColumnCount - 1));
+  }
+
+  private void _createSheet ()
+  {
+    if (m_aSheet != null)
+      _finishSheet ();
+
+    m_aSheet = m_aWB.createSheet ();
+    m_nRowIndex = 0;
+    _addRow ();
+    for (int i = 0; i < m_nColumnCount; ++i)
+    {
+      m_aSheet.setColumnWidth (i, COLUMN_WIDTHS[i] * 256);
+      _addCell (COLUMN_HEADERS[i], null);
+    }
+  }
+
+  private void _addRow ()
+  {
+    m_aRow = m_aSheet.createRow (m_nRowIndex++);
+    m_nCellIndex = 0;
+  }
+
+  @Nonnull
+  private Cell _addCell (@Nullable final String sValue, @Nullable final CellStyle aStyle)
+  {
+    final Cell aCell = m_aRow.createCell (m_nCellIndex++);
+    if (sValue != null)
+    {
+      // Excel cannot handle longer texts
+      aCell.setCellValue (sValue.length () > MAX_TEXT_LENGTH ? sValue.substring (0, MAX_TEXT_LENGTH) : sValue);
+    }
+    if (aStyle != null)
+      aCell.setCellStyle (aStyle);
+    return aCell;
+  }
+
+  /**
+   * Add a single entity as a new row.
+   *
+   * @param aEntity
+   *        The entity to add. May not be <code>null</code>.
+   */
+  public void addEntity (@Nonnull final PDStoredBusinessEntity aEntity)
+  {
+    ValueEnforcer.notNull (aEntity, "Entity");
+
+    if (m_nRowIndex >= MAX_ROWS_PER_SHEET)
+    {
+      // The current sheet is full
+      _createSheet ();
+    }
+    _addRow ();
+    _addCell (aEntity.getParticipantID ().getURIEncoded (), null);
+    _addCell (StringHelper.getImplodedMapped ("\n", aEntity.names (), PDStoredMLName::getNameAndLanguageCode), m_aStyleWrap);
+    _addCell (aEntity.getCountryCode (), null);
+    _addCell (aEntity.getGeoInfo (), m_aStyleWrap);
+    _addCell (StringHelper.getImplodedMapped ("\n", aEntity.identifiers (), PDStoredIdentifier::getScheme), m_aStyleWrap);
+    _addCell (StringHelper.getImplodedMapped ("\n", aEntity.identifiers (), PDStoredIdentifier::getValue), m_aStyleWrap);
+    _addCell (StringHelper.getImploded ("\n", aEntity.websiteURIs ()), m_aStyleWrap);
+    _addCell (StringHelper.getImplodedMapped ("\n", aEntity.contacts (), PDStoredContact::getType), m_aStyleWrap);
+    _addCell (StringHelper.getImplodedMapped ("\n", aEntity.contacts (), PDStoredContact::getName), m_aStyleWrap);
+    _addCell (StringHelper.getImplodedMapped ("\n", aEntity.contacts (), PDStoredContact::getPhone), m_aStyleWrap);
+    _addCell (StringHelper.getImplodedMapped ("\n", aEntity.contacts (), PDStoredContact::getEmail), m_aStyleWrap);
+    _addCell (aEntity.getAdditionalInformation (), m_aStyleWrap);
+    final Cell aDateCell = _addCell (null, m_aStyleDate);
+    if (aEntity.getRegistrationDate () != null)
+      aDateCell.setCellValue (PDTFactory.createDate (aEntity.getRegistrationDate ()));
+    if (m_bIncludeDocTypes)
+      _addCell (StringHelper.getImplodedMapped ("\n", aEntity.documentTypeIDs (), IDocumentTypeIdentifier::getURIEncoded),
+                m_aStyleWrap);
+    m_nEntityCount++;
+  }
+
+  /**
+   * @return The number of entity rows added so far over all sheets. Always
+   *         &ge; 0.
+   */
+  public int getEntityCount ()
+  {
+    return m_nEntityCount;
+  }
+
+  /**
+   * Write the workbook. This may only be called once.
+   *
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         On write error
+   */
+  public void writeTo (@Nonnull @WillNotClose final OutputStream aOS) throws IOException
+  {
+    ValueEnforcer.notNull (aOS, "OS");
+    _finishSheet ();
+    m_aWB.write (aOS);
+    aOS.flush ();
+  }
+
+  /**
+   * Delete all temporary files.
+   */
+  public void close () throws IOException
+  {
+    m_aWB.dispose ();
+    m_aWB.close ();
+  }
+}
@@ -0,0 +1,480 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.callback.IThrowingRunnable;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashMap;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.CommonsTreeMap;
+import com.helger.commons.collection.impl.CommonsTreeSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsMap;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.commons.collection.impl.ICommonsSortedMap;
+import com.helger.commons.collection.impl.ICommonsSortedSet;
+import com.helger.commons.concurrent.BasicThreadFactory;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.pd.indexer.storage.PDStoredBusinessEntity;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.MicroDocument;
+import com.helger.xml.microdom.serialize.MicroReader;
+import com.helger.xml.microdom.serialize.MicroWriter;
+
+/**
+ * Export sink that splits the business card XML export into partitions, e.g.
+ * by country code. Each partition is a complete business card XML file of its
+ * own. The partitions are distributed over a number of writer threads
+ * ("lanes"), so that the XML serialization is spread across multiple cores.
+ * All entities of a single partition are always handled by the same lane, so
+ * the order of the index is retained within each partition.<br>
+ * The number of partitions, and therefore the number of open files, is
+ * limited. The first distinct keys get a partition of their own, all further
+ * keys are merged into the partition
+ * {@link EExportPartitionMode#PARTITION_KEY_OTHER}.<br>
+ * A manifest lists all partitions with their counts, sizes and checksums.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@NotThreadSafe
+public final class ExportBusinessCardPartitionSink implements IExportAllSink
+{
+  /** The default number of writer threads */
+  public static final int DEFAULT_LANE_COUNT = Math.max (1, Math.min (4, Runtime.getRuntime ().availableProcessors ()));
+  /**
+   * The default maximum number of partitions, including the
+   * {@link EExportPartitionMode#PARTITION_KEY_OTHER} partition. Enough for one
+   * partition per country.
+   */
+  public static final int DEFAULT_MAX_PARTITIONS = 300;
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (ExportBusinessCardPartitionSink.class);
+  private static final int BUFFER_SIZE = 64 * CGlobal.BYTES_PER_KILOBYTE;
+  private static final int BATCH_SIZE = 256;
+  private static final int MAX_PENDING_BATCHES_PER_LANE = 8;
+
+  private static final String MANIFEST_ELEMENT_ROOT = "partitionmanifest";
+  private static final String MANIFEST_ELEMENT_PARTITION = "partition";
+  private static final String MANIFEST_ATTR_KEY = "key";
+
+  /**
+   * A single partition file. Only accessed from within its lane.
+   *
+   * @author Philip Helger
+   */
+  private static final class Partition
+  {
+    private final String m_sKey;
+    private final File m_aFile;
+    private final File m_aTempFile;
+    private final ExportFileOutputStream m_aFOS;
+    private final OutputStream m_aOS;
+    private final ExportBusinessCardXMLWriter m_aWriter;
+    private int m_nEntityCount = 0;
+
+    Partition (@Nonnull @Nonempty final String sKey,
+               @Nonnull final File aFile,
+               final boolean bIncludeDocTypes) throws IOException
+    {
+      m_sKey = sKey;
+      m_aFile = aFile;
+      m_aTempFile = new File (aFile.getParentFile (), aFile.getName () + ".tmp");
+      m_aFOS = new ExportFileOutputStream (m_aTempFile);
+      m_aOS = new BufferedOutputStream (m_aFOS, BUFFER_SIZE);
+      m_aWriter = new ExportBusinessCardXMLWriter (m_aOS, bIncludeDocTypes);
+    }
+
+    void addEntity (@Nonnull final PDStoredBusinessEntity aEntity) throws IOException
+    {
+      m_aWriter.addEntity (aEntity);
+      m_nEntityCount++;
+    }
+
+    void close () throws IOException
+    {
+      m_aWriter.close ();
+      m_aOS.close ();
+    }
+
+    void abort ()
+    {
+      StreamHelper.close (m_aWriter);
+      StreamHelper.close (m_aOS);
+      FileOperationManager.INSTANCE.deleteFileIfExisting (m_aTempFile);
+    }
+  }
+
+  /**
+   * A single writer thread with the partitions it owns.
+   *
+   * @author Philip Helger
+   */
+  private final class Lane
+  {
+    private final ExecutorService m_aExecutor;
+    private final Semaphore m_aPending = new Semaphore (MAX_PENDING_BATCHES_PER_LANE);
+    private final ICommonsMap <String, Partition> m_aPartitions = new CommonsHashMap <> ();
+    private ICommonsList <PDStoredBusinessEntity> m_aBatch = new CommonsArrayList <> (BATCH_SIZE);
+    // The partition key of each entity of the batch
+    private ICommonsList <String> m_aBatchKeys = new CommonsArrayList <> (BATCH_SIZE);
+
+    Lane (@Nonnull final ThreadFactory aThreadFactory)
+    {
+      m_aExecutor = Executors.newSingleThreadExecutor (aThreadFactory);
+    }
+
+    private void _submit (@Nonnull final IThrowingRunnable <IOException> aTask) throws IOException
+    {
+      try
+      {
+        m_aPending.acquire ();
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        throw new IOException ("Interrupted while waiting for the partition writer", ex);
+      }
+      m_aExecutor.execute ( () -> {
+        try
+        {
+          // Don't continue writing after an error
+          if (m_aError.get () == null)
+            aTask.run ();
+        }
+        catch (final IOException | RuntimeException ex)
+        {
+          m_aError.compareAndSet (null, ex);
+        }
+        finally
+        {
+          m_aPending.release ();
+        }
+      });
+    }
+
+    private void _writeBatch (@Nonnull final ICommonsList <PDStoredBusinessEntity> aBatch,
+                              @Nonnull final ICommonsList <String> aBatchKeys) throws IOException
+    {
+      for (int i = 0; i < aBatch.size (); ++i)
+      {
+        final PDStoredBusinessEntity aEntity = aBatch.get (i);
+        final String sKey = aBatchKeys.get (i);
+        Partition aPartition = m_aPartitions.get (sKey);
+        if (aPartition == null)
+        {
+          aPartition = new Partition (sKey,
+                                      ExportAllManager.getInternalFileBusinessCardPartition (m_eMode, sKey),
+                                      m_bIncludeDocTypes);
+          m_aPartitions.put (sKey, aPartition);
+        }
+        aPartition.addEntity (aEntity);
+      }
+    }
+
+    void add (@Nonnull @Nonempty final String sKey, @Nonnull final PDStoredBusinessEntity aEntity) throws IOException
+    {
+      m_aBatch.add (aEntity);
+      m_aBatchKeys.add (sKey);
+      if (m_aBatch.size () >= BATCH_SIZE)
+        flush ();
+    }
+
+    void flush () throws IOException
+    {
+      if (m_aBatch.isNotEmpty ())
+      {
+        final ICommonsList <PDStoredBusinessEntity> aBatch = m_aBatch;
+        final ICommonsList <String> aBatchKeys = m_aBatchKeys;
+        m_aBatch = new CommonsArrayList <> (BATCH_SIZE);
+        m_aBatchKeys = new CommonsArrayList <> (BATCH_SIZE);
+        _submit ( () -> _writeBatch (aBatch, aBatchKeys));
+      }
+    }
+
+    void closeAll () throws IOException
+    {
+      _submit ( () -> {
+        for (final Partition aPartition : m_aPartitions.values ())
+          aPartition.close ();
+      });
+    }
+
+    boolean shutdown ()
+    {
+      m_aExecutor.shutdown ();
+      try
+      {
+        return m_aExecutor.awaitTermination (1, TimeUnit.HOURS);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+        return false;
+      }
+    }
+
+    void abort ()
+    {
+      m_aExecutor.shutdownNow ();
+      try
+      {
+        m_aExecutor.awaitTermination (1, TimeUnit.MINUTES);
+      }
+      catch (final InterruptedException ex)
+      {
+        Thread.currentThread ().interrupt ();
+      }
+      for (final Partition aPartition : m_aPartitions.values ())
+        aPartition.abort ();
+    }
+  }
+
+  private final EExportPartitionMode m_eMode;
+  private final boolean m_bIncludeDocTypes;
+  private final int m_nLaneCount;
+  private final int m_nMaxPartitions;
+  private final AtomicReference <Exception> m_aError = new AtomicReference <> ();
+  private ExportGeneration m_aGeneration;
+  private ICommonsSortedSet <String> m_aOldPartitionKeys;
+  private ICommonsList <Lane> m_aLanes;
+  // All keys with a partition of their own - only accessed by the scanner
+  private final ICommonsSet <String> m_aOwnPartitionKeys = new CommonsHashSet <> ();
+  private boolean m_bHasOtherPartition = false;
+
+  public ExportBusinessCardPartitionSink (@Nonnull final EExportPartitionMode eMode, final boolean bIncludeDocTypes)
+  {
+    this (eMode, bIncludeDocTypes, DEFAULT_LANE_COUNT);
+  }
+
+  public ExportBusinessCardPartitionSink (@Nonnull final EExportPartitionMode eMode,
+                                          final boolean bIncludeDocTypes,
+                                          @Nonnegative final int nLaneCount)
+  {
+    this (eMode, bIncludeDocTypes, nLaneCount, DEFAULT_MAX_PARTITIONS);
+  }
+
+  /**
+   * Constructor.
+   *
+   * @param eMode
+   *        The partition mode. May not be <code>null</code>.
+   * @param bIncludeDocTypes
+   *        <code>true</code> to include the document types in the export.
+   * @param nLaneCount
+   *        The number of writer threads. Must be &gt; 0.
+   * @param nMaxPartitions
+   *        The maximum number of partitions, including the
+   *        {@link EExportPartitionMode#PARTITION_KEY_OTHER} partition. Must be
+   *        &gt; 0.
+   */
+  public ExportBusinessCardPartitionSink (@Nonnull final EExportPartitionMode eMode,
+                                          final boolean bIncludeDocTypes,
+                                          @Nonnegative final int nLaneCount,
+                                          @Nonnegative final int nMaxPartitions)
+  {
+    ValueEnforcer.notNull (eMode, "Mode");
+    ValueEnforcer.isGT0 (nLaneCount, "LaneCount");
+    ValueEnforcer.isGT0 (nMaxPartitions, "MaxPartitions");
+    m_eMode = eMode;
+    m_bIncludeDocTypes = bIncludeDocTypes;
+    m_nLaneCount = nLaneCount;
+    m_nMaxPartitions = nMaxPartitions;
+  }
+
+  @Nonnull
+  @Nonempty
+  public String getDisplayName ()
+  {
+    return "business cards as XML partitioned by " + m_eMode.getID ();
+  }
+
+  @Nonnull
+  private static ICommonsSortedSet <String> _readPartitionKeys (@Nonnull final File aManifestFile)
+  {
+    final ICommonsSortedSet <String> ret = new CommonsTreeSet <> ();
+    if (aManifestFile.isFile ())
+    {
+      final IMicroDocument aDoc = MicroReader.readMicroXML (aManifestFile);
+      if (aDoc != null && aDoc.getDocumentElement () != null)
+        for (final IMicroElement ePartition : aDoc.getDocumentElement ().getAllChildElements (MANIFEST_ELEMENT_PARTITION))
+        {
+          final String sKey = ePartition.getAttributeValue (MANIFEST_ATTR_KEY);
+          if (EExportPartitionMode.isValidPartitionKey (sKey))
+            ret.add (sKey);
+        }
+    }
+    return ret;
+  }
+
+  public void onStart (@Nonnull final ExportGeneration aGeneration) throws IOException
+  {
+    m_aGeneration = aGeneration;
+    m_aOldPartitionKeys = _readPartitionKeys (ExportAllManager.getInternalFileBusinessCardPartitionManifest (m_eMode));
+    m_aOwnPartitionKeys.clear ();
+    m_bHasOtherPartition = false;
+
+    final ThreadFactory aThreadFactory = new BasicThreadFactory.Builder ().namingPattern ("pd-export-partition-" +
+                                                                                         m_eMode.getID () +
+                                                                                         "-%d")
+                                                                          .daemon (true)
+                                                                          .build ();
+    m_aLanes = new CommonsArrayList <> (m_nLaneCount);
+    for (int i = 0; i < m_nLaneCount; ++i)
+      m_aLanes.add (new Lane (aThreadFactory));
+  }
+
+  private void _checkError () throws IOException
+  {
+    final Exception ex = m_aError.get ();
+    if (ex instanceof IOException)
+      throw (IOException) ex;
+    if (ex != null)
+      throw new IOException ("Failed to write partition", ex);
+  }
+
+  public void onEntity (@Nonnull final PDStoredBusinessEntity aEntity) throws IOException
+  {
+    _checkError ();
+    String sKey = m_eMode.getPartitionKey (aEntity);
+    if (!m_aOwnPartitionKeys.contains (sKey))
+    {
+      // One partition is reserved for the others
+      if (m_aOwnPartitionKeys.size () < m_nMaxPartitions - 1)
+        m_aOwnPartitionKeys.add (sKey);
+      else
+      {
+        if (!m_bHasOtherPartition)
+        {
+          LOGGER.warn ("More than " +
+                       (m_nMaxPartitions - 1) +
+                       " partitions by " +
+                       m_eMode.getID () +
+                       " - merging all further keys into partition '" +
+                       EExportPartitionMode.PARTITION_KEY_OTHER +
+                       "'");
+          m_bHasOtherPartition = true;
+        }
+        sKey = EExportPartitionMode.PARTITION_KEY_OTHER;
+      }
+    }
+    m_aLanes.get ((sKey.hashCode () & Integer.MAX_VALUE) % m_nLaneCount).add (sKey, aEntity);
+  }
+
+  public void onFinish () throws IOException
+  {
+    for (final Lane aLane : m_aLanes)
+    {
+      aLane.flush ();
+      aLane.closeAll ();
+    }
+    for (final Lane aLane : m_aLanes)
+      if (!aLane.shutdown ())
+        throw new IOException ("Timeout waiting for the partition writers of " + getDisplayName ());
+    _checkError ();
+
+    // Publish all partitions sorted by key
+    final ICommonsSortedMap <String, Partition> aPartitions = new CommonsTreeMap <> ();
+    for (final Lane aLane : m_aLanes)
+      aPartitions.putAll (aLane.m_aPartitions);
+
+    final IMicroDocument aDoc = new MicroDocument ();
+    final IMicroElement eRoot = aDoc.appendElement (MANIFEST_ELEMENT_ROOT);
+    eRoot.setAttribute ("version", 1);
+    eRoot.setAttribute ("mode", m_eMode.getID ());
+    eRoot.setAttribute ("generation", m_aGeneration.getGeneration ());
+    eRoot.setAttribute ("creationdt", m_aGeneration.getCreationDateTime ().toString ());
+    eRoot.setAttribute ("maxpartitions", m_nMaxPartitions);
+    long nTotalEntities = 0;
+    for (final Map.Entry <String, Partition> aEntry : aPartitions.entrySet ())
+    {
+      final Partition aPartition = aEntry.getValue ();
+      final ExportFileMetadata aMetadata = new ExportFileMetadata (m_aGeneration,
+                                                                   aPartition.m_aFOS.getBytesWritten (),
+                                                                   aPartition.m_aFOS.getChecksum ());
+      ExportAllManager.publishFile (aPartition.m_aTempFile, aPartition.m_aFile, aMetadata);
+      eRoot.appendElement (MANIFEST_ELEMENT_PARTITION)
+           .setAttribute (MANIFEST_ATTR_KEY, aPartition.m_sKey)
+           .setAttribute ("participants", aPartition.m_aWriter.getParticipantCount ())
+           .setAttribute ("entities", aPartition.m_nEntityCount)
+           .setAttribute ("filename", ExportAllManager.getExternalFilenameBusinessCardPartition (m_eMode, aPartition.m_sKey))
+           .setAttribute ("size", aMetadata.getSize ())
+           .setAttribute ("sha256", aMetadata.getChecksum ());
+      nTotalEntities += aPartition.m_nEntityCount;
+    }
+
+    // Publish the manifest last
+    final File aManifestFile = ExportAllManager.getInternalFileBusinessCardPartitionManifest (m_eMode);
+    final File aManifestTempFile = new File (aManifestFile.getParentFile (), aManifestFile.getName () + ".tmp");
+    final ExportFileOutputStream aFOS = new ExportFileOutputStream (aManifestTempFile);
+    // Closes the stream
+    if (MicroWriter.writeToStream (aDoc, new BufferedOutputStream (aFOS)).isFailure ())
+      throw new IOException ("Failed to write partition manifest to " + aManifestTempFile.getAbsolutePath ());
+    ExportAllManager.publishFile (aManifestTempFile,
+                                  aManifestFile,
+                                  new ExportFileMetadata (m_aGeneration, aFOS.getBytesWritten (), aFOS.getChecksum ()));
+
+    // Delete all partitions that no longer exist
+    for (final String sOldKey : m_aOldPartitionKeys)
+      if (!aPartitions.containsKey (sOldKey))
+        ExportAllManager.deleteFile (ExportAllManager.getInternalFileBusinessCardPartition (m_eMode, sOldKey));
+
+    LOGGER.info ("Successfully exported " +
+                 nTotalEntities +
+                 " business entities into " +
+                 aPartitions.size () +
+                 " partitions by " +
+                 m_eMode.getID ());
+    m_aLanes = null;
+    m_aOwnPartitionKeys.clear ();
+  }
+
+  public void onAbort ()
+  {
+    if (m_aLanes != null)
+    {
+      for (final Lane aLane : m_aLanes)
+        aLane.abort ();
+      m_aLanes = null;
+    }
+    m_aOwnPartitionKeys.clear ();
+  }
+}
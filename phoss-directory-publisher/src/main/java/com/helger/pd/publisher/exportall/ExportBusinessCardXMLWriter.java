@@ -0,0 +1,311 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.WillNotClose;
+import javax.annotation.concurrent.NotThreadSafe;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.datetime.PDTWebDateHelper;
+import com.helger.pd.businesscard.generic.PDBusinessEntity;
+import com.helger.pd.businesscard.generic.PDContact;
+import com.helger.pd.businesscard.generic.PDIdentifier;
+import com.helger.pd.businesscard.generic.PDName;
+import com.helger.pd.indexer.storage.PDStoredBusinessEntity;
+import com.helger.pd.publisher.nicename.NiceNameEntry;
+import com.helger.pd.publisher.nicename.NiceNameHandler;
+import com.helger.peppolid.IDocumentTypeIdentifier;
+import com.helger.peppolid.IParticipantIdentifier;
+
+/**
+ * Write the business card XML export with a StAX writer, so that each
+ * participant is written as soon as all its entities were read. The output has
+ * the same structure as the one created by {@link ExportHelper}.<br>
+ * All entities of a participant are stored as one block in the index, so they
+ * are passed to {@link #addEntity(PDStoredBusinessEntity)} one after another.
+ * Only the entities of the current participant are kept in memory.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@NotThreadSafe
+public final class ExportBusinessCardXMLWriter implements Closeable
+{
+  /**
+   * The root element attribute containing the generation of the export run.
+   * Not present in live exports.
+   */
+  public static final String ATTR_GENERATION = "generation";
+
+  private final XMLStreamWriter m_aWriter;
+  private final boolean m_bIncludeDocTypes;
+  private final ICommonsList <PDStoredBusinessEntity> m_aCurrent = new CommonsArrayList <> ();
+  private IParticipantIdentifier m_aCurrentParticipantID;
+  private int m_nParticipantCount = 0;
+
+  /**
+   * Constructor. Writes the XML root element.
+   *
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>. Is
+   *        flushed but not closed by {@link #close()}.
+   * @param bIncludeDocTypes
+   *        <code>true</code> to include the document types of each participant.
+   * @throws IOException
+   *         On write error
+   */
+  public ExportBusinessCardXMLWriter (@Nonnull @WillNotClose final OutputStream aOS, final boolean bIncludeDocTypes) throws IOException
+  {
+    this (aOS, bIncludeDocTypes, null);
+  }
+
+  /**
+   * Constructor. Writes the XML root element.
+   *
+   * @param aOS
+   *        The output stream to write to. May not be <code>null</code>. Is
+   *        flushed but not closed by {@link #close()}.
+   * @param bIncludeDocTypes
+   *        <code>true</code> to include the document types of each participant.
+   * @param aAdditionalRootAttrs
+   *        Additional attributes to be added to the root element. May be
+   *        <code>null</code>.
+   * @throws IOException
+   *         On write error
+   */
+  public ExportBusinessCardXMLWriter (@Nonnull @WillNotClose final OutputStream aOS,
+                                      final boolean bIncludeDocTypes,
+                                      @Nullable final Map <String, String> aAdditionalRootAttrs) throws IOException
+  {
+    ValueEnforcer.notNull (aOS, "OS");
+    m_bIncludeDocTypes = bIncludeDocTypes;
+    try
+    {
+      m_aWriter = XMLOutputFactory.newFactory ().createXMLStreamWriter (aOS, StandardCharsets.UTF_8.name ());
+      m_aWriter.writeStartDocument (StandardCharsets.UTF_8.name (), "1.0");
+      m_aWriter.writeCharacters ("\n");
+      m_aWriter.setDefaultNamespace (ExportHelper.XML_EXPORT_NS_URI);
+      m_aWriter.writeStartElement (ExportHelper.XML_EXPORT_NS_URI, "root");
+      m_aWriter.writeDefaultNamespace (ExportHelper.XML_EXPORT_NS_URI);
+      m_aWriter.writeAttribute ("version", "2");
+      m_aWriter.writeAttribute ("creationdt", PDTWebDateHelper.getAsStringXSD (PDTFactory.getCurrentZonedDateTimeUTC ()));
+      if (aAdditionalRootAttrs != null)
+        for (final Map.Entry <String, String> aEntry : aAdditionalRootAttrs.entrySet ())
+          _attr (aEntry.getKey (), aEntry.getValue ());
+      m_aWriter.writeCharacters ("\n");
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new IOException ("Failed to start XML export", ex);
+    }
+  }
+
+  private void _startElement (@Nonnull final String sElementName) throws XMLStreamException
+  {
+    m_aWriter.writeStartElement (ExportHelper.XML_EXPORT_NS_URI, sElementName);
+  }
+
+  private void _attr (@Nonnull final String sName, @Nullable final String sValue) throws XMLStreamException
+  {
+    // Same as in MicroDOM - null attributes are not emitted
+    if (sValue != null)
+      m_aWriter.writeAttribute (sName, sValue);
+  }
+
+  private void _textElement (@Nonnull final String sElementName, @Nonnull final String sText) throws XMLStreamException
+  {
+    _startElement (sElementName);
+    m_aWriter.writeCharacters (sText);
+    m_aWriter.writeEndElement ();
+  }
+
+  private void _writeEntity (@Nonnull final PDBusinessEntity aEntity) throws XMLStreamException
+  {
+    _startElement ("entity");
+    _attr ("countrycode", aEntity.getCountryCode ());
+    for (final PDName aName : aEntity.names ())
+    {
+      _startElement ("name");
+      _attr ("name", aName.getName ());
+      _attr ("language", aName.getLanguageCode ());
+      m_aWriter.writeEndElement ();
+    }
+    if (aEntity.hasGeoInfo ())
+      _textElement ("geoinfo", aEntity.getGeoInfo ());
+    for (final PDIdentifier aID : aEntity.identifiers ())
+    {
+      _startElement ("id");
+      _attr ("scheme", aID.getScheme ());
+      _attr ("value", aID.getValue ());
+      m_aWriter.writeEndElement ();
+    }
+    for (final String sWebsiteURI : aEntity.websiteURIs ())
+      _textElement ("website", sWebsiteURI);
+    for (final PDContact aContact : aEntity.contacts ())
+    {
+      _startElement ("contact");
+      _attr ("email", aContact.getEmail ());
+      _attr ("name", aContact.getName ());
+      _attr ("phonenumber", aContact.getPhoneNumber ());
+      _attr ("type", aContact.getType ());
+      m_aWriter.writeEndElement ();
+    }
+    if (aEntity.hasAdditionalInfo ())
+      _textElement ("additionalinfo", aEntity.getAdditionalInfo ());
+    if (aEntity.hasRegistrationDate ())
+      _textElement ("regdate", PDTWebDateHelper.getAsStringXSD (aEntity.getRegistrationDate ()));
+    m_aWriter.writeEndElement ();
+  }
+
+  private void _writeDocTypeID (@Nonnull final IDocumentTypeIdentifier aDocTypeID) throws XMLStreamException
+  {
+    _startElement ("doctypeid");
+    _attr ("scheme", aDocTypeID.getScheme ());
+    _attr ("value", aDocTypeID.getValue ());
+    final NiceNameEntry aNiceName = NiceNameHandler.getDocTypeNiceName (aDocTypeID.getURIEncoded ());
+    if (aNiceName == null)
+      _attr ("non-standard", Boolean.TRUE.toString ());
+    else
+    {
+      _attr ("displayname", aNiceName.getName ());
+      _attr ("deprecated", Boolean.toString (aNiceName.isDeprecated ()));
+    }
+    m_aWriter.writeEndElement ();
+  }
+
+  private void _flushCurrent () throws IOException
+  {
+    if (m_aCurrentParticipantID == null)
+      return;
+
+    try
+    {
+      _startElement ("businesscard");
+      _startElement ("participant");
+      _attr ("scheme", m_aCurrentParticipantID.getScheme ());
+      _attr ("value", m_aCurrentParticipantID.getValue ());
+      m_aWriter.writeEndElement ();
+      for (final PDStoredBusinessEntity aSBE : m_aCurrent)
+        _writeEntity (aSBE.getAsBusinessEntity ());
+      // All entities of a participant share the same document types
+      if (m_bIncludeDocTypes && m_aCurrent.isNotEmpty ())
+        for (final IDocumentTypeIdentifier aDocTypeID : m_aCurrent.getFirst ().documentTypeIDs ())
+          _writeDocTypeID (aDocTypeID);
+      m_aWriter.writeEndElement ();
+      m_aWriter.writeCharacters ("\n");
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new IOException ("Failed to write business card of " + m_aCurrentParticipantID.getURIEncoded (), ex);
+    }
+
+    m_nParticipantCount++;
+    m_aCurrent.clear ();
+    m_aCurrentParticipantID = null;
+  }
+
+  /**
+   * Add a single entity. If it belongs to a different participant than the
+   * previous entity, the business card of the previous participant is
+   * written.
+   *
+   * @param aEntity
+   *        The entity to add. May not be <code>null</code>.
+   * @throws IOException
+   *         On write error
+   */
+  public void addEntity (@Nonnull final PDStoredBusinessEntity aEntity) throws IOException
+  {
+    ValueEnforcer.notNull (aEntity, "Entity");
+
+    if (m_aCurrentParticipantID != null && !m_aCurrentParticipantID.hasSameContent (aEntity.getParticipantID ()))
+      _flushCurrent ();
+    m_aCurrentParticipantID = aEntity.getParticipantID ();
+    m_aCurrent.add (aEntity);
+  }
+
+  /**
+   * Write a marker that the provided participant was removed. This is only
+   * used in delta exports. The business card of the previous participant is
+   * written first.
+   *
+   * @param aParticipantID
+   *        The ID of the removed participant. May not be <code>null</code>.
+   * @throws IOException
+   *         On write error
+   * @since 0.9.6
+   */
+  public void addRemovedParticipant (@Nonnull final IParticipantIdentifier aParticipantID) throws IOException
+  {
+    ValueEnforcer.notNull (aParticipantID, "ParticipantID");
+
+    _flushCurrent ();
+    try
+    {
+      _startElement ("removed");
+      _attr ("scheme", aParticipantID.getScheme ());
+      _attr ("value", aParticipantID.getValue ());
+      m_aWriter.writeEndElement ();
+      m_aWriter.writeCharacters ("\n");
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new IOException ("Failed to write removal of " + aParticipantID.getURIEncoded (), ex);
+    }
+  }
+
+  /**
+   * @return The number of business cards written so far. Always &ge; 0.
+   */
+  public int getParticipantCount ()
+  {
+    return m_nParticipantCount;
+  }
+
+  /**
+   * Write the last business card and finish the XML document.
+   */
+  public void close () throws IOException
+  {
+    _flushCurrent ();
+    try
+    {
+      m_aWriter.writeEndElement ();
+      m_aWriter.writeEndDocument ();
+      m_aWriter.flush ();
+      m_aWriter.close ();
+    }
+    catch (final XMLStreamException ex)
+    {
+      throw new IOException ("Failed to finish XML export", ex);
+    }
+  }
+}
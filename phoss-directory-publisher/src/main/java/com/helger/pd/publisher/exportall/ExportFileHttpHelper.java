@@ -0,0 +1,511 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import java.io.File;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.Locale;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.helger.commons.http.CHttpHeader;
+import com.helger.commons.io.IHasInputStream;
+import com.helger.commons.io.resource.FileSystemResource;
+import com.helger.commons.io.stream.StreamHelper;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.scope.IScope;
+import com.helger.scope.IScopeDestructionAware;
+import com.helger.servlet.response.UnifiedResponse;
+import com.helger.web.scope.IRequestWebScopeWithoutResponse;
+
+/**
+ * HTTP specific handling when delivering export files: strong ETags based on
+ * the checksum, conditional requests (<code>If-None-Match</code>,
+ * <code>If-Modified-Since</code>), single byte ranges (<code>Range</code>,
+ * <code>If-Range</code>) and the negotiation of the precompressed gzip
+ * variant (<code>Accept-Encoding</code>).
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@Immutable
+final class ExportFileHttpHelper
+{
+  public static final String CONTENT_ENCODING_GZIP = "gzip";
+
+  private static final Logger LOGGER = LoggerFactory.getLogger (ExportFileHttpHelper.class);
+  private static final String RANGE_UNIT_PREFIX = "bytes=";
+  private static final String REQUEST_ATTR_CHANNEL_CLOSER = ExportFileHttpHelper.class.getName () + ".channelcloser";
+
+  /**
+   * A single byte range with inclusive start and end.
+   *
+   * @author Philip Helger
+   */
+  @Immutable
+  static final class ByteRange
+  {
+    static final ByteRange UNSATISFIABLE = new ByteRange (-1, -1);
+
+    private final long m_nFirst;
+    private final long m_nLast;
+
+    ByteRange (final long nFirst, final long nLast)
+    {
+      m_nFirst = nFirst;
+      m_nLast = nLast;
+    }
+
+    boolean isSatisfiable ()
+    {
+      return m_nFirst >= 0;
+    }
+
+    long getFirst ()
+    {
+      return m_nFirst;
+    }
+
+    long getLast ()
+    {
+      return m_nLast;
+    }
+
+    @Nonnegative
+    long getLength ()
+    {
+      return m_nLast - m_nFirst + 1;
+    }
+  }
+
+  /**
+   * Input stream that returns at most a certain number of bytes.
+   *
+   * @author Philip Helger
+   */
+  private static final class LimitedInputStream extends FilterInputStream
+  {
+    private long m_nRemaining;
+
+    LimitedInputStream (@Nonnull final InputStream aIS, @Nonnegative final long nLimit)
+    {
+      super (aIS);
+      m_nRemaining = nLimit;
+    }
+
+    @Override
+    public int read () throws IOException
+    {
+      if (m_nRemaining <= 0)
+        return -1;
+      final int ret = super.read ();
+      if (ret >= 0)
+        m_nRemaining--;
+      return ret;
+    }
+
+    @Override
+    public int read (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+    {
+      if (m_nRemaining <= 0)
+        return -1;
+      final int ret = super.read (aBuf, nOfs, (int) Math.min (nLen, m_nRemaining));
+      if (ret > 0)
+        m_nRemaining -= ret;
+      return ret;
+    }
+
+    @Override
+    public long skip (final long n) throws IOException
+    {
+      final long ret = super.skip (Math.min (n, m_nRemaining));
+      if (ret > 0)
+        m_nRemaining -= ret;
+      return ret;
+    }
+
+    @Override
+    public int available () throws IOException
+    {
+      return (int) Math.min (super.available (), m_nRemaining);
+    }
+
+    @Override
+    public boolean markSupported ()
+    {
+      return false;
+    }
+  }
+
+  private ExportFileHttpHelper ()
+  {}
+
+  /**
+   * Check if the client accepts gzip encoded content.
+   *
+   * @param sAcceptEncoding
+   *        The value of the <code>Accept-Encoding</code> request header. May be
+   *        <code>null</code>.
+   * @return <code>true</code> if gzip is acceptable.
+   */
+  static boolean isGzipAccepted (@Nullable final String sAcceptEncoding)
+  {
+    if (StringHelper.hasNoText (sAcceptEncoding))
+      return false;
+
+    Boolean aGzip = null;
+    boolean bWildcard = false;
+    for (final String sPart : StringHelper.getExploded (',', sAcceptEncoding))
+    {
+      final String sCoding;
+      double dQValue = 1;
+      final int nSemicolon = sPart.indexOf (';');
+      if (nSemicolon >= 0)
+      {
+        sCoding = sPart.substring (0, nSemicolon).trim ().toLowerCase (Locale.ROOT);
+        final String sParam = sPart.substring (nSemicolon + 1).trim ();
+        if (sParam.startsWith ("q="))
+          dQValue = StringParser.parseDouble (sParam.substring (2).trim (), 0);
+      }
+      else
+        sCoding = sPart.trim ().toLowerCase (Locale.ROOT);
+
+      if (sCoding.equals (CONTENT_ENCODING_GZIP) || sCoding.equals ("x-gzip"))
+        aGzip = Boolean.valueOf (dQValue > 0);
+      else
+        if (sCoding.equals ("*"))
+          bWildcard = dQValue > 0;
+    }
+    return aGzip != null ? aGzip.booleanValue () : bWildcard;
+  }
+
+  /**
+   * Parse a <code>Range</code> request header. Only a single byte range is
+   * supported - for everything else the complete content is delivered, as
+   * permitted by RFC 7233.
+   *
+   * @param sRange
+   *        The header value. May not be <code>null</code>.
+   * @param nSize
+   *        The size of the content in bytes.
+   * @return <code>null</code> if the header is not supported or syntactically
+   *         invalid, {@link ByteRange#UNSATISFIABLE} if the range is outside of
+   *         the content.
+   */
+  @Nullable
+  static ByteRange parseRange (@Nonnull final String sRange, @Nonnegative final long nSize)
+  {
+    if (!sRange.startsWith (RANGE_UNIT_PREFIX))
+      return null;
+
+    final String sSpec = sRange.substring (RANGE_UNIT_PREFIX.length ()).trim ();
+    if (sSpec.indexOf (',') >= 0)
+    {
+      // Multiple ranges are not supported
+      return null;
+    }
+
+    final int nDash = sSpec.indexOf ('-');
+    if (nDash < 0)
+      return null;
+
+    final String sFirst = sSpec.substring (0, nDash).trim ();
+    final String sLast = sSpec.substring (nDash + 1).trim ();
+    final long nFirst;
+    final long nLast;
+    if (sFirst.isEmpty ())
+    {
+      // Suffix range: the last n bytes
+      final long nSuffixLength = StringParser.parseLong (sLast, -1);
+      if (nSuffixLength < 0)
+        return null;
+      if (nSuffixLength == 0)
+        return ByteRange.UNSATISFIABLE;
+      nFirst = Math.max (0, nSize - nSuffixLength);
+      nLast = nSize - 1;
+    }
+    else
+    {
+      nFirst = StringParser.parseLong (sFirst, -1);
+      if (nFirst < 0)
+        return null;
+      if (sLast.isEmpty ())
+        nLast = nSize - 1;
+      else
+      {
+        final long nParsedLast = StringParser.parseLong (sLast, -1);
+        if (nParsedLast < nFirst)
+          return null;
+        nLast = Math.min (nParsedLast, nSize - 1);
+      }
+    }
+
+    if (nFirst >= nSize)
+      return ByteRange.UNSATISFIABLE;
+    return new ByteRange (nFirst, nLast);
+  }
+
+  @Nonnull
+  static String getETag (@Nonnull final ExportFileMetadata aMetadata)
+  {
+    // Strong ETag
+    return '"' + aMetadata.getChecksum () + '"';
+  }
+
+  /**
+   * Check if an <code>If-None-Match</code> header value matches the provided
+   * ETag using the weak comparison as required by RFC 7232.
+   *
+   * @param sIfNoneMatch
+   *        The header value. May not be <code>null</code>.
+   * @param sETag
+   *        The current ETag. May not be <code>null</code>.
+   * @return <code>true</code> if it matches.
+   */
+  static boolean isETagMatching (@Nonnull final String sIfNoneMatch, @Nonnull final String sETag)
+  {
+    for (final String sPart : StringHelper.getExploded (',', sIfNoneMatch))
+    {
+      String sCandidate = sPart.trim ();
+      if (sCandidate.equals ("*"))
+        return true;
+      if (sCandidate.startsWith ("W/"))
+        sCandidate = sCandidate.substring (2);
+      if (sCandidate.equals (sETag))
+        return true;
+    }
+    return false;
+  }
+
+  @Nonnull
+  static String getAsHttpDate (@Nonnull final ZonedDateTime aDT)
+  {
+    return DateTimeFormatter.RFC_1123_DATE_TIME.format (aDT.withZoneSameInstant (ZoneOffset.UTC));
+  }
+
+  @Nullable
+  static ZonedDateTime getHttpDate (@Nullable final String sDate)
+  {
+    if (StringHelper.hasNoText (sDate))
+      return null;
+    try
+    {
+      return ZonedDateTime.parse (sDate.trim (), DateTimeFormatter.RFC_1123_DATE_TIME);
+    }
+    catch (final DateTimeParseException ex)
+    {
+      return null;
+    }
+  }
+
+  private static boolean _isNotModified (@Nonnull final HttpServletRequest aRequest,
+                                         @Nonnull final String sETag,
+                                         @Nonnull final ZonedDateTime aLastModified)
+  {
+    final String sIfNoneMatch = aRequest.getHeader (CHttpHeader.IF_NONE_MATCH);
+    if (sIfNoneMatch != null)
+    {
+      // If-Modified-Since must be ignored in this case
+      return isETagMatching (sIfNoneMatch, sETag);
+    }
+
+    final ZonedDateTime aIfModifiedSince = getHttpDate (aRequest.getHeader (CHttpHeader.IF_MODIFIED_SINCE));
+    return aIfModifiedSince != null && !aLastModified.isAfter (aIfModifiedSince);
+  }
+
+  private static boolean _isIfRangeMatching (@Nullable final String sIfRange,
+                                             @Nonnull final String sETag,
+                                             @Nonnull final ZonedDateTime aLastModified)
+  {
+    if (sIfRange == null)
+      return true;
+    final String sValue = sIfRange.trim ();
+    if (sValue.startsWith ("\"") || sValue.startsWith ("W/"))
+    {
+      // Strong comparison
+      return sValue.equals (sETag);
+    }
+    final ZonedDateTime aDT = getHttpDate (sValue);
+    return aDT != null && aDT.toInstant ().equals (aLastModified.toInstant ());
+  }
+
+  /**
+   * Closes the opened export file when the request scope ends. The content
+   * stream is only read for successful GET requests, so without this the file
+   * would stay open e.g. for HEAD requests or if writing the response failed.
+   *
+   * @author Philip Helger
+   */
+  private static final class ChannelCloser implements IScopeDestructionAware
+  {
+    private final FileChannel m_aChannel;
+
+    ChannelCloser (@Nonnull final FileChannel aChannel)
+    {
+      m_aChannel = aChannel;
+    }
+
+    public void onScopeDestruction (@Nonnull final IScope aScopeInDestruction)
+    {
+      // Closing an already closed channel does nothing
+      StreamHelper.close (m_aChannel);
+    }
+  }
+
+  @Nonnull
+  private static IHasInputStream _createContent (@Nonnull final FileChannel aChannel, @Nonnegative final long nLength)
+  {
+    return new IHasInputStream ()
+    {
+      @Nonnull
+      public InputStream getInputStream ()
+      {
+        return new LimitedInputStream (Channels.newInputStream (aChannel), nLength);
+      }
+
+      public boolean isReadMultiple ()
+      {
+        return false;
+      }
+    };
+  }
+
+  /**
+   * Deliver an export file. This must be called while the file cannot be
+   * replaced, because the file is opened inside of this method. The content is
+   * read lazily from the opened file, so even if the file is replaced
+   * afterwards, the delivered content still matches the headers.
+   *
+   * @param aFile
+   *        The file to deliver. May not be <code>null</code>.
+   * @param aMetadata
+   *        The metadata of the file. May be <code>null</code> for files
+   *        created by old versions.
+   * @param sContentEncoding
+   *        The content encoding of the file. May be <code>null</code>.
+   * @param bHasVariants
+   *        <code>true</code> if there are multiple encodings of the file.
+   * @param aRequestScope
+   *        The current request scope. May not be <code>null</code>. The opened
+   *        file is closed when this scope ends.
+   * @param aUR
+   *        The response to fill. May not be <code>null</code>.
+   */
+  static void deliver (@Nonnull final File aFile,
+                       @Nullable final ExportFileMetadata aMetadata,
+                       @Nullable final String sContentEncoding,
+                       final boolean bHasVariants,
+                       @Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
+                       @Nonnull final UnifiedResponse aUR)
+  {
+    final HttpServletRequest aRequest = aRequestScope.getRequest ();
+    if (bHasVariants)
+      aUR.setCustomResponseHeader (CHttpHeader.VARY, CHttpHeader.ACCEPT_ENCODING);
+
+    if (aMetadata == null)
+    {
+      // No metadata - no conditional requests
+      aUR.disableCaching ();
+      // setContent(IReadableResource) is lazy
+      aUR.setContent (new FileSystemResource (aFile));
+      final long nFileLen = aFile.length ();
+      if (nFileLen > 0)
+        aUR.setCustomResponseHeader (CHttpHeader.CONTENT_LENGTH, Long.toString (nFileLen));
+      return;
+    }
+
+    // Clients may store the file but must revalidate it
+    final String sETag = getETag (aMetadata);
+    final ZonedDateTime aLastModified = aMetadata.getCreationDateTime ().withNano (0);
+    aUR.setCustomResponseHeader (CHttpHeader.CACHE_CONTROL, "no-cache");
+    aUR.setCustomResponseHeader (CHttpHeader.ETAG, sETag);
+    aUR.setCustomResponseHeader (CHttpHeader.LAST_MODIFIED, getAsHttpDate (aLastModified));
+    aUR.setCustomResponseHeader (CHttpHeader.ACCEPT_RANGES, "bytes");
+
+    if (_isNotModified (aRequest, sETag, aLastModified))
+    {
+      aUR.setStatus (HttpServletResponse.SC_NOT_MODIFIED);
+      return;
+    }
+
+    final long nSize = aMetadata.getSize ();
+    ByteRange aRange = null;
+    final String sRange = aRequest.getHeader (CHttpHeader.RANGE);
+    if (sRange != null && _isIfRangeMatching (aRequest.getHeader (CHttpHeader.IF_RANGE), sETag, aLastModified))
+      aRange = parseRange (sRange, nSize);
+
+    if (aRange != null && !aRange.isSatisfiable ())
+    {
+      aUR.setCustomResponseHeader (CHttpHeader.CONTENT_RANGE, "bytes */" + nSize);
+      aUR.setStatus (HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE);
+      return;
+    }
+
+    FileChannel aChannel = null;
+    try
+    {
+      aChannel = FileChannel.open (aFile.toPath (), StandardOpenOption.READ);
+      if (aRange != null)
+        aChannel.position (aRange.getFirst ());
+    }
+    catch (final IOException ex)
+    {
+      StreamHelper.close (aChannel);
+      LOGGER.error ("Failed to open export file " + aFile.getAbsolutePath (), ex);
+      aUR.setStatus (HttpServletResponse.SC_NOT_FOUND);
+      return;
+    }
+
+    aRequestScope.attrs ().putIn (REQUEST_ATTR_CHANNEL_CLOSER, new ChannelCloser (aChannel));
+
+    if (sContentEncoding != null)
+      aUR.setCustomResponseHeader (CHttpHeader.CONTENT_ENCODING, sContentEncoding);
+
+    if (aRange != null)
+    {
+      aUR.setStatus (HttpServletResponse.SC_PARTIAL_CONTENT);
+      aUR.setAllowContentOnStatus (true);
+      aUR.setCustomResponseHeader (CHttpHeader.CONTENT_RANGE,
+                                   "bytes " + aRange.getFirst () + "-" + aRange.getLast () + "/" + nSize);
+      aUR.setCustomResponseHeader (CHttpHeader.CONTENT_LENGTH, Long.toString (aRange.getLength ()));
+      aUR.setContent (_createContent (aChannel, aRange.getLength ()));
+    }
+    else
+    {
+      aUR.setCustomResponseHeader (CHttpHeader.CONTENT_LENGTH, Long.toString (nSize));
+      aUR.setContent (_createContent (aChannel, nSize));
+    }
+  }
+}
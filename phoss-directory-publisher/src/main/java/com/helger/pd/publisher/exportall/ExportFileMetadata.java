@@ -0,0 +1,247 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeParseException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.Nonempty;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
+import com.helger.commons.string.ToStringGenerator;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.MicroDocument;
+import com.helger.xml.microdom.serialize.MicroReader;
+import com.helger.xml.microdom.serialize.MicroWriter;
+
+/**
+ * Metadata of a single generation of an export file. It is stored in a small
+ * XML file next to the export file.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@Immutable
+public final class ExportFileMetadata
+{
+  private static final String ELEMENT_ROOT = "exportfile";
+  private static final String ATTR_CREATIONDT = "creationdt";
+  private static final String ATTR_GENERATION = "generation";
+  private static final String ATTR_SIZE = "size";
+  private static final String ATTR_CHECKSUM = "sha256";
+
+  /** The generation number of files that were not created by an export run */
+  public static final long NO_GENERATION = 0;
+
+  private final ZonedDateTime m_aCreationDT;
+  private final long m_nGeneration;
+  private final long m_nSize;
+  private final String m_sChecksum;
+
+  public ExportFileMetadata (@Nonnull final ZonedDateTime aCreationDT,
+                             @Nonnegative final long nSize,
+                             @Nonnull @Nonempty final String sChecksum)
+  {
+    this (aCreationDT, NO_GENERATION, nSize, sChecksum);
+  }
+
+  /**
+   * Constructor for a file written by an export run.
+   *
+   * @param aGeneration
+   *        The export run that created the file. May not be <code>null</code>.
+   * @param nSize
+   *        The size of the file in bytes.
+   * @param sChecksum
+   *        The lower case hex encoded SHA-256 checksum of the file.
+   * @since 0.9.6
+   */
+  public ExportFileMetadata (@Nonnull final ExportGeneration aGeneration,
+                             @Nonnegative final long nSize,
+                             @Nonnull @Nonempty final String sChecksum)
+  {
+    this (aGeneration.getCreationDateTime (), aGeneration.getGeneration (), nSize, sChecksum);
+  }
+
+  private ExportFileMetadata (@Nonnull final ZonedDateTime aCreationDT,
+                              @Nonnegative final long nGeneration,
+                              @Nonnegative final long nSize,
+                              @Nonnull @Nonempty final String sChecksum)
+  {
+    ValueEnforcer.notNull (aCreationDT, "CreationDT");
+    ValueEnforcer.isGE0 (nGeneration, "Generation");
+    ValueEnforcer.isGE0 (nSize, "Size");
+    ValueEnforcer.notEmpty (sChecksum, "Checksum");
+    m_aCreationDT = aCreationDT;
+    m_nGeneration = nGeneration;
+    m_nSize = nSize;
+    m_sChecksum = sChecksum;
+  }
+
+  /**
+   * @return The date and time when the export was started. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public ZonedDateTime getCreationDateTime ()
+  {
+    return m_aCreationDT;
+  }
+
+  /**
+   * @return The generation of the export run that created the file or
+   *         {@link #NO_GENERATION} if it is unknown. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getGeneration ()
+  {
+    return m_nGeneration;
+  }
+
+  /**
+   * @return <code>true</code> if the generation of the export run that created
+   *         the file is known.
+   */
+  public boolean hasGeneration ()
+  {
+    return m_nGeneration != NO_GENERATION;
+  }
+
+  /**
+   * @return The size of the export file in bytes. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getSize ()
+  {
+    return m_nSize;
+  }
+
+  /**
+   * @return The lower case hex encoded SHA-256 checksum of the export file.
+   *         Neither <code>null</code> nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  public String getChecksum ()
+  {
+    return m_sChecksum;
+  }
+
+  /**
+   * Write this metadata to the provided file. The file is forced to the storage
+   * device before this method returns.
+   *
+   * @param aFile
+   *        The file to write to. May not be <code>null</code>.
+   * @throws IOException
+   *         On write error
+   */
+  public void writeToFile (@Nonnull final File aFile) throws IOException
+  {
+    final IMicroDocument aDoc = new MicroDocument ();
+    final IMicroElement eRoot = aDoc.appendElement (ELEMENT_ROOT);
+    eRoot.setAttribute (ATTR_CREATIONDT, m_aCreationDT.toString ());
+    if (hasGeneration ())
+      eRoot.setAttribute (ATTR_GENERATION, m_nGeneration);
+    eRoot.setAttribute (ATTR_SIZE, m_nSize);
+    eRoot.setAttribute (ATTR_CHECKSUM, m_sChecksum);
+
+    // Closes the stream
+    if (MicroWriter.writeToStream (aDoc, new ExportFileOutputStream (aFile)).isFailure ())
+      throw new IOException ("Failed to write export metadata to " + aFile.getAbsolutePath ());
+  }
+
+  /**
+   * Read the metadata from the provided file.
+   *
+   * @param aFile
+   *        The file to read from. May not be <code>null</code>.
+   * @return <code>null</code> if the file does not exist or is invalid.
+   */
+  @Nullable
+  public static ExportFileMetadata readFromFile (@Nonnull final File aFile)
+  {
+    if (!aFile.isFile ())
+      return null;
+
+    final IMicroDocument aDoc = MicroReader.readMicroXML (aFile);
+    if (aDoc == null || aDoc.getDocumentElement () == null)
+      return null;
+
+    final IMicroElement eRoot = aDoc.getDocumentElement ();
+    final String sCreationDT = eRoot.getAttributeValue (ATTR_CREATIONDT);
+    // Not present in files of old versions
+    final long nGeneration = StringParser.parseLong (eRoot.getAttributeValue (ATTR_GENERATION), NO_GENERATION);
+    final long nSize = StringParser.parseLong (eRoot.getAttributeValue (ATTR_SIZE), -1);
+    final String sChecksum = eRoot.getAttributeValue (ATTR_CHECKSUM);
+    if (sCreationDT == null || nGeneration < 0 || nSize < 0 || StringHelper.hasNoText (sChecksum))
+      return null;
+
+    try
+    {
+      return new ExportFileMetadata (ZonedDateTime.parse (sCreationDT), nGeneration, nSize, sChecksum);
+    }
+    catch (final DateTimeParseException ex)
+    {
+      return null;
+    }
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final ExportFileMetadata rhs = (ExportFileMetadata) o;
+    return m_aCreationDT.equals (rhs.m_aCreationDT) &&
+           m_nGeneration == rhs.m_nGeneration &&
+           m_nSize == rhs.m_nSize &&
+           m_sChecksum.equals (rhs.m_sChecksum);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (m_aCreationDT)
+                                       .append (m_nGeneration)
+                                       .append (m_nSize)
+                                       .append (m_sChecksum)
+                                       .getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("CreationDT", m_aCreationDT)
+                                       .append ("Generation", m_nGeneration)
+                                       .append ("Size", m_nSize)
+                                       .append ("Checksum", m_sChecksum)
+                                       .getToString ();
+  }
+}
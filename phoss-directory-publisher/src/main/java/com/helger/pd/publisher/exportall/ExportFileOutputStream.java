@@ -0,0 +1,143 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Output stream for export files. It calculates the SHA-256 checksum and the
+ * number of bytes of everything written, and it forces all data to the storage
+ * device before the file is closed, so that a published export file survives a
+ * crash. Wrap it into a buffered stream for performance.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@NotThreadSafe
+final class ExportFileOutputStream extends FilterOutputStream
+{
+  public static final String CHECKSUM_ALGORITHM = "SHA-256";
+
+  private final FileOutputStream m_aFOS;
+  private final MessageDigest m_aMD;
+  private long m_nBytesWritten = 0;
+  private String m_sChecksum;
+
+  /**
+   * @return A new message digest for {@link #CHECKSUM_ALGORITHM}. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  static MessageDigest createMessageDigest ()
+  {
+    try
+    {
+      return MessageDigest.getInstance (CHECKSUM_ALGORITHM);
+    }
+    catch (final NoSuchAlgorithmException ex)
+    {
+      throw new IllegalStateException ("Failed to get " + CHECKSUM_ALGORITHM + " message digest", ex);
+    }
+  }
+
+  private ExportFileOutputStream (@Nonnull final FileOutputStream aFOS)
+  {
+    super (aFOS);
+    m_aFOS = aFOS;
+    m_aMD = createMessageDigest ();
+  }
+
+  public ExportFileOutputStream (@Nonnull final File aFile) throws IOException
+  {
+    this (new FileOutputStream (aFile));
+  }
+
+  @Override
+  public void write (final int b) throws IOException
+  {
+    m_aFOS.write (b);
+    m_aMD.update ((byte) b);
+    m_nBytesWritten++;
+  }
+
+  @Override
+  public void write (@Nonnull final byte [] aBuf, final int nOfs, final int nLen) throws IOException
+  {
+    m_aFOS.write (aBuf, nOfs, nLen);
+    m_aMD.update (aBuf, nOfs, nLen);
+    m_nBytesWritten += nLen;
+  }
+
+  @Override
+  public void close () throws IOException
+  {
+    if (m_sChecksum == null)
+    {
+      try
+      {
+        m_aFOS.flush ();
+        m_aFOS.getFD ().sync ();
+      }
+      finally
+      {
+        m_aFOS.close ();
+        m_sChecksum = StringHelper.getHexEncoded (m_aMD.digest ());
+      }
+    }
+  }
+
+  /**
+   * @return <code>true</code> if this stream was already closed.
+   */
+  public boolean isClosed ()
+  {
+    return m_sChecksum != null;
+  }
+
+  /**
+   * @return The number of bytes written so far. Always &ge; 0.
+   */
+  @Nonnegative
+  public long getBytesWritten ()
+  {
+    return m_nBytesWritten;
+  }
+
+  /**
+   * @return The lower case hex encoded SHA-256 checksum of all written bytes.
+   * @throws IllegalStateException
+   *         If the stream was not closed yet.
+   */
+  @Nonnull
+  public String getChecksum ()
+  {
+    if (m_sChecksum == null)
+      throw new IllegalStateException ("The checksum is only available after closing");
+    return m_sChecksum;
+  }
+}
@@ -0,0 +1,559 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.NotThreadSafe;
+
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.functional.IThrowingConsumer;
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.io.stream.StreamHelper;
+
+/**
+ * The fingerprints of all participants of a single export generation, as used
+ * by {@link ExportBusinessCardDeltaSink}. The file consists of a fixed size
+ * header, fixed size records of ID hash and fingerprint sorted by the ID hash,
+ * and the participant IDs in the same order as the records. So a single
+ * fingerprint can be looked up with a binary search on disk, and all
+ * participants can be iterated in hash order, without keeping all
+ * fingerprints in memory.<br>
+ * The IDs are only compared by their 64 bit hash. A collision would only
+ * result in a participant being reported as changed or not being reported as
+ * removed.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+final class ExportFingerprintFile
+{
+  /** The default number of participants that are sorted in memory at once */
+  public static final int DEFAULT_RUN_SIZE = 64 * 1024;
+
+  private static final int FILE_VERSION = 2;
+  // Version, generation, creation date time in millis, record count
+  private static final int HEADER_SIZE = 4 + 8 + 8 + 8;
+  // ID hash, fingerprint
+  private static final int RECORD_SIZE = 8 + 8;
+  private static final int BUFFER_SIZE = 64 * CGlobal.BYTES_PER_KILOBYTE;
+  // Many runs may be open at the same time
+  private static final int RUN_BUFFER_SIZE = 8 * CGlobal.BYTES_PER_KILOBYTE;
+
+  private ExportFingerprintFile ()
+  {}
+
+  /**
+   * Get the hash of a participant ID, that is used as the sort key.
+   *
+   * @param sParticipantID
+   *        The URI encoded participant ID. May not be <code>null</code>.
+   * @return The first 64 bits of the SHA-256 hash of the participant ID.
+   */
+  static long getIDHash (@Nonnull final String sParticipantID)
+  {
+    return ByteBuffer.wrap (ExportFileOutputStream.createMessageDigest ()
+                                                  .digest (sParticipantID.getBytes (StandardCharsets.UTF_8)))
+                     .getLong ();
+  }
+
+  private static void _readFully (@Nonnull final FileChannel aChannel,
+                                  @Nonnull final ByteBuffer aBuffer,
+                                  final long nPosition) throws IOException
+  {
+    aBuffer.clear ();
+    while (aBuffer.hasRemaining ())
+      if (aChannel.read (aBuffer, nPosition + aBuffer.position ()) < 0)
+        throw new EOFException ("Unexpected end of fingerprint file");
+  }
+
+  @Nonnull
+  private static DataInputStream _openAt (@Nonnull final File aFile, final long nPosition) throws IOException
+  {
+    final FileChannel aChannel = FileChannel.open (aFile.toPath (), StandardOpenOption.READ);
+    try
+    {
+      aChannel.position (nPosition);
+    }
+    catch (final IOException ex)
+    {
+      aChannel.close ();
+      throw ex;
+    }
+    return new DataInputStream (new BufferedInputStream (Channels.newInputStream (aChannel), BUFFER_SIZE));
+  }
+
+  /**
+   * Read access to an existing fingerprint file.
+   *
+   * @author Philip Helger
+   */
+  @NotThreadSafe
+  static final class Reader implements Closeable
+  {
+    private final File m_aFile;
+    private final FileChannel m_aChannel;
+    private final long m_nGeneration;
+    private final ZonedDateTime m_aCreationDT;
+    private final long m_nCount;
+    private final ByteBuffer m_aRecord = ByteBuffer.allocate (RECORD_SIZE);
+
+    /**
+     * Open the fingerprint file and read the header.
+     *
+     * @param aFile
+     *        The file to read. May not be <code>null</code>.
+     * @throws IOException
+     *         If the file cannot be read or is invalid
+     */
+    Reader (@Nonnull final File aFile) throws IOException
+    {
+      m_aFile = aFile;
+      m_aChannel = FileChannel.open (aFile.toPath (), StandardOpenOption.READ);
+      try
+      {
+        final ByteBuffer aHeader = ByteBuffer.allocate (HEADER_SIZE);
+        _readFully (m_aChannel, aHeader, 0);
+        final int nVersion = aHeader.getInt (0);
+        if (nVersion != FILE_VERSION)
+          throw new IOException ("Unsupported fingerprint file version " + nVersion);
+        m_nGeneration = aHeader.getLong (4);
+        m_aCreationDT = Instant.ofEpochMilli (aHeader.getLong (12)).atZone (ZoneOffset.UTC);
+        m_nCount = aHeader.getLong (20);
+        // The IDs need at least 2 bytes each
+        if (m_nCount < 0 || m_aChannel.size () < HEADER_SIZE + m_nCount * (RECORD_SIZE + 2))
+          throw new IOException ("The fingerprint file is truncated");
+      }
+      catch (final IOException ex)
+      {
+        m_aChannel.close ();
+        throw ex;
+      }
+    }
+
+    long getGeneration ()
+    {
+      return m_nGeneration;
+    }
+
+    @Nonnull
+    ZonedDateTime getCreationDateTime ()
+    {
+      return m_aCreationDT;
+    }
+
+    @Nonnegative
+    long getCount ()
+    {
+      return m_nCount;
+    }
+
+    /**
+     * Find the fingerprint of a single participant with a binary search.
+     *
+     * @param nIDHash
+     *        The hash of the participant ID as returned by
+     *        {@link ExportFingerprintFile#getIDHash(String)}.
+     * @return <code>null</code> if the participant is not contained.
+     * @throws IOException
+     *         On read error
+     */
+    @Nullable
+    Long getFingerprint (final long nIDHash) throws IOException
+    {
+      long nLow = 0;
+      long nHigh = m_nCount - 1;
+      while (nLow <= nHigh)
+      {
+        final long nMid = (nLow + nHigh) >>> 1;
+        _readFully (m_aChannel, m_aRecord, HEADER_SIZE + nMid * RECORD_SIZE);
+        final long nMidHash = m_aRecord.getLong (0);
+        if (nMidHash < nIDHash)
+          nLow = nMid + 1;
+        else
+          if (nMidHash > nIDHash)
+            nHigh = nMid - 1;
+          else
+            return Long.valueOf (m_aRecord.getLong (8));
+      }
+      return null;
+    }
+
+    /**
+     * @return A new cursor over all participants in hash order. Must be closed
+     *         by the caller.
+     * @throws IOException
+     *         If the file cannot be opened
+     */
+    @Nonnull
+    Cursor openCursor () throws IOException
+    {
+      return new Cursor (m_aFile, m_nCount);
+    }
+
+    public void close () throws IOException
+    {
+      m_aChannel.close ();
+    }
+  }
+
+  /**
+   * Sequential access to all participants of a fingerprint file in hash order.
+   *
+   * @author Philip Helger
+   */
+  @NotThreadSafe
+  static final class Cursor implements Closeable
+  {
+    private final DataInputStream m_aRecords;
+    private final DataInputStream m_aIDs;
+    private long m_nRemaining;
+    private long m_nIDHash;
+    private String m_sParticipantID;
+
+    private Cursor (@Nonnull final File aFile, @Nonnegative final long nCount) throws IOException
+    {
+      m_aRecords = _openAt (aFile, HEADER_SIZE);
+      try
+      {
+        m_aIDs = _openAt (aFile, HEADER_SIZE + nCount * RECORD_SIZE);
+      }
+      catch (final IOException ex)
+      {
+        m_aRecords.close ();
+        throw ex;
+      }
+      m_nRemaining = nCount;
+    }
+
+    /**
+     * Move to the next participant.
+     *
+     * @return <code>false</code> if there are no more participants.
+     * @throws IOException
+     *         On read error
+     */
+    boolean next () throws IOException
+    {
+      if (m_nRemaining <= 0)
+        return false;
+      m_nRemaining--;
+      m_nIDHash = m_aRecords.readLong ();
+      // Skip the fingerprint
+      m_aRecords.readLong ();
+      m_sParticipantID = m_aIDs.readUTF ();
+      return true;
+    }
+
+    long getIDHash ()
+    {
+      return m_nIDHash;
+    }
+
+    @Nonnull
+    String getParticipantID ()
+    {
+      return m_sParticipantID;
+    }
+
+    public void close ()
+    {
+      StreamHelper.close (m_aRecords);
+      StreamHelper.close (m_aIDs);
+    }
+  }
+
+  /**
+   * A single participant while writing.
+   *
+   * @author Philip Helger
+   */
+  private static final class Entry
+  {
+    private static final Comparator <Entry> COMPARATOR = Comparator.comparingLong (x -> x.m_nIDHash);
+
+    private final long m_nIDHash;
+    private final long m_nFingerprint;
+    private final String m_sParticipantID;
+
+    Entry (final long nIDHash, final long nFingerprint, @Nonnull final String sParticipantID)
+    {
+      m_nIDHash = nIDHash;
+      m_nFingerprint = nFingerprint;
+      m_sParticipantID = sParticipantID;
+    }
+  }
+
+  /**
+   * Reads a single sorted run file created by {@link Writer}.
+   *
+   * @author Philip Helger
+   */
+  private static final class RunReader implements Closeable
+  {
+    private static final Comparator <RunReader> COMPARATOR = Comparator.comparingLong (x -> x.m_aCurrent.m_nIDHash);
+
+    private final DataInputStream m_aDIS;
+    private int m_nRemaining;
+    private Entry m_aCurrent;
+
+    RunReader (@Nonnull final File aFile) throws IOException
+    {
+      m_aDIS = new DataInputStream (new BufferedInputStream (new FileInputStream (aFile), RUN_BUFFER_SIZE));
+      try
+      {
+        m_nRemaining = m_aDIS.readInt ();
+      }
+      catch (final IOException ex)
+      {
+        m_aDIS.close ();
+        throw ex;
+      }
+    }
+
+    boolean next () throws IOException
+    {
+      if (m_nRemaining <= 0)
+        return false;
+      m_nRemaining--;
+      final long nIDHash = m_aDIS.readLong ();
+      final long nFingerprint = m_aDIS.readLong ();
+      m_aCurrent = new Entry (nIDHash, nFingerprint, m_aDIS.readUTF ());
+      return true;
+    }
+
+    public void close ()
+    {
+      StreamHelper.close (m_aDIS);
+    }
+  }
+
+  /**
+   * Creates a new fingerprint file. The participants can be added in any order.
+   * They are sorted in memory in runs of a limited size that are written to
+   * temporary files, and all runs are merged when finishing.
+   *
+   * @author Philip Helger
+   */
+  @NotThreadSafe
+  static final class Writer implements Closeable
+  {
+    private final File m_aTargetFile;
+    private final int m_nRunSize;
+    private final ICommonsList <Entry> m_aRun;
+    private final ICommonsList <File> m_aRunFiles = new CommonsArrayList <> ();
+    private long m_nCount = 0;
+
+    /**
+     * Constructor.
+     *
+     * @param aTargetFile
+     *        The file to write. May not be <code>null</code>. The temporary
+     *        files are created next to it.
+     * @param nRunSize
+     *        The maximum number of participants kept in memory. Must be &gt; 0.
+     */
+    Writer (@Nonnull final File aTargetFile, @Nonnegative final int nRunSize)
+    {
+      ValueEnforcer.notNull (aTargetFile, "TargetFile");
+      ValueEnforcer.isGT0 (nRunSize, "RunSize");
+      m_aTargetFile = aTargetFile;
+      m_nRunSize = nRunSize;
+      m_aRun = new CommonsArrayList <> (nRunSize);
+    }
+
+    @Nonnull
+    private File _getTempFile (@Nonnull final String sSuffix)
+    {
+      return new File (m_aTargetFile.getParentFile (), m_aTargetFile.getName () + sSuffix);
+    }
+
+    private void _writeRun () throws IOException
+    {
+      m_aRun.sort (Entry.COMPARATOR);
+      final File aRunFile = _getTempFile (".run" + m_aRunFiles.size ());
+      m_aRunFiles.add (aRunFile);
+      // Temporary only - no need to sync
+      try (final DataOutputStream aDOS = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (aRunFile),
+                                                                                         BUFFER_SIZE)))
+      {
+        aDOS.writeInt (m_aRun.size ());
+        for (final Entry aEntry : m_aRun)
+        {
+          aDOS.writeLong (aEntry.m_nIDHash);
+          aDOS.writeLong (aEntry.m_nFingerprint);
+          aDOS.writeUTF (aEntry.m_sParticipantID);
+        }
+      }
+      m_aRun.clear ();
+    }
+
+    /**
+     * Add a single participant. Each participant may only be added once.
+     *
+     * @param nIDHash
+     *        The hash of the participant ID as returned by
+     *        {@link ExportFingerprintFile#getIDHash(String)}.
+     * @param sParticipantID
+     *        The URI encoded participant ID. May not be <code>null</code>.
+     * @param nFingerprint
+     *        The fingerprint of the participant.
+     * @throws IOException
+     *         If a run could not be written
+     */
+    void add (final long nIDHash, @Nonnull final String sParticipantID, final long nFingerprint) throws IOException
+    {
+      m_aRun.add (new Entry (nIDHash, nFingerprint, sParticipantID));
+      m_nCount++;
+      if (m_aRun.size () >= m_nRunSize)
+        _writeRun ();
+    }
+
+    /**
+     * Merge all runs into the target file. At the same time the participants
+     * of the previous generation are iterated in the same order, to find all
+     * participants that were removed.
+     *
+     * @param aGeneration
+     *        The generation of the new file. May not be <code>null</code>.
+     * @param aPrevious
+     *        The fingerprints of the previous generation. May be
+     *        <code>null</code>.
+     * @param aRemovedConsumer
+     *        Invoked for each participant ID of the previous generation that
+     *        is not contained in the new generation. May not be
+     *        <code>null</code>.
+     * @return The closed stream of the target file, to get the size and the
+     *         checksum. Never <code>null</code>.
+     * @throws IOException
+     *         On read or write error
+     */
+    @Nonnull
+    ExportFileOutputStream finish (@Nonnull final ExportGeneration aGeneration,
+                                   @Nullable final Reader aPrevious,
+                                   @Nonnull final IThrowingConsumer <String, IOException> aRemovedConsumer) throws IOException
+    {
+      if (m_aRun.isNotEmpty ())
+        _writeRun ();
+
+      final File aIDFile = _getTempFile (".ids");
+      final ExportFileOutputStream aFOS = new ExportFileOutputStream (m_aTargetFile);
+      final PriorityQueue <RunReader> aQueue = new PriorityQueue <> (Math.max (m_aRunFiles.size (), 1),
+                                                                     RunReader.COMPARATOR);
+      Cursor aPrevCursor = null;
+      try (final DataOutputStream aRecordOS = new DataOutputStream (new BufferedOutputStream (aFOS, BUFFER_SIZE));
+           final DataOutputStream aIDOS = new DataOutputStream (new BufferedOutputStream (new FileOutputStream (aIDFile),
+                                                                                          BUFFER_SIZE)))
+      {
+        aRecordOS.writeInt (FILE_VERSION);
+        aRecordOS.writeLong (aGeneration.getGeneration ());
+        aRecordOS.writeLong (aGeneration.getCreationDateTime ().toInstant ().toEpochMilli ());
+        aRecordOS.writeLong (m_nCount);
+
+        for (final File aRunFile : m_aRunFiles)
+        {
+          final RunReader aRun = new RunReader (aRunFile);
+          if (aRun.next ())
+            aQueue.add (aRun);
+          else
+            aRun.close ();
+        }
+
+        if (aPrevious != null)
+          aPrevCursor = aPrevious.openCursor ();
+        boolean bPrevValid = aPrevCursor != null && aPrevCursor.next ();
+        while (!aQueue.isEmpty ())
+        {
+          final RunReader aRun = aQueue.poll ();
+          final Entry aEntry = aRun.m_aCurrent;
+          aRecordOS.writeLong (aEntry.m_nIDHash);
+          aRecordOS.writeLong (aEntry.m_nFingerprint);
+          aIDOS.writeUTF (aEntry.m_sParticipantID);
+
+          // All previous participants with a smaller hash were removed
+          while (bPrevValid && aPrevCursor.getIDHash () < aEntry.m_nIDHash)
+          {
+            aRemovedConsumer.accept (aPrevCursor.getParticipantID ());
+            bPrevValid = aPrevCursor.next ();
+          }
+          if (bPrevValid && aPrevCursor.getIDHash () == aEntry.m_nIDHash)
+            bPrevValid = aPrevCursor.next ();
+
+          if (aRun.next ())
+            aQueue.add (aRun);
+          else
+            aRun.close ();
+        }
+        while (bPrevValid)
+        {
+          aRemovedConsumer.accept (aPrevCursor.getParticipantID ());
+          bPrevValid = aPrevCursor.next ();
+        }
+
+        // Append the participant IDs after the records
+        aIDOS.close ();
+        Files.copy (aIDFile.toPath (), aRecordOS);
+      }
+      finally
+      {
+        for (final RunReader aRun : aQueue)
+          aRun.close ();
+        StreamHelper.close (aPrevCursor);
+        FileOperationManager.INSTANCE.deleteFileIfExisting (aIDFile);
+        close ();
+      }
+      return aFOS;
+    }
+
+    /**
+     * Delete all temporary files.
+     */
+    public void close ()
+    {
+      for (final File aRunFile : m_aRunFiles)
+        FileOperationManager.INSTANCE.deleteFileIfExisting (aRunFile);
+      m_aRunFiles.clear ();
+      m_aRun.clear ();
+    }
+  }
+}
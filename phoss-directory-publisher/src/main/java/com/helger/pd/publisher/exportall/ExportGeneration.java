@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import java.time.ZonedDateTime;
+
+import javax.annotation.Nonnegative;
+import javax.annotation.Nonnull;
+import javax.annotation.concurrent.Immutable;
+
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.hashcode.HashCodeGenerator;
+import com.helger.commons.string.ToStringGenerator;
+
+/**
+ * A single run of the {@link ExportAllPipeline}. All files written in the same
+ * run share the same generation number, so that e.g. a full export and the
+ * delta export of the same run can be matched. Generation numbers are strictly
+ * increasing and are never reused.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+@Immutable
+public final class ExportGeneration
+{
+  private final long m_nGeneration;
+  private final ZonedDateTime m_aCreationDT;
+
+  public ExportGeneration (@Nonnegative final long nGeneration, @Nonnull final ZonedDateTime aCreationDT)
+  {
+    ValueEnforcer.isGT0 (nGeneration, "Generation");
+    ValueEnforcer.notNull (aCreationDT, "CreationDT");
+    m_nGeneration = nGeneration;
+    m_aCreationDT = aCreationDT;
+  }
+
+  /**
+   * @return The generation number. Always &gt; 0.
+   */
+  @Nonnegative
+  public long getGeneration ()
+  {
+    return m_nGeneration;
+  }
+
+  /**
+   * @return The date and time when the run was started. Never
+   *         <code>null</code>.
+   */
+  @Nonnull
+  public ZonedDateTime getCreationDateTime ()
+  {
+    return m_aCreationDT;
+  }
+
+  @Override
+  public boolean equals (final Object o)
+  {
+    if (o == this)
+      return true;
+    if (o == null || !getClass ().equals (o.getClass ()))
+      return false;
+    final ExportGeneration rhs = (ExportGeneration) o;
+    return m_nGeneration == rhs.m_nGeneration && m_aCreationDT.equals (rhs.m_aCreationDT);
+  }
+
+  @Override
+  public int hashCode ()
+  {
+    return new HashCodeGenerator (this).append (m_nGeneration).append (m_aCreationDT).getHashCode ();
+  }
+
+  @Override
+  public String toString ()
+  {
+    return new ToStringGenerator (null).append ("Generation", m_nGeneration)
+                                       .append ("CreationDT", m_aCreationDT)
+                                       .getToString ();
+  }
+}
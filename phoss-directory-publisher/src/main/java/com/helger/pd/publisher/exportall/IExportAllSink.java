@@ -0,0 +1,84 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import com.helger.commons.annotation.Nonempty;
+import com.helger.pd.indexer.storage.PDStoredBusinessEntity;
+
+/**
+ * A single output format of the {@link ExportAllPipeline}. All methods of one
+ * sink are invoked from the same thread, but different sinks run in parallel
+ * and receive the same (read-only) entity objects.<br>
+ * The call sequence is {@link #onStart()}, any number of
+ * {@link #onEntity(PDStoredBusinessEntity)} and finally either
+ * {@link #onFinish()} or {@link #onAbort()}.
+ *
+ * @author Philip Helger
+ * @since 0.9.6
+ */
+public interface IExportAllSink
+{
+  /**
+   * @return The name of this sink used for logging. Neither <code>null</code>
+   *         nor empty.
+   */
+  @Nonnull
+  @Nonempty
+  String getDisplayName ();
+
+  /**
+   * Called once before the first entity is passed in.
+   *
+   * @param aGeneration
+   *        The export run. It is the same for all sinks of a run. May not be
+   *        <code>null</code>.
+   * @throws IOException
+   *         If the output cannot be created
+   */
+  void onStart (@Nonnull ExportGeneration aGeneration) throws IOException;
+
+  /**
+   * Called for each exported entity. All entities of the same participant are
+   * passed in directly after each other.
+   *
+   * @param aEntity
+   *        The entity to export. May not be <code>null</code>. Must not be
+   *        modified.
+   * @throws IOException
+   *         On write error
+   */
+  void onEntity (@Nonnull PDStoredBusinessEntity aEntity) throws IOException;
+
+  /**
+   * Called after the last entity was passed in and the index scan was
+   * successful.
+   *
+   * @throws IOException
+   *         On write error
+   */
+  void onFinish () throws IOException;
+
+  /**
+   * Called instead of {@link #onFinish()} if either the index scan or this sink
+   * failed. Must release all resources and must not throw an exception.
+   */
+  void onAbort ();
+}
@@ -189,6 +189,7 @@ public final class AppWebAppListener extends WebAppListenerBootstrap
   protected void initJobs ()
   {
     // In production: avoid creating too much load directly after startup
+    // The export job only exports if enough changed in the index
     final boolean bDebug = GlobalDebug.isDebugMode ();
     m_aExportJobTrigger = GlobalQuartzScheduler.getInstance ()
                                                .scheduleJob (ExportAllDataJob.class.getName (),
@@ -196,24 +197,23 @@ public final class AppWebAppListener extends WebAppListenerBootstrap
                                                                                .startAt (bDebug ? PDTFactory.getCurrentLocalDateTime ()
                                                                                                 : PDTFactory.getCurrentLocalDateTime ()
                                                                                                             .plusHours (1))
-                                                                               .withSchedule (bDebug ? SimpleScheduleBuilder.repeatMinutelyForever (2)
-                                                                                                     : SimpleScheduleBuilder.repeatHourlyForever (24)),
+                                                                               .withSchedule (SimpleScheduleBuilder.repeatMinutelyForever (bDebug ? 1
+                                                                                                                                         : PDServerConfiguration.getExportCheckMinutes ())),
                                                              ExportAllDataJob.class,
                                                              null);
 
-    if (PDServerConfiguration.isSyncAllBusinessCards ())
-    {
-      // Schedule the sync job every hour - it keeps track of the last sync
-      // internally
-      m_aSyncJobTrigger = GlobalQuartzScheduler.getInstance ()
-                                               .scheduleJob (SyncAllBusinessCardsJob.class.getName (),
-                                                             JDK8TriggerBuilder.newTrigger ()
-                                                                               .startAt (PDTFactory.getCurrentLocalDateTime ()
-                                                                                                   .plusMinutes (2))
-                                                                               .withSchedule (SimpleScheduleBuilder.repeatHourlyForever (1)),
-                                                             SyncAllBusinessCardsJob.class,
-                                                             null);
-    }
+    // Schedule the sync job every minute - it keeps track of the last sync
+    // and the current position internally. It is always scheduled, so that
+    // manually started synchronizations are processed as well. New cycles
+    // are only started automatically if "sync.businesscards" is enabled.
+    m_aSyncJobTrigger = GlobalQuartzScheduler.getInstance ()
+                                             .scheduleJob (SyncAllBusinessCardsJob.class.getName (),
+                                                           JDK8TriggerBuilder.newTrigger ()
+                                                                             .startAt (PDTFactory.getCurrentLocalDateTime ()
+                                                                                                 .plusMinutes (2))
+                                                                             .withSchedule (SimpleScheduleBuilder.repeatMinutelyForever (1)),
+                                                           SyncAllBusinessCardsJob.class,
+                                                           null);
   }
 
   @Override
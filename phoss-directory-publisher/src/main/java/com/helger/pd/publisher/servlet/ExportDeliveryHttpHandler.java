@@ -18,9 +18,10 @@ package com.helger.pd.publisher.servlet;
 
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
-import java.util.function.Consumer;
+import java.util.function.BiConsumer;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 import javax.annotation.OverridingMethodsMustInvokeSuper;
 import javax.servlet.http.HttpServletResponse;
 
@@ -32,7 +33,10 @@ import com.helger.commons.collection.impl.ICommonsMap;
 import com.helger.commons.io.file.FilenameHelper;
 import com.helger.commons.mime.CMimeType;
 import com.helger.commons.state.EContinue;
+import com.helger.commons.string.StringHelper;
+import com.helger.commons.string.StringParser;
 import com.helger.pd.publisher.CPDPublisher;
+import com.helger.pd.publisher.exportall.EExportPartitionMode;
 import com.helger.pd.publisher.exportall.ExportAllManager;
 import com.helger.photon.core.servlet.AbstractObjectDeliveryHttpHandler;
 import com.helger.poi.excel.EExcelVersion;
@@ -48,29 +52,45 @@ public class ExportDeliveryHttpHandler extends AbstractObjectDeliveryHttpHandler
   public static final String SPECIAL_PARTICIPANTS_XML = "/participants-xml";
   public static final String SPECIAL_PARTICIPANTS_JSON = "/participants-json";
   public static final String SPECIAL_PARTICIPANTS_CSV = "/participants-csv";
+  /** @since 0.9.6 */
+  public static final String SPECIAL_BUSINESS_CARDS_BINARY = "/businesscards-binary";
+  /** @since 0.9.6 */
+  public static final String SPECIAL_BUSINESS_CARDS_DELTA_MANIFEST = "/businesscards-delta-manifest";
+  /**
+   * Prefix for a single delta. The generation number must be appended.
+   *
+   * @since 0.9.6
+   */
+  public static final String SPECIAL_BUSINESS_CARDS_DELTA_PREFIX = "/businesscards-delta-";
+  /**
+   * Prefix for partitioned exports. The partition mode ID, a dash and either
+   * the partition key or {@link #SPECIAL_PARTITION_MANIFEST} must be appended.
+   *
+   * @since 0.9.6
+   */
+  public static final String SPECIAL_BUSINESS_CARDS_PREFIX = "/businesscards-";
+  /** @since 0.9.6 */
+  public static final String SPECIAL_PARTITION_MANIFEST = "manifest";
   private static final Logger LOGGER = LoggerFactory.getLogger (ExportDeliveryHttpHandler.class);
 
-  private static ICommonsMap <String, Consumer <UnifiedResponse>> HANDLERS = new CommonsHashMap <> ();
+  private static ICommonsMap <String, BiConsumer <IRequestWebScopeWithoutResponse, UnifiedResponse>> HANDLERS = new CommonsHashMap <> ();
   static
   {
     // BusinessCards
-    HANDLERS.put (SPECIAL_BUSINESS_CARDS_XML_FULL, aUnifiedResponse -> {
-      aUnifiedResponse.disableCaching ();
-      ExportAllManager.streamFileBusinessCardXMLFullTo (aUnifiedResponse);
+    HANDLERS.put (SPECIAL_BUSINESS_CARDS_XML_FULL, (aRequestScope, aUnifiedResponse) -> {
+      ExportAllManager.streamFileBusinessCardXMLFullTo (aRequestScope, aUnifiedResponse);
       aUnifiedResponse.setMimeType (CMimeType.APPLICATION_XML);
       aUnifiedResponse.setContentDispositionFilename (ExportAllManager.EXTERNAL_EXPORT_ALL_BUSINESSCARDS_XML_FULL);
     });
-    HANDLERS.put (SPECIAL_BUSINESS_CARDS_XML_NO_DOC_TYPES, aUnifiedResponse -> {
-      aUnifiedResponse.disableCaching ();
-      ExportAllManager.streamFileBusinessCardXMLNoDocTypesTo (aUnifiedResponse);
+    HANDLERS.put (SPECIAL_BUSINESS_CARDS_XML_NO_DOC_TYPES, (aRequestScope, aUnifiedResponse) -> {
+      ExportAllManager.streamFileBusinessCardXMLNoDocTypesTo (aRequestScope, aUnifiedResponse);
       aUnifiedResponse.setMimeType (CMimeType.APPLICATION_XML);
       aUnifiedResponse.setContentDispositionFilename (ExportAllManager.EXTERNAL_EXPORT_ALL_BUSINESSCARDS_XML_NO_DOC_TYPES);
     });
-    HANDLERS.put (SPECIAL_BUSINESS_CARDS_EXCEL, aUnifiedResponse -> {
+    HANDLERS.put (SPECIAL_BUSINESS_CARDS_EXCEL, (aRequestScope, aUnifiedResponse) -> {
       if (CPDPublisher.EXPORT_BUSINESS_CARDS_EXCEL)
       {
-        aUnifiedResponse.disableCaching ();
-        ExportAllManager.streamFileBusinessCardExcelTo (aUnifiedResponse);
+        ExportAllManager.streamFileBusinessCardExcelTo (aRequestScope, aUnifiedResponse);
         aUnifiedResponse.setMimeType (EExcelVersion.XLSX.getMimeType ());
         aUnifiedResponse.setContentDispositionFilename (ExportAllManager.EXTERNAL_EXPORT_ALL_BUSINESSCARDS_XLSX);
       }
@@ -80,11 +100,10 @@ public class ExportDeliveryHttpHandler extends AbstractObjectDeliveryHttpHandler
         aUnifiedResponse.setStatus (HttpServletResponse.SC_NOT_FOUND);
       }
     });
-    HANDLERS.put (SPECIAL_BUSINESS_CARDS_CSV, aUnifiedResponse -> {
+    HANDLERS.put (SPECIAL_BUSINESS_CARDS_CSV, (aRequestScope, aUnifiedResponse) -> {
       if (CPDPublisher.EXPORT_BUSINESS_CARDS_CSV)
       {
-        aUnifiedResponse.disableCaching ();
-        ExportAllManager.streamFileBusinessCardCSVTo (aUnifiedResponse);
+        ExportAllManager.streamFileBusinessCardCSVTo (aRequestScope, aUnifiedResponse);
         aUnifiedResponse.setMimeType (CMimeType.TEXT_CSV);
         aUnifiedResponse.setCharset (StandardCharsets.UTF_8);
         aUnifiedResponse.setContentDispositionFilename (ExportAllManager.EXTERNAL_EXPORT_ALL_BUSINESSCARDS_CSV);
@@ -95,13 +114,38 @@ public class ExportDeliveryHttpHandler extends AbstractObjectDeliveryHttpHandler
         aUnifiedResponse.setStatus (HttpServletResponse.SC_NOT_FOUND);
       }
     });
+    HANDLERS.put (SPECIAL_BUSINESS_CARDS_BINARY, (aRequestScope, aUnifiedResponse) -> {
+      if (CPDPublisher.EXPORT_BUSINESS_CARDS_BINARY)
+      {
+        ExportAllManager.streamFileBusinessCardBinaryTo (aRequestScope, aUnifiedResponse);
+        aUnifiedResponse.setMimeType (CMimeType.APPLICATION_OCTET_STREAM);
+        aUnifiedResponse.setContentDispositionFilename (ExportAllManager.EXTERNAL_EXPORT_ALL_BUSINESSCARDS_BINARY);
+      }
+      else
+      {
+        aUnifiedResponse.disableCaching ();
+        aUnifiedResponse.setStatus (HttpServletResponse.SC_NOT_FOUND);
+      }
+    });
+    HANDLERS.put (SPECIAL_BUSINESS_CARDS_DELTA_MANIFEST, (aRequestScope, aUnifiedResponse) -> {
+      if (CPDPublisher.EXPORT_BUSINESS_CARDS_DELTA)
+      {
+        ExportAllManager.streamFileBusinessCardDeltaManifestTo (aRequestScope, aUnifiedResponse);
+        aUnifiedResponse.setMimeType (CMimeType.APPLICATION_XML);
+        aUnifiedResponse.setContentDispositionFilename (ExportAllManager.EXTERNAL_EXPORT_DELTA_BUSINESSCARDS_MANIFEST);
+      }
+      else
+      {
+        aUnifiedResponse.disableCaching ();
+        aUnifiedResponse.setStatus (HttpServletResponse.SC_NOT_FOUND);
+      }
+    });
 
     // Participants
-    HANDLERS.put (SPECIAL_PARTICIPANTS_XML, aUnifiedResponse -> {
+    HANDLERS.put (SPECIAL_PARTICIPANTS_XML, (aRequestScope, aUnifiedResponse) -> {
       if (CPDPublisher.EXPORT_PARTICIPANTS_XML)
       {
-        aUnifiedResponse.disableCaching ();
-        ExportAllManager.streamFileParticipantXMLTo (aUnifiedResponse);
+        ExportAllManager.streamFileParticipantXMLTo (aRequestScope, aUnifiedResponse);
         aUnifiedResponse.setMimeType (CMimeType.APPLICATION_XML);
         aUnifiedResponse.setContentDispositionFilename (ExportAllManager.EXTERNAL_EXPORT_ALL_PARTICIPANTS_XML);
       }
@@ -111,11 +155,10 @@ public class ExportDeliveryHttpHandler extends AbstractObjectDeliveryHttpHandler
         aUnifiedResponse.setStatus (HttpServletResponse.SC_NOT_FOUND);
       }
     });
-    HANDLERS.put (SPECIAL_PARTICIPANTS_JSON, aUnifiedResponse -> {
+    HANDLERS.put (SPECIAL_PARTICIPANTS_JSON, (aRequestScope, aUnifiedResponse) -> {
       if (CPDPublisher.EXPORT_PARTICIPANTS_JSON)
       {
-        aUnifiedResponse.disableCaching ();
-        ExportAllManager.streamFileParticipantJSONTo (aUnifiedResponse);
+        ExportAllManager.streamFileParticipantJSONTo (aRequestScope, aUnifiedResponse);
         aUnifiedResponse.setMimeType (CMimeType.APPLICATION_JSON);
         aUnifiedResponse.setContentDispositionFilename (ExportAllManager.EXTERNAL_EXPORT_ALL_PARTICIPANTS_JSON);
       }
@@ -125,11 +168,10 @@ public class ExportDeliveryHttpHandler extends AbstractObjectDeliveryHttpHandler
         aUnifiedResponse.setStatus (HttpServletResponse.SC_NOT_FOUND);
       }
     });
-    HANDLERS.put (SPECIAL_PARTICIPANTS_CSV, aUnifiedResponse -> {
+    HANDLERS.put (SPECIAL_PARTICIPANTS_CSV, (aRequestScope, aUnifiedResponse) -> {
       if (CPDPublisher.EXPORT_PARTICIPANTS_CSV)
       {
-        aUnifiedResponse.disableCaching ();
-        ExportAllManager.streamFileParticipantCSVTo (aUnifiedResponse);
+        ExportAllManager.streamFileParticipantCSVTo (aRequestScope, aUnifiedResponse);
         aUnifiedResponse.setMimeType (CMimeType.TEXT_CSV);
         aUnifiedResponse.setCharset (StandardCharsets.UTF_8);
         aUnifiedResponse.setContentDispositionFilename (ExportAllManager.EXTERNAL_EXPORT_ALL_PARTICIPANTS_CSV);
@@ -149,6 +191,51 @@ public class ExportDeliveryHttpHandler extends AbstractObjectDeliveryHttpHandler
     return FilenameHelper.getBaseName (sFilename);
   }
 
+  @Nullable
+  private static BiConsumer <IRequestWebScopeWithoutResponse, UnifiedResponse> _getHandler (@Nullable final String sFilename)
+  {
+    final BiConsumer <IRequestWebScopeWithoutResponse, UnifiedResponse> ret = HANDLERS.get (sFilename);
+    if (ret != null)
+      return ret;
+
+    // Deltas are addressed by their generation number
+    if (CPDPublisher.EXPORT_BUSINESS_CARDS_DELTA && StringHelper.startsWith (sFilename, SPECIAL_BUSINESS_CARDS_DELTA_PREFIX))
+    {
+      final long nGeneration = StringParser.parseLong (sFilename.substring (SPECIAL_BUSINESS_CARDS_DELTA_PREFIX.length ()),
+                                                       -1);
+      if (nGeneration > 0)
+        return (aRequestScope, aUnifiedResponse) -> {
+          ExportAllManager.streamFileBusinessCardDeltaTo (nGeneration, aRequestScope, aUnifiedResponse);
+          aUnifiedResponse.setMimeType (CMimeType.APPLICATION_XML);
+          aUnifiedResponse.setContentDispositionFilename (ExportAllManager.getExternalFilenameBusinessCardDelta (nGeneration));
+        };
+    }
+
+    // Partitions are addressed by mode and key
+    for (final EExportPartitionMode eMode : EExportPartitionMode.values ())
+    {
+      final String sPrefix = SPECIAL_BUSINESS_CARDS_PREFIX + eMode.getID () + "-";
+      if (StringHelper.startsWith (sFilename, sPrefix))
+      {
+        final String sKey = sFilename.substring (sPrefix.length ());
+        if (SPECIAL_PARTITION_MANIFEST.equals (sKey))
+          return (aRequestScope, aUnifiedResponse) -> {
+            ExportAllManager.streamFileBusinessCardPartitionManifestTo (eMode, aRequestScope, aUnifiedResponse);
+            aUnifiedResponse.setMimeType (CMimeType.APPLICATION_XML);
+            aUnifiedResponse.setContentDispositionFilename (ExportAllManager.getExternalFilenameBusinessCardPartitionManifest (eMode));
+          };
+        if (EExportPartitionMode.isValidPartitionKey (sKey))
+          return (aRequestScope, aUnifiedResponse) -> {
+            ExportAllManager.streamFileBusinessCardPartitionTo (eMode, sKey, aRequestScope, aUnifiedResponse);
+            aUnifiedResponse.setMimeType (CMimeType.APPLICATION_XML);
+            aUnifiedResponse.setContentDispositionFilename (ExportAllManager.getExternalFilenameBusinessCardPartition (eMode,
+                                                                                                                      sKey));
+          };
+      }
+    }
+    return null;
+  }
+
   @Override
   @OverridingMethodsMustInvokeSuper
   public EContinue initRequestState (@Nonnull final IRequestWebScopeWithoutResponse aRequestScope,
@@ -159,7 +246,7 @@ public class ExportDeliveryHttpHandler extends AbstractObjectDeliveryHttpHandler
 
     // Allow only valid filenames
     final String sFilename = aRequestScope.attrs ().getAsString (REQUEST_ATTR_OBJECT_DELIVERY_FILENAME);
-    if (!HANDLERS.containsKey (sFilename))
+    if (_getHandler (sFilename) == null)
     {
       LOGGER.warn ("Cannot special stream the resource '" + sFilename + "'");
       aUnifiedResponse.setStatus (HttpServletResponse.SC_NOT_FOUND);
@@ -173,10 +260,10 @@ public class ExportDeliveryHttpHandler extends AbstractObjectDeliveryHttpHandler
                                     @Nonnull final UnifiedResponse aUnifiedResponse,
                                     @Nonnull final String sFilename) throws IOException
   {
-    final Consumer <UnifiedResponse> aHandler = HANDLERS.get (sFilename);
+    final BiConsumer <IRequestWebScopeWithoutResponse, UnifiedResponse> aHandler = _getHandler (sFilename);
     if (aHandler != null)
     {
-      aHandler.accept (aUnifiedResponse);
+      aHandler.accept (aRequestScope, aUnifiedResponse);
     }
     else
     {
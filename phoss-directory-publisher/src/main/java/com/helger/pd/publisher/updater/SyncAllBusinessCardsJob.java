@@ -17,24 +17,36 @@
 package com.helger.pd.publisher.updater;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.time.LocalDateTime;
 import java.time.Month;
 import java.time.format.DateTimeFormatter;
-import java.util.Set;
 
+import javax.annotation.Nonnegative;
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.Immutable;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import com.helger.commons.CGlobal;
+import com.helger.commons.ValueEnforcer;
+import com.helger.commons.annotation.VisibleForTesting;
+import com.helger.commons.collection.impl.ICommonsList;
 import com.helger.commons.datetime.PDTFactory;
 import com.helger.commons.datetime.PDTFromString;
+import com.helger.commons.io.file.FileOperationManager;
 import com.helger.commons.io.file.SimpleFileIO;
 import com.helger.commons.state.EChange;
+import com.helger.commons.string.StringHelper;
+import com.helger.pd.indexer.index.EIndexerWorkItemLane;
 import com.helger.pd.indexer.index.EIndexerWorkItemType;
 import com.helger.pd.indexer.mgr.PDIndexerManager;
 import com.helger.pd.indexer.mgr.PDMetaManager;
+import com.helger.pd.indexer.settings.PDServerConfiguration;
 import com.helger.pd.indexer.storage.EQueryMode;
 import com.helger.peppolid.IParticipantIdentifier;
 import com.helger.photon.app.io.WebFileIO;
@@ -46,7 +58,11 @@ import com.helger.quartz.JobExecutionException;
 import com.helger.web.scope.util.AbstractScopeAwareJob;
 
 /**
- * Job to update all BCs regularly from the source SMP.
+ * Job to update all BCs regularly from the source SMP. If enabled, a new
+ * synchronization cycle is started once per configured period and the
+ * participants are queued in small chunks evenly distributed over the period.
+ * Manually started cycles are not paced - the participants are queued as fast
+ * as the indexer queue permits.
  *
  * @author Philip Helger
  */
@@ -57,6 +73,107 @@ public final class SyncAllBusinessCardsJob extends AbstractScopeAwareJob
 
   private static final LocalDateTime INITIAL_SYNC = PDTFactory.createLocalDateTime (2018, Month.NOVEMBER, 7, 12, 0, 0);
 
+  /**
+   * The persisted state of a running synchronization cycle.
+   */
+  @Immutable
+  static final class SyncState
+  {
+    private final long m_nQueuedCount;
+    private final String m_sLastParticipantID;
+    private final boolean m_bPaced;
+
+    SyncState (@Nonnegative final long nQueuedCount, @Nullable final String sLastParticipantID, final boolean bPaced)
+    {
+      ValueEnforcer.isGE0 (nQueuedCount, "QueuedCount");
+      m_nQueuedCount = nQueuedCount;
+      m_sLastParticipantID = StringHelper.hasText (sLastParticipantID) ? sLastParticipantID : null;
+      m_bPaced = bPaced;
+    }
+
+    /**
+     * @return The number of participants queued so far. Always &ge; 0.
+     */
+    @Nonnegative
+    long getQueuedCount ()
+    {
+      return m_nQueuedCount;
+    }
+
+    /**
+     * @return The URI encoded ID of the last queued participant. May be
+     *         <code>null</code> if nothing was queued so far.
+     */
+    @Nullable
+    String getLastParticipantID ()
+    {
+      return m_sLastParticipantID;
+    }
+
+    /**
+     * @return <code>true</code> if the participants are distributed over the
+     *         configured period, <code>false</code> if they are queued as fast
+     *         as possible.
+     */
+    boolean isPaced ()
+    {
+      return m_bPaced;
+    }
+
+    @Nonnull
+    String getAsString ()
+    {
+      return Long.toString (m_nQueuedCount) + '\n' + StringHelper.getNotNull (m_sLastParticipantID) + '\n' + Boolean.toString (m_bPaced);
+    }
+
+    @Nonnull
+    static SyncState createFromString (@Nullable final String sPayload)
+    {
+      final String [] aParts = StringHelper.getExplodedArray ('\n', StringHelper.getNotNull (sPayload), 3);
+      if (aParts.length < 2)
+        return new SyncState (0, null, true);
+      // States of previous versions don't contain the pacing and were paced
+      final boolean bPaced = aParts.length < 3 || Boolean.parseBoolean (aParts[2].trim ());
+      return new SyncState (Math.max (0, StringHelper.parseLong (aParts[0], 0)), aParts[1], bPaced);
+    }
+  }
+
+  /**
+   * Get the number of participants to be queued now.
+   *
+   * @param nTotal
+   *        The estimated total number of participants. Must be &gt; 0.
+   * @param nQueuedCount
+   *        The number of participants already queued in this cycle. Must be
+   *        &ge; 0.
+   * @param nElapsedSecs
+   *        The seconds elapsed since the start of the cycle. Must be &ge; 0.
+   * @param nPeriodSecs
+   *        The seconds over which the cycle should be distributed. Use 0 to
+   *        queue as fast as possible. Must be &ge; 0.
+   * @param nQueueFree
+   *        The number of free places in the background lane of the indexer
+   *        queue. May be negative if the queue is overfull.
+   * @return The number of participants to be queued now. Always &ge; 0.
+   */
+  @VisibleForTesting
+  @Nonnegative
+  static int getChunkSize (@Nonnegative final long nTotal,
+                           @Nonnegative final long nQueuedCount,
+                           @Nonnegative final long nElapsedSecs,
+                           @Nonnegative final long nPeriodSecs,
+                           final int nQueueFree)
+  {
+    if (nElapsedSecs >= nPeriodSecs)
+    {
+      // Unpaced or late - queue whatever fits. The total is only an estimation,
+      // so it is not used as an upper bound here.
+      return Math.max (0, nQueueFree);
+    }
+    final long nTarget = nTotal * nElapsedSecs / nPeriodSecs;
+    return (int) Math.max (0, Math.min (nTarget - nQueuedCount, nQueueFree));
+  }
+
   @Nonnull
   private static File _getLastSyncFile ()
   {
@@ -77,41 +194,188 @@ public final class SyncAllBusinessCardsJob extends AbstractScopeAwareJob
     SimpleFileIO.writeFile (_getLastSyncFile (), sPayload, StandardCharsets.ISO_8859_1);
   }
 
+  @Nonnull
+  private static File _getSyncStateFile ()
+  {
+    return WebFileIO.getDataIO ().getFile ("sync-state.dat");
+  }
+
+  /**
+   * @return <code>true</code> if a synchronization cycle is currently in
+   *         progress, <code>false</code> if not.
+   * @since 0.9.6
+   */
+  public static boolean isSyncInProgress ()
+  {
+    return _getSyncStateFile ().isFile ();
+  }
+
+  /**
+   * @return The number of participants queued in the current synchronization
+   *         cycle or -1 if no synchronization is in progress.
+   * @since 0.9.6
+   */
+  public static long getSyncQueuedCount ()
+  {
+    final SyncState aState = _readSyncState ();
+    return aState == null ? -1 : aState.getQueuedCount ();
+  }
+
+  /**
+   * @return <code>null</code> if no synchronization is in progress.
+   */
+  @Nullable
+  private static SyncState _readSyncState ()
+  {
+    final File aFile = _getSyncStateFile ();
+    if (!aFile.isFile ())
+      return null;
+    return SyncState.createFromString (SimpleFileIO.getFileAsString (aFile, StandardCharsets.UTF_8));
+  }
+
+  private static void _writeSyncState (@Nonnull final SyncState aState)
+  {
+    SimpleFileIO.writeFile (_getSyncStateFile (), aState.getAsString (), StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Manually start a new synchronization cycle. The participants are not
+   * queued here, but by the scheduled job as fast as the indexer queue
+   * permits. The scheduled job runs independent of the
+   * <code>sync.businesscards</code> configuration property.
+   *
+   * @param bForceSync
+   *        <code>true</code> to start a new cycle even if the last one was
+   *        started within the configured period.
+   * @return {@link EChange#CHANGED} if a new cycle was started.
+   */
   @Nonnull
   public static EChange syncAllBusinessCards (final boolean bForceSync)
+  {
+    return _startSync (bForceSync, false);
+  }
+
+  @Nonnull
+  private static EChange _startSync (final boolean bForceSync, final boolean bPaced)
   {
     final LocalDateTime aNow = PDTFactory.getCurrentLocalDateTime ();
     if (!bForceSync)
     {
-      // Only sync every 2 weeks
-      if (aNow.isBefore (getLastSync ().plusWeeks (2)))
+      // Only sync once per period
+      if (aNow.isBefore (getLastSync ().plusHours (PDServerConfiguration.getSyncAllBusinessCardsPeriodHours ())))
       {
         return EChange.UNCHANGED;
       }
     }
 
-    LOGGER.info ("Start synchronizing business cards" + (bForceSync ? " (forced)" : ""));
+    if (isSyncInProgress ())
+      LOGGER.warn ("Restarting the synchronization of business cards - the previous cycle was not finished");
+
+    LOGGER.info ("Start synchronizing business cards" + (bForceSync ? " (forced)" : "") + (bPaced ? "" : " (unpaced)"));
+    final int nEstimatedCount = PDMetaManager.getStorageMgr ().getContainedParticipantCount (EQueryMode.NON_DELETED_ONLY);
+    _writeSyncState (new SyncState (0, null, bPaced));
+    AuditHelper.onAuditExecuteSuccess ("sync-bc-started", Integer.valueOf (nEstimatedCount), aNow, Boolean.valueOf (bForceSync));
+    _setLastSync (aNow);
+
+    return EChange.CHANGED;
+  }
+
+  /**
+   * Queue the next chunk of participants of the current synchronization cycle.
+   * For a paced cycle the number of participants is chosen, so that all
+   * participants are queued evenly distributed over the configured period. An
+   * unpaced cycle queues as many participants as possible. If the indexer queue
+   * contains too many background work items, less or no participants are
+   * queued. The position is persisted so that a restart continues where it
+   * stopped.
+   *
+   * @return The number of queued participants. Always &ge; 0.
+   * @since 0.9.6
+   */
+  @Nonnegative
+  public static int syncNextBusinessCards ()
+  {
+    final SyncState aState = _readSyncState ();
+    if (aState == null)
+    {
+      // No sync in progress
+      return 0;
+    }
+    final long nQueuedCount = aState.getQueuedCount ();
+    final String sLastParticipantID = aState.getLastParticipantID ();
+
+    // Determine how many participants should have been queued by now
+    final LocalDateTime aNow = PDTFactory.getCurrentLocalDateTime ();
+    final long nPeriodSecs = aState.isPaced () ? PDServerConfiguration.getSyncAllBusinessCardsPeriodHours () * CGlobal.SECONDS_PER_HOUR
+                                               : 0;
+    final long nElapsedSecs = Math.max (0, Duration.between (getLastSync (), aNow).getSeconds ());
+    // Entity count is an upper bound of the participant count
+    final long nTotal = Math.max (1, PDMetaManager.getStorageMgr ().getContainedParticipantCount (EQueryMode.NON_DELETED_ONLY));
+
+    // Adapt to the queue depth
     final PDIndexerManager aIndexerMgr = PDMetaManager.getIndexerMgr ();
-    // Queue a work item to re-scan all
-    final Set <IParticipantIdentifier> aAll = PDMetaManager.getStorageMgr ()
-                                                           .getAllContainedParticipantIDs (EQueryMode.NON_DELETED_ONLY)
-                                                           .keySet ();
-    for (final IParticipantIdentifier aParticipantID : aAll)
+    final int nQueueFree = PDServerConfiguration.getSyncAllBusinessCardsMaxQueueSize () -
+                           aIndexerMgr.getIndexerWorkQueue ().getScheduler ().getSize (EIndexerWorkItemLane.BACKGROUND);
+    final int nMaxCount = getChunkSize (nTotal, nQueuedCount, nElapsedSecs, nPeriodSecs, nQueueFree);
+    if (nMaxCount <= 0)
+      return 0;
+
+    final ICommonsList <String> aParticipantIDs;
+    try
     {
-      aIndexerMgr.queueWorkItem (aParticipantID, EIndexerWorkItemType.SYNC, "sync-job", PDIndexerManager.HOST_LOCALHOST);
+      aParticipantIDs = PDMetaManager.getStorageMgr ().getNextContainedParticipantIDs (sLastParticipantID, nMaxCount);
+    }
+    catch (final IOException ex)
+    {
+      // Keep the sync state and try again with the next run
+      LOGGER.error ("Error determining the next participant IDs after '" + sLastParticipantID + "' to synchronize", ex);
+      return 0;
+    }
+    int nQueued = 0;
+    for (final String sParticipantID : aParticipantIDs)
+    {
+      final IParticipantIdentifier aParticipantID = PDMetaManager.getIdentifierFactory ().parseParticipantIdentifier (sParticipantID);
+      try
+      {
+        if (aParticipantID != null && PDMetaManager.getStorageMgr ().containsEntry (aParticipantID, EQueryMode.NON_DELETED_ONLY))
+        {
+          aIndexerMgr.queueWorkItem (aParticipantID, EIndexerWorkItemType.SYNC, "sync-job", PDIndexerManager.HOST_LOCALHOST);
+          nQueued++;
+        }
+      }
+      catch (final IOException ex)
+      {
+        LOGGER.error ("Error checking participant ID '" + sParticipantID + "'", ex);
+      }
     }
-    LOGGER.info ("Finished synchronizing of " + aAll.size () + " business cards");
-    AuditHelper.onAuditExecuteSuccess ("sync-bc-started", Integer.valueOf (aAll.size ()), aNow, Boolean.valueOf (bForceSync));
-    _setLastSync (aNow);
 
-    return EChange.CHANGED;
+    if (aParticipantIDs.size () < nMaxCount)
+    {
+      // End reached
+      FileOperationManager.INSTANCE.deleteFile (_getSyncStateFile ());
+      LOGGER.info ("Finished synchronizing of " + (nQueuedCount + nQueued) + " business cards");
+      AuditHelper.onAuditExecuteSuccess ("sync-bc-finished", Long.valueOf (nQueuedCount + nQueued), aNow);
+    }
+    else
+    {
+      _writeSyncState (new SyncState (nQueuedCount + nQueued, aParticipantIDs.getLast (), aState.isPaced ()));
+      if (LOGGER.isDebugEnabled ())
+        LOGGER.debug ("Queued " + nQueued + " business cards for synchronization");
+    }
+    return nQueued;
   }
 
   @Override
   protected void onExecute (@Nonnull final JobDataMap aJobDataMap,
                             @Nonnull final IJobExecutionContext aContext) throws JobExecutionException
   {
-    // Ignore result - not forced
-    syncAllBusinessCards (false);
+    // Periodic cycles are only started if enabled
+    if (PDServerConfiguration.isSyncAllBusinessCards ())
+    {
+      // Ignore result - not forced
+      _startSync (false, true);
+    }
+    // Queue the next chunk of a periodic or a manually started cycle
+    syncNextBusinessCards ();
   }
 }
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link EExportPartitionMode}.
+ *
+ * @author Philip Helger
+ */
+public final class EExportPartitionModeTest
+{
+  @Test
+  public void testBasic ()
+  {
+    for (final EExportPartitionMode e : EExportPartitionMode.values ())
+      assertSame (e, EExportPartitionMode.getFromIDOrNull (e.getID ()));
+    assertNull (EExportPartitionMode.getFromIDOrNull (null));
+    assertNull (EExportPartitionMode.getFromIDOrNull ("bla"));
+  }
+
+  @Test
+  public void testIsValidPartitionKey ()
+  {
+    assertTrue (EExportPartitionMode.isValidPartitionKey ("AT"));
+    assertTrue (EExportPartitionMode.isValidPartitionKey ("9915"));
+    assertTrue (EExportPartitionMode.isValidPartitionKey ("A_B"));
+    assertTrue (EExportPartitionMode.isValidPartitionKey (EExportPartitionMode.PARTITION_KEY_NONE));
+
+    assertFalse (EExportPartitionMode.isValidPartitionKey (null));
+    assertFalse (EExportPartitionMode.isValidPartitionKey (""));
+    assertFalse (EExportPartitionMode.isValidPartitionKey ("../AT"));
+    assertFalse (EExportPartitionMode.isValidPartitionKey ("A-B"));
+    assertFalse (EExportPartitionMode.isValidPartitionKey ("A.xml"));
+    assertFalse (EExportPartitionMode.isValidPartitionKey ("012345678901234567890123456789012"));
+  }
+}
@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.photon.app.mock.PhotonAppWebTestRule;
+
+/**
+ * Test class for class {@link ExportAllManager}.
+ *
+ * @author Philip Helger
+ */
+public final class ExportAllManagerTest
+{
+  @Rule
+  public final TestRule m_aRule = new PhotonAppWebTestRule ();
+
+  @Nonnull
+  private static byte [] _readAll (@Nonnull final InputStream aIS) throws IOException
+  {
+    try (final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ())
+    {
+      final byte [] aBuf = new byte [1000];
+      int nRead;
+      while ((nRead = aIS.read (aBuf, 0, aBuf.length)) >= 0)
+        aBAOS.write (aBuf, 0, nRead);
+      return aBAOS.toByteArray ();
+    }
+  }
+
+  @Test
+  public void testLiveExport () throws IOException
+  {
+    // Larger than the pipe
+    final byte [] aData = new byte [1024 * 1024];
+    for (int i = 0; i < aData.length; ++i)
+      aData[i] = (byte) i;
+
+    try (final InputStream aIS = ExportAllManager.openLiveExport (aOS -> aOS.write (aData)))
+    {
+      assertArrayEquals (aData, _readAll (aIS));
+    }
+  }
+
+  @Test
+  public void testLiveExportFailure () throws IOException
+  {
+    try (final InputStream aIS = ExportAllManager.openLiveExport (aOS -> {
+      aOS.write (new byte [100]);
+      throw new IOException ("Export failed");
+    }))
+    {
+      _readAll (aIS);
+      fail ();
+    }
+    catch (final IOException ex)
+    {
+      // A truncated export must never look complete
+      assertEquals ("Export failed", ex.getCause ().getMessage ());
+    }
+  }
+
+  @Test
+  public void testLiveExportReaderClosed () throws Exception
+  {
+    final CountDownLatch aDone = new CountDownLatch (1);
+    final AtomicReference <IOException> aError = new AtomicReference <> ();
+    final InputStream aIS = ExportAllManager.openLiveExport (aOS -> {
+      try
+      {
+        // Endless export
+        final byte [] aBuf = new byte [1000];
+        while (true)
+          aOS.write (aBuf);
+      }
+      catch (final IOException ex)
+      {
+        aError.set (ex);
+        throw ex;
+      }
+      finally
+      {
+        aDone.countDown ();
+      }
+    });
+    assertTrue (aIS.read () >= 0);
+    aIS.close ();
+
+    // The export is stopped
+    assertTrue (aDone.await (10, TimeUnit.SECONDS));
+    assertNotNull (aError.get ());
+  }
+}
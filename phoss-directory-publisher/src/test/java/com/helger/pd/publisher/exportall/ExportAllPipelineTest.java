@@ -0,0 +1,170 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.concurrent.ThreadHelper;
+import com.helger.commons.state.ESuccess;
+import com.helger.pd.indexer.storage.PDStoredBusinessEntity;
+
+/**
+ * Test class for class {@link ExportAllPipeline}.
+ *
+ * @author Philip Helger
+ */
+public final class ExportAllPipelineTest
+{
+  private static final ExportGeneration GENERATION = new ExportGeneration (3, ZonedDateTime.now (ZoneOffset.UTC));
+
+  private static final class MockSink implements IExportAllSink
+  {
+    private final String m_sName;
+    // Index of the entity that fails or -1
+    private final int m_nFailAt;
+    private final AtomicInteger m_aEntityCount = new AtomicInteger (0);
+    private volatile ExportGeneration m_aGeneration;
+    private volatile boolean m_bStarted = false;
+    private volatile boolean m_bFinished = false;
+    private volatile boolean m_bAborted = false;
+
+    MockSink (@Nonnull final String sName, final int nFailAt)
+    {
+      m_sName = sName;
+      m_nFailAt = nFailAt;
+    }
+
+    public String getDisplayName ()
+    {
+      return m_sName;
+    }
+
+    public void onStart (@Nonnull final ExportGeneration aGeneration)
+    {
+      m_aGeneration = aGeneration;
+      m_bStarted = true;
+    }
+
+    public void onEntity (@Nonnull final PDStoredBusinessEntity aEntity) throws IOException
+    {
+      if (m_aEntityCount.getAndIncrement () == m_nFailAt)
+        throw new IOException ("Failure in " + m_sName);
+    }
+
+    public void onFinish ()
+    {
+      m_bFinished = true;
+    }
+
+    public void onAbort ()
+    {
+      m_bAborted = true;
+    }
+  }
+
+  @Nonnull
+  private static ICommonsList <PDStoredBusinessEntity> _createEntities (final int nCount)
+  {
+    final ICommonsList <PDStoredBusinessEntity> ret = new CommonsArrayList <> ();
+    for (int i = 0; i < nCount; ++i)
+      ret.add (MockExportEntity.createMinimal ("9915:test" + i, "Entity " + i));
+    return ret;
+  }
+
+  @Test
+  public void testAllSinksSucceed () throws IOException
+  {
+    final ICommonsList <PDStoredBusinessEntity> aEntities = _createEntities (100);
+    final ICommonsList <MockSink> aSinks = new CommonsArrayList <> (new MockSink ("a", -1), new MockSink ("b", -1));
+    // Small chunks and queues to test the blocking
+    final ESuccess eSuccess = new ExportAllPipeline (aSinks, 7, 2).run (GENERATION, aConsumer -> aEntities.forEach (aConsumer));
+    assertSame (ESuccess.SUCCESS, eSuccess);
+    for (final MockSink aSink : aSinks)
+    {
+      assertTrue (aSink.m_bStarted);
+      assertSame (GENERATION, aSink.m_aGeneration);
+      assertEquals (100, aSink.m_aEntityCount.get ());
+      assertTrue (aSink.m_bFinished);
+      assertFalse (aSink.m_bAborted);
+    }
+  }
+
+  @Test
+  public void testSinkFailureIsIsolated () throws IOException
+  {
+    final ICommonsList <PDStoredBusinessEntity> aEntities = _createEntities (100);
+    final MockSink aGood = new MockSink ("good", -1);
+    final MockSink aBad = new MockSink ("bad", 10);
+    final ExportAllPipeline aPipeline = new ExportAllPipeline (new CommonsArrayList <> (aGood, aBad), 7, 2);
+    final ESuccess eSuccess = aPipeline.run (GENERATION, aConsumer -> aEntities.forEach (aConsumer));
+    assertSame (ESuccess.FAILURE, eSuccess);
+
+    // The other sink is not affected
+    assertEquals (100, aGood.m_aEntityCount.get ());
+    assertTrue (aGood.m_bFinished);
+    assertFalse (aGood.m_bAborted);
+
+    // The failed sink gets no more entities but still drains its queue
+    assertEquals (11, aBad.m_aEntityCount.get ());
+    assertFalse (aBad.m_bFinished);
+    assertTrue (aBad.m_bAborted);
+  }
+
+  @Test
+  public void testScanFailureAbortsAll ()
+  {
+    final ICommonsList <PDStoredBusinessEntity> aEntities = _createEntities (50);
+    final ICommonsList <MockSink> aSinks = new CommonsArrayList <> (new MockSink ("a", -1), new MockSink ("b", -1));
+    try
+    {
+      new ExportAllPipeline (aSinks, 7, 2).run (GENERATION, aConsumer -> {
+        aEntities.forEach (aConsumer);
+        throw new IOException ("Scan failed");
+      });
+      fail ();
+    }
+    catch (final IOException ex)
+    {
+      assertEquals ("Scan failed", ex.getMessage ());
+    }
+
+    for (final MockSink aSink : aSinks)
+    {
+      assertFalse (aSink.m_bFinished);
+      // The sinks are aborted asynchronously
+      int nWait = 0;
+      while (!aSink.m_bAborted && nWait++ < 100)
+        ThreadHelper.sleep (50);
+      assertTrue (aSink.m_bAborted);
+    }
+  }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import java.time.Duration;
+
+import org.junit.Test;
+
+/**
+ * Test class for class {@link ExportAllSchedulePolicy}.
+ *
+ * @author Philip Helger
+ */
+public final class ExportAllSchedulePolicyTest
+{
+  private static final ExportAllSchedulePolicy POLICY = new ExportAllSchedulePolicy (100,
+                                                                                      Duration.ofHours (1),
+                                                                                      Duration.ofHours (24));
+
+  @Test
+  public void testNoExport ()
+  {
+    assertNotNull (POLICY.getExportReason (-1, null));
+    assertNotNull (POLICY.getExportReason (0, null));
+    assertNotNull (POLICY.getExportReason (1000, null));
+  }
+
+  @Test
+  public void testUnknownChanges ()
+  {
+    assertNotNull (POLICY.getExportReason (-1, Duration.ZERO));
+    assertNotNull (POLICY.getExportReason (-1, Duration.ofDays (2)));
+  }
+
+  @Test
+  public void testNoChanges ()
+  {
+    assertNull (POLICY.getExportReason (0, Duration.ZERO));
+    assertNull (POLICY.getExportReason (0, Duration.ofHours (24)));
+    assertNull (POLICY.getExportReason (0, Duration.ofDays (100)));
+  }
+
+  @Test
+  public void testChangeVolume ()
+  {
+    // Not enough changes
+    assertNull (POLICY.getExportReason (99, Duration.ofHours (2)));
+    // Enough changes but too early
+    assertNull (POLICY.getExportReason (100, Duration.ofMinutes (59)));
+    assertNotNull (POLICY.getExportReason (100, Duration.ofHours (1)));
+    assertNotNull (POLICY.getExportReason (5000, Duration.ofHours (2)));
+  }
+
+  @Test
+  public void testMaxAge ()
+  {
+    assertNull (POLICY.getExportReason (1, Duration.ofHours (23)));
+    assertNotNull (POLICY.getExportReason (1, Duration.ofHours (24)));
+    assertNotNull (POLICY.getExportReason (1, Duration.ofDays (3)));
+  }
+}
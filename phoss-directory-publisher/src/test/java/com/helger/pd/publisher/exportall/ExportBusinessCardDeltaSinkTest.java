@@ -0,0 +1,195 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsHashSet;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsSet;
+import com.helger.pd.indexer.storage.PDStoredBusinessEntity;
+import com.helger.photon.app.mock.PhotonAppWebTestRule;
+import com.helger.scope.mock.ScopeTestRule;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.serialize.MicroReader;
+
+/**
+ * Test class for class {@link ExportBusinessCardDeltaSink}.
+ *
+ * @author Philip Helger
+ */
+public final class ExportBusinessCardDeltaSinkTest
+{
+  private static final int MAX_GENERATIONS = 2;
+  // Small runs to test the merging
+  private static final int RUN_SIZE = 3;
+
+  @Rule
+  public final TestRule m_aRule = new PhotonAppWebTestRule (new File ("target/delta-test"),
+                                                            ScopeTestRule.STORAGE_PATH.getAbsolutePath ());
+
+  @Before
+  public void before ()
+  {
+    ExportAllManager.deleteFile (ExportAllManager.getInternalFileBusinessCardDeltaManifest ());
+    ExportAllManager.deleteFile (ExportAllManager.getInternalFileBusinessCardDeltaState ());
+    for (int i = 1; i <= 10; ++i)
+      ExportAllManager.deleteFile (ExportAllManager.getInternalFileBusinessCardDelta (i));
+  }
+
+  private static void _export (final long nGeneration, @Nonnull final ICommonsList <PDStoredBusinessEntity> aEntities) throws IOException
+  {
+    final ExportBusinessCardDeltaSink aSink = new ExportBusinessCardDeltaSink (MAX_GENERATIONS, RUN_SIZE);
+    aSink.onStart (new ExportGeneration (nGeneration, ZonedDateTime.now (ZoneOffset.UTC)));
+    for (final PDStoredBusinessEntity aEntity : aEntities)
+      aSink.onEntity (aEntity);
+    aSink.onFinish ();
+  }
+
+  @Nonnull
+  private static ICommonsList <PDStoredBusinessEntity> _createEntities (final int nFirst,
+                                                                        final int nLast,
+                                                                        @Nonnull final String sNameSuffix)
+  {
+    final ICommonsList <PDStoredBusinessEntity> ret = new CommonsArrayList <> ();
+    for (int i = nFirst; i <= nLast; ++i)
+      ret.add (MockExportEntity.createMinimal ("9915:delta" + i, "Entity " + i + sNameSuffix));
+    return ret;
+  }
+
+  @Nonnull
+  private static IMicroElement _readManifest ()
+  {
+    final IMicroDocument aDoc = MicroReader.readMicroXML (ExportAllManager.getInternalFileBusinessCardDeltaManifest ());
+    assertNotNull (aDoc);
+    return aDoc.getDocumentElement ();
+  }
+
+  @Nonnull
+  private static ICommonsSet <String> _getParticipantValues (@Nonnull final IMicroElement eRoot,
+                                                            @Nonnull final String sElementName)
+  {
+    final ICommonsSet <String> ret = new CommonsHashSet <> ();
+    for (final IMicroElement e : eRoot.getAllChildElements (ExportHelper.XML_EXPORT_NS_URI, sElementName))
+    {
+      final IMicroElement eParticipant = sElementName.equals ("removed") ? e
+                                                                         : e.getFirstChildElement (ExportHelper.XML_EXPORT_NS_URI,
+                                                                                                   "participant");
+      ret.add (eParticipant.getAttributeValue ("value"));
+    }
+    return ret;
+  }
+
+  @Test
+  public void testAddedChangedRemoved () throws IOException
+  {
+    // Baseline with participants 1-10
+    _export (1, _createEntities (1, 10, ""));
+    IMicroElement eManifest = _readManifest ();
+    assertEquals ("1", eManifest.getAttributeValue ("currentgeneration"));
+    assertFalse (eManifest.hasChildElements ());
+    assertTrue (ExportAllManager.getInternalFileBusinessCardDeltaState ().isFile ());
+    assertFalse (ExportAllManager.getInternalFileBusinessCardDelta (1).isFile ());
+
+    // Remove 1 and 2, change 5, add 11-13
+    final ICommonsList <PDStoredBusinessEntity> aEntities = new CommonsArrayList <> ();
+    aEntities.addAll (_createEntities (3, 4, ""));
+    aEntities.addAll (_createEntities (5, 5, " changed"));
+    aEntities.addAll (_createEntities (6, 13, ""));
+    _export (2, aEntities);
+
+    eManifest = _readManifest ();
+    assertEquals ("2", eManifest.getAttributeValue ("currentgeneration"));
+    final ICommonsList <IMicroElement> aDeltas = eManifest.getAllChildElements ("delta");
+    assertEquals (1, aDeltas.size ());
+    final IMicroElement eDelta = aDeltas.getFirst ();
+    assertEquals ("2", eDelta.getAttributeValue ("generation"));
+    assertEquals ("1", eDelta.getAttributeValue ("basegeneration"));
+    assertEquals ("3", eDelta.getAttributeValue ("added"));
+    assertEquals ("1", eDelta.getAttributeValue ("changed"));
+    assertEquals ("2", eDelta.getAttributeValue ("removed"));
+
+    final File aDeltaFile = ExportAllManager.getInternalFileBusinessCardDelta (2);
+    assertTrue (aDeltaFile.isFile ());
+    assertEquals (Long.toString (aDeltaFile.length ()), eDelta.getAttributeValue ("size"));
+    final IMicroDocument aDeltaDoc = MicroReader.readMicroXML (aDeltaFile);
+    assertNotNull (aDeltaDoc);
+    final IMicroElement eDeltaRoot = aDeltaDoc.getDocumentElement ();
+    assertEquals ("2", eDeltaRoot.getAttributeValue ("generation"));
+    assertEquals ("1", eDeltaRoot.getAttributeValue ("basegeneration"));
+    assertEquals (new CommonsHashSet <> ("9915:delta5", "9915:delta11", "9915:delta12", "9915:delta13"),
+                  _getParticipantValues (eDeltaRoot, "businesscard"));
+    assertEquals (new CommonsHashSet <> ("9915:delta1", "9915:delta2"), _getParticipantValues (eDeltaRoot, "removed"));
+
+    // No changes at all
+    _export (3, aEntities);
+    eManifest = _readManifest ();
+    final IMicroElement eEmptyDelta = eManifest.getAllChildElements ("delta").getLast ();
+    assertEquals ("3", eEmptyDelta.getAttributeValue ("generation"));
+    assertEquals ("0", eEmptyDelta.getAttributeValue ("added"));
+    assertEquals ("0", eEmptyDelta.getAttributeValue ("changed"));
+    assertEquals ("0", eEmptyDelta.getAttributeValue ("removed"));
+  }
+
+  @Test
+  public void testDropOldGenerations () throws IOException
+  {
+    _export (1, _createEntities (1, 5, ""));
+    _export (2, _createEntities (1, 6, ""));
+    // Generation numbers need not be consecutive
+    _export (4, _createEntities (1, 7, ""));
+    assertTrue (ExportAllManager.getInternalFileBusinessCardDelta (2).isFile ());
+    assertTrue (ExportAllManager.getInternalFileBusinessCardDelta (4).isFile ());
+
+    _export (5, _createEntities (2, 7, ""));
+    IMicroElement eManifest = _readManifest ();
+    assertEquals ("5", eManifest.getAttributeValue ("currentgeneration"));
+    ICommonsList <IMicroElement> aDeltas = eManifest.getAllChildElements ("delta");
+    assertEquals (MAX_GENERATIONS, aDeltas.size ());
+    assertEquals ("4", aDeltas.get (0).getAttributeValue ("generation"));
+    assertEquals ("5", aDeltas.get (1).getAttributeValue ("generation"));
+    assertEquals ("1", aDeltas.get (1).getAttributeValue ("removed"));
+    assertFalse (ExportAllManager.getInternalFileBusinessCardDelta (2).isFile ());
+    assertTrue (ExportAllManager.getInternalFileBusinessCardDelta (4).isFile ());
+    assertTrue (ExportAllManager.getInternalFileBusinessCardDelta (5).isFile ());
+
+    // An outdated generation starts a new baseline and drops all deltas
+    _export (5, _createEntities (2, 7, ""));
+    eManifest = _readManifest ();
+    aDeltas = eManifest.getAllChildElements ("delta");
+    assertTrue (aDeltas.isEmpty ());
+    assertFalse (ExportAllManager.getInternalFileBusinessCardDelta (4).isFile ());
+    assertFalse (ExportAllManager.getInternalFileBusinessCardDelta (5).isFile ());
+  }
+}
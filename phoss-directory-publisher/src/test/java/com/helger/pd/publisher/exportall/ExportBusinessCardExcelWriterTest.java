@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+import java.time.LocalDate;
+
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.junit.Test;
+
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+
+/**
+ * Test class for class {@link ExportBusinessCardExcelWriter}.
+ *
+ * @author Philip Helger
+ */
+public final class ExportBusinessCardExcelWriterTest
+{
+  @Test
+  public void testWrite () throws IOException
+  {
+    for (final boolean bIncludeDocTypes : new boolean [] { true, false })
+    {
+      final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+      try (final ExportBusinessCardExcelWriter aWriter = new ExportBusinessCardExcelWriter (bIncludeDocTypes))
+      {
+        aWriter.addEntity (MockExportEntity.createFull ("9915:test1", "Entity 1"));
+        aWriter.addEntity (MockExportEntity.createMinimal ("9915:test2", "Entity 2"));
+        assertEquals (2, aWriter.getEntityCount ());
+        aWriter.writeTo (aBAOS);
+      }
+
+      try (final XSSFWorkbook aWB = new XSSFWorkbook (new NonBlockingByteArrayInputStream (aBAOS.toByteArray ())))
+      {
+        assertEquals (1, aWB.getNumberOfSheets ());
+        final Sheet aSheet = aWB.getSheetAt (0);
+        // Header plus one row per entity
+        assertEquals (2, aSheet.getLastRowNum ());
+
+        final Row aHeader = aSheet.getRow (0);
+        assertEquals (bIncludeDocTypes ? 14 : 13, aHeader.getLastCellNum ());
+        assertEquals ("Participant ID", aHeader.getCell (0).getStringCellValue ());
+
+        final Row aFull = aSheet.getRow (1);
+        assertEquals ("iso6523-actorid-upis::9915:test1", aFull.getCell (0).getStringCellValue ());
+        assertEquals ("Entity 1 (en)\nEntity 1 (de) (de)", aFull.getCell (1).getStringCellValue ());
+        assertEquals ("AT", aFull.getCell (2).getStringCellValue ());
+        assertEquals ("VAT\nGLN", aFull.getCell (4).getStringCellValue ());
+        assertEquals ("ATU12345678\n1234567890123", aFull.getCell (5).getStringCellValue ());
+        assertEquals ("support@example.org", aFull.getCell (10).getStringCellValue ());
+        assertEquals (PDTFactory.createDate (LocalDate.of (2021, 3, 4)), aFull.getCell (12).getDateCellValue ());
+        if (bIncludeDocTypes)
+          assertNotNull (aFull.getCell (13).getStringCellValue ());
+
+        final Row aMinimal = aSheet.getRow (2);
+        assertEquals ("iso6523-actorid-upis::9915:test2", aMinimal.getCell (0).getStringCellValue ());
+        assertEquals ("Entity 2", aMinimal.getCell (1).getStringCellValue ());
+        // Empty cells are created as well
+        assertEquals (bIncludeDocTypes ? 14 : 13, aMinimal.getLastCellNum ());
+      }
+    }
+  }
+}
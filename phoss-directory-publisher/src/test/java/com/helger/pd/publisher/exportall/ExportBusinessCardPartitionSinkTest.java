@@ -0,0 +1,144 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TestRule;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.pd.indexer.storage.PDStoredBusinessEntity;
+import com.helger.photon.app.mock.PhotonAppWebTestRule;
+import com.helger.scope.mock.ScopeTestRule;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.serialize.MicroReader;
+
+/**
+ * Test class for class {@link ExportBusinessCardPartitionSink}.
+ *
+ * @author Philip Helger
+ */
+public final class ExportBusinessCardPartitionSinkTest
+{
+  private static final EExportPartitionMode MODE = EExportPartitionMode.COUNTRY;
+  private static final String [] COUNTRY_CODES = { "AT", "DE", "FR", "IT", "NL", "BE" };
+
+  @Rule
+  public final TestRule m_aRule = new PhotonAppWebTestRule (new File ("target/partition-test"),
+                                                            ScopeTestRule.STORAGE_PATH.getAbsolutePath ());
+
+  private static void _export (@Nonnull final ExportBusinessCardPartitionSink aSink,
+                               final long nGeneration,
+                               @Nonnull final ICommonsList <PDStoredBusinessEntity> aEntities) throws IOException
+  {
+    aSink.onStart (new ExportGeneration (nGeneration, ZonedDateTime.now (ZoneOffset.UTC)));
+    for (final PDStoredBusinessEntity aEntity : aEntities)
+      aSink.onEntity (aEntity);
+    aSink.onFinish ();
+  }
+
+  @Nonnull
+  private static IMicroElement _readXML (@Nonnull final File aFile)
+  {
+    assertTrue (aFile.getAbsolutePath (), aFile.isFile ());
+    final IMicroDocument aDoc = MicroReader.readMicroXML (aFile);
+    assertNotNull (aDoc);
+    return aDoc.getDocumentElement ();
+  }
+
+  @Nonnull
+  private static ICommonsList <String> _getParticipantValues (@Nonnull final String sPartitionKey)
+  {
+    final ICommonsList <String> ret = new CommonsArrayList <> ();
+    final IMicroElement eRoot = _readXML (ExportAllManager.getInternalFileBusinessCardPartition (MODE, sPartitionKey));
+    for (final IMicroElement eBC : eRoot.getAllChildElements (ExportHelper.XML_EXPORT_NS_URI, "businesscard"))
+      ret.add (eBC.getFirstChildElement (ExportHelper.XML_EXPORT_NS_URI, "participant").getAttributeValue ("value"));
+    return ret;
+  }
+
+  @Test
+  public void testLanesAndManifest () throws IOException
+  {
+    final ICommonsList <PDStoredBusinessEntity> aEntities = new CommonsArrayList <> ();
+    for (int i = 0; i < 60; ++i)
+      aEntities.add (MockExportEntity.createWithCountryCode ("9915:part" + i,
+                                                             "Entity " + i,
+                                                             COUNTRY_CODES[i % COUNTRY_CODES.length]));
+
+    // More partitions than lanes, and less partitions than keys
+    _export (new ExportBusinessCardPartitionSink (MODE, true, 2, 4), 1, aEntities);
+
+    final IMicroElement eManifest = _readXML (ExportAllManager.getInternalFileBusinessCardPartitionManifest (MODE));
+    assertEquals ("country", eManifest.getAttributeValue ("mode"));
+    assertEquals ("1", eManifest.getAttributeValue ("generation"));
+    assertEquals ("4", eManifest.getAttributeValue ("maxpartitions"));
+    final ICommonsList <IMicroElement> aPartitions = eManifest.getAllChildElements ("partition");
+    // Sorted by key
+    assertEquals (new CommonsArrayList <> ("AT", "DE", "FR", EExportPartitionMode.PARTITION_KEY_OTHER),
+                  aPartitions.getAllMapped (x -> x.getAttributeValue ("key")));
+    for (final IMicroElement ePartition : aPartitions)
+    {
+      final String sKey = ePartition.getAttributeValue ("key");
+      final File aFile = ExportAllManager.getInternalFileBusinessCardPartition (MODE, sKey);
+      assertEquals (Long.toString (aFile.length ()), ePartition.getAttributeValue ("size"));
+      assertEquals (ExportAllManager.getExternalFilenameBusinessCardPartition (MODE, sKey),
+                    ePartition.getAttributeValue ("filename"));
+      final String sExpectedCount = EExportPartitionMode.PARTITION_KEY_OTHER.equals (sKey) ? "30" : "10";
+      assertEquals (sExpectedCount, ePartition.getAttributeValue ("participants"));
+      assertEquals (sExpectedCount, ePartition.getAttributeValue ("entities"));
+    }
+
+    // The index order is retained within each partition
+    final ICommonsList <String> aExpectedAT = new CommonsArrayList <> ();
+    final ICommonsList <String> aExpectedOther = new CommonsArrayList <> ();
+    for (int i = 0; i < 60; ++i)
+      if (i % COUNTRY_CODES.length == 0)
+        aExpectedAT.add ("9915:part" + i);
+      else
+        if (i % COUNTRY_CODES.length >= 3)
+          aExpectedOther.add ("9915:part" + i);
+    assertEquals (aExpectedAT, _getParticipantValues ("AT"));
+    assertEquals (aExpectedOther, _getParticipantValues (EExportPartitionMode.PARTITION_KEY_OTHER));
+
+    // Partitions that are no longer present are deleted
+    _export (new ExportBusinessCardPartitionSink (MODE, true, 2),
+             2,
+             aEntities.getAll (x -> "AT".equals (x.getCountryCode ())));
+    final IMicroElement eNewManifest = _readXML (ExportAllManager.getInternalFileBusinessCardPartitionManifest (MODE));
+    final ICommonsList <IMicroElement> aNewPartitions = eNewManifest.getAllChildElements ("partition");
+    assertEquals (1, aNewPartitions.size ());
+    assertEquals ("AT", aNewPartitions.getFirst ().getAttributeValue ("key"));
+    assertTrue (ExportAllManager.getInternalFileBusinessCardPartition (MODE, "AT").isFile ());
+    assertFalse (ExportAllManager.getInternalFileBusinessCardPartition (MODE, "DE").isFile ());
+    assertFalse (ExportAllManager.getInternalFileBusinessCardPartition (MODE, EExportPartitionMode.PARTITION_KEY_OTHER)
+                                 .isFile ());
+  }
+}
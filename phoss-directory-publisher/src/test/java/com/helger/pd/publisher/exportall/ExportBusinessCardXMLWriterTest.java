@@ -0,0 +1,108 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+
+import java.io.IOException;
+
+import javax.annotation.Nonnull;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsArrayList;
+import com.helger.commons.collection.impl.CommonsLinkedHashMap;
+import com.helger.commons.collection.impl.ICommonsList;
+import com.helger.commons.collection.impl.ICommonsOrderedMap;
+import com.helger.commons.io.stream.NonBlockingByteArrayInputStream;
+import com.helger.commons.io.stream.NonBlockingByteArrayOutputStream;
+import com.helger.commons.string.StringHelper;
+import com.helger.pd.indexer.storage.PDStoredBusinessEntity;
+import com.helger.peppolid.IParticipantIdentifier;
+import com.helger.xml.microdom.IMicroDocument;
+import com.helger.xml.microdom.IMicroElement;
+import com.helger.xml.microdom.IMicroNode;
+import com.helger.xml.microdom.serialize.MicroReader;
+import com.helger.xml.microdom.serialize.MicroWriter;
+
+/**
+ * Test class for class {@link ExportBusinessCardXMLWriter}.
+ *
+ * @author Philip Helger
+ */
+public final class ExportBusinessCardXMLWriterTest
+{
+  private static void _removeWhitespaceText (@Nonnull final IMicroElement aElement)
+  {
+    if (aElement.hasChildren ())
+      for (final IMicroNode aChild : aElement.getAllChildren ())
+        if (aChild.isText () && StringHelper.hasNoText (aChild.getNodeValue ().trim ()))
+          aElement.removeChild (aChild);
+        else
+          if (aChild.isElement ())
+            _removeWhitespaceText ((IMicroElement) aChild);
+  }
+
+  @Nonnull
+  private static String _getNormalized (@Nonnull final IMicroDocument aDoc)
+  {
+    final IMicroElement eRoot = aDoc.getDocumentElement ();
+    // Differs by nature
+    eRoot.removeAttribute ("creationdt");
+    // Indentation and line breaks
+    _removeWhitespaceText (eRoot);
+    return MicroWriter.getNodeAsString (eRoot);
+  }
+
+  @Test
+  public void testSameAsMicroDOM () throws IOException
+  {
+    final ICommonsList <PDStoredBusinessEntity> aEntities = new CommonsArrayList <> ();
+    // Multiple entities of the same participant
+    aEntities.add (MockExportEntity.createFull ("9915:test1", "Entity 1a"));
+    aEntities.add (MockExportEntity.createFull ("9915:test1", "Entity 1b"));
+    aEntities.add (MockExportEntity.createMinimal ("9915:test2", "Entity 2"));
+    aEntities.add (MockExportEntity.createFull ("9915:test3", "Entity 3"));
+    aEntities.add (MockExportEntity.createMinimal ("9915:test4", "Entity 4"));
+
+    final ICommonsOrderedMap <IParticipantIdentifier, ICommonsList <PDStoredBusinessEntity>> aMap = new CommonsLinkedHashMap <> ();
+    for (final PDStoredBusinessEntity aEntity : aEntities)
+      aMap.computeIfAbsent (aEntity.getParticipantID (), k -> new CommonsArrayList <> ()).add (aEntity);
+
+    for (final boolean bIncludeDocTypes : new boolean [] { true, false })
+    {
+      // The old MicroDOM based export - serialized and read again to get the
+      // same representation as the streamed one
+      final IMicroDocument aExpected = MicroReader.readMicroXML (MicroWriter.getNodeAsString (ExportHelper.getAsXML (aMap,
+                                                                                                                     bIncludeDocTypes)));
+      assertNotNull (aExpected);
+
+      final NonBlockingByteArrayOutputStream aBAOS = new NonBlockingByteArrayOutputStream ();
+      final ExportBusinessCardXMLWriter aWriter = new ExportBusinessCardXMLWriter (aBAOS, bIncludeDocTypes);
+      for (final PDStoredBusinessEntity aEntity : aEntities)
+        aWriter.addEntity (aEntity);
+      aWriter.close ();
+      assertEquals (4, aWriter.getParticipantCount ());
+
+      final IMicroDocument aStreamed = MicroReader.readMicroXML (new NonBlockingByteArrayInputStream (aBAOS.toByteArray ()));
+      assertNotNull (aStreamed);
+
+      assertEquals (_getNormalized (aExpected), _getNormalized (aStreamed));
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import org.junit.Test;
+
+import com.helger.pd.publisher.exportall.ExportFileHttpHelper.ByteRange;
+
+/**
+ * Test class for class {@link ExportFileHttpHelper}.
+ *
+ * @author Philip Helger
+ */
+public final class ExportFileHttpHelperTest
+{
+  @Test
+  public void testIsGzipAccepted ()
+  {
+    assertFalse (ExportFileHttpHelper.isGzipAccepted (null));
+    assertFalse (ExportFileHttpHelper.isGzipAccepted (""));
+    assertFalse (ExportFileHttpHelper.isGzipAccepted ("identity"));
+    assertFalse (ExportFileHttpHelper.isGzipAccepted ("deflate, br"));
+    assertTrue (ExportFileHttpHelper.isGzipAccepted ("gzip"));
+    assertTrue (ExportFileHttpHelper.isGzipAccepted ("deflate, GZIP"));
+    assertTrue (ExportFileHttpHelper.isGzipAccepted ("x-gzip"));
+    assertTrue (ExportFileHttpHelper.isGzipAccepted ("gzip;q=0.5"));
+    assertFalse (ExportFileHttpHelper.isGzipAccepted ("gzip;q=0"));
+    assertTrue (ExportFileHttpHelper.isGzipAccepted ("*"));
+    assertFalse (ExportFileHttpHelper.isGzipAccepted ("*;q=0"));
+    // Explicit entry wins over the wildcard
+    assertFalse (ExportFileHttpHelper.isGzipAccepted ("gzip;q=0, *"));
+    assertTrue (ExportFileHttpHelper.isGzipAccepted ("gzip, *;q=0"));
+  }
+
+  @Test
+  public void testParseRange ()
+  {
+    final long nSize = 1000;
+    // Unsupported or invalid
+    assertNull (ExportFileHttpHelper.parseRange ("items=0-10", nSize));
+    assertNull (ExportFileHttpHelper.parseRange ("bytes=0-10,20-30", nSize));
+    assertNull (ExportFileHttpHelper.parseRange ("bytes=abc", nSize));
+    assertNull (ExportFileHttpHelper.parseRange ("bytes=10-5", nSize));
+    assertNull (ExportFileHttpHelper.parseRange ("bytes=-", nSize));
+
+    ByteRange aRange = ExportFileHttpHelper.parseRange ("bytes=0-99", nSize);
+    assertNotNull (aRange);
+    assertTrue (aRange.isSatisfiable ());
+    assertEquals (0, aRange.getFirst ());
+    assertEquals (99, aRange.getLast ());
+    assertEquals (100, aRange.getLength ());
+
+    // Open end
+    aRange = ExportFileHttpHelper.parseRange ("bytes=900-", nSize);
+    assertNotNull (aRange);
+    assertEquals (900, aRange.getFirst ());
+    assertEquals (999, aRange.getLast ());
+
+    // End after content
+    aRange = ExportFileHttpHelper.parseRange ("bytes=900-5000", nSize);
+    assertNotNull (aRange);
+    assertEquals (999, aRange.getLast ());
+
+    // Suffix
+    aRange = ExportFileHttpHelper.parseRange ("bytes=-10", nSize);
+    assertNotNull (aRange);
+    assertEquals (990, aRange.getFirst ());
+    assertEquals (999, aRange.getLast ());
+    aRange = ExportFileHttpHelper.parseRange ("bytes=-5000", nSize);
+    assertNotNull (aRange);
+    assertEquals (0, aRange.getFirst ());
+
+    // Unsatisfiable
+    assertSame (ByteRange.UNSATISFIABLE, ExportFileHttpHelper.parseRange ("bytes=1000-", nSize));
+    assertSame (ByteRange.UNSATISFIABLE, ExportFileHttpHelper.parseRange ("bytes=-0", nSize));
+    assertSame (ByteRange.UNSATISFIABLE, ExportFileHttpHelper.parseRange ("bytes=0-", 0));
+  }
+
+  @Test
+  public void testETag ()
+  {
+    final ExportFileMetadata aMetadata = new ExportFileMetadata (ZonedDateTime.now (ZoneOffset.UTC), 5, "abcdef");
+    final String sETag = ExportFileHttpHelper.getETag (aMetadata);
+    assertEquals ("\"abcdef\"", sETag);
+
+    assertTrue (ExportFileHttpHelper.isETagMatching ("\"abcdef\"", sETag));
+    assertTrue (ExportFileHttpHelper.isETagMatching ("W/\"abcdef\"", sETag));
+    assertTrue (ExportFileHttpHelper.isETagMatching ("\"x\", \"abcdef\"", sETag));
+    assertTrue (ExportFileHttpHelper.isETagMatching ("*", sETag));
+    assertFalse (ExportFileHttpHelper.isETagMatching ("\"abc\"", sETag));
+    assertFalse (ExportFileHttpHelper.isETagMatching ("abcdef", sETag));
+  }
+
+  @Test
+  public void testHttpDate ()
+  {
+    final ZonedDateTime aDT = ZonedDateTime.of (2021, 3, 4, 5, 6, 7, 0, ZoneOffset.UTC);
+    final String sDate = ExportFileHttpHelper.getAsHttpDate (aDT);
+    assertEquals ("Thu, 4 Mar 2021 05:06:07 GMT", sDate);
+    assertEquals (aDT.toInstant (), ExportFileHttpHelper.getHttpDate (sDate).toInstant ());
+    assertEquals (aDT.toInstant (), ExportFileHttpHelper.getHttpDate ("Thu, 04 Mar 2021 05:06:07 GMT").toInstant ());
+
+    assertNull (ExportFileHttpHelper.getHttpDate (null));
+    assertNull (ExportFileHttpHelper.getHttpDate ("yesterday"));
+  }
+}
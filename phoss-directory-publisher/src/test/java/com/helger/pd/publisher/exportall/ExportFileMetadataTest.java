@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import org.junit.Test;
+
+import com.helger.commons.io.file.FileOperationManager;
+
+/**
+ * Test class for class {@link ExportFileMetadata}.
+ *
+ * @author Philip Helger
+ */
+public final class ExportFileMetadataTest
+{
+  @Test
+  public void testRoundTrip () throws IOException
+  {
+    final File aDir = new File ("target/export-test");
+    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aDir);
+
+    // Write an export file and use the values of the stream
+    final File aExportFile = new File (aDir, "metadata-test.xml");
+    final ExportFileOutputStream aOS = new ExportFileOutputStream (aExportFile);
+    aOS.write ("<root/>".getBytes (StandardCharsets.UTF_8));
+    aOS.close ();
+
+    final ExportFileMetadata aMetadata = new ExportFileMetadata (ZonedDateTime.of (2021, 3, 4, 5, 6, 7, 0, ZoneOffset.UTC),
+                                                                 aOS.getBytesWritten (),
+                                                                 aOS.getChecksum ());
+    final File aMetadataFile = new File (aDir, "metadata-test.xml.metadata");
+    aMetadata.writeToFile (aMetadataFile);
+
+    final ExportFileMetadata aRead = ExportFileMetadata.readFromFile (aMetadataFile);
+    assertNotNull (aRead);
+    assertEquals (aMetadata, aRead);
+    assertEquals (7, aRead.getSize ());
+    assertEquals (aOS.getChecksum (), aRead.getChecksum ());
+    assertFalse (aRead.hasGeneration ());
+  }
+
+  @Test
+  public void testRoundTripWithGeneration () throws IOException
+  {
+    final File aDir = new File ("target/export-test");
+    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aDir);
+
+    final ExportGeneration aGeneration = new ExportGeneration (17, ZonedDateTime.of (2021, 3, 4, 5, 6, 7, 0, ZoneOffset.UTC));
+    final ExportFileMetadata aMetadata = new ExportFileMetadata (aGeneration, 7, "0123456789abcdef");
+    assertTrue (aMetadata.hasGeneration ());
+    assertEquals (17, aMetadata.getGeneration ());
+    assertEquals (aGeneration.getCreationDateTime (), aMetadata.getCreationDateTime ());
+
+    final File aMetadataFile = new File (aDir, "metadata-generation-test.xml.metadata");
+    aMetadata.writeToFile (aMetadataFile);
+
+    final ExportFileMetadata aRead = ExportFileMetadata.readFromFile (aMetadataFile);
+    assertNotNull (aRead);
+    assertEquals (aMetadata, aRead);
+    assertEquals (17, aRead.getGeneration ());
+  }
+
+  @Test
+  public void testReadInvalid () throws IOException
+  {
+    final File aDir = new File ("target/export-test");
+    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aDir);
+
+    // Not existing
+    assertNull (ExportFileMetadata.readFromFile (new File (aDir, "does-not-exist.metadata")));
+
+    // Not XML
+    final File aFile = new File (aDir, "invalid.metadata");
+    Files.write (aFile.toPath (), "abc".getBytes (StandardCharsets.UTF_8));
+    assertNull (ExportFileMetadata.readFromFile (aFile));
+
+    // Missing checksum
+    Files.write (aFile.toPath (), "<exportfile creationdt=\"2021-03-04T05:06:07Z\" size=\"7\"/>".getBytes (StandardCharsets.UTF_8));
+    assertNull (ExportFileMetadata.readFromFile (aFile));
+
+    // Invalid date
+    Files.write (aFile.toPath (),
+                 "<exportfile creationdt=\"yesterday\" size=\"7\" sha256=\"abc\"/>".getBytes (StandardCharsets.UTF_8));
+    assertNull (ExportFileMetadata.readFromFile (aFile));
+  }
+}
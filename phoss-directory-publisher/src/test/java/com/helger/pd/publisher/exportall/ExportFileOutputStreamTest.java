@@ -0,0 +1,75 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import org.junit.Test;
+
+import com.helger.commons.io.file.FileOperationManager;
+import com.helger.commons.string.StringHelper;
+
+/**
+ * Test class for class {@link ExportFileOutputStream}.
+ *
+ * @author Philip Helger
+ */
+public final class ExportFileOutputStreamTest
+{
+  @Test
+  public void testSizeAndChecksum () throws IOException, NoSuchAlgorithmException
+  {
+    final File aFile = new File ("target/export-test/exportfile.bin");
+    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (aFile.getParentFile ());
+    final byte [] aData = "Hello export world".getBytes (StandardCharsets.UTF_8);
+
+    final ExportFileOutputStream aOS = new ExportFileOutputStream (aFile);
+    try
+    {
+      aOS.getChecksum ();
+      fail ();
+    }
+    catch (final IllegalStateException ex)
+    {
+      // expected
+    }
+    aOS.write (aData[0]);
+    aOS.write (aData, 1, aData.length - 1);
+    assertFalse (aOS.isClosed ());
+    aOS.close ();
+    assertTrue (aOS.isClosed ());
+    // Closing twice does not change anything
+    aOS.close ();
+
+    assertEquals (aData.length, aOS.getBytesWritten ());
+    final String sExpected = StringHelper.getHexEncoded (MessageDigest.getInstance (ExportFileOutputStream.CHECKSUM_ALGORITHM)
+                                                                      .digest (aData));
+    assertEquals (sExpected, aOS.getChecksum ());
+    assertArrayEquals (aData, Files.readAllBytes (aFile.toPath ()));
+  }
+}
@@ -0,0 +1,121 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.time.ZoneOffset;
+import java.time.ZonedDateTime;
+
+import org.junit.Test;
+
+import com.helger.commons.collection.impl.CommonsTreeSet;
+import com.helger.commons.collection.impl.ICommonsSortedSet;
+import com.helger.commons.io.file.FileOperationManager;
+
+/**
+ * Test class for class {@link ExportFingerprintFile}.
+ *
+ * @author Philip Helger
+ */
+public final class ExportFingerprintFileTest
+{
+  private static final File DIR = new File ("target/fingerprint-test");
+
+  private static void _write (final File aFile,
+                              final ExportGeneration aGeneration,
+                              final int nFirst,
+                              final int nLast,
+                              final ExportFingerprintFile.Reader aPrevious,
+                              final ICommonsSortedSet <String> aRemoved) throws IOException
+  {
+    try (final ExportFingerprintFile.Writer aWriter = new ExportFingerprintFile.Writer (aFile, 7))
+    {
+      // Add in descending order to test the sorting
+      for (int i = nLast; i >= nFirst; --i)
+      {
+        final String sID = "id" + i;
+        aWriter.add (ExportFingerprintFile.getIDHash (sID), sID, i);
+      }
+      aWriter.finish (aGeneration, aPrevious, aRemoved::add);
+    }
+  }
+
+  @Test
+  public void testWriteAndRead () throws IOException
+  {
+    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (DIR);
+    final File aFile1 = new File (DIR, "gen1.bin");
+    final File aFile2 = new File (DIR, "gen2.bin");
+    final ExportGeneration aGen1 = new ExportGeneration (1, ZonedDateTime.of (2021, 3, 4, 5, 6, 7, 0, ZoneOffset.UTC));
+    final ExportGeneration aGen2 = new ExportGeneration (2, ZonedDateTime.of (2021, 3, 5, 5, 6, 7, 0, ZoneOffset.UTC));
+
+    final ICommonsSortedSet <String> aRemoved = new CommonsTreeSet <> ();
+    _write (aFile1, aGen1, 0, 49, null, aRemoved);
+    assertEquals (0, aRemoved.size ());
+
+    try (final ExportFingerprintFile.Reader aReader = new ExportFingerprintFile.Reader (aFile1))
+    {
+      assertEquals (1, aReader.getGeneration ());
+      assertEquals (aGen1.getCreationDateTime (), aReader.getCreationDateTime ());
+      assertEquals (50, aReader.getCount ());
+      for (int i = 0; i < 50; ++i)
+        assertEquals (Long.valueOf (i), aReader.getFingerprint (ExportFingerprintFile.getIDHash ("id" + i)));
+      assertNull (aReader.getFingerprint (ExportFingerprintFile.getIDHash ("id50")));
+
+      // Participants 0-9 are removed
+      _write (aFile2, aGen2, 10, 59, aReader, aRemoved);
+    }
+    assertEquals (10, aRemoved.size ());
+    for (int i = 0; i < 10; ++i)
+      assertTrue (aRemoved.contains ("id" + i));
+
+    try (final ExportFingerprintFile.Reader aReader = new ExportFingerprintFile.Reader (aFile2))
+    {
+      assertEquals (2, aReader.getGeneration ());
+      assertEquals (50, aReader.getCount ());
+      assertNull (aReader.getFingerprint (ExportFingerprintFile.getIDHash ("id0")));
+      assertEquals (Long.valueOf (59), aReader.getFingerprint (ExportFingerprintFile.getIDHash ("id59")));
+    }
+
+    // No temporary files are left
+    assertEquals (2, DIR.list ((d, n) -> n.startsWith ("gen")).length);
+  }
+
+  @Test
+  public void testReadInvalid () throws IOException
+  {
+    FileOperationManager.INSTANCE.createDirRecursiveIfNotExisting (DIR);
+    final File aFile = new File (DIR, "invalid.bin");
+    Files.write (aFile.toPath (), "abc".getBytes (StandardCharsets.UTF_8));
+    try (final ExportFingerprintFile.Reader aReader = new ExportFingerprintFile.Reader (aFile))
+    {
+      fail ();
+    }
+    catch (final IOException ex)
+    {
+      // expected
+    }
+  }
+}
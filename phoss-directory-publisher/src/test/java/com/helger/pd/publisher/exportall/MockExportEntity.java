@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.exportall;
+
+import javax.annotation.Nonnull;
+
+import org.apache.lucene.document.Document;
+
+import com.helger.commons.datetime.PDTFactory;
+import com.helger.pd.indexer.mgr.PDMetaManager;
+import com.helger.pd.indexer.storage.PDStoredBusinessEntity;
+import com.helger.pd.indexer.storage.field.PDField;
+import com.helger.peppolid.factory.IIdentifierFactory;
+
+/**
+ * Helper class to create business entities for the export tests.
+ *
+ * @author Philip Helger
+ */
+final class MockExportEntity
+{
+  private MockExportEntity ()
+  {}
+
+  @Nonnull
+  private static Document _createDocument (@Nonnull final String sParticipantValue)
+  {
+    final IIdentifierFactory aIF = PDMetaManager.getIdentifierFactory ();
+    final Document aDoc = new Document ();
+    aDoc.add (PDField.PARTICIPANT_ID.getAsField (aIF.createParticipantIdentifierWithDefaultScheme (sParticipantValue)));
+    aDoc.add (PDField.METADATA_CREATIONDT.getAsField (PDTFactory.getCurrentLocalDateTime ()));
+    aDoc.add (PDField.METADATA_OWNERID.getAsField ("CN=test"));
+    aDoc.add (PDField.METADATA_REQUESTING_HOST.getAsField ("127.0.0.1"));
+    return aDoc;
+  }
+
+  /**
+   * Create an entity with only a participant ID and a single name.
+   *
+   * @param sParticipantValue
+   *        The participant ID value using the default scheme.
+   * @param sName
+   *        The name of the entity.
+   * @return The new entity. Never <code>null</code>.
+   */
+  @Nonnull
+  static PDStoredBusinessEntity createMinimal (@Nonnull final String sParticipantValue, @Nonnull final String sName)
+  {
+    final Document aDoc = _createDocument (sParticipantValue);
+    aDoc.add (PDField.NAME.getAsField (sName));
+    return PDStoredBusinessEntity.create (aDoc);
+  }
+
+  /**
+   * Create an entity with a participant ID, a single name and a country code.
+   *
+   * @param sParticipantValue
+   *        The participant ID value using the default scheme.
+   * @param sName
+   *        The name of the entity.
+   * @param sCountryCode
+   *        The country code of the entity.
+   * @return The new entity. Never <code>null</code>.
+   */
+  @Nonnull
+  static PDStoredBusinessEntity createWithCountryCode (@Nonnull final String sParticipantValue,
+                                                       @Nonnull final String sName,
+                                                       @Nonnull final String sCountryCode)
+  {
+    final Document aDoc = _createDocument (sParticipantValue);
+    aDoc.add (PDField.NAME.getAsField (sName));
+    aDoc.add (PDField.COUNTRY_CODE.getAsField (sCountryCode));
+    return PDStoredBusinessEntity.create (aDoc);
+  }
+
+  /**
+   * Create an entity with all fields filled.
+   *
+   * @param sParticipantValue
+   *        The participant ID value using the default scheme.
+   * @param sName
+   *        The name of the entity.
+   * @return The new entity. Never <code>null</code>.
+   */
+  @Nonnull
+  static PDStoredBusinessEntity createFull (@Nonnull final String sParticipantValue, @Nonnull final String sName)
+  {
+    final IIdentifierFactory aIF = PDMetaManager.getIdentifierFactory ();
+    final Document aDoc = _createDocument (sParticipantValue);
+    aDoc.add (PDField.ML_NAME.getAsField (sName));
+    aDoc.add (PDField.ML_LANGUAGE.getAsField ("en"));
+    aDoc.add (PDField.ML_NAME.getAsField (sName + " (de)"));
+    aDoc.add (PDField.ML_LANGUAGE.getAsField ("de"));
+    aDoc.add (PDField.COUNTRY_CODE.getAsField ("AT"));
+    aDoc.add (PDField.DOCTYPE_ID.getAsField (aIF.createDocumentTypeIdentifierWithDefaultScheme ("urn:oasis:names:specification:ubl:schema:xsd:Invoice-2::Invoice##urn:cen.eu:en16931:2017#compliant#urn:fdc:peppol.eu:2017:poacc:billing:3.0::2.1")));
+    aDoc.add (PDField.DOCTYPE_ID.getAsField (aIF.createDocumentTypeIdentifierWithDefaultScheme ("urn:example:doctype::test##1.0")));
+    aDoc.add (PDField.GEO_INFO.getAsField ("Vienna\nAustria"));
+    aDoc.add (PDField.IDENTIFIER_SCHEME.getAsField ("VAT"));
+    aDoc.add (PDField.IDENTIFIER_VALUE.getAsField ("ATU12345678"));
+    aDoc.add (PDField.IDENTIFIER_SCHEME.getAsField ("GLN"));
+    aDoc.add (PDField.IDENTIFIER_VALUE.getAsField ("1234567890123"));
+    aDoc.add (PDField.WEBSITE_URI.getAsField ("https://www.example.org/?a=1&b=2"));
+    aDoc.add (PDField.CONTACT_TYPE.getAsField ("Support"));
+    aDoc.add (PDField.CONTACT_NAME.getAsField ("Jane Doe"));
+    aDoc.add (PDField.CONTACT_PHONE.getAsField ("+43 1 234"));
+    aDoc.add (PDField.CONTACT_EMAIL.getAsField ("support@example.org"));
+    aDoc.add (PDField.ADDITIONAL_INFO.getAsField ("Special characters: <>&\"' äöü"));
+    aDoc.add (PDField.REGISTRATION_DATE.getAsField ("2021-03-04"));
+    return PDStoredBusinessEntity.create (aDoc);
+  }
+}
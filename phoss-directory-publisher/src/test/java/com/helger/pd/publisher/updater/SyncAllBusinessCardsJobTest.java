@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2015-2021 Philip Helger (www.helger.com)
+ * philip[at]helger[dot]com
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.helger.pd.publisher.updater;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.helger.pd.publisher.updater.SyncAllBusinessCardsJob.SyncState;
+
+/**
+ * Test class for class {@link SyncAllBusinessCardsJob}.
+ *
+ * @author Philip Helger
+ */
+public final class SyncAllBusinessCardsJobTest
+{
+  @Test
+  public void testSyncState ()
+  {
+    SyncState aState = SyncState.createFromString (new SyncState (0, null, false).getAsString ());
+    assertEquals (0, aState.getQueuedCount ());
+    assertNull (aState.getLastParticipantID ());
+    assertFalse (aState.isPaced ());
+
+    aState = SyncState.createFromString (new SyncState (4711, "iso6523-actorid-upis%3A%3A9915%3Atest", true).getAsString ());
+    assertEquals (4711, aState.getQueuedCount ());
+    assertEquals ("iso6523-actorid-upis%3A%3A9915%3Atest", aState.getLastParticipantID ());
+    assertTrue (aState.isPaced ());
+
+    // State of a previous version
+    aState = SyncState.createFromString ("17\niso6523-actorid-upis%3A%3A9915%3Atest");
+    assertEquals (17, aState.getQueuedCount ());
+    assertEquals ("iso6523-actorid-upis%3A%3A9915%3Atest", aState.getLastParticipantID ());
+    assertTrue (aState.isPaced ());
+
+    // Broken state - start from the beginning
+    for (final String s : new String [] { null, "", "abc" })
+    {
+      aState = SyncState.createFromString (s);
+      assertEquals (0, aState.getQueuedCount ());
+      assertNull (aState.getLastParticipantID ());
+    }
+    assertEquals (0, SyncState.createFromString ("abc\n").getQueuedCount ());
+    assertEquals (0, SyncState.createFromString ("-5\n").getQueuedCount ());
+  }
+
+  @Test
+  public void testChunkSizePaced ()
+  {
+    // 1000 participants over 1000 seconds
+    assertEquals (0, SyncAllBusinessCardsJob.getChunkSize (1000, 0, 0, 1000, 100));
+    assertEquals (60, SyncAllBusinessCardsJob.getChunkSize (1000, 0, 60, 1000, 100));
+    assertEquals (0, SyncAllBusinessCardsJob.getChunkSize (1000, 60, 60, 1000, 100));
+    assertEquals (60, SyncAllBusinessCardsJob.getChunkSize (1000, 60, 120, 1000, 100));
+
+    // Limited by the queue
+    assertEquals (100, SyncAllBusinessCardsJob.getChunkSize (1000, 0, 500, 1000, 100));
+    assertEquals (0, SyncAllBusinessCardsJob.getChunkSize (1000, 0, 500, 1000, 0));
+    assertEquals (0, SyncAllBusinessCardsJob.getChunkSize (1000, 0, 500, 1000, -20));
+
+    // Queued more than estimated
+    assertEquals (0, SyncAllBusinessCardsJob.getChunkSize (1000, 2000, 500, 1000, 100));
+  }
+
+  @Test
+  public void testChunkSizeAfterPeriod ()
+  {
+    // The estimated total must not stop the cycle
+    assertEquals (100, SyncAllBusinessCardsJob.getChunkSize (1000, 1000, 1000, 1000, 100));
+    assertEquals (100, SyncAllBusinessCardsJob.getChunkSize (1000, 2000, 5000, 1000, 100));
+    assertEquals (0, SyncAllBusinessCardsJob.getChunkSize (1000, 0, 5000, 1000, -1));
+  }
+
+  @Test
+  public void testChunkSizeUnpaced ()
+  {
+    // As much as the queue permits right from the start
+    assertEquals (100, SyncAllBusinessCardsJob.getChunkSize (1000, 0, 0, 0, 100));
+    assertEquals (100, SyncAllBusinessCardsJob.getChunkSize (1, 0, 0, 0, 100));
+    assertEquals (3, SyncAllBusinessCardsJob.getChunkSize (1000, 500, 10, 0, 3));
+    assertEquals (0, SyncAllBusinessCardsJob.getChunkSize (1000, 500, 10, 0, 0));
+  }
+}